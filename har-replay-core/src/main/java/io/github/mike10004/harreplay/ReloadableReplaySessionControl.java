@@ -0,0 +1,38 @@
+package io.github.mike10004.harreplay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Interface of a replay session control whose content may be replaced while
+ * the proxy server keeps running.
+ */
+public interface ReloadableReplaySessionControl extends ReplaySessionControl {
+
+    /**
+     * Replaces the HAR file and server configuration of the session without
+     * restarting the proxy server. The new content is loaded before it replaces
+     * the current content, and requests are served without interruption.
+     * @param harFile the HAR file
+     * @param replayServerConfig the server configuration
+     * @throws IOException if the HAR cannot be loaded, in which case the session
+     * continues to serve the current content
+     */
+    default void reload(File harFile, ReplayServerConfig replayServerConfig) throws IOException {
+        reload(Collections.singletonList(harFile), replayServerConfig);
+    }
+
+    /**
+     * Replaces the HAR files and server configuration of the session without
+     * restarting the proxy server.
+     * @param harFiles HAR files or directories containing HAR files
+     * @param replayServerConfig the server configuration
+     * @throws IOException if the HAR files cannot be loaded, in which case the session
+     * continues to serve the current content
+     * @see #reload(File, ReplayServerConfig)
+     */
+    void reload(List<File> harFiles, ReplayServerConfig replayServerConfig) throws IOException;
+
+}
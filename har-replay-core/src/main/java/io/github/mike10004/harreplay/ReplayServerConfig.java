@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -68,6 +69,25 @@ public class ReplayServerConfig {
     @JsonAdapter(ImmutableListTypeAdapterFactory.class)
     public final ImmutableList<ResponseHeaderTransform> responseHeaderTransforms;
 
+    /**
+     * Filters that remove entries from the HAR when it is loaded, so that matching
+     * entries are never candidates for a response. An entry is removed if it matches
+     * any of the filters.
+     */
+    @JsonAdapter(ImmutableListTypeAdapterFactory.class)
+    public final ImmutableList<EntryFilter> entryFilters;
+
+    /**
+     * Whether entries whose requests and responses are identical to those of the previous
+     * entry with the same method and URL are collapsed into that entry when the HAR is
+     * loaded. With the default entry matcher, the earliest of identical entries is the one
+     * used to respond, so collapsing the others does not change any response. The retained
+     * entry records how many entries it stands for, so that a matcher that responds
+     * according to the position of an entry among repeated requests for the same URL
+     * still counts the collapsed entries.
+     */
+    public final boolean collapseDuplicateEntries;
+
     private ReplayServerConfig() {
         this(1, ImmutableList.of(), ImmutableList.of(), ImmutableList.of());
     }
@@ -79,10 +99,26 @@ public class ReplayServerConfig {
      * @param replacements the replacements
      */
     public ReplayServerConfig(int version, Iterable<Mapping> mappings, Iterable<Replacement> replacements, Iterable<ResponseHeaderTransform> responseHeaderTransforms) {
+        this(version, mappings, replacements, responseHeaderTransforms, ImmutableList.of(), false);
+    }
+
+    /**
+     * Constructs an instance of the class.
+     * @param version       the version
+     * @param mappings the mappings
+     * @param replacements the replacements
+     * @param responseHeaderTransforms the response header transforms
+     * @param entryFilters filters of entries to remove when the HAR is loaded
+     * @param collapseDuplicateEntries whether to remove duplicate entries when the HAR is loaded
+     */
+    public ReplayServerConfig(int version, Iterable<Mapping> mappings, Iterable<Replacement> replacements, Iterable<ResponseHeaderTransform> responseHeaderTransforms,
+                              Iterable<EntryFilter> entryFilters, boolean collapseDuplicateEntries) {
         this.version = version;
         this.mappings = ImmutableList.copyOf(mappings);
         this.replacements = ImmutableList.copyOf(replacements);
         this.responseHeaderTransforms = ImmutableList.copyOf(responseHeaderTransforms);
+        this.entryFilters = ImmutableList.copyOf(entryFilters);
+        this.collapseDuplicateEntries = collapseDuplicateEntries;
     }
 
     /**
@@ -1021,6 +1057,154 @@ public class ReplayServerConfig {
         }
     }
 
+    /**
+     * Filter of HAR entries that are to be removed when a HAR is loaded. An entry matches
+     * a filter if it satisfies every criterion that is specified; a filter with no criteria
+     * matches nothing. Host and URL criteria are {@link MappingMatch} instances, so a
+     * {@link StringLiteral} must equal the host or URL and a {@link RegexHolder} must
+     * match all of it.
+     */
+    public static final class EntryFilter {
+
+        /**
+         * Response statuses to match, or empty to match any status. HARs often contain
+         * entries with status 0 for requests that were blocked or aborted by the client.
+         */
+        @JsonAdapter(ImmutableListTypeAdapterFactory.class)
+        public final ImmutableList<Integer> statuses;
+
+        /**
+         * Request method to match, ignoring case, or null to match any method.
+         */
+        @Nullable
+        public final String method;
+
+        /**
+         * Strategy to match the host of the request URL, or null to match any host.
+         */
+        @Nullable
+        public final MappingMatch host;
+
+        /**
+         * Strategy to match the request URL, or null to match any URL.
+         */
+        @Nullable
+        public final MappingMatch url;
+
+        @SuppressWarnings("unused") // for deserialization
+        private EntryFilter() {
+            this(ImmutableList.of(), null, null, null);
+        }
+
+        /**
+         * Constructs a new filter.
+         * @param statuses statuses to match, or empty to match any status
+         * @param method method to match, or null
+         * @param host host matching strategy, or null
+         * @param url URL matching strategy, or null
+         */
+        public EntryFilter(Iterable<Integer> statuses, @Nullable String method, @Nullable MappingMatch host, @Nullable MappingMatch url) {
+            this.statuses = ImmutableList.copyOf(statuses);
+            this.method = method;
+            this.host = host;
+            this.url = url;
+        }
+
+        /**
+         * Constructs a filter that matches entries with any of the given response statuses.
+         * @param statuses the statuses
+         * @return a new filter
+         */
+        public static EntryFilter status(Integer... statuses) {
+            return new EntryFilter(Arrays.asList(statuses), null, null, null);
+        }
+
+        /**
+         * Constructs a filter that matches entries with the given request method.
+         * @param method the method
+         * @return a new filter
+         */
+        public static EntryFilter method(String method) {
+            return new EntryFilter(ImmutableList.of(), requireNonNull(method), null, null);
+        }
+
+        /**
+         * Constructs a filter that matches entries whose request URL has a matching host.
+         * @param host the host matching strategy
+         * @return a new filter
+         */
+        public static EntryFilter host(MappingMatch host) {
+            return new EntryFilter(ImmutableList.of(), null, requireNonNull(host), null);
+        }
+
+        /**
+         * Constructs a filter that matches entries whose request URL matches.
+         * @param url the URL matching strategy
+         * @return a new filter
+         */
+        public static EntryFilter url(MappingMatch url) {
+            return new EntryFilter(ImmutableList.of(), null, null, requireNonNull(url));
+        }
+
+        /**
+         * Determines whether an entry matches this filter.
+         * @param method the request method
+         * @param url the request URL
+         * @param host the host of the request URL, or null if the URL has no host
+         * @param status the response status
+         * @return true iff the entry matches
+         */
+        public boolean isMatchingEntry(String method, String url, @Nullable String host, int status) {
+            return isMatchingRequest(method, url, host)
+                    && (statuses.isEmpty() || statuses.contains(status));
+        }
+
+        /**
+         * Determines whether the request of an entry matches the method, host and URL
+         * criteria of this filter. The response statuses of this filter are not
+         * considered, so an entry whose request matches still needs a matching status
+         * to match this filter, unless this filter specifies no statuses.
+         * @param method the request method
+         * @param url the request URL
+         * @param host the host of the request URL, or null if the URL has no host
+         * @return true iff the request matches; false if this filter specifies no criteria at all
+         */
+        public boolean isMatchingRequest(String method, String url, @Nullable String host) {
+            if (statuses.isEmpty() && this.method == null && this.host == null && this.url == null) {
+                return false;
+            }
+            return (this.method == null || this.method.equalsIgnoreCase(method))
+                    && (this.host == null || (host != null && this.host.evaluateUrlMatch(host)))
+                    && (this.url == null || this.url.evaluateUrlMatch(url));
+        }
+
+        @Override
+        public String toString() {
+            return "EntryFilter{" +
+                    "statuses=" + statuses +
+                    ", method=" + method +
+                    ", host=" + host +
+                    ", url=" + url +
+                    '}';
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            EntryFilter that = (EntryFilter) o;
+            return Objects.equals(statuses, that.statuses) &&
+                    Objects.equals(method, that.method) &&
+                    Objects.equals(host, that.host) &&
+                    Objects.equals(url, that.url);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(statuses, method, host, url);
+        }
+    }
+
     /**
      * Builder of {@code ReplayServerConfig} instances.
      */
@@ -1030,6 +1214,8 @@ public class ReplayServerConfig {
         private final List<Mapping> mappings = new ArrayList<>();
         private final List<Replacement> replacements = new ArrayList<>();
         private final List<ResponseHeaderTransform> responseHeaderTransforms = new ArrayList<>();
+        private final List<EntryFilter> entryFilters = new ArrayList<>();
+        private boolean collapseDuplicateEntries;
 
         private Builder() {
         }
@@ -1064,12 +1250,32 @@ public class ReplayServerConfig {
             return this;
         }
 
+        /**
+         * Adds a filter of entries to remove when the HAR is loaded.
+         * @param entryFilter the filter
+         * @return this builder instance
+         */
+        public Builder filterEntries(EntryFilter entryFilter) {
+            entryFilters.add(requireNonNull(entryFilter));
+            return this;
+        }
+
+        /**
+         * Sets whether to remove duplicate entries when the HAR is loaded.
+         * @param collapseDuplicateEntries true to remove duplicates
+         * @return this builder instance
+         */
+        public Builder collapseDuplicateEntries(boolean collapseDuplicateEntries) {
+            this.collapseDuplicateEntries = collapseDuplicateEntries;
+            return this;
+        }
+
         /**
          * Builds the config instance.
          * @return the immutable config instance
          */
         public ReplayServerConfig build() {
-            return new ReplayServerConfig(version, mappings, replacements, responseHeaderTransforms);
+            return new ReplayServerConfig(version, mappings, replacements, responseHeaderTransforms, entryFilters, collapseDuplicateEntries);
         }
     }
 
@@ -1081,12 +1287,14 @@ public class ReplayServerConfig {
         return version == that.version &&
                 Objects.equals(mappings, that.mappings) &&
                 Objects.equals(replacements, that.replacements) &&
-                Objects.equals(responseHeaderTransforms, that.responseHeaderTransforms);
+                Objects.equals(responseHeaderTransforms, that.responseHeaderTransforms) &&
+                Objects.equals(entryFilters, that.entryFilters) &&
+                collapseDuplicateEntries == that.collapseDuplicateEntries;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(version, mappings, replacements, responseHeaderTransforms);
+        return Objects.hash(version, mappings, replacements, responseHeaderTransforms, entryFilters, collapseDuplicateEntries);
     }
 
     /**
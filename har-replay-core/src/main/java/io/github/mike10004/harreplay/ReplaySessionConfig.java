@@ -30,10 +30,18 @@ public class ReplaySessionConfig {
     public final int port;
 
     /**
-     * HAR file containing responses to be served.
+     * HAR file containing responses to be served. If the session has more than
+     * one HAR file, this is the first element of {@link #harFiles}.
      */
     public final File harFile;
 
+    /**
+     * HAR files, or directories containing HAR files, whose entries are served
+     * as one corpus. The order of the list is used to break ties among entries
+     * that match a request equally well, depending on the replay manager.
+     */
+    public final ImmutableList<File> harFiles;
+
     /**
      * Configuration of the replay server.
      */
@@ -47,7 +55,8 @@ public class ReplaySessionConfig {
     private ReplaySessionConfig(Builder builder) {
         scratchDir = builder.scratchDir;
         port = builder.port;
-        harFile = builder.harFile;
+        harFiles = builder.harFiles;
+        harFile = harFiles.get(0);
         replayServerConfig = builder.replayServerConfig;
         serverTerminationCallbacks = ImmutableList.copyOf(builder.serverTerminationCallbacks);
     }
@@ -107,7 +116,7 @@ public class ReplaySessionConfig {
 
         private final Path scratchDir;
         private int port = DEFAULT_PORT;
-        private File harFile;
+        private ImmutableList<File> harFiles;
         private ReplayServerConfig replayServerConfig = ReplayServerConfig.empty();
         private final List<ServerTerminationCallback> serverTerminationCallbacks = new ArrayList<>();
 
@@ -127,7 +136,17 @@ public class ReplaySessionConfig {
         }
 
         public ReplaySessionConfig build(File harFile) {
-            this.harFile = checkNotNull(harFile);
+            return build(ImmutableList.of(checkNotNull(harFile)));
+        }
+
+        /**
+         * Builds a configuration for a session that serves the entries of multiple HAR files.
+         * @param harFiles HAR files or directories containing HAR files
+         * @return the configuration
+         */
+        public ReplaySessionConfig build(Iterable<File> harFiles) {
+            this.harFiles = ImmutableList.copyOf(harFiles);
+            checkArgument(!this.harFiles.isEmpty(), "at least one HAR file is required");
             return new ReplaySessionConfig(this);
         }
 
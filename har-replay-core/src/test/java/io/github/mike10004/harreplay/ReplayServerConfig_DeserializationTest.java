@@ -1,7 +1,10 @@
 package io.github.mike10004.harreplay;
 
+import com.google.common.collect.ImmutableList;
 import com.google.gson.Gson;
+import io.github.mike10004.harreplay.ReplayServerConfig.EntryFilter;
 import io.github.mike10004.harreplay.ReplayServerConfig.Mapping;
+import io.github.mike10004.harreplay.ReplayServerConfig.RegexHolder;
 import io.github.mike10004.harreplay.ReplayServerConfig.Replacement;
 import io.github.mike10004.harreplay.ReplayServerConfig.ResponseHeaderTransform;
 import io.github.mike10004.harreplay.ReplayServerConfig.StringLiteral;
@@ -36,6 +39,28 @@ public class ReplayServerConfig_DeserializationTest {
         confirmDeserializationIdentity(original);
     }
 
+    @Test
+    public void entryFilters() {
+        ReplayServerConfig original = ReplayServerConfig.builder()
+                .filterEntries(EntryFilter.status(0, 404))
+                .filterEntries(new EntryFilter(ImmutableList.of(), "POST", StringLiteral.of("www.google-analytics.com"), RegexHolder.of(".*/collect\\?.*")))
+                .collapseDuplicateEntries(true)
+                .build();
+        confirmDeserializationIdentity(original);
+    }
+
+    @Test
+    public void entryFilters_fromJson() {
+        String json = "{\"version\": 1, \"entryFilters\": [{\"statuses\": [0]}, {\"host\": {\"regex\": \".*\\\\.doubleclick\\\\.net\"}}], \"collapseDuplicateEntries\": true}";
+        ReplayServerConfig config = serialist().fromJson(json, ReplayServerConfig.class);
+        ReplayServerConfig expected = ReplayServerConfig.builder()
+                .filterEntries(EntryFilter.status(0))
+                .filterEntries(EntryFilter.host(RegexHolder.of(".*\\.doubleclick\\.net")))
+                .collapseDuplicateEntries(true)
+                .build();
+        assertEquals("config", expected, config);
+    }
+
     private void confirmDeserializationIdentity(ReplayServerConfig original) {
         String json = serialist().toJson(original);
         ReplayServerConfig deserialized = serialist().fromJson(json, ReplayServerConfig.class);
@@ -0,0 +1,35 @@
+package io.github.mike10004.harreplay;
+
+import com.google.common.collect.ImmutableList;
+import io.github.mike10004.harreplay.ReplayServerConfig.EntryFilter;
+import io.github.mike10004.harreplay.ReplayServerConfig.StringLiteral;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReplayServerConfig_EntryFilterTest {
+
+    @Test
+    public void isMatchingRequest_ignoresStatuses() {
+        EntryFilter filter = new EntryFilter(ImmutableList.of(404), "GET", StringLiteral.of("example.com"), null);
+        assertTrue("request matches", filter.isMatchingRequest("GET", "http://example.com/", "example.com"));
+        assertFalse("method differs", filter.isMatchingRequest("POST", "http://example.com/", "example.com"));
+        assertFalse("host differs", filter.isMatchingRequest("GET", "http://example.org/", "example.org"));
+        assertTrue("entry matches", filter.isMatchingEntry("GET", "http://example.com/", "example.com", 404));
+        assertFalse("status differs", filter.isMatchingEntry("GET", "http://example.com/", "example.com", 200));
+    }
+
+    @Test
+    public void isMatchingRequest_statusOnly() {
+        EntryFilter filter = EntryFilter.status(0);
+        assertTrue("request matches", filter.isMatchingRequest("GET", "http://example.com/", "example.com"));
+        assertFalse("status differs", filter.isMatchingEntry("GET", "http://example.com/", "example.com", 200));
+    }
+
+    @Test
+    public void isMatchingRequest_empty() {
+        EntryFilter filter = new EntryFilter(ImmutableList.of(), null, null, null);
+        assertFalse("request", filter.isMatchingRequest("GET", "http://example.com/", "example.com"));
+        assertFalse("entry", filter.isMatchingEntry("GET", "http://example.com/", "example.com", 200));
+    }
+}
@@ -1,13 +1,14 @@
 package io.github.mike10004.harreplay.exec;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Streams;
 import com.google.common.io.Files;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.opencsv.CSVWriter;
 import de.sstoehr.harreader.model.HarContent;
@@ -25,24 +26,46 @@ import org.apache.tika.mime.MimeTypes;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.PrintWriter;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 interface HarInfoDumper {
-    void dump(List<HarEntry> harEntries, PrintStream out);
+
+    /**
+     * Prints information about HAR entries. Entries are consumed in a single pass,
+     * so they may be read lazily from a HAR file.
+     * @param harEntries the entries
+     * @param out the destination
+     */
+    void dump(Iterator<HarEntry> harEntries, PrintStream out);
+
+    default void dump(List<HarEntry> harEntries, PrintStream out) {
+        dump(harEntries.iterator(), out);
+    }
 
     static HarInfoDumper silent() {
         return (harEntries, out) -> out.flush();
@@ -50,8 +73,8 @@ interface HarInfoDumper {
 
     class TerseDumper extends AbstractDumper {
         @Override
-        public void dump(List<HarEntry> harEntries, PrintStream out) {
-            HarRequest req = harEntries.stream()
+        public void dump(Iterator<HarEntry> harEntries, PrintStream out) {
+            HarRequest req = Streams.stream(harEntries)
                     .filter(INTERESTING_REQUEST_PREDICATE)
                     .map(HarEntry::getRequest)
                     .findFirst().orElse(null);
@@ -75,27 +98,37 @@ interface HarInfoDumper {
             return URI.create(url).getHost();
         }
 
+        /**
+         * Count of the URLs of a domain and the first few of them, which are the only
+         * ones printed, so memory use depends on the number of domains only.
+         */
+        private static class DomainUrls {
+            public int count;
+            public final List<String> firstUrls = new ArrayList<>();
+        }
+
         @Override
-        public void dump(List<HarEntry> harEntries, PrintStream out) {
-            Multimap<String, String> urlsByDomain = ArrayListMultimap.create();
-            harEntries.stream()
+        public void dump(Iterator<HarEntry> harEntries, PrintStream out) {
+            Map<String, DomainUrls> urlsByDomain = new LinkedHashMap<>();
+            Streams.stream(harEntries)
                     .filter(INTERESTING_REQUEST_PREDICATE)
                     .filter(NONEMPTY_RESPONSE_PREDICATE)
                     .map(HarEntry::getRequest)
                     .forEach(request -> {
                         String domain = parseDomain(request);
-                        String url = request.getUrl();
-                        urlsByDomain.put(domain, url);
+                        DomainUrls domainUrls = urlsByDomain.computeIfAbsent(domain, k -> new DomainUrls());
+                        domainUrls.count++;
+                        if (domainUrls.firstUrls.size() < urlPerDomainLimit) {
+                            domainUrls.firstUrls.add(request.getUrl());
+                        }
                     });
-            Function<String, Integer> getNumUrls = key -> urlsByDomain.get(key).size();
-            Ordering<String> keyOrdering = Ordering.<Integer>natural().onResultOf(getNumUrls::apply).reverse();
+            Ordering<String> keyOrdering = Ordering.<Integer>natural().onResultOf((String key) -> urlsByDomain.get(key).count).reverse();
             keyOrdering.immutableSortedCopy(urlsByDomain.keySet())
                     .stream().limit(domainLimit)
                     .forEach(domain -> {
                         String abbrDomain = StringUtils.abbreviate(domain, terminalWidth);
                         out.println(abbrDomain);
-                        List<String> abbrUrls = urlsByDomain.get(domain).stream()
-                                .limit(urlPerDomainLimit)
+                        List<String> abbrUrls = urlsByDomain.get(domain).firstUrls.stream()
                                 .map(url -> StringUtils.abbreviate(url, terminalWidth - urlIndent))
                                 .collect(Collectors.toList());
                         String indent = Strings.repeat(" ", urlIndent);
@@ -132,8 +165,8 @@ interface HarInfoDumper {
     @SuppressWarnings("Duplicates") // there is a class in test-support that does exactly this
     class VerboseDumper extends AbstractDumper {
         @Override
-        public void dump(List<HarEntry> harEntries, PrintStream out) {
-            harEntries.stream()
+        public void dump(Iterator<HarEntry> harEntries, PrintStream out) {
+            Streams.stream(harEntries)
                     .filter(INTERESTING_REQUEST_PREDICATE)
                     .filter(NONEMPTY_RESPONSE_PREDICATE)
                     .forEach(entry -> {
@@ -150,6 +183,19 @@ interface HarInfoDumper {
 
     class CsvDumper extends AbstractDumper {
 
+        /**
+         * Number of rows written between flushes of the output.
+         */
+        private static final int FLUSH_INTERVAL_ROWS = 256;
+
+        private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+        /**
+         * Maximum number of rows whose content files may be pending. Rows are printed in
+         * order, once their content files are written.
+         */
+        private static final int MAX_PENDING_ROWS = 64;
+
         private final RowTransform rowTransform;
         private final Charset charset;
 
@@ -165,7 +211,8 @@ interface HarInfoDumper {
             if (destinationDir == null) {
                 return getDefaultInstance();
             }
-            return new CsvDumper(new ContentDumpingRowTransform(destinationDir), StandardCharsets.UTF_8);
+            int writeParallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
+            return new CsvDumper(new ContentDumpingRowTransform(destinationDir, writeParallelism), StandardCharsets.UTF_8);
         }
 
         public CsvDumper(RowTransform rowTransform, Charset charset) {
@@ -174,27 +221,39 @@ interface HarInfoDumper {
         }
 
         @Override
-        public void dump(List<HarEntry> harEntries, PrintStream out) {
+        public void dump(Iterator<HarEntry> harEntries, PrintStream out) {
             boolean columnNamesRowPrinted = false;
-            PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, charset));
+            CSVWriter csv = new CSVWriter(new BufferedWriter(new OutputStreamWriter(out, charset), OUTPUT_BUFFER_SIZE));
+            Deque<CompletableFuture<String[]>> pendingRows = new ArrayDeque<>();
+            int numRowsPrinted = 0;
             try {
-                CSVWriter csv = new CSVWriter(writer);
-                for (int i = 0; i < harEntries.size(); i++) {
-                    HarEntry entry = harEntries.get(i);
+                for (int i = 0; harEntries.hasNext(); i++) {
+                    HarEntry entry = harEntries.next();
                     if (!columnNamesRowPrinted) {
                         String[] columnNames = rowTransform.getColumnNames();
                         if (columnNames != null) {
                             csv.writeNext(columnNames);
-                            csv.flushQuietly();
                         }
                         columnNamesRowPrinted = true;
                     }
-                    String[] row = rowTransform.apply(entry, i);
-                    csv.writeNext(row);
-                    csv.flushQuietly();
+                    pendingRows.addLast(rowTransform.applyAsync(entry, i));
+                    while (pendingRows.size() > MAX_PENDING_ROWS) {
+                        printRow(csv, pendingRows.removeFirst().join(), ++numRowsPrinted);
+                    }
+                }
+                while (!pendingRows.isEmpty()) {
+                    printRow(csv, pendingRows.removeFirst().join(), ++numRowsPrinted);
                 }
             } finally {
-                writer.flush();
+                rowTransform.finish();
+                csv.flushQuietly();
+            }
+        }
+
+        private static void printRow(CSVWriter csv, String[] row, int numRowsPrinted) {
+            csv.writeNext(row);
+            if (numRowsPrinted % FLUSH_INTERVAL_ROWS == 0) {
+                csv.flushQuietly();
             }
         }
 
@@ -214,6 +273,20 @@ interface HarInfoDumper {
                 return toStringArray(transform(harEntry, entryIndex));
             }
             Object[] transform(HarEntry harEntry, int entryIndex);
+
+            /**
+             * Starts transforming a row. The row may be printed once the returned future completes.
+             */
+            default CompletableFuture<String[]> applyAsync(HarEntry harEntry, int entryIndex) {
+                return CompletableFuture.completedFuture(apply(harEntry, entryIndex));
+            }
+
+            /**
+             * Completes work started by transforming rows. Invoked after the last row is transformed.
+             */
+            default void finish() {
+            }
+
             default String[] toStringArray(Object...objects) {
                 return Stream.of(objects)
                         .map(x -> x == null ? "" : x.toString())
@@ -260,12 +333,39 @@ interface HarInfoDumper {
                     "requestContentType", "responseContent", "requestContent"
             };
 
+            private static final CompletableFuture<Path> NO_PATH = CompletableFuture.completedFuture(null);
+
+            private static final Gson PARAMS_GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
             private final File destinationDir;
             private final Path relativeRoot;
+            private final int writeParallelism;
+            private final AtomicInteger numWriteFailures = new AtomicInteger();
+
+            @Nullable
+            private ExecutorService writeExecutor;
 
+            /**
+             * Creates an instance that writes content files synchronously.
+             * @param destinationDir directory where content files are written
+             */
             public ContentDumpingRowTransform(File destinationDir) {
+                this(destinationDir, 0);
+            }
+
+            /**
+             * Creates an instance that writes content files on a pool of threads. The queue
+             * of pending writes is bounded; when it is full, the thread that transforms rows
+             * performs the write itself, so the content held in memory remains bounded.
+             * A row is not complete until its files are written; if a write fails, the
+             * failure is logged and the row's cell for that file is left empty.
+             * @param destinationDir directory where content files are written
+             * @param writeParallelism number of writer threads; if less than 1, files are written synchronously
+             */
+            public ContentDumpingRowTransform(File destinationDir, int writeParallelism) {
                 this.destinationDir = destinationDir.getAbsoluteFile();
                 relativeRoot = this.destinationDir.toPath();
+                this.writeParallelism = writeParallelism;
             }
 
             protected File constructPathname(int entryIndex, String infix, @Nullable String contentType) {
@@ -306,8 +406,12 @@ interface HarInfoDumper {
             }
             
             protected Appendage createAppendage(HarEntry harEntry, int entryIndex, BasicData basic) {
+                return createAppendageAsync(harEntry, entryIndex, basic).join();
+            }
+
+            protected CompletableFuture<Appendage> createAppendageAsync(HarEntry harEntry, int entryIndex, BasicData basic) {
                 String requestContentType = null;
-                Path responseContentPath = null, requestContentPath = null;
+                CompletableFuture<Path> responseContentPath = NO_PATH, requestContentPath = NO_PATH;
                 HarResponse response = harEntry.getResponse();
                 if (response != null) {
                     HarContent content = response.getContent();
@@ -333,7 +437,7 @@ interface HarInfoDumper {
                             File requestContentFile = null;
                             byte[] bytes = null;
                             if (params != null && !params.isEmpty()) {
-                                String json = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(params);
+                                String json = PARAMS_GSON.toJson(params);
                                 bytes = json.getBytes(StandardCharsets.UTF_8);
                                 requestContentFile = constructPathname(entryIndex, "request", MediaType.JSON_UTF_8.toString());
                             } else {
@@ -349,7 +453,10 @@ interface HarInfoDumper {
                         }
                     }
                 }
-                return new Appendage(responseContentPath, requestContentPath, requestContentType);
+                String requestContentType_ = requestContentType;
+                return responseContentPath.thenCombine(requestContentPath, (responsePath, requestPath) -> {
+                    return new Appendage(responsePath, requestPath, requestContentType_);
+                });
             }
             
             @Override
@@ -359,22 +466,75 @@ interface HarInfoDumper {
                 return Stream.concat(basic.stream(), a.stream()).toArray();
             }
 
-            @Nullable
-            private Path writeAndReturnPath(byte[] bytes, File file) {
+            @Override
+            public CompletableFuture<String[]> applyAsync(HarEntry harEntry, int entryIndex) {
+                BasicData basic = super.makeBasicData(harEntry, entryIndex);
+                return createAppendageAsync(harEntry, entryIndex, basic).thenApply(a -> {
+                    return toStringArray(Stream.concat(basic.stream(), a.stream()).toArray());
+                });
+            }
+
+            @Override
+            public void finish() {
+                ExecutorService executor = writeExecutor;
+                if (executor != null) {
+                    writeExecutor = null;
+                    executor.shutdown();
+                    try {
+                        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                            LoggerFactory.getLogger(getClass()).debug("still writing content files to {}", destinationDir);
+                        }
+                    } catch (InterruptedException e) {
+                        executor.shutdownNow();
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                int numFailures = numWriteFailures.getAndSet(0);
+                if (numFailures > 0) {
+                    LoggerFactory.getLogger(getClass()).error("{} content files could not be written to {}; their cells are empty", numFailures, destinationDir);
+                }
+            }
+
+            private ExecutorService getWriteExecutor() {
+                if (writeExecutor == null) {
+                    writeExecutor = new ThreadPoolExecutor(writeParallelism, writeParallelism, 0L, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(writeParallelism * 4),
+                            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("har-content-writer-%d").build(),
+                            new ThreadPoolExecutor.CallerRunsPolicy());
+                }
+                return writeExecutor;
+            }
+
+            /**
+             * Writes a content file.
+             * @return a future that completes with the path relative to the destination directory,
+             * or with null if the file could not be written
+             */
+            private CompletableFuture<Path> writeAndReturnPath(byte[] bytes, File file) {
+                Path path = file.getAbsoluteFile().toPath();
+                Path relativePath;
+                try {
+                    relativePath = relativeRoot.relativize(path);
+                } catch (IllegalArgumentException e) {
+                    LoggerFactory.getLogger(getClass()).error("failed to relativize {} against {}", path, relativeRoot);
+                    return NO_PATH;
+                }
+                if (writeParallelism < 1) {
+                    return CompletableFuture.completedFuture(write(bytes, file) ? relativePath : null);
+                }
+                return CompletableFuture.supplyAsync(() -> write(bytes, file) ? relativePath : null, getWriteExecutor());
+            }
+
+            private boolean write(byte[] bytes, File file) {
                 try {
                     Files.createParentDirs(file);
                     Files.write(bytes, file);
-                    Path path = file.getAbsoluteFile().toPath();
-                    try {
-                        return relativeRoot.relativize(path);
-                    } catch (IllegalArgumentException e) {
-                        LoggerFactory.getLogger(getClass()).error("failed to relativize {} against {}", path, relativeRoot);
-                        throw new IOException(e);
-                    }
-                } catch (IOException e) {
-                    LoggerFactory.getLogger(getClass()).warn("failed to write file", e);
+                    return true;
+                } catch (IOException | RuntimeException e) {
+                    numWriteFailures.incrementAndGet();
+                    LoggerFactory.getLogger(getClass()).warn("failed to write " + file, e);
+                    return false;
                 }
-                return null;
             }
 
             private static boolean mightContainBody(@Nullable HttpMethod method) {
@@ -9,22 +9,23 @@ import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gson.Gson;
 import com.opencsv.CSVReader;
-import de.sstoehr.harreader.HarReader;
 import de.sstoehr.harreader.HarReaderException;
 import de.sstoehr.harreader.HarReaderMode;
 import de.sstoehr.harreader.model.Har;
 import de.sstoehr.harreader.model.HarEntry;
-import io.github.mike10004.harreplay.ReplayManager;
+import io.github.mike10004.harreplay.ReloadableReplaySessionControl;
 import io.github.mike10004.harreplay.ReplayServerConfig;
 import io.github.mike10004.harreplay.ReplaySessionConfig;
-import io.github.mike10004.harreplay.ReplaySessionControl;
 import io.github.mike10004.harreplay.exec.ChromeBrowserSupport.OutputDestination;
 import io.github.mike10004.harreplay.exec.HarInfoDumper.SummaryDumper;
 import io.github.mike10004.harreplay.exec.HarInfoDumper.TerseDumper;
 import io.github.mike10004.harreplay.exec.HarInfoDumper.VerboseDumper;
 import io.github.mike10004.harreplay.vhsimpl.HarReaderFactory;
+import io.github.mike10004.harreplay.vhsimpl.StreamingHarReader;
 import io.github.mike10004.harreplay.vhsimpl.VhsReplayManager;
 import io.github.mike10004.harreplay.vhsimpl.VhsReplayManagerConfig;
+import io.github.mike10004.vhs.harbridge.archive.ReplayArchive;
+import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
 import joptsimple.NonOptionArgumentSpec;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -41,6 +42,7 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.net.ServerSocket;
 import java.net.URL;
 import java.nio.charset.Charset;
@@ -75,8 +77,16 @@ public class HarReplayMain {
     static final String OPT_HELP = "help";
     static final String OPT_ONLY_PRINT = "only-print";
     static final String OPT_PRINT_WITH_CONTENT = "content-dir";
+    static final String OPT_COMPILE = "compile";
+    static final String OPT_COMPILE_UNCOMPRESSED = "compile-uncompressed";
+    static final String OPT_WATCH = "watch";
     static final Charset NOTIFY_FILE_CHARSET = StandardCharsets.US_ASCII;
 
+    /**
+     * Period without changes to a watched file that must elapse before it is reloaded.
+     */
+    static final long WATCH_QUIET_PERIOD_MS = 500;
+
     private final OptionParser parser;
     private final OptionSpec<File> notifySpec;
     private final NonOptionArgumentSpec<File> harFileSpec;
@@ -88,6 +98,7 @@ public class HarReplayMain {
     private final OptionSpec<File> replayConfigSpec;
     private final OptionSpec<HarReaderBehavior> harReaderBehaviorSpec;
     private final OptionSpec<HarReaderMode> harReaderModeSpec;
+    private final OptionSpec<File> compileSpec;
 
     public HarReplayMain() {
         this(new OptionParser());
@@ -103,7 +114,7 @@ public class HarReplayMain {
         parser.accepts(OPT_ECHO_BROWSER_OUTPUT, "with --browser, print browser output to console");
         parser.accepts(OPT_PRINT_WITH_CONTENT, "with --print=csv, write request/response content to DIR")
                 .withRequiredArg().ofType(File.class).describedAs("DIR");
-        harFileSpec = parser.nonOptions("har file").ofType(File.class).describedAs("FILE");
+        harFileSpec = parser.nonOptions("har files, which may be compressed with gzip or zstd, or directories of har files; entries of earlier files take precedence").ofType(File.class).describedAs("FILE");
         notifySpec = parser.accepts(OPT_NOTIFY, "notify that server is up by printing listening port to file")
                 .withRequiredArg().ofType(File.class);
         portSpec = parser.acceptsAll(Arrays.asList("p", "P", OPT_PORT), "port to listen on")
@@ -128,13 +139,17 @@ public class HarReplayMain {
                 .withRequiredArg().ofType(HarReaderBehavior.class).defaultsTo(HarReaderBehavior.DEFAULT);
         harReaderModeSpec = parser.accepts(OPT_HAR_READER_MODE, "set har reader mode (STRICT or LAX)")
                 .withRequiredArg().ofType(HarReaderMode.class).defaultsTo(HarReaderMode.STRICT);
+        compileSpec = parser.accepts(OPT_COMPILE, "compile har into a replay archive at FILE and exit; the archive may be given as the positional argument in place of a har")
+                .withRequiredArg().ofType(File.class).describedAs("FILE");
+        parser.accepts(OPT_COMPILE_UNCOMPRESSED, "with --compile, store bodies in the archive without compression");
+        parser.accepts(OPT_WATCH, "reload the har file and replay config file when they change, without restarting the server");
     }
 
-    private ReplayManager createReplayManager(OptionSet optionSet) {
+    private VhsReplayManager createReplayManager(OptionSet optionSet) {
         HarReaderBehavior behavior = (HarReaderBehavior) optionSet.valueOf(OPT_HAR_READER_BEHAVIOR);
         HarReaderMode mode = (HarReaderMode) optionSet.valueOf(OPT_HAR_READER_MODE);
         VhsReplayManagerConfig.Builder b = VhsReplayManagerConfig.builder()
-                .harReaderFactory(behavior.getFactory())
+                .harReaderFactory(behavior.getReplayFactory())
                 .harReaderMode(mode);
         VhsReplayManagerConfig vhsConfig = b.build();
         return new VhsReplayManager(vhsConfig);
@@ -146,11 +161,9 @@ public class HarReplayMain {
         return readHarFile(harFile, harReaderBehavior, harReaderMode);
     }
 
-    @SuppressWarnings("RedundantThrows")
     protected static Har readHarFile(File harFile, HarReaderBehavior harReaderBehavior, HarReaderMode harReaderMode) throws IOException, HarReaderException {
         HarReaderFactory harReaderFactory = harReaderBehavior.getFactory();
-        HarReader harReader = harReaderFactory.createReader();
-        return harReader.readFromFile(harFile, harReaderMode);
+        return harReaderFactory.readHarFile(harFile, harReaderMode);
     }
 
     protected List<HarEntry> readHarEntries(OptionSet options, File harFile) throws IOException, HarReaderException {
@@ -158,6 +171,19 @@ public class HarReplayMain {
         return har.getLog().getEntries();
     }
 
+    /**
+     * Opens a HAR file for reading one entry at a time.
+     * @param options the options
+     * @param harFile the HAR file
+     * @return an iterator of entries that must be closed after use
+     * @throws IOException if the file cannot be opened or is not a HAR
+     */
+    protected StreamingHarReader.EntryIterator openHarEntries(OptionSet options, File harFile) throws IOException {
+        HarReaderBehavior harReaderBehavior = harReaderBehaviorSpec.value(options);
+        HarReaderMode harReaderMode = harReaderModeSpec.value(options);
+        return StreamingHarReader.create(harReaderBehavior.getFactory(), harReaderMode).open(harFile);
+    }
+
     protected Iterable<String> tokenize(@Nullable String value) {
         if (value == null) {
             return ImmutableList.of();
@@ -174,9 +200,10 @@ public class HarReplayMain {
 
     protected void runServer(OptionSet optionSet, ReplaySessionConfig sessionConfig) throws IOException {
         HostAndPort replayServerAddress = HostAndPort.fromParts("localhost", sessionConfig.port);
-        ReplayManager manager = createReplayManager(optionSet);
-        try (ReplaySessionControl ignore = manager.start(sessionConfig);
-             ScopedProcessTracker processTracker = new ProcessTrackerWithShutdownHook(Runtime.getRuntime())) {
+        try (VhsReplayManager manager = createReplayManager(optionSet);
+             ReloadableReplaySessionControl sessionControl = manager.start(sessionConfig);
+             ScopedProcessTracker processTracker = new ProcessTrackerWithShutdownHook(Runtime.getRuntime());
+             Closeable ignore = maybeWatch(optionSet, sessionConfig, sessionControl)) {
             maybeNotify(sessionConfig, optionSet.valueOf(notifySpec));
             Browser browser = optionSet.valueOf(browserSpec);
             if (browser != null) {
@@ -190,14 +217,82 @@ public class HarReplayMain {
         }
     }
 
+    /**
+     * Starts watching the HAR file and replay config file of a session, if the
+     * watch option is present, and reloads the session when they change.
+     * @return a closeable that stops watching
+     */
+    protected Closeable maybeWatch(OptionSet optionSet, ReplaySessionConfig sessionConfig, ReloadableReplaySessionControl sessionControl) throws IOException {
+        if (!optionSet.has(OPT_WATCH)) {
+            return () -> {};
+        }
+        List<Path> files = new ArrayList<>();
+        sessionConfig.harFiles.forEach(harFile -> files.add(harFile.toPath()));
+        File replayConfigFile = replayConfigSpec.value(optionSet);
+        if (replayConfigFile != null) {
+            files.add(replayConfigFile.toPath());
+        }
+        return new ReplayFileWatcher(files, WATCH_QUIET_PERIOD_MS, () -> {
+            sessionControl.reload(sessionConfig.harFiles, buildReplayServerConfig(optionSet));
+            System.out.format("har-replay: reloaded %s%n", sessionConfig.harFiles);
+        });
+    }
+
+    protected void compileArchive(OptionSet optionSet, File harFile, File archiveFile) throws IOException {
+        List<HarEntry> entries;
+        try {
+            entries = readHarEntries(optionSet, harFile);
+        } catch (HarReaderException e) {
+            throw new IOException(e);
+        }
+        boolean compress = !optionSet.has(OPT_COMPILE_UNCOMPRESSED);
+        ReplayArchive.compile(entries, new SstoehrHarBridge(), archiveFile, compress);
+        System.out.format("har-replay: compiled %d entries into %s%n", entries.size(), archiveFile);
+    }
+
+    /**
+     * Checks that the positional arguments name exactly one HAR file, which may be compressed,
+     * because an archive is compiled from a single HAR.
+     * @param harFiles the positional arguments
+     * @return the HAR file
+     * @throws UsageException if there is not exactly one HAR file
+     * @throws IOException if a file cannot be checked
+     */
+    private static File checkCompilable(List<File> harFiles) throws IOException {
+        if (harFiles.size() != 1) {
+            throw new UsageException(String.format("--%s requires exactly one har file, but %d were given", OPT_COMPILE, harFiles.size()));
+        }
+        File harFile = harFiles.get(0);
+        if (harFile.isDirectory()) {
+            throw new UsageException(String.format("--%s requires a har file, but %s is a directory", OPT_COMPILE, harFile));
+        }
+        if (ReplayArchive.isArchive(harFile)) {
+            throw new UsageException(String.format("--%s requires a har file, but %s is already a replay archive", OPT_COMPILE, harFile));
+        }
+        return harFile;
+    }
+
     protected void operate(OptionSet optionSet) throws IOException {
         try (CloseableWrapper<ReplaySessionConfig> sessionConfigWrapper = createReplaySessionConfig(optionSet)) {
             ReplaySessionConfig sessionConfig = sessionConfigWrapper.getWrapped();
-            HarPrintStyle harDumpStyle = optionSet.valueOf(harDumpStyleSpec);
-            try {
-                harDumpStyle.getDumper(optionSet).dump(readHarEntries(optionSet, sessionConfig.harFile), System.out);
-            } catch (HarReaderException e) {
-                System.err.format("har-replay: failed to read from har file: %s%n", e.getMessage());
+            File archiveFile = compileSpec.value(optionSet);
+            if (archiveFile != null) {
+                compileArchive(optionSet, checkCompilable(sessionConfig.harFiles), archiveFile);
+                return;
+            }
+            for (File harFile : sessionConfig.harFiles) {
+                if (harFile.isDirectory()) {
+                    log.debug("{} is a directory; skipping print", harFile);
+                } else if (ReplayArchive.isArchive(harFile)) {
+                    log.debug("{} is a precompiled replay archive; skipping print", harFile);
+                } else {
+                    HarPrintStyle harDumpStyle = optionSet.valueOf(harDumpStyleSpec);
+                    try (StreamingHarReader.EntryIterator entries = openHarEntries(optionSet, harFile)) {
+                        harDumpStyle.getDumper(optionSet).dump(entries, System.out);
+                    } catch (IOException | UncheckedIOException e) {
+                        System.err.format("har-replay: failed to read from har file: %s%n", e.getMessage());
+                    }
+                }
             }
             if (optionSet.has(OPT_ONLY_PRINT)) {
                 return;
@@ -289,15 +384,15 @@ public class HarReplayMain {
         if (port == null) {
             port = findUnusedPort();
         }
-        File harFile = optionSet.valueOf(harFileSpec);
-        if (harFile == null) {
+        List<File> harFiles = harFileSpec.values(optionSet);
+        if (harFiles.isEmpty()) {
             throw new UsageException("har file must be specified as positional argument");
         }
         ReplayServerConfig serverConfig = buildReplayServerConfig(optionSet);
         ReplaySessionConfig config = ReplaySessionConfig.builder(scratchDir.toPath())
                 .config(serverConfig)
                 .port(port)
-                .build(harFile);
+                .build(harFiles);
         return new CloseableWrapper<ReplaySessionConfig>() {
             @Override
             public ReplaySessionConfig getWrapped() {
@@ -386,6 +481,21 @@ public class HarReplayMain {
             }
         }
 
+        /**
+         * Gets the factory of readers used for replay, which may skip fields not needed for replay.
+         * @return the factory
+         */
+        public HarReaderFactory getReplayFactory() {
+            switch (this) {
+                case EASIER:
+                    return HarReaderFactory.replay();
+                case STOCK:
+                    return HarReaderFactory.stock();
+                default:
+                    throw new IllegalStateException("unhandled: " + this);
+            }
+        }
+
     }
 
     public enum HarPrintStyle {
@@ -0,0 +1,190 @@
+package io.github.mike10004.harreplay.exec;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Watcher of the files that define a replay session. When a watched file changes,
+ * the watcher waits until no further changes occur for a quiet period, so that a
+ * file being written is not read while incomplete, and then notifies a listener.
+ * The listener is notified on a separate thread, so that changes are still observed
+ * while it runs; changes observed while it runs are coalesced into one further
+ * notification after it returns. Because editors and tools often replace a file instead of writing
+ * it in place, the parent directories are watched and events are filtered by filename.
+ * If a watched path is a directory, a change to any file in it is a change.
+ */
+class ReplayFileWatcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayFileWatcher.class);
+
+    interface ChangeListener {
+        void filesChanged() throws IOException;
+    }
+
+    private final ImmutableSetMultimap<Path, Path> filenamesByDirectory;
+    private final ImmutableSet<Path> directories;
+    private final long quietPeriodMs;
+    private final ChangeListener listener;
+    private final WatchService watchService;
+    private final Thread thread;
+    private final ExecutorService notifier;
+    private boolean notifying;
+    private boolean notificationPending;
+
+    /**
+     * Creates and starts a watcher.
+     * @param files the files to watch
+     * @param quietPeriodMs period in milliseconds without changes to wait before notifying the listener
+     * @param listener the listener
+     * @throws IOException if the parent directories of the files cannot be watched
+     */
+    public ReplayFileWatcher(Iterable<Path> files, long quietPeriodMs, ChangeListener listener) throws IOException {
+        checkArgument(quietPeriodMs >= 0, "quiet period must be nonnegative: %s", quietPeriodMs);
+        ImmutableSetMultimap.Builder<Path, Path> b = ImmutableSetMultimap.builder();
+        ImmutableSet.Builder<Path> d = ImmutableSet.builder();
+        for (Path file : files) {
+            Path absoluteFile = file.toAbsolutePath();
+            if (Files.isDirectory(absoluteFile)) {
+                d.add(absoluteFile);
+            } else {
+                b.put(absoluteFile.getParent(), absoluteFile.getFileName());
+            }
+        }
+        filenamesByDirectory = b.build();
+        directories = d.build();
+        checkArgument(!filenamesByDirectory.isEmpty() || !directories.isEmpty(), "at least one file must be watched");
+        this.quietPeriodMs = quietPeriodMs;
+        this.listener = requireNonNull(listener);
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            for (Path directory : Sets.union(filenamesByDirectory.keySet(), directories)) {
+                directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        notifier = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("har-replay-reloader-%d")
+                .setDaemon(true)
+                .build());
+        thread = new Thread(this::watch, "har-replay-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                if (drain(watchService.take())) {
+                    awaitQuiet();
+                    requestNotification();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignore) {
+            // watcher was closed
+        }
+    }
+
+    private void awaitQuiet() throws InterruptedException {
+        WatchKey key;
+        while ((key = watchService.poll(quietPeriodMs, TimeUnit.MILLISECONDS)) != null) {
+            drain(key);
+        }
+    }
+
+    /**
+     * Consumes the events of a key and resets it.
+     * @return true if any event concerns a watched file
+     */
+    private boolean drain(WatchKey key) {
+        Path directory = (Path) key.watchable();
+        ImmutableSet<Path> filenames = filenamesByDirectory.get(directory);
+        boolean anyFile = directories.contains(directory);
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            // an overflow event has no context, so any file may have changed
+            if (context == null || anyFile || filenames.contains(context)) {
+                relevant = true;
+            }
+        }
+        if (!key.reset()) {
+            log.warn("no longer able to watch {}", key.watchable());
+        }
+        return relevant;
+    }
+
+    /**
+     * Notifies the listener on the notifier thread, or, if the listener is being
+     * notified already, arranges for it to be notified once more when it returns.
+     */
+    private synchronized void requestNotification() {
+        if (notifying) {
+            notificationPending = true;
+            return;
+        }
+        notifying = true;
+        try {
+            notifier.execute(this::notifyUntilCurrent);
+        } catch (RejectedExecutionException e) {
+            notifying = false;
+            log.debug("not notified because watcher is closed");
+        }
+    }
+
+    private void notifyUntilCurrent() {
+        do {
+            notifyListener();
+        } while (takePendingNotification());
+    }
+
+    private synchronized boolean takePendingNotification() {
+        if (notificationPending) {
+            notificationPending = false;
+            return true;
+        }
+        notifying = false;
+        return false;
+    }
+
+    private void notifyListener() {
+        try {
+            listener.filesChanged();
+        } catch (IOException | RuntimeException e) {
+            log.warn("failed to process change to watched files", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        notifier.shutdownNow();
+        watchService.close();
+    }
+}
@@ -38,6 +38,7 @@ import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -45,6 +46,7 @@ import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(Enclosed.class)
 public class HarInfoDumperTest {
@@ -158,6 +160,64 @@ public class HarInfoDumperTest {
             assertArrayEquals("row", expected, actual);
         }
 
+        @Test
+        public void contentWrittenInParallel() throws Exception {
+            HarInfoDumper dumper = HarInfoDumper.CsvDumper.makeContentWritingInstance(temp.getRoot());
+            int numEntries = 600;
+            List<HarEntry> entries = new ArrayList<>(numEntries);
+            for (int i = 0; i < numEntries; i++) {
+                entries.add(makeEntry(HttpMethod.POST, "request " + i, MediaType.PLAIN_TEXT_UTF_8.withoutParameters(), "response " + i, MediaType.PLAIN_TEXT_UTF_8.withoutParameters()));
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(numEntries * 128);
+            try (PrintStream out = new PrintStream(baos, true, StandardCharsets.UTF_8.name())) {
+                dumper.dump(entries.iterator(), out);
+            }
+            List<String[]> rows = new CSVReader(new StringReader(new String(baos.toByteArray(), StandardCharsets.UTF_8))).readAll();
+            assertEquals("num rows", numEntries + 1, rows.size());
+            for (int i = 0; i < numEntries; i++) {
+                String[] row = rows.get(i + 1);
+                File responseFile = new File(temp.getRoot(), row[row.length - 2]);
+                File requestFile = new File(temp.getRoot(), row[row.length - 1]);
+                assertEquals("response content", "response " + i, Files.asCharSource(responseFile, StandardCharsets.UTF_8).read());
+                assertEquals("request content", "request " + i, Files.asCharSource(requestFile, StandardCharsets.UTF_8).read());
+            }
+        }
+
+        @Test
+        public void contentWriteFailureLeavesCellEmpty() throws Exception {
+            File blocker = temp.newFile("blocker");
+            HarInfoDumper.CsvDumper.ContentDumpingRowTransform xform = new HarInfoDumper.CsvDumper.ContentDumpingRowTransform(temp.getRoot(), 2) {
+                @Override
+                protected File constructPathname(int entryIndex, String infix, @Nullable String contentType) {
+                    if (entryIndex == 1 && "response".equals(infix)) {
+                        return new File(blocker, "unwritable");
+                    }
+                    return super.constructPathname(entryIndex, infix, contentType);
+                }
+            };
+            HarInfoDumper dumper = new HarInfoDumper.CsvDumper(xform, StandardCharsets.UTF_8);
+            List<HarEntry> entries = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                entries.add(makeEntry(HttpMethod.POST, "request " + i, MediaType.PLAIN_TEXT_UTF_8.withoutParameters(), "response " + i, MediaType.PLAIN_TEXT_UTF_8.withoutParameters()));
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+            try (PrintStream out = new PrintStream(baos, true, StandardCharsets.UTF_8.name())) {
+                dumper.dump(entries, out);
+            }
+            List<String[]> rows = new CSVReader(new StringReader(new String(baos.toByteArray(), StandardCharsets.UTF_8))).readAll();
+            assertEquals("num rows", entries.size() + 1, rows.size());
+            for (int i = 0; i < entries.size(); i++) {
+                String[] row = rows.get(i + 1);
+                String responseCell = row[row.length - 2];
+                if (i == 1) {
+                    assertEquals("response cell of failed write", "", responseCell);
+                } else {
+                    assertEquals("response content", "response " + i, Files.asCharSource(new File(temp.getRoot(), responseCell), StandardCharsets.UTF_8).read());
+                }
+                assertTrue("request file exists", new File(temp.getRoot(), row[row.length - 1]).isFile());
+            }
+        }
+
         @Test
         public void createAppendage_postDataWithParams() throws Exception {
             HarPostData postData = new HarPostData();
@@ -4,6 +4,7 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import io.github.mike10004.harreplay.exec.HarReplayMain.HarReaderBehavior;
 import io.github.mike10004.harreplay.tests.Fixtures;
+import io.github.mike10004.vhs.harbridge.archive.ReplayArchive;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -57,6 +58,46 @@ public class HarReplayMainTest {
         }
     }
 
+    @Test
+    public void compile_rejectsMultipleHarFiles() throws Exception {
+        File harFile = getBrowsermobGeneratedHarFile();
+        File archiveFile = new File(temporaryFolder.getRoot(), "replay.archive");
+        int exitCode = new NonSleepingHarReplayMain().main0(new String[]{
+                "--" + HarReplayMain.OPT_COMPILE, archiveFile.getAbsolutePath(),
+                harFile.getAbsolutePath(), harFile.getAbsolutePath(),
+        });
+        assertEquals("exit code", 1, exitCode);
+        assertFalse("archive written", archiveFile.exists());
+    }
+
+    @Test
+    public void compile_rejectsDirectory() throws Exception {
+        File archiveFile = new File(temporaryFolder.getRoot(), "replay.archive");
+        int exitCode = new NonSleepingHarReplayMain().main0(new String[]{
+                "--" + HarReplayMain.OPT_COMPILE, archiveFile.getAbsolutePath(),
+                temporaryFolder.newFolder().getAbsolutePath(),
+        });
+        assertEquals("exit code", 1, exitCode);
+        assertFalse("archive written", archiveFile.exists());
+    }
+
+    @Test
+    public void compile() throws Exception {
+        File harFile = getBrowsermobGeneratedHarFile();
+        File archiveFile = new File(temporaryFolder.getRoot(), "replay.archive");
+        int exitCode = new NonSleepingHarReplayMain().main0(new String[]{
+                "--" + HarReplayMain.OPT_COMPILE, archiveFile.getAbsolutePath(),
+                harFile.getAbsolutePath(),
+        });
+        assertEquals("exit code", 0, exitCode);
+        assertTrue("archive written", ReplayArchive.isArchive(archiveFile));
+        exitCode = new NonSleepingHarReplayMain().main0(new String[]{
+                "--" + HarReplayMain.OPT_COMPILE, new File(temporaryFolder.getRoot(), "other.archive").getAbsolutePath(),
+                archiveFile.getAbsolutePath(),
+        });
+        assertEquals("exit code when compiling an archive", 1, exitCode);
+    }
+
     private File getBrowsermobGeneratedHarFile() throws IOException {
         return Fixtures.copyBrowsermobGeneratedHarFile(temporaryFolder.getRoot().toPath());
     }
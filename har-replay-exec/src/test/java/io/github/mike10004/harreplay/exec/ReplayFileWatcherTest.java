@@ -0,0 +1,69 @@
+package io.github.mike10004.harreplay.exec;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayFileWatcherTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void notifiesOnReplacement() throws Exception {
+        File watched = temporaryFolder.newFile("watched.har");
+        Files.asCharSink(watched, StandardCharsets.UTF_8).write("{}");
+        CountDownLatch changes = new CountDownLatch(1);
+        try (ReplayFileWatcher ignore = new ReplayFileWatcher(ImmutableList.of(watched.toPath()), 100, changes::countDown)) {
+            File replacement = temporaryFolder.newFile("replacement.tmp");
+            Files.asCharSink(replacement, StandardCharsets.UTF_8).write("{\"log\": {}}");
+            java.nio.file.Files.move(replacement.toPath(), watched.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            // some platforms poll for changes, so allow a generous interval
+            assertTrue("notified", changes.await(30, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void coalescesChangesDuringNotification() throws Exception {
+        File watched = temporaryFolder.newFile("watched.har");
+        long quietPeriodMs = 100;
+        AtomicInteger notifications = new AtomicInteger();
+        CountDownLatch firstNotification = new CountDownLatch(1), secondNotification = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ReplayFileWatcher.ChangeListener listener = () -> {
+            int count = notifications.incrementAndGet();
+            if (count == 1) {
+                firstNotification.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+            } else {
+                secondNotification.countDown();
+            }
+        };
+        try (ReplayFileWatcher ignore = new ReplayFileWatcher(ImmutableList.of(watched.toPath()), quietPeriodMs, listener)) {
+            Files.asCharSink(watched, StandardCharsets.UTF_8).write("{\"log\": {}}");
+            // some platforms poll for changes, so allow a generous interval
+            assertTrue("first notification", firstNotification.await(30, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                Files.asCharSink(watched, StandardCharsets.UTF_8).write("{\"log\": {\"entries\": []}, \"i\": " + i + "}");
+                Thread.sleep(quietPeriodMs * 3);
+            }
+            release.countDown();
+            assertTrue("second notification", secondNotification.await(30, TimeUnit.SECONDS));
+            Thread.sleep(quietPeriodMs * 5);
+            assertEquals("notifications", 2, notifications.get());
+        }
+    }
+}
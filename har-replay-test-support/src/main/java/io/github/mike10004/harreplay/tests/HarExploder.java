@@ -2,17 +2,19 @@ package io.github.mike10004.harreplay.tests;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteSource;
-import com.google.common.io.ByteStreams;
 import com.google.common.io.CharSource;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
-import org.apache.commons.codec.binary.Base64InputStream;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.LoggerFactory;
@@ -20,14 +22,24 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
 import java.io.Reader;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 /*
@@ -59,6 +71,21 @@ import static java.util.Objects.requireNonNull;
  */
 public class HarExploder {
 
+    private final int writeParallelism;
+
+    public HarExploder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an instance that writes response files on the given number of threads.
+     * @param writeParallelism number of writer threads; must be positive
+     */
+    public HarExploder(int writeParallelism) {
+        checkArgument(writeParallelism > 0, "parallelism must be positive: %s", writeParallelism);
+        this.writeParallelism = writeParallelism;
+    }
+
     public static void main(String[] args) throws Exception {
         if (args.length != 1) {
             System.err.format("exactly one argument required (the output directory)");
@@ -68,22 +95,117 @@ public class HarExploder {
             throw new IllegalArgumentException("illegal directory name: " + args[0]);
         }
         Path outputRoot = new File(args[0]).toPath();
-        byte[] harBytes = ByteStreams.toByteArray(System.in);
-        if (harBytes.length == 0) {
+        PushbackInputStream in = new PushbackInputStream(System.in);
+        int first = in.read();
+        if (first < 0) {
             System.err.format("0 bytes from standard input; should be a har file");
             System.exit(1);
         }
-        CharSource harSource = ByteSource.wrap(harBytes).asCharSource(StandardCharsets.UTF_8);
+        in.unread(first);
         HarExploder exploder = new HarExploder();
-        exploder.explode(harSource, outputRoot);
+        exploder.explode(new InputStreamReader(in, StandardCharsets.UTF_8), outputRoot);
     }
 
     public void explode(CharSource harSource, Path outputRoot) throws IOException {
         try (Reader reader = harSource.openStream()) {
-            explode(new JsonParser().parse(reader), outputRoot);
+            explode(reader, outputRoot);
+        }
+    }
+
+    /**
+     * Writes the response of each entry of a HAR to a directory. Entries are read
+     * from a token stream one at a time, and their response files are written by a
+     * pool of threads while later entries are read. The queue of pending writes is
+     * bounded, and when it is full the reading thread performs the write itself,
+     * so memory use does not depend on the size of the HAR. If a write fails, the
+     * first failure in entry order is rethrown once pending writes finish.
+     * @param harReader reader of HAR content; not closed by this method
+     * @param outputRoot output directory
+     * @throws IOException if reading the HAR or writing a file fails
+     */
+    public void explode(Reader harReader, Path outputRoot) throws IOException {
+        Path entriesRoot = outputRoot.resolve("log").resolve("entries");
+        //noinspection ResultOfMethodCallIgnored
+        entriesRoot.toFile().mkdirs();
+        if (!entriesRoot.toFile().isDirectory()) {
+            throw new IOException("failed to create directory " + entriesRoot);
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(writeParallelism, writeParallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(writeParallelism * 4),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("har-exploder-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        Deque<Future<?>> pendingWrites = new ArrayDeque<>();
+        try {
+            JsonReader json = new JsonReader(harReader);
+            json.setLenient(true);
+            if (seekName(json, "log") && seekName(json, "entries")) {
+                json.beginArray();
+                for (int i = 0; json.hasNext(); i++) {
+                    @Nullable CachedEntry entry = readEntry(json);
+                    if (entry != null) {
+                        @Nullable String responseDirName = entry.constructDirectoryName(i);
+                        if (responseDirName != null) {
+                            Path responseDir = entriesRoot.resolve(responseDirName);
+                            pendingWrites.addLast(executor.submit(() -> {
+                                writeResponseFiles(entry, responseDir);
+                                return null;
+                            }));
+                        }
+                    }
+                    while (!pendingWrites.isEmpty() && pendingWrites.peekFirst().isDone()) {
+                        checkWrite(pendingWrites.removeFirst());
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                //noinspection StatementWithEmptyBody
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Future<?> write : pendingWrites) {
+            checkWrite(write);
         }
     }
 
+    /**
+     * Writes the response files of an entry. Invoked on a writer thread.
+     * @param entry the entry
+     * @param responseDir directory for the entry's files
+     * @throws IOException if writing fails
+     */
+    protected void writeResponseFiles(CachedEntry entry, Path responseDir) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        responseDir.toFile().mkdirs();
+        entry.writeResponseFilesInDirectory(responseDir);
+    }
+
+    /**
+     * Rethrows the exception thrown by a completed write, if any.
+     */
+    private static void checkWrite(Future<?> write) throws IOException {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for write");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.throwIfInstanceOf(cause, IOException.class);
+            Throwables.throwIfUnchecked(cause);
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @deprecated use {@link #explode(Reader, Path)}, which does not build a tree of the whole HAR
+     */
+    @Deprecated
     protected void explode(JsonElement harObject, Path outputRoot) throws IOException {
         //noinspection ResultOfMethodCallIgnored
         outputRoot.toFile().mkdirs();
@@ -99,6 +221,10 @@ public class HarExploder {
         }
     }
 
+    /**
+     * @deprecated entries are now read one at a time by {@link #explode(Reader, Path)}
+     */
+    @Deprecated
     protected IntermediateRep createIntermediateRep(JsonElement harObject, Path scratchDir) throws IOException {
         List<CachedEntry> cachedEntries = new ArrayList<>();
         if (harObject.isJsonObject()) {
@@ -109,7 +235,7 @@ public class HarExploder {
                     if (entry.isJsonObject()) {
                         JsonObject requestObject = entry.getAsJsonObject().getAsJsonObject("request");
                         JsonObject responseObject = entry.getAsJsonObject().getAsJsonObject("response");
-                        @Nullable CachedEntry cachedEntry = CachedEntry.create(requestObject, responseObject, scratchDir);
+                        @Nullable CachedEntry cachedEntry = CachedEntry.create(requestObject, responseObject);
                         cachedEntries.add(cachedEntry);
                     }
                 }
@@ -118,6 +244,10 @@ public class HarExploder {
         return new IntermediateRep(cachedEntries);
     }
 
+    /**
+     * @deprecated entries are now read one at a time by {@link #explode(Reader, Path)}
+     */
+    @Deprecated
     protected void explode(IntermediateRep intermediateRep, Path outputRoot) throws IOException {
         Path entriesRoot = outputRoot.resolve("log").resolve("entries");
         //noinspection ResultOfMethodCallIgnored
@@ -130,15 +260,58 @@ public class HarExploder {
             if (entry != null) {
                 @Nullable String responseDirName = entry.constructDirectoryName(i);
                 if (responseDirName != null) {
-                    Path responseDir = entriesRoot.resolve(responseDirName);
-                    //noinspection ResultOfMethodCallIgnored
-                    responseDir.toFile().mkdirs();
-                    entry.writeResponseFilesInDirectory(responseDir);
+                    writeResponseFiles(entry, entriesRoot.resolve(responseDirName));
                 }
             }
         }
     }
 
+    /**
+     * Advances into the next object and past the given name, skipping the values of other names.
+     * @return true if the name was found, false if the object ended first
+     */
+    private static boolean seekName(JsonReader json, String name) throws IOException {
+        if (json.peek() != JsonToken.BEGIN_OBJECT) {
+            return false;
+        }
+        json.beginObject();
+        while (json.hasNext()) {
+            if (name.equals(json.nextName())) {
+                return true;
+            }
+            json.skipValue();
+        }
+        return false;
+    }
+
+    @Nullable
+    private static CachedEntry readEntry(JsonReader json) throws IOException {
+        if (json.peek() != JsonToken.BEGIN_OBJECT) {
+            json.skipValue();
+            return null;
+        }
+        @Nullable JsonObject requestObject = null, responseObject = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (("request".equals(name) || "response".equals(name)) && json.peek() == JsonToken.BEGIN_OBJECT) {
+                JsonObject object = new JsonParser().parse(json).getAsJsonObject();
+                if ("request".equals(name)) {
+                    requestObject = object;
+                } else {
+                    responseObject = object;
+                }
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (requestObject == null) {
+            return null;
+        }
+        return CachedEntry.create(requestObject, responseObject);
+    }
+
 //    protected static final CharMatcher SLASH = CharMatcher.is('/').or(CharMatcher.is('\\'));
     protected static final CharMatcher SAFE_CHARS = CharMatcher.inRange('a', 'z').or(CharMatcher.inRange('A', 'Z')).or(CharMatcher.inRange('0', '9')).or(CharMatcher.anyOf("_-."));
     protected static final CharMatcher UNSAFE_CHARS = SAFE_CHARS.negate();
@@ -195,7 +368,7 @@ public class HarExploder {
         }
 
         @Nullable
-        public static CachedEntry create(JsonObject request, @Nullable JsonObject response, Path scratchDir) throws IOException {
+        public static CachedEntry create(JsonObject request, @Nullable JsonObject response) {
             JsonPrimitive urlPrimitive = request.getAsJsonPrimitive("url");
             if (urlPrimitive == null) {
                 return null;
@@ -211,12 +384,12 @@ public class HarExploder {
             if (response != null) {
                 status = response.get("status").getAsInt();
                 statusText = asStringOrNull(response.getAsJsonPrimitive("statusText"));
-                responseContent = prepareContent(response.getAsJsonObject("content"), scratchDir);
+                responseContent = prepareContent(response.getAsJsonObject("content"));
             }
             return new CachedEntry(method, url, status, statusText, responseContent);
         }
 
-        protected static ByteSource prepareContent(@Nullable JsonObject content, Path scratchDir) throws IOException {
+        protected static ByteSource prepareContent(@Nullable JsonObject content) {
             if (content == null) {
                 return ByteSource.empty();
             }
@@ -231,10 +404,6 @@ public class HarExploder {
             } else {
                 decodedSource = CharSource.wrap(text).asByteSource(StandardCharsets.UTF_8);
             }
-            // do this stuff if you want to cache the response content bytes on disk
-//            File tempFile = File.createTempFile("response-content", ".tmp", scratchDir.toFile());
-//            decodedSource.copyTo(Files.asByteSink(tempFile));
-//            return Files.asByteSource(tempFile);
             return decodedSource;
         }
     }
@@ -247,6 +416,10 @@ public class HarExploder {
         return primitive.getAsString();
     }
 
+    /**
+     * @deprecated entries are now read one at a time by {@link #explode(Reader, Path)}
+     */
+    @Deprecated
     protected static class IntermediateRep {
         public final List<CachedEntry> entries;
 
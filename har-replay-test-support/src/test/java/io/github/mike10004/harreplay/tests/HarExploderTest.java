@@ -1,12 +1,18 @@
 package io.github.mike10004.harreplay.tests;
 
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CharSource;
 import com.google.common.io.Files;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.Collection;
@@ -27,4 +33,67 @@ public class HarExploderTest {
         exploded.forEach(System.out::println);
         assertEquals("num files", 2 * 2, exploded.size());
     }
+
+    @Test
+    public void explode_manyEntries() throws Exception {
+        int numEntries = 300;
+        CharSource har = makeHar(numEntries);
+        Path outputRoot = temporaryFolder.newFolder().toPath();
+        new HarExploder(4).explode(har, outputRoot);
+        Collection<File> exploded = FileUtils.listFiles(outputRoot.toFile(), null, true);
+        assertEquals("num files", 2 * numEntries, exploded.size());
+        for (int i = 0; i < numEntries; i++) {
+            File dataFile = outputRoot.resolve("log").resolve("entries").resolve(i + "-GET-example.com_" + i).resolve("200-OK").toFile();
+            assertEquals("content of " + dataFile, "response " + i, Files.asCharSource(dataFile, StandardCharsets.UTF_8).read());
+        }
+    }
+
+    @Test
+    public void explode_uncheckedWriteFailureRethrown() throws Exception {
+        IllegalStateException failure = new IllegalStateException("expected by test");
+        HarExploder exploder = new HarExploder(2) {
+            @Override
+            protected void writeResponseFiles(CachedEntry entry, Path responseDir) throws IOException {
+                if (entry.url.endsWith("/7")) {
+                    throw failure;
+                }
+                super.writeResponseFiles(entry, responseDir);
+            }
+        };
+        try {
+            exploder.explode(makeHar(20), temporaryFolder.newFolder().toPath());
+            fail("should have thrown");
+        } catch (IllegalStateException e) {
+            assertSame("exception", failure, e);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void explode_jsonElement() throws Exception {
+        int numEntries = 3;
+        Path outputRoot = temporaryFolder.newFolder().toPath();
+        JsonElement harObject;
+        try (Reader reader = makeHar(numEntries).openStream()) {
+            harObject = new JsonParser().parse(reader);
+        }
+        new HarExploder().explode(harObject, outputRoot);
+        Collection<File> exploded = FileUtils.listFiles(outputRoot.toFile(), null, true);
+        assertEquals("num files", 2 * numEntries, exploded.size());
+    }
+
+    private static CharSource makeHar(int numEntries) {
+        StringBuilder har = new StringBuilder("{\"log\": {\"version\": \"1.2\", \"entries\": [");
+        for (int i = 0; i < numEntries; i++) {
+            if (i > 0) {
+                har.append(',');
+            }
+            String text = i % 2 == 0 ? "response " + i : BaseEncoding.base64().encode(("response " + i).getBytes(StandardCharsets.UTF_8));
+            String encoding = i % 2 == 0 ? "" : ", \"encoding\": \"base64\"";
+            har.append("{\"timings\": {}, \"request\": {\"method\": \"GET\", \"url\": \"http://example.com/").append(i).append("\"}, ")
+                    .append("\"response\": {\"status\": 200, \"statusText\": \"OK\", \"content\": {\"text\": \"").append(text).append('"').append(encoding).append("}}}");
+        }
+        har.append("], \"pages\": []}}");
+        return CharSource.wrap(har);
+    }
 }
\ No newline at end of file
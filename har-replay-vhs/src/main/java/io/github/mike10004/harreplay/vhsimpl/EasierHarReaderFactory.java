@@ -16,6 +16,11 @@ public class EasierHarReaderFactory implements HarReaderFactory {
         return new HarReader(createMapperFactory());
     }
 
+    @Override
+    public ObjectMapper createMapper(HarReaderMode mode) {
+        return createMapperFactory().instance(mode);
+    }
+
     protected MapperFactory createMapperFactory() {
         return new MapperFactory() {
             @Override
@@ -27,8 +32,19 @@ public class EasierHarReaderFactory implements HarReaderFactory {
                 }
                 module.addDeserializer(Date.class, new MoreFlexibleDateDeserializer());
                 mapper.registerModule(module);
+                configureMapper(mapper, mode);
                 return mapper;
             }
         };
     }
+
+    /**
+     * Applies additional configuration to a mapper. This method is invoked after
+     * the deserializers of this factory have been registered. This implementation
+     * does nothing.
+     * @param mapper the mapper
+     * @param mode the reader mode
+     */
+    protected void configureMapper(ObjectMapper mapper, HarReaderMode mode) {
+    }
 }
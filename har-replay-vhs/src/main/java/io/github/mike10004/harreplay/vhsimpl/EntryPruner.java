@@ -0,0 +1,297 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import io.github.mike10004.harreplay.ReplayServerConfig;
+import io.github.mike10004.harreplay.ReplayServerConfig.EntryFilter;
+import io.github.mike10004.vhs.EntryParser;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Pruner of HAR entries that removes entries before they are indexed by an entry matcher,
+ * so that they are never rated as candidates for a response. Entries that match a
+ * {@link EntryFilter filter} are removed, and, if enabled, an entry whose request and
+ * response are identical to those of the previous retained entry with the same method
+ * and URL is collapsed into that entry, which records how many entries it stands for.
+ *
+ * <p>Collapsing duplicates does not change any response served by a matcher that rates
+ * each entry independently, such as {@link io.github.mike10004.vhs.HeuristicEntryMatcher},
+ * because identical entries are rated equally and the earliest of equally rated entries
+ * is the one used to respond. A matcher that also considers the position of an entry
+ * among the entries with the same method and URL, such as
+ * {@link io.github.mike10004.vhs.StatefulHeuristicEntryMatcher}, receives the
+ * {@link PrunedEntries#multiplicities multiplicities} through
+ * {@link io.github.mike10004.vhs.EntryMatcherFactory#createEntryMatcher(List, List, EntryParser)},
+ * so that a collapsed entry occupies the positions of the entries it stands for. This is
+ * why only consecutive duplicates within a method and URL are collapsed: an entry that
+ * repeats an earlier one after a different response for the same method and URL is kept.
+ *
+ * <p>Responses are parsed only for entries whose request matches a filter by status,
+ * and, when duplicates are collapsed, for entries whose request is identical to that
+ * of another entry.
+ */
+public class EntryPruner {
+
+    private static final Logger log = LoggerFactory.getLogger(EntryPruner.class);
+
+    private final ImmutableList<EntryFilter> filters;
+    private final boolean collapseDuplicates;
+
+    public EntryPruner(Iterable<EntryFilter> filters, boolean collapseDuplicates) {
+        this.filters = ImmutableList.copyOf(filters);
+        this.collapseDuplicates = collapseDuplicates;
+    }
+
+    /**
+     * Creates a pruner that applies the entry filters and duplicate collapsing specified by a configuration.
+     * @param serverConfig the configuration
+     * @return a new pruner
+     */
+    public static EntryPruner fromConfig(ReplayServerConfig serverConfig) {
+        return new EntryPruner(serverConfig.entryFilters, serverConfig.collapseDuplicateEntries);
+    }
+
+    /**
+     * Checks whether this pruner retains all entries.
+     * @return true if this pruner has no filters and does not collapse duplicates
+     */
+    public boolean isPassThrough() {
+        return filters.isEmpty() && !collapseDuplicates;
+    }
+
+    /**
+     * Class that represents the entries retained by a pruner.
+     * @param <E> entry type
+     */
+    public static final class PrunedEntries<E> {
+
+        /**
+         * Entries retained, in their original order.
+         */
+        public final ImmutableList<E> entries;
+
+        /**
+         * Number of original entries that each retained entry stands for, in the same
+         * order as the retained entries. A multiplicity greater than one means that
+         * duplicates were collapsed into the entry.
+         */
+        public final ImmutableList<Integer> multiplicities;
+
+        /**
+         * Number of entries removed because they matched a filter.
+         */
+        public final int numFiltered;
+
+        /**
+         * Number of entries removed because they duplicated a retained entry.
+         */
+        public final int numCollapsed;
+
+        private PrunedEntries(List<E> entries, List<Integer> multiplicities, int numFiltered, int numCollapsed) {
+            this.entries = ImmutableList.copyOf(entries);
+            this.multiplicities = ImmutableList.copyOf(multiplicities);
+            this.numFiltered = numFiltered;
+            this.numCollapsed = numCollapsed;
+        }
+    }
+
+    /**
+     * Entry with its parsed request and, once needed, the fingerprint of its request,
+     * its parsed response and the fingerprint of its response.
+     */
+    private static final class Candidate<E> {
+
+        public final E entry;
+        public final ParsedRequest request;
+        private final EntryParser<E> parser;
+        @Nullable
+        private HashCode requestFingerprint;
+        @Nullable
+        private HttpRespondable response;
+        @Nullable
+        private HashCode responseFingerprint;
+
+        public Candidate(E entry, ParsedRequest request, EntryParser<E> parser) {
+            this.entry = entry;
+            this.request = request;
+            this.parser = parser;
+        }
+
+        public HashCode getRequestFingerprint() throws IOException {
+            if (requestFingerprint == null) {
+                requestFingerprint = fingerprint(request);
+            }
+            return requestFingerprint;
+        }
+
+        public HttpRespondable getResponse() throws IOException {
+            if (response == null) {
+                response = parseResponse(parser, entry, request);
+            }
+            return response;
+        }
+
+        public HashCode getResponseFingerprint() throws IOException {
+            if (responseFingerprint == null) {
+                responseFingerprint = fingerprint(getResponse());
+                // only the fingerprint is compared from now on, so the body need not be retained
+                response = null;
+            }
+            return responseFingerprint;
+        }
+    }
+
+    /**
+     * Prunes a list of entries.
+     * @param entries the entries
+     * @param parser the parser of the entries
+     * @param <E> entry type
+     * @return the retained entries
+     * @throws IOException if an entry cannot be parsed
+     */
+    public <E> PrunedEntries<E> prune(List<E> entries, EntryParser<E> parser) throws IOException {
+        List<E> retained = new ArrayList<>(entries.size());
+        List<Integer> multiplicities = new ArrayList<>(entries.size());
+        // index in the retained list of the last retained entry of each method and URL
+        Map<Pair<HttpMethod, URI>, Integer> lastRetainedIndexes = new HashMap<>();
+        List<Candidate<E>> retainedCandidates = new ArrayList<>(entries.size());
+        int numFiltered = 0, numCollapsed = 0;
+        for (E entry : entries) {
+            Candidate<E> candidate = new Candidate<>(entry, parser.parseRequest(entry), parser);
+            if (isFiltered(candidate)) {
+                numFiltered++;
+                continue;
+            }
+            if (collapseDuplicates) {
+                Pair<HttpMethod, URI> sequence = ImmutablePair.of(candidate.request.method, candidate.request.url);
+                @Nullable Integer lastIndex = lastRetainedIndexes.get(sequence);
+                if (lastIndex != null && isDuplicate(candidate, retainedCandidates.get(lastIndex))) {
+                    multiplicities.set(lastIndex, multiplicities.get(lastIndex) + 1);
+                    numCollapsed++;
+                    continue;
+                }
+                lastRetainedIndexes.put(sequence, retained.size());
+                retainedCandidates.add(candidate);
+            }
+            retained.add(entry);
+            multiplicities.add(1);
+        }
+        log.debug("retained {} of {} entries; {} filtered, {} duplicates collapsed", retained.size(), entries.size(), numFiltered, numCollapsed);
+        return new PrunedEntries<>(retained, multiplicities, numFiltered, numCollapsed);
+    }
+
+    private static <E> boolean isDuplicate(Candidate<E> candidate, Candidate<E> retained) throws IOException {
+        return retained.getRequestFingerprint().equals(candidate.getRequestFingerprint())
+                && retained.getResponseFingerprint().equals(candidate.getResponseFingerprint());
+    }
+
+    /**
+     * Parses the response of an entry without content negotiation, so that the
+     * response body is not encoded differently for entries with the same response.
+     */
+    private static <E> HttpRespondable parseResponse(EntryParser<E> parser, E entry, ParsedRequest request) throws IOException {
+        ParsedRequest unnegotiatedRequest = ParsedRequest.inMemory(request.method, request.url, request.getQuery(), ImmutableMultimap.of(), null);
+        return parser.parseResponse(unnegotiatedRequest, entry);
+    }
+
+    /**
+     * Checks whether an entry matches a filter. The response is parsed only if the
+     * request matches a filter that also requires a response status.
+     */
+    private boolean isFiltered(Candidate<?> candidate) throws IOException {
+        if (filters.isEmpty()) {
+            return false;
+        }
+        ParsedRequest request = candidate.request;
+        String method = request.method.name();
+        String url = request.url.toString();
+        String host = request.url.getHost();
+        for (EntryFilter filter : filters) {
+            if (filter.isMatchingRequest(method, url, host)) {
+                if (filter.statuses.isEmpty() || filter.statuses.contains(candidate.getResponse().getStatus())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static HashCode fingerprint(ParsedRequest request) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, request.method.name());
+        putString(hasher, request.url.toString());
+        hasher.putInt(request.getIndexedHeaders().size());
+        request.getIndexedHeaders().forEach((name, value) -> {
+            putString(hasher, name);
+            putString(hasher, value);
+        });
+        hasher.putBoolean(request.isBodyPresent());
+        if (request.isBodyPresent()) {
+            try (InputStream in = request.openBodyStream()) {
+                ByteStreams.copy(in, Funnels.asOutputStream(hasher));
+            }
+        }
+        return hasher.hash();
+    }
+
+    private static HashCode fingerprint(HttpRespondable response) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putInt(response.getStatus());
+        response.streamHeaders().forEach(header -> {
+            putString(hasher, header.getKey());
+            putString(hasher, header.getValue());
+        });
+        try (OutputStream out = Funnels.asOutputStream(hasher)) {
+            putString(hasher, String.valueOf(response.writeBody(out)));
+        }
+        return hasher.hash();
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        hasher.putInt(value.length()).putUnencodedChars(value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        EntryPruner that = (EntryPruner) o;
+        return collapseDuplicates == that.collapseDuplicates &&
+                Objects.equals(filters, that.filters);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(filters, collapseDuplicates);
+    }
+
+    @Override
+    public String toString() {
+        return "EntryPruner{" +
+                "filters=" + filters +
+                ", collapseDuplicates=" + collapseDuplicates +
+                '}';
+    }
+}
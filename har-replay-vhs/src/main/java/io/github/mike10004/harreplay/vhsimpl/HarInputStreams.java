@@ -0,0 +1,139 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Static utility methods relating to opening HAR files that may be compressed.
+ * Compression is detected by the magic bytes at the start of the file, not by the
+ * filename, and compressed content is decompressed as it is read, so a compressed
+ * HAR never has to be decompressed to disk.
+ *
+ * <p>Reading zstd-compressed files requires the optional zstd-jni dependency and a
+ * native library for the platform. If either is missing, opening such a file fails
+ * with an {@link IOException} that says so; other files are unaffected.
+ */
+public final class HarInputStreams {
+
+    /**
+     * Filename suffixes that identify files that are HARs, compressed or not.
+     */
+    public static final ImmutableList<String> HAR_FILENAME_SUFFIXES = ImmutableList.of(".har", ".har.gz", ".har.zst");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+    private static final byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd};
+    private static final int MAX_MAGIC_LENGTH = ZSTD_MAGIC.length;
+
+    private HarInputStreams() {}
+
+    /**
+     * Opens a stream of the uncompressed content of a file. If the file is compressed
+     * with gzip or zstd, the content is decompressed as it is read; otherwise the
+     * content is read as is.
+     * @param harFile the file
+     * @return a buffered stream that must be closed after use
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream open(File harFile) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(harFile), BUFFER_SIZE);
+        try {
+            return decompress(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether a file starts with the magic bytes of a supported compression format.
+     * To read a file that may be compressed, use {@link #open(File)} instead, which
+     * checks the magic bytes of the stream it reads, so the file is opened once.
+     * @param file the file
+     * @return true if the file is compressed
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), MAX_MAGIC_LENGTH)) {
+            return sniff(in) != Compression.NONE;
+        }
+    }
+
+    /**
+     * Checks whether a filename has one of the {@link #HAR_FILENAME_SUFFIXES HAR suffixes}.
+     * Case is ignored.
+     * @param filename the filename
+     * @return true if the filename is that of a HAR
+     */
+    public static boolean hasHarFilenameSuffix(String filename) {
+        String lowercase = filename.toLowerCase();
+        return HAR_FILENAME_SUFFIXES.stream().anyMatch(lowercase::endsWith);
+    }
+
+    private enum Compression {
+        NONE, GZIP, ZSTD
+    }
+
+    /**
+     * Reads the magic bytes at the start of a stream and resets the stream.
+     * @param in a stream that supports mark and reset
+     * @return the compression format
+     */
+    private static Compression sniff(InputStream in) throws IOException {
+        byte[] prefix = new byte[MAX_MAGIC_LENGTH];
+        in.mark(prefix.length);
+        int numRead = ByteStreams.read(in, prefix, 0, prefix.length);
+        in.reset();
+        if (startsWith(prefix, numRead, GZIP_MAGIC)) {
+            return Compression.GZIP;
+        }
+        if (startsWith(prefix, numRead, ZSTD_MAGIC)) {
+            return Compression.ZSTD;
+        }
+        return Compression.NONE;
+    }
+
+    private static InputStream decompress(InputStream in) throws IOException {
+        switch (sniff(in)) {
+            case GZIP:
+                return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+            case ZSTD:
+                InputStream zstdIn;
+                try {
+                    zstdIn = Zstd.decompress(in);
+                } catch (LinkageError e) {
+                    throw new IOException("reading zstd-compressed HAR files requires com.github.luben:zstd-jni on the classpath and a native library for this platform", e);
+                }
+                return new BufferedInputStream(zstdIn, BUFFER_SIZE);
+            default:
+                return in;
+        }
+    }
+
+    private static boolean startsWith(byte[] prefix, int prefixLength, byte[] magic) {
+        return prefixLength >= magic.length && Arrays.equals(Arrays.copyOf(prefix, magic.length), magic);
+    }
+
+    /**
+     * Holder of the references to the optional zstd library, so that they are linked
+     * only when a zstd-compressed file is read.
+     */
+    private static final class Zstd {
+
+        private Zstd() {}
+
+        static InputStream decompress(InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+    }
+}
@@ -1,15 +1,69 @@
 package io.github.mike10004.harreplay.vhsimpl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.sstoehr.harreader.HarReader;
+import de.sstoehr.harreader.HarReaderException;
+import de.sstoehr.harreader.HarReaderMode;
+import de.sstoehr.harreader.jackson.DefaultMapperFactory;
+import de.sstoehr.harreader.model.Har;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
 public interface HarReaderFactory {
 
     HarReader createReader();
 
+    /**
+     * Creates a mapper configured like the mappers used by readers created by this factory.
+     * The mapper may be used to bind HAR model objects one at a time, as
+     * {@link StreamingHarReader} does.
+     * @param mode the reader mode
+     * @return a new mapper
+     */
+    default ObjectMapper createMapper(HarReaderMode mode) {
+        return new DefaultMapperFactory().instance(mode);
+    }
+
+    /**
+     * Reads a HAR file that may be compressed. The file is opened once, and its content
+     * is decompressed if necessary as it is parsed by a {@link #createMapper(HarReaderMode) mapper}
+     * configured like the readers created by this factory.
+     * @param harFile the HAR file
+     * @param mode the reader mode
+     * @return the HAR
+     * @throws IOException if the file cannot be read
+     * @throws HarReaderException if the content is not a HAR
+     * @see HarInputStreams
+     */
+    default Har readHarFile(File harFile, HarReaderMode mode) throws IOException, HarReaderException {
+        try (InputStream in = HarInputStreams.open(harFile)) {
+            try {
+                return createMapper(mode).readValue(in, Har.class);
+            } catch (JsonProcessingException e) {
+                throw new HarReaderException(e);
+            }
+        }
+    }
+
     static HarReaderFactory easier() {
         return new EasierHarReaderFactory();
     }
 
+    /**
+     * Returns a factory whose readers bind only the HAR fields that the replay
+     * engine reads. All other fields, such as timings, cookies and pages, are
+     * skipped without being bound, and the corresponding properties of the
+     * model objects are null or empty.
+     * @return a factory
+     * @see ReplayHarReaderFactory
+     */
+    static HarReaderFactory replay() {
+        return new ReplayHarReaderFactory();
+    }
+
     static HarReaderFactory stock() {
         return HarReader::new;
     }
@@ -9,58 +9,254 @@ import com.google.common.collect.ImmutableList;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
 import java.util.Date;
-import java.util.Objects;
-import java.util.stream.Stream;
+import java.util.Locale;
 
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Date deserializer that accepts the date formats found in HAR files produced
+ * by various tools. Formats are immutable {@code java.time} formatters, so an
+ * instance may be shared by parsers on multiple threads. A value is first parsed
+ * with the format that most recently succeeded in the same read, then with the
+ * format its shape suggests; each of those parses the value once. Other formats
+ * are tested without resolving or throwing exceptions before the value is parsed
+ * with them. The format that succeeded is kept as an attribute of the
+ * {@link DeserializationContext}, so concurrent reads of files with different
+ * date styles do not displace each other's format.
+ *
+ * <p>A timestamp that ends in {@code Z} is read as UTC. Before the formats were
+ * {@code java.time} formatters, the {@code Z} was matched as a literal and the
+ * timestamp was read in the default time zone.
+ */
 public class MoreFlexibleDateDeserializer extends StdDeserializer<Date> {
 
-    private static final ImmutableList<DateFormat> DEFAULT_SUPPORTED_DATE_FORMATS =
-            Stream.of("yyyy-MM-dd'T'HH:mm:ss.SSSZ",
-                    "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",
-                    "EEE, dd MMM yyyy HH:mm:ss zzz",
-                    "MMM dd, yyyy h:mm:ss a"         // Feb 16, 2018 4:41:27 PM
-                    )
-            .map(SimpleDateFormat::new)
-            .collect(ImmutableList.toImmutableList());
+    /**
+     * ISO-8601 date-time with offset, e.g. {@code 2018-03-12T10:44:05.37-04:00};
+     * the offset may be {@code Z}, with or without a colon.
+     */
+    private static final DateTimeFormatter ISO_OFFSET = new DateTimeFormatterBuilder()
+            .parseCaseInsensitive()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+            .optionalStart().appendOffset("+HH:MM", "Z").optionalEnd()
+            .optionalStart().appendOffset("+HHMM", "Z").optionalEnd()
+            .toFormatter(Locale.US);
 
-    private final ImmutableList<DateFormat> alternativeFormats;
+    /**
+     * Cookie and HTTP header date, e.g. {@code Fri, 16 Feb 2018 16:41:27 GMT}.
+     */
+    private static final DateTimeFormatter RFC_1123 = DateTimeFormatter.ofPattern("EEE, d MMM yyyy HH:mm:ss zzz", Locale.US);
 
-    public MoreFlexibleDateDeserializer(Iterable<DateFormat> alternativeFormats) {
+    /**
+     * Local date-time as written by some Java serializers, e.g. {@code Feb 16, 2018 4:41:27 PM}.
+     * The zone in which such values are read is set per instance.
+     */
+    private static final DateTimeFormatter US_LOCAL = DateTimeFormatter.ofPattern("MMM d, yyyy h:mm:ss a", Locale.US);
+
+    /**
+     * Local date-time format in the zone of this instance.
+     */
+    private final DateTimeFormatter usLocal;
+
+    /**
+     * Built-in formats followed by any additional formats.
+     */
+    private final ImmutableList<DateTimeFormatter> formats;
+
+    private final ImmutableList<DateFormat> legacyFormats;
+
+    private MoreFlexibleDateDeserializer(ZoneId localZone, Iterable<DateTimeFormatter> additionalFormats, Iterable<DateFormat> legacyFormats) {
         super(Date.class);
-        this.alternativeFormats = ImmutableList.copyOf(alternativeFormats);
+        this.usLocal = US_LOCAL.withZone(localZone);
+        this.formats = ImmutableList.<DateTimeFormatter>builder()
+                .add(ISO_OFFSET, RFC_1123, usLocal)
+                .addAll(additionalFormats)
+                .build();
+        this.legacyFormats = ImmutableList.copyOf(legacyFormats);
     }
 
     public MoreFlexibleDateDeserializer() {
-        this(DEFAULT_SUPPORTED_DATE_FORMATS);
+        this(ZoneId.systemDefault(), ImmutableList.of(), ImmutableList.of());
     }
 
-    protected Stream<DateFormat> streamSupportedFormats(DeserializationContext ctxt) {
-        DateFormat contextFormat = ctxt.getConfig().getDateFormat();
-        return Stream.concat(alternativeFormats.stream(), Stream.of(contextFormat));
+    /**
+     * Creates an instance that tries the given formats before the built-in formats.
+     * The given formats are not thread-safe, so each is used by one thread at a time.
+     * @param alternativeFormats formats to try first
+     * @deprecated use {@link #withAdditionalFormats(Iterable)}, whose formats may be used concurrently
+     */
+    @Deprecated
+    public MoreFlexibleDateDeserializer(Iterable<DateFormat> alternativeFormats) {
+        this(ZoneId.systemDefault(), ImmutableList.of(), alternativeFormats);
+    }
+
+    /**
+     * Creates an instance that supports the built-in formats and the given formats.
+     * Formats must resolve to an instant, meaning they parse an offset or zone or
+     * have a zone override.
+     * @param additionalFormats formats to try if a value does not match a built-in format
+     * @return a new instance
+     */
+    public static MoreFlexibleDateDeserializer withAdditionalFormats(Iterable<DateTimeFormatter> additionalFormats) {
+        return new MoreFlexibleDateDeserializer(ZoneId.systemDefault(), additionalFormats, ImmutableList.of());
+    }
+
+    /**
+     * Creates an instance that reads date-times without an offset or zone in the
+     * given zone instead of the system default zone.
+     * @param localZone zone of local date-times
+     * @return a new instance
+     */
+    public static MoreFlexibleDateDeserializer withLocalZone(ZoneId localZone) {
+        return new MoreFlexibleDateDeserializer(requireNonNull(localZone), ImmutableList.of(), ImmutableList.of());
     }
 
     @Override
     public Date deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
         JsonToken token = p.getCurrentToken();
         if (token == JsonToken.VALUE_STRING) {
-            String dateStr = p.getValueAsString();
-            @Nullable Date date = streamSupportedFormats(ctxt)
-                    .map(dateFormat -> {
-                        try {
-                            Date result = dateFormat.parse(dateStr);
-                            return result;
-                        } catch (ParseException ignore) {
-                            return null;
-                        }
-                    }).filter(Objects::nonNull)
-                    .findFirst().orElse(null);
+            String dateStr = p.getValueAsString().trim();
+            @Nullable Date legacyDate = parseWithLegacyFormats(dateStr);
+            if (legacyDate != null) {
+                return legacyDate;
+            }
+            @Nullable Instant instant = parseInstant(dateStr, lastUsedFormat(ctxt));
+            if (instant != null) {
+                return Date.from(instant);
+            }
+        }
+        return super._parseDate(p, ctxt);
+    }
+
+    @Nullable
+    private Date parseWithLegacyFormats(String text) {
+        for (DateFormat format : legacyFormats) {
+            @Nullable Date date;
+            synchronized (format) {
+                date = format.parse(text, new ParsePosition(0));
+            }
             if (date != null) {
                 return date;
             }
         }
-        return super._parseDate(p, ctxt);
+        return null;
+    }
+
+    /**
+     * Gets the last-used format holder of the current read, creating it on the first date.
+     */
+    private LastUsedFormat lastUsedFormat(DeserializationContext ctxt) {
+        @Nullable LastUsedFormat lastUsedFormat = (LastUsedFormat) ctxt.getAttribute(this);
+        if (lastUsedFormat == null) {
+            lastUsedFormat = new LastUsedFormat();
+            ctxt.setAttribute(this, lastUsedFormat);
+        }
+        return lastUsedFormat;
+    }
+
+    /**
+     * Format that most recently parsed a value, among all formats, within one read.
+     * Not thread-safe; a holder is used by the one thread performing the read.
+     */
+    static final class LastUsedFormat {
+        @Nullable
+        DateTimeFormatter format;
+    }
+
+    @Nullable
+    Instant parseInstant(String text) {
+        return parseInstant(text, new LastUsedFormat());
+    }
+
+    @Nullable
+    Instant parseInstant(String text, LastUsedFormat lastUsedFormat) {
+        @Nullable DateTimeFormatter lastUsed = lastUsedFormat.format;
+        if (lastUsed != null) {
+            @Nullable Instant instant = parse(lastUsed, text);
+            if (instant != null) {
+                return instant;
+            }
+        }
+        @Nullable DateTimeFormatter sniffed = sniffFormat(text);
+        if (sniffed != null && sniffed != lastUsed) {
+            @Nullable Instant instant = parse(sniffed, text);
+            if (instant != null) {
+                lastUsedFormat.format = sniffed;
+                return instant;
+            }
+        }
+        for (DateTimeFormatter format : formats) {
+            if (format != lastUsed && format != sniffed && matches(format, text)) {
+                @Nullable Instant instant = parse(format, text);
+                if (instant != null) {
+                    lastUsedFormat.format = format;
+                    return instant;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Chooses a built-in format by the shape of the text.
+     * @param text the text
+     * @return the format, or null if the shape is not recognized
+     */
+    @Nullable
+    DateTimeFormatter sniffFormat(String text) {
+        if (text.length() < 10) {
+            return null;
+        }
+        char first = text.charAt(0);
+        if (isAsciiDigit(first)) {
+            if (text.charAt(4) == '-' && text.charAt(7) == '-' && text.length() > 10 && (text.charAt(10) == 'T' || text.charAt(10) == 't')) {
+                return ISO_OFFSET;
+            }
+        } else if (isAsciiLetter(first)) {
+            return text.charAt(3) == ',' ? RFC_1123 : usLocal;
+        }
+        return null;
+    }
+
+    /**
+     * Tests whether text matches a format, without resolving the parsed fields
+     * and without throwing an exception if the text does not match.
+     * @param format the format
+     * @param text the text
+     * @return true if the whole text matches the format
+     */
+    static boolean matches(DateTimeFormatter format, String text) {
+        ParsePosition position = new ParsePosition(0);
+        return format.parseUnresolved(text, position) != null && position.getErrorIndex() < 0 && position.getIndex() == text.length();
+    }
+
+    /**
+     * Parses text as an instant. Use this with a format the text is expected to match,
+     * because a mismatch costs an exception.
+     * @param format the format
+     * @param text the text
+     * @return the instant, or null if the text does not match the format or has an invalid value
+     */
+    @Nullable
+    static Instant parse(DateTimeFormatter format, String text) {
+        try {
+            return format.parse(text, Instant::from);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static boolean isAsciiDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static boolean isAsciiLetter(char ch) {
+        return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z');
     }
 }
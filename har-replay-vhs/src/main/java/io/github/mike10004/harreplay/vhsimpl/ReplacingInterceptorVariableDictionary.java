@@ -29,10 +29,11 @@ public class ReplacingInterceptorVariableDictionary implements VariableDictionar
 
     public ReplacingInterceptorVariableDictionary(ParsedRequest request) {
         this.request = requireNonNull(request);
-        headersList = Suppliers.memoize(() -> StringMapEntryList.caseInsensitive(request.indexedHeaders.entries()));
+        headersList = Suppliers.memoize(() -> StringMapEntryList.caseInsensitive(request.getIndexedHeaders().entries()));
         queryParamsList = Suppliers.memoize(() -> {
-            if (request.query != null) {
-                return caseSensitiveWithOptionalValues(request.query);
+            @Nullable Multimap<String, Optional<String>> query = request.getQuery();
+            if (query != null) {
+                return caseSensitiveWithOptionalValues(query);
             } else {
                 return NameValuePairList.StringMapEntryList.empty();
             }
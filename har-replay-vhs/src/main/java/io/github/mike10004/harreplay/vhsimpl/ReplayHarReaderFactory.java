@@ -0,0 +1,41 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.sstoehr.harreader.HarReaderMode;
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarLog;
+import de.sstoehr.harreader.model.HarRequest;
+import de.sstoehr.harreader.model.HarResponse;
+
+/**
+ * Factory of readers that bind only the HAR fields read by the replay engine,
+ * which are the request method, URL, headers, body size and post data, and the
+ * response status, headers, body size and content. Ignored properties are
+ * skipped at the token level, so they are never deserialized or retained.
+ * Har objects produced by these readers are not suitable for purposes other than
+ * replay, because the ignored properties are null or empty.
+ */
+public class ReplayHarReaderFactory extends EasierHarReaderFactory {
+
+    @Override
+    protected void configureMapper(ObjectMapper mapper, HarReaderMode mode) {
+        super.configureMapper(mapper, mode);
+        mapper.addMixIn(HarLog.class, HarLogMixin.class);
+        mapper.addMixIn(HarEntry.class, HarEntryMixin.class);
+        mapper.addMixIn(HarRequest.class, HarRequestMixin.class);
+        mapper.addMixIn(HarResponse.class, HarResponseMixin.class);
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true, value = {"version", "creator", "browser", "pages", "comment"})
+    private static abstract class HarLogMixin {}
+
+    @JsonIgnoreProperties(ignoreUnknown = true, value = {"pageref", "startedDateTime", "time", "cache", "timings", "serverIPAddress", "connection", "comment"})
+    private static abstract class HarEntryMixin {}
+
+    @JsonIgnoreProperties(ignoreUnknown = true, value = {"httpVersion", "cookies", "queryString", "headersSize", "comment"})
+    private static abstract class HarRequestMixin {}
+
+    @JsonIgnoreProperties(ignoreUnknown = true, value = {"statusText", "httpVersion", "cookies", "redirectURL", "headersSize", "comment"})
+    private static abstract class HarResponseMixin {}
+}
@@ -0,0 +1,146 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.sstoehr.harreader.HarReaderMode;
+import de.sstoehr.harreader.model.HarEntry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reader of the entries of a HAR file that binds one entry at a time. Unlike
+ * {@link de.sstoehr.harreader.HarReader}, which binds the entire file, this reader
+ * holds only the current entry in memory, so it may be used to process HAR files
+ * of any size. Properties of the log other than the entries are skipped.
+ */
+public class StreamingHarReader {
+
+    private final ObjectMapper mapper;
+
+    public StreamingHarReader(ObjectMapper mapper) {
+        this.mapper = requireNonNull(mapper);
+    }
+
+    /**
+     * Creates a reader that binds entries in the same way as readers created by the given factory.
+     * @param factory the factory
+     * @param mode the reader mode
+     * @return a new reader
+     */
+    public static StreamingHarReader create(HarReaderFactory factory, HarReaderMode mode) {
+        return new StreamingHarReader(factory.createMapper(mode));
+    }
+
+    /**
+     * Opens a HAR file and positions the returned iterator at the first entry.
+     * A file compressed with gzip or zstd is decompressed as it is read.
+     * @param harFile the HAR file
+     * @return an iterator that must be closed after use
+     * @throws IOException if the file cannot be opened or is not a HAR
+     */
+    public EntryIterator open(File harFile) throws IOException {
+        return open(HarInputStreams.open(harFile));
+    }
+
+    /**
+     * Opens a stream of HAR content and positions the returned iterator at the first entry.
+     * Closing the iterator closes the stream.
+     * @param harStream the stream
+     * @return an iterator that must be closed after use
+     * @throws IOException if the stream cannot be read or does not contain a HAR
+     */
+    public EntryIterator open(InputStream harStream) throws IOException {
+        return open(mapper.getFactory().createParser(harStream));
+    }
+
+    private EntryIterator open(JsonParser parser) throws IOException {
+        boolean positioned = false;
+        try {
+            boolean hasEntries = seekField(parser, "log") && seekField(parser, "entries");
+            if (hasEntries && parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("expected array of entries at " + parser.getCurrentLocation());
+            }
+            positioned = true;
+            return new EntryIterator(parser, hasEntries);
+        } finally {
+            if (!positioned) {
+                parser.close();
+            }
+        }
+    }
+
+    /**
+     * Advances into the next object and past the name of a field, skipping other fields.
+     * @return true if the field was found, false if the object ended first
+     */
+    private static boolean seekField(JsonParser parser, String fieldName) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("expected object containing '" + fieldName + "' at " + parser.getCurrentLocation());
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            if (fieldName.equals(parser.getCurrentName())) {
+                return true;
+            }
+            parser.nextToken();
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    /**
+     * Iterator of the entries of a HAR. Methods of this class throw
+     * {@link UncheckedIOException} if an entry cannot be read.
+     */
+    public final class EntryIterator implements Iterator<HarEntry>, Closeable {
+
+        private final JsonParser parser;
+        private boolean exhausted;
+        private HarEntry next;
+
+        private EntryIterator(JsonParser parser, boolean hasEntries) {
+            this.parser = parser;
+            exhausted = !hasEntries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !exhausted) {
+                try {
+                    if (parser.nextToken() == JsonToken.START_OBJECT) {
+                        next = mapper.readValue(parser, HarEntry.class);
+                    } else {
+                        exhausted = true;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public HarEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            HarEntry entry = next;
+            next = null;
+            return entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            exhausted = true;
+            parser.close();
+        }
+    }
+}
@@ -1,15 +1,24 @@
 package io.github.mike10004.harreplay.vhsimpl;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.net.HostAndPort;
-import de.sstoehr.harreader.HarReader;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import de.sstoehr.harreader.HarReaderException;
 import de.sstoehr.harreader.model.HarEntry;
+import io.github.mike10004.harreplay.ReloadableReplaySessionControl;
 import io.github.mike10004.harreplay.ReplayManager;
 import io.github.mike10004.harreplay.ReplayServerConfig;
 import io.github.mike10004.harreplay.ReplayServerConfig.Replacement;
 import io.github.mike10004.harreplay.ReplayServerConfig.ResponseHeaderTransform;
 import io.github.mike10004.harreplay.ReplaySessionConfig;
-import io.github.mike10004.harreplay.ReplaySessionControl;
 import io.github.mike10004.vhs.BasicHeuristic;
 import io.github.mike10004.vhs.EntryMatcher;
 import io.github.mike10004.vhs.EntryMatcherFactory;
@@ -17,6 +26,7 @@ import io.github.mike10004.vhs.EntryParser;
 import io.github.mike10004.vhs.HarBridgeEntryParser;
 import io.github.mike10004.vhs.HarResponseEncoderFactory;
 import io.github.mike10004.vhs.HeuristicEntryMatcher;
+import io.github.mike10004.vhs.HttpRespondable;
 import io.github.mike10004.vhs.ResponseInterceptor;
 import io.github.mike10004.vhs.VirtualHarServer;
 import io.github.mike10004.vhs.VirtualHarServerControl;
@@ -25,28 +35,103 @@ import io.github.mike10004.vhs.bmp.BmpResponseManufacturer;
 import io.github.mike10004.vhs.bmp.BrowsermobVhsConfig;
 import io.github.mike10004.vhs.bmp.BrowsermobVirtualHarServer;
 import io.github.mike10004.vhs.bmp.HarReplayManufacturer;
+import io.github.mike10004.vhs.bmp.ImpersonationCertificateCache;
 import io.github.mike10004.vhs.bmp.KeystoreData;
-import io.github.mike10004.vhs.bmp.NanohttpdTlsEndpointFactory;
+import io.github.mike10004.vhs.bmp.KeystoreGenerator;
+import io.github.mike10004.vhs.bmp.LazyCertificateAndKeySource;
+import io.github.mike10004.vhs.bmp.NettyTlsEndpointFactory;
 import io.github.mike10004.vhs.bmp.ScratchDirProvider;
+import io.github.mike10004.vhs.harbridge.EncodedVariantCache;
+import io.github.mike10004.vhs.harbridge.HarBridge;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import io.github.mike10004.vhs.harbridge.VariantPrecompressor;
+import io.github.mike10004.vhs.harbridge.archive.ArchiveHarBridge;
+import io.github.mike10004.vhs.harbridge.archive.ArchivedEntry;
+import io.github.mike10004.vhs.harbridge.archive.ReplayArchive;
 import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
+import io.netty.channel.EventLoopGroup;
+import net.lightbody.bmp.mitm.CertificateAndKeySource;
+import net.lightbody.bmp.mitm.keys.RSAKeyGenerator;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 
-public class VhsReplayManager implements ReplayManager {
+/**
+ * Replay manager that serves HAR content from an in-process proxy. The manager retains
+ * loaded HAR content, certificates and background threads for reuse by the sessions it
+ * starts; {@link #close() close} it when no more sessions are to be started, after the
+ * sessions it started have been stopped.
+ */
+public class VhsReplayManager implements ReplayManager, Closeable {
+
+    /**
+     * Name of the file in the keystore cache directory where impersonation certificates
+     * are persisted. Certificates are persisted only if keystores are cached, because
+     * otherwise the root certificate that signs them differs from manager to manager.
+     */
+    static final String IMPERSONATION_CERTIFICATES_FILENAME = "vhs-impersonation-certificates";
+
+    /**
+     * Maximum number of loaded HAR files retained for reuse by later sessions.
+     */
+    static final int LOADED_HAR_CACHE_SIZE = 8;
+
+    /**
+     * Maximum total size in kilobytes of the HAR files whose entries are retained so that
+     * a changed set of files may be loaded without reading the unchanged files again.
+     * The size of a file on disk stands in for the memory its parsed entries occupy.
+     */
+    static final long LOADED_HAR_FILE_CACHE_MAX_KILOBYTES = 256 * 1024;
+
+    private static final long TLS_SHUTDOWN_TIMEOUT_MS = 1000;
 
     private VhsReplayManagerConfig config;
     private final EntryMatcherFactory entryMatcherFactory;
+    private final EncodedVariantCache encodedVariantCache;
+    // shared by all files and reloads; weak, so strings of unloaded entries are released
+    private final Interner<String> headerInterner;
+    private final KeystoreGenerator keystoreGenerator;
+    private final Cache<LoadedHarKey, LoadedHar> loadedHars;
+    private final Cache<Path, LoadedHarFile<?>> loadedHarFiles;
+    private final CertificateAndKeySource rootCertificateSource;
+    private final ImpersonationCertificateCache impersonationCertificateCache;
+    @Nullable
+    private NettyTlsEndpointFactory tlsEndpointFactory;
+    @Nullable
+    private EventLoopGroup tlsEventLoopGroup;
+    @Nullable
+    private ExecutorService precompressionExecutor;
+    @Nullable
+    private ExecutorService harLoaderExecutor;
 
     public VhsReplayManager() {
         this(VhsReplayManagerConfig.getDefault());
@@ -59,61 +144,517 @@ public class VhsReplayManager implements ReplayManager {
     protected VhsReplayManager(VhsReplayManagerConfig config, EntryMatcherFactory entryMatcherFactory) {
         this.config = requireNonNull(config, "config");
         this.entryMatcherFactory = requireNonNull(entryMatcherFactory, "entryMatcherFactory");
+        this.encodedVariantCache = EncodedVariantCache.create();
+        this.headerInterner = Interners.newWeakInterner();
+        this.keystoreGenerator = createKeystoreGenerator(config);
+        loadedHars = CacheBuilder.newBuilder().maximumSize(LOADED_HAR_CACHE_SIZE).build();
+        loadedHarFiles = CacheBuilder.newBuilder()
+                .maximumWeight(LOADED_HAR_FILE_CACHE_MAX_KILOBYTES)
+                .weigher((Path file, LoadedHarFile<?> harFile) -> (int) Math.min(Integer.MAX_VALUE, harFile.version.size / 1024))
+                .build();
+        rootCertificateSource = new LazyCertificateAndKeySource(keystoreGenerator, null);
+        @Nullable Path certificatesFile = config.keystoreCacheDir == null ? null : config.keystoreCacheDir.resolve(IMPERSONATION_CERTIFICATES_FILENAME);
+        impersonationCertificateCache = new ImpersonationCertificateCache(rootCertificateSource, new RSAKeyGenerator(), certificatesFile);
+    }
+
+    private static KeystoreGenerator createKeystoreGenerator(VhsReplayManagerConfig config) {
+        if (config.keystoreCacheDir == null) {
+            return config.keystoreGenerator;
+        }
+        return KeystoreGenerator.cached(config.keystoreGenerator, config.keystoreType, config.keystoreCacheDir);
     }
 
     protected EntryParser<HarEntry> createHarEntryParser() {
-        HarResponseEncoderFactory<HarEntry> responseEncoderFactory = HarResponseEncoderFactory.alwaysIdentityEncoding();
-        return new HarBridgeEntryParser<>(new SstoehrHarBridge(), responseEncoderFactory);
+        HarResponseEncoderFactory<HarEntry> responseEncoderFactory = HarResponseEncoderFactory.negotiating(encodedVariantCache);
+        return new HarBridgeEntryParser<>(new SstoehrHarBridge(), responseEncoderFactory, headerInterner);
+    }
+
+    protected EntryParser<ArchivedEntry> createArchivedEntryParser() {
+        return new HarBridgeEntryParser<>(new ArchiveHarBridge(), HarResponseEncoderFactory.negotiating(encodedVariantCache), headerInterner);
+    }
+
+    /**
+     * Class that represents the product of loading a HAR file or replay archive.
+     */
+    protected static final class LoadedHar {
+
+        public final EntryMatcher entryMatcher;
+
+        /**
+         * Hosts of the HTTPS requests in the HAR.
+         */
+        public final ImmutableSet<String> httpsHosts;
+
+        public LoadedHar(EntryMatcher entryMatcher, Iterable<String> httpsHosts) {
+            this.entryMatcher = requireNonNull(entryMatcher);
+            this.httpsHosts = ImmutableSet.copyOf(httpsHosts);
+        }
+    }
+
+    /**
+     * Version of a HAR file, identified by its real path, modification time and size.
+     */
+    protected static final class HarFileVersion {
+
+        public final Path file;
+        public final long lastModified;
+        public final long size;
+
+        private HarFileVersion(Path file, long lastModified, long size) {
+            this.file = requireNonNull(file);
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        public static HarFileVersion of(Path file) throws IOException {
+            Path realFile = file.toRealPath();
+            return new HarFileVersion(realFile, Files.getLastModifiedTime(realFile).toMillis(), Files.size(realFile));
+        }
+
+        public boolean isSameVersion(HarFileVersion other) {
+            return file.equals(other.file) && lastModified == other.lastModified && size == other.size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return isSameVersion((HarFileVersion) o);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, lastModified, size);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s:%d:%d", file, lastModified, size);
+        }
+    }
+
+    /**
+     * Key of a loaded HAR: the versions of its files, in order of precedence, and the
+     * pruner applied to their entries.
+     */
+    private static final class LoadedHarKey {
+
+        public final ImmutableList<HarFileVersion> versions;
+        public final EntryPruner pruner;
+
+        public LoadedHarKey(List<HarFileVersion> versions, EntryPruner pruner) {
+            this.versions = ImmutableList.copyOf(versions);
+            this.pruner = requireNonNull(pruner);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LoadedHarKey that = (LoadedHarKey) o;
+            return versions.equals(that.versions) && pruner.equals(that.pruner);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(versions, pruner);
+        }
+    }
+
+    /**
+     * Entries read from one HAR file or replay archive, with the parser for them.
+     * @param <E> entry type
+     */
+    private static final class LoadedHarFile<E> {
+
+        public final HarFileVersion version;
+        public final List<E> entries;
+        public final EntryParser<E> parser;
+        public final ImmutableSet<String> httpsHosts;
+
+        public LoadedHarFile(HarFileVersion version, List<E> entries, EntryParser<E> parser, Iterable<String> httpsHosts) {
+            this.version = requireNonNull(version);
+            this.entries = requireNonNull(entries);
+            this.parser = requireNonNull(parser);
+            this.httpsHosts = ImmutableSet.copyOf(httpsHosts);
+        }
+
+        public void addSourcedEntries(List<SourcedEntry<?>> destination) {
+            for (E entry : entries) {
+                destination.add(new SourcedEntry<>(entry, parser));
+            }
+        }
+    }
+
+    /**
+     * Entry paired with the parser for its type, so that entries read from
+     * HAR files and replay archives may be matched as one list.
+     * @param <E> entry type
+     */
+    private static final class SourcedEntry<E> {
+
+        public final E entry;
+        public final EntryParser<E> parser;
+
+        public SourcedEntry(E entry, EntryParser<E> parser) {
+            this.entry = entry;
+            this.parser = parser;
+        }
+
+        public ParsedRequest parseRequest() throws IOException {
+            return parser.parseRequest(entry);
+        }
+
+        public HttpRespondable parseResponse(ParsedRequest request) throws IOException {
+            return parser.parseResponse(request, entry);
+        }
+    }
+
+    private static final class SourcedEntryParser implements EntryParser<SourcedEntry<?>> {
+
+        @Override
+        public ParsedRequest parseRequest(SourcedEntry<?> harEntry) throws IOException {
+            return harEntry.parseRequest();
+        }
+
+        @Override
+        public HttpRespondable parseResponse(ParsedRequest request, SourcedEntry<?> harEntry) throws IOException {
+            return harEntry.parseResponse(request);
+        }
     }
 
-    protected EntryMatcher buildHarEntryMatcher(ReplaySessionConfig sessionConfig) throws IOException {
-        HarReader harReader = config.harReaderFactory.createReader();
-        List<HarEntry> entries;
+    /**
+     * Loads the HAR files of a session. Each file is read only if it is new or has changed
+     * since it was last read by this manager; files to be read are read in parallel.
+     * If the session has more than one file, their entries are merged into one list in
+     * the order of precedence specified by the configuration. Entries are pruned as
+     * specified by the replay server configuration before they are indexed for matching.
+     * @param sessionConfig the session configuration
+     * @param versions the HAR files of the session, resolved in order of precedence
+     * @return the loaded HAR
+     * @throws IOException on I/O error
+     */
+    protected LoadedHar loadHar(ReplaySessionConfig sessionConfig, List<HarFileVersion> versions) throws IOException {
+        List<LoadedHarFile<?>> harFiles = loadHarFiles(versions);
+        EntryPruner pruner = EntryPruner.fromConfig(sessionConfig.replayServerConfig);
+        if (harFiles.size() == 1) {
+            LoadedHarFile<?> harFile = harFiles.get(0);
+            return new LoadedHar(createEntryMatcher(harFile, pruner), harFile.httpsHosts);
+        }
+        List<SourcedEntry<?>> entries = new ArrayList<>();
+        Set<String> httpsHosts = new LinkedHashSet<>();
+        for (LoadedHarFile<?> harFile : harFiles) {
+            harFile.addSourcedEntries(entries);
+            httpsHosts.addAll(harFile.httpsHosts);
+        }
+        EntryMatcher harEntryMatcher = createEntryMatcher(entries, new SourcedEntryParser(), pruner);
+        return new LoadedHar(harEntryMatcher, httpsHosts);
+    }
+
+    private <E> EntryMatcher createEntryMatcher(LoadedHarFile<E> harFile, EntryPruner pruner) throws IOException {
+        return createEntryMatcher(harFile.entries, harFile.parser, pruner);
+    }
+
+    private <E> EntryMatcher createEntryMatcher(List<E> entries, EntryParser<E> parser, EntryPruner pruner) throws IOException {
+        if (pruner.isPassThrough()) {
+            return entryMatcherFactory.createEntryMatcher(entries, parser);
+        }
+        EntryPruner.PrunedEntries<E> pruned = pruner.prune(entries, parser);
+        return entryMatcherFactory.createEntryMatcher(pruned.entries, pruned.multiplicities, parser);
+    }
+
+    /**
+     * Lists the HAR files of a session in order of precedence. Directories are
+     * expanded to the HAR files and replay archives they contain, in order of name.
+     */
+    private List<HarFileVersion> resolveHarFiles(List<File> harFilesOrDirectories) throws IOException {
+        List<HarFileVersion> versions = new ArrayList<>();
+        for (File harFileOrDirectory : harFilesOrDirectories) {
+            Path path = harFileOrDirectory.toPath();
+            if (Files.isDirectory(path)) {
+                List<Path> children;
+                try (Stream<Path> childStream = Files.list(path)) {
+                    children = childStream.sorted().collect(Collectors.toList());
+                }
+                for (Path child : children) {
+                    if (isHarFile(child)) {
+                        versions.add(HarFileVersion.of(child));
+                    }
+                }
+            } else {
+                versions.add(HarFileVersion.of(path));
+            }
+        }
+        switch (config.harPrecedence) {
+            case FIRST:
+                break;
+            case LAST:
+                Collections.reverse(versions);
+                break;
+            case NEWEST:
+                versions.sort(Comparator.comparingLong((HarFileVersion version) -> version.lastModified).reversed());
+                break;
+            default:
+                throw new IllegalStateException("unhandled: " + config.harPrecedence);
+        }
+        return versions;
+    }
+
+    private static boolean isHarFile(Path file) throws IOException {
+        String filename = file.getFileName().toString();
+        if (filename.startsWith(".") || !Files.isRegularFile(file)) {
+            return false;
+        }
+        return HarInputStreams.hasHarFilenameSuffix(filename) || ReplayArchive.isArchive(file.toFile());
+    }
+
+    private List<LoadedHarFile<?>> loadHarFiles(List<HarFileVersion> versions) throws IOException {
+        List<LoadedHarFile<?>> harFiles = new ArrayList<>(versions.size());
+        List<Integer> unloadedIndexes = new ArrayList<>();
+        for (HarFileVersion version : versions) {
+            @Nullable LoadedHarFile<?> harFile = loadedHarFiles.getIfPresent(version.file);
+            if (harFile == null || !harFile.version.isSameVersion(version)) {
+                harFile = null;
+                unloadedIndexes.add(harFiles.size());
+            }
+            harFiles.add(harFile);
+        }
+        if (unloadedIndexes.size() == 1) {
+            int index = unloadedIndexes.get(0);
+            harFiles.set(index, loadHarFile(versions.get(index)));
+        } else if (!unloadedIndexes.isEmpty()) {
+            ExecutorService executor = getHarLoaderExecutor();
+            List<Future<LoadedHarFile<?>>> futures = new ArrayList<>(unloadedIndexes.size());
+            try {
+                for (int index : unloadedIndexes) {
+                    HarFileVersion version = versions.get(index);
+                    futures.add(executor.submit(() -> loadHarFile(version)));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    harFiles.set(unloadedIndexes.get(i), Futures.getChecked(futures.get(i), IOException.class));
+                }
+            } catch (RejectedExecutionException e) {
+                throw new IOException("manager is closed", e);
+            } finally {
+                futures.forEach(future -> future.cancel(true));
+            }
+        }
+        return harFiles;
+    }
+
+    private LoadedHarFile<?> loadHarFile(HarFileVersion version) throws IOException {
+        File file = version.file.toFile();
+        LoadedHarFile<?> harFile;
+        if (ReplayArchive.isArchive(file)) {
+            ReplayArchive archive = ReplayArchive.open(file);
+            harFile = loadEntries(version, archive.getEntries(), new ArchiveHarBridge(), createArchivedEntryParser());
+        } else {
+            harFile = loadEntries(version, readHarEntries(file), new SstoehrHarBridge(), createHarEntryParser());
+        }
+        loadedHarFiles.put(version.file, harFile);
+        return harFile;
+    }
+
+    /**
+     * Reads the entries of a HAR file, which may be compressed.
+     * @param harFile the HAR file
+     * @return the entries
+     * @throws IOException if the file cannot be read or parsed
+     */
+    protected List<HarEntry> readHarEntries(File harFile) throws IOException {
         try {
-            entries = harReader.readFromFile(sessionConfig.harFile).getLog().getEntries();
+            return config.harReaderFactory.readHarFile(harFile, config.harReaderMode).getLog().getEntries();
         } catch (HarReaderException e) {
             throw new IOException(e);
         }
-        EntryParser<HarEntry> parser = createHarEntryParser();
-        EntryMatcher harEntryMatcher = entryMatcherFactory.createEntryMatcher(entries, parser);
-        return harEntryMatcher;
     }
 
+    private <E> LoadedHarFile<E> loadEntries(HarFileVersion version, List<E> entries, HarBridge<E> bridge, EntryParser<E> parser) {
+        startPrecompression(entries, bridge);
+        return new LoadedHarFile<>(version, entries, parser, collectHttpsHosts(entries, bridge));
+    }
+
+    private static <E> Set<String> collectHttpsHosts(List<E> entries, HarBridge<E> bridge) {
+        Set<String> hosts = new LinkedHashSet<>();
+        for (E entry : entries) {
+            try {
+                URI uri = new URI(bridge.getRequestUrl(entry));
+                if ("https".equalsIgnoreCase(uri.getScheme()) && uri.getHost() != null) {
+                    hosts.add(uri.getHost().toLowerCase());
+                }
+            } catch (URISyntaxException ignore) {
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Starts compressing response bodies in the background, if enabled by the configuration,
+     * so that encodings too slow to apply on the request path may be served. Bodies of all
+     * HAR files are compressed one file at a time on a single thread owned by this manager.
+     * @param entries the entries
+     * @param bridge the bridge
+     * @param <E> entry type
+     */
+    protected <E> void startPrecompression(List<E> entries, HarBridge<E> bridge) {
+        if (config.brotliPrecompressionQuality == null) {
+            return;
+        }
+        VariantPrecompressor precompressor = VariantPrecompressor.brotli(encodedVariantCache, config.brotliPrecompressionQuality);
+        try {
+            precompressor.precompressAsync(entries, bridge, getPrecompressionExecutor());
+        } catch (RejectedExecutionException e) {
+            LoggerFactory.getLogger(VhsReplayManager.class).debug("precompression not started because manager is closed");
+        }
+    }
+
+    /**
+     * Gets the pool on which HAR files are read when more than one must be read at once.
+     * The pool is shared by all sessions started by this manager.
+     */
+    private synchronized ExecutorService getHarLoaderExecutor() {
+        if (harLoaderExecutor == null) {
+            harLoaderExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactoryBuilder()
+                    .setNameFormat("vhs-har-loader-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return harLoaderExecutor;
+    }
+
+    private synchronized ExecutorService getPrecompressionExecutor() {
+        if (precompressionExecutor == null) {
+            precompressionExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("vhs-precompression-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return precompressionExecutor;
+    }
+
+    /**
+     * Gets the loaded form of the HAR files of a session. Sessions started by this manager
+     * with the same files and the same entry pruning share the parsed entries, which are
+     * loaded again only if a file is added, removed or modified.
+     * @param sessionConfig the session configuration
+     * @return the loaded HAR
+     * @throws IOException on I/O error
+     */
+    private LoadedHar getLoadedHar(ReplaySessionConfig sessionConfig) throws IOException {
+        List<HarFileVersion> versions = resolveHarFiles(sessionConfig.harFiles);
+        LoadedHarKey key = new LoadedHarKey(versions, EntryPruner.fromConfig(sessionConfig.replayServerConfig));
+        try {
+            return loadedHars.get(key, () -> loadHar(sessionConfig, versions));
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IOException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a session whose content may be reloaded without restarting the proxy server.
+     */
     @Override
-    public ReplaySessionControl start(ReplaySessionConfig sessionConfig) throws IOException {
-        EntryMatcher harEntryMatcher = buildHarEntryMatcher(sessionConfig);
-        EntryMatcher compositeEntryMatcher = enhanceEntryMatcherFromConfig(harEntryMatcher, sessionConfig.replayServerConfig);
-        List<ResponseInterceptor> interceptors = new ArrayList<>();
-        interceptors.addAll(buildInterceptorsForReplacements(sessionConfig.replayServerConfig.replacements));
-        interceptors.addAll(buildInterceptorsForTransforms(sessionConfig.replayServerConfig.responseHeaderTransforms));
+    public ReloadableReplaySessionControl start(ReplaySessionConfig sessionConfig) throws IOException {
+        LoadedHar loadedHar = getLoadedHar(sessionConfig);
+        EntryMatcher compositeEntryMatcher = enhanceEntryMatcherFromConfig(loadedHar.entryMatcher, sessionConfig.replayServerConfig);
+        List<ResponseInterceptor> interceptors = buildInterceptors(sessionConfig.replayServerConfig);
+        HarReplayManufacturer responseManufacturer = createResponseManufacturer(compositeEntryMatcher, interceptors);
         int port = sessionConfig.port;
-        VirtualHarServer vhs = createVirtualHarServer(port, sessionConfig.scratchDir, compositeEntryMatcher, interceptors, config.bmpResponseListener);
+        VirtualHarServer vhs = createVirtualHarServer(port, sessionConfig.scratchDir, responseManufacturer, config.bmpResponseListener, loadedHar.httpsHosts);
         VirtualHarServerControl ctrl = vhs.start();
         Runnable stopListener = () -> {
             sessionConfig.serverTerminationCallbacks.forEach(c -> {
                 c.terminated(null);
             });
         };
-        return new VhsReplaySessionControl(ctrl, true, stopListener);
+        Reloader reloader = (harFiles, replayServerConfig) -> {
+            ReplaySessionConfig reloadConfig = ReplaySessionConfig.builder(sessionConfig.scratchDir)
+                    .port(sessionConfig.port)
+                    .config(replayServerConfig)
+                    .build(harFiles);
+            LoadedHar reloaded = getLoadedHar(reloadConfig);
+            EntryMatcher reloadedEntryMatcher = enhanceEntryMatcherFromConfig(reloaded.entryMatcher, replayServerConfig);
+            responseManufacturer.replace(reloadedEntryMatcher, buildInterceptors(replayServerConfig));
+        };
+        return new VhsReplaySessionControl(ctrl, true, stopListener, reloader);
     }
 
-    protected BmpResponseManufacturer createResponseManufacturer(EntryMatcher entryMatcher, Iterable<ResponseInterceptor> responseInterceptors) {
+    private List<ResponseInterceptor> buildInterceptors(ReplayServerConfig serverConfig) {
+        List<ResponseInterceptor> interceptors = new ArrayList<>();
+        interceptors.addAll(buildInterceptorsForReplacements(serverConfig.replacements));
+        interceptors.addAll(buildInterceptorsForTransforms(serverConfig.responseHeaderTransforms));
+        return interceptors;
+    }
+
+    protected HarReplayManufacturer createResponseManufacturer(EntryMatcher entryMatcher, Iterable<ResponseInterceptor> responseInterceptors) {
         return new HarReplayManufacturer(entryMatcher, responseInterceptors);
     }
 
-    protected VirtualHarServer createVirtualHarServer(int port, Path scratchParentDir, EntryMatcher entryMatcher, Iterable<ResponseInterceptor> responseInterceptors, BmpResponseListener bmpResponseListener) throws IOException {
-        try {
-            KeystoreData keystoreData = config.keystoreGenerator.generate("localhost");
-            BmpResponseManufacturer responseManufacturer = createResponseManufacturer(entryMatcher, responseInterceptors);
-            BrowsermobVhsConfig.Builder configBuilder = BrowsermobVhsConfig.builder(responseManufacturer)
-                    .port(port)
-                    .responseListener(bmpResponseListener)
-                    .tlsEndpointFactory(NanohttpdTlsEndpointFactory.create(keystoreData, null))
-                    .scratchDirProvider(ScratchDirProvider.under(scratchParentDir));
-            BrowsermobVhsConfig config = configBuilder.build();
-            return new BrowsermobVirtualHarServer(config);
-        } catch (GeneralSecurityException e) {
-            throw new IOException(e);
+    protected VirtualHarServer createVirtualHarServer(int port, Path scratchParentDir, BmpResponseManufacturer responseManufacturer, BmpResponseListener bmpResponseListener, Collection<String> httpsHosts) throws IOException {
+        BrowsermobVhsConfig.Builder configBuilder = BrowsermobVhsConfig.builder(responseManufacturer)
+                .port(port)
+                .responseListener(bmpResponseListener)
+                .tlsEndpointFactory(getTlsEndpointFactory())
+                .bypassUpstreamTls(config.bypassUpstreamTls)
+                .maxRequestBufferSizeBytes(config.maxRequestBufferSizeBytes)
+                .concurrency(config.concurrency)
+                .certificateAndKeySource(rootCertificateSource)
+                .impersonationCertificateCache(impersonationCertificateCache)
+                .scratchDirProvider(ScratchDirProvider.under(scratchParentDir));
+        if (config.certificatePrewarmMode != null) {
+            configBuilder.prewarmCertificates(httpsHosts, config.certificatePrewarmMode);
+        }
+        BrowsermobVhsConfig config = configBuilder.build();
+        return new BrowsermobVirtualHarServer(config);
+    }
+
+    /**
+     * Gets the factory of TLS endpoints, which is shared by all sessions started by this manager.
+     * @return the factory
+     * @throws IOException on error generating the endpoint keystore
+     */
+    private synchronized NettyTlsEndpointFactory getTlsEndpointFactory() throws IOException {
+        if (tlsEndpointFactory == null) {
+            try {
+                KeystoreData keystoreData = keystoreGenerator.generate("localhost");
+                EventLoopGroup eventLoopGroup = NettyTlsEndpointFactory.createEventLoopGroup(0);
+                try {
+                    tlsEndpointFactory = NettyTlsEndpointFactory.create(keystoreData, null, eventLoopGroup);
+                } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                    eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+                    throw e;
+                }
+                tlsEventLoopGroup = eventLoopGroup;
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+        return tlsEndpointFactory;
+    }
+
+    /**
+     * Releases the resources retained by this manager. Background precompression and
+     * HAR loading are stopped, TLS endpoints are closed and the event loop group that serves them is shut down.
+     * Sessions started by this manager should be stopped first.
+     */
+    @Override
+    public synchronized void close() {
+        if (precompressionExecutor != null) {
+            precompressionExecutor.shutdownNow();
+        }
+        if (harLoaderExecutor != null) {
+            harLoaderExecutor.shutdownNow();
+        }
+        if (tlsEndpointFactory != null) {
+            tlsEndpointFactory.close();
+        }
+        if (tlsEventLoopGroup != null) {
+            tlsEventLoopGroup.shutdownGracefully(0, TLS_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS).awaitUninterruptibly(TLS_SHUTDOWN_TIMEOUT_MS);
         }
     }
 
@@ -130,16 +671,33 @@ public class VhsReplayManager implements ReplayManager {
         return new CompositeEntryMatcher(Arrays.asList(mappingEntryMatcher, harEntryMatcher));
     }
 
-    private static class VhsReplaySessionControl implements ReplaySessionControl {
+    private interface Reloader {
+        void reload(List<File> harFiles, ReplayServerConfig replayServerConfig) throws IOException;
+    }
+
+    private static class VhsReplaySessionControl implements ReloadableReplaySessionControl {
 
         private final VirtualHarServerControl ctrl;
         private volatile boolean alive;
         private final Runnable stopListener;
+        private final Reloader reloader;
 
-        private VhsReplaySessionControl(VirtualHarServerControl ctrl, boolean alive, Runnable stopListener) {
+        private VhsReplaySessionControl(VirtualHarServerControl ctrl, boolean alive, Runnable stopListener, Reloader reloader) {
             this.ctrl = ctrl;
             this.alive = alive;
             this.stopListener = stopListener;
+            this.reloader = reloader;
+        }
+
+        /**
+         * Loads the HAR and builds the entry matcher on the calling thread, then swaps
+         * them into the response manufacturer of the running server. The proxy server,
+         * its TLS endpoint and its impersonation certificates are retained.
+         */
+        @Override
+        public synchronized void reload(List<File> harFiles, ReplayServerConfig replayServerConfig) throws IOException {
+            checkState(alive, "session is stopped");
+            reloader.reload(harFiles, replayServerConfig);
         }
 
         @Override
@@ -2,12 +2,17 @@ package io.github.mike10004.harreplay.vhsimpl;
 
 import de.sstoehr.harreader.HarReaderMode;
 import io.github.mike10004.vhs.bmp.BmpResponseListener;
+import io.github.mike10004.vhs.bmp.BrowsermobVhsConfig.PrewarmMode;
+import io.github.mike10004.vhs.bmp.ConcurrencyConfig;
 import io.github.mike10004.vhs.bmp.KeystoreGenerator;
 import io.github.mike10004.vhs.bmp.KeystoreType;
+import io.github.mike10004.vhs.harbridge.HttpContentCodecs;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.nio.file.Path;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 public class VhsReplayManagerConfig {
@@ -16,16 +21,99 @@ public class VhsReplayManagerConfig {
 
     public final Path mappedFileResolutionRoot;
     public final KeystoreGenerator keystoreGenerator;
+    public final KeystoreType keystoreType;
+
+    /**
+     * Directory in which generated keystores are stored for reuse by later sessions;
+     * null if keystores are generated anew for each session.
+     * @see io.github.mike10004.vhs.bmp.CachingKeystoreGenerator
+     */
+    @Nullable
+    public final Path keystoreCacheDir;
     public final BmpResponseListener bmpResponseListener;
     public final HarReaderFactory harReaderFactory;
     public final HarReaderMode harReaderMode;
 
+    /**
+     * Brotli quality with which response bodies are compressed in the background
+     * after the HAR is loaded; null if brotli precompression is disabled, which is
+     * the default. Brotli-encoded responses are served only from precompressed variants.
+     * Bodies are compressed one at a time on a single thread owned by the manager.
+     */
+    @Nullable
+    public final Integer brotliPrecompressionQuality;
+
+    /**
+     * Mode in which certificates that impersonate the HTTPS hosts in the HAR are
+     * generated at session start; null if they are generated on demand.
+     */
+    @Nullable
+    public final PrewarmMode certificatePrewarmMode;
+
+    /**
+     * Thread configuration of the proxy and TLS endpoint.
+     */
+    public final ConcurrencyConfig concurrency;
+
+    /**
+     * Flag specifying that the proxy skips the TLS handshake with its TLS endpoint
+     * when intercepting HTTPS traffic. False by default, in which case the proxy
+     * performs a full handshake with the endpoint for each intercepted connection.
+     * @see io.github.mike10004.vhs.bmp.BrowsermobVhsConfig#bypassUpstreamTls
+     */
+    public final boolean bypassUpstreamTls;
+
+    /**
+     * Maximum size in bytes of a request whose body is buffered so that it may be
+     * considered in matching; zero, the default, means request bodies are not buffered.
+     * @see io.github.mike10004.vhs.bmp.BrowsermobVhsConfig#maxRequestBufferSizeBytes
+     */
+    public final int maxRequestBufferSizeBytes;
+
+    /**
+     * Precedence among the HAR files of a session when entries from more than one
+     * file match a request equally well.
+     */
+    public final HarPrecedence harPrecedence;
+
+    /**
+     * Enumeration of orders of precedence among the HAR files of a session.
+     * Files in a directory are ordered by name before precedence is applied.
+     * A HAR file takes precedence only among entries that match a request equally
+     * well; a better match is served regardless of the file it comes from.
+     */
+    public enum HarPrecedence {
+
+        /**
+         * Files earlier in the list of HAR files take precedence.
+         */
+        FIRST,
+
+        /**
+         * Files later in the list of HAR files take precedence.
+         */
+        LAST,
+
+        /**
+         * Files modified more recently take precedence.
+         */
+        NEWEST
+    }
+
     private VhsReplayManagerConfig(Builder builder) {
         mappedFileResolutionRoot = builder.mappedFileResolutionRoot;
-        keystoreGenerator = builder.keystoreGenerator;
+        keystoreType = builder.keystoreType;
+        keystoreGenerator = builder.keystoreGenerator == null ? KeystoreGenerator.createJreGenerator(keystoreType) : builder.keystoreGenerator;
+        keystoreCacheDir = builder.keystoreCacheDir;
         bmpResponseListener = builder.bmpResponseListener;
         harReaderFactory = builder.harReaderFactory;
         harReaderMode = builder.harReaderMode;
+        brotliPrecompressionQuality = builder.brotliPrecompressionQuality;
+        certificatePrewarmMode = builder.certificatePrewarmMode;
+        concurrency = builder.concurrency;
+        bypassUpstreamTls = builder.bypassUpstreamTls;
+        maxRequestBufferSizeBytes = builder.maxRequestBufferSizeBytes;
+        harPrecedence = builder.harPrecedence;
     }
 
     public static VhsReplayManagerConfig getDefault() {
@@ -40,17 +128,33 @@ public class VhsReplayManagerConfig {
     @SuppressWarnings("unused")
     public static final class Builder {
         private Path mappedFileResolutionRoot;
+        @Nullable
         private KeystoreGenerator keystoreGenerator;
+        private KeystoreType keystoreType;
+        @Nullable
+        private Path keystoreCacheDir;
         private BmpResponseListener bmpResponseListener;
         private HarReaderFactory harReaderFactory;
         private HarReaderMode harReaderMode;
+        @Nullable
+        private Integer brotliPrecompressionQuality;
+        @Nullable
+        private PrewarmMode certificatePrewarmMode;
+        private ConcurrencyConfig concurrency;
+        private boolean bypassUpstreamTls;
+        private int maxRequestBufferSizeBytes;
+        private HarPrecedence harPrecedence;
 
         private Builder() {
             mappedFileResolutionRoot = new File(System.getProperty("user.dir")).toPath();
             bmpResponseListener = (x, y) -> {};
-            keystoreGenerator = KeystoreGenerator.createJreGenerator(KeystoreType.PKCS12);
-            harReaderFactory = HarReaderFactory.easier();
+            keystoreType = KeystoreType.PKCS12;
+            harReaderFactory = HarReaderFactory.replay();
             harReaderMode = HarReaderMode.STRICT;
+            brotliPrecompressionQuality = null;
+            certificatePrewarmMode = PrewarmMode.BACKGROUND;
+            concurrency = ConcurrencyConfig.defaults();
+            harPrecedence = HarPrecedence.FIRST;
         }
 
         public Builder mappedFileResolutionRoot(Path val) {
@@ -63,6 +167,27 @@ public class VhsReplayManagerConfig {
             return this;
         }
 
+        /**
+         * Sets the type of keystore to generate. If a keystore generator is specified,
+         * it must produce keystores of this type.
+         * @param val keystore type
+         * @return this builder instance
+         */
+        public Builder keystoreType(KeystoreType val) {
+            keystoreType = requireNonNull(val);
+            return this;
+        }
+
+        /**
+         * Sets the directory in which generated keystores are stored for reuse across sessions.
+         * @param val the directory
+         * @return this builder instance
+         */
+        public Builder keystoreCacheDir(Path val) {
+            keystoreCacheDir = requireNonNull(val);
+            return this;
+        }
+
         public Builder bmpResponseListener(BmpResponseListener val) {
             bmpResponseListener = requireNonNull(val);
             return this;
@@ -78,6 +203,54 @@ public class VhsReplayManagerConfig {
             return this;
         }
 
+        public Builder brotliPrecompressionQuality(int quality) {
+            checkArgument(quality >= 0 && quality <= HttpContentCodecs.BROTLI_QUALITY_MAX, "quality must be in [0, %s]: %s", HttpContentCodecs.BROTLI_QUALITY_MAX, quality);
+            this.brotliPrecompressionQuality = quality;
+            return this;
+        }
+
+        public Builder disableBrotliPrecompression() {
+            this.brotliPrecompressionQuality = null;
+            return this;
+        }
+
+        public Builder certificatePrewarmMode(PrewarmMode val) {
+            this.certificatePrewarmMode = requireNonNull(val);
+            return this;
+        }
+
+        public Builder disableCertificatePrewarming() {
+            this.certificatePrewarmMode = null;
+            return this;
+        }
+
+        public Builder concurrency(ConcurrencyConfig val) {
+            this.concurrency = requireNonNull(val);
+            return this;
+        }
+
+        /**
+         * Sets whether the proxy skips the TLS handshake with its TLS endpoint.
+         * @param val true to skip the handshake
+         * @return this builder instance
+         * @see VhsReplayManagerConfig#bypassUpstreamTls
+         */
+        public Builder bypassUpstreamTls(boolean val) {
+            this.bypassUpstreamTls = val;
+            return this;
+        }
+
+        public Builder maxRequestBufferSizeBytes(int val) {
+            checkArgument(val >= 0, "max request buffer size must be nonnegative: %s", val);
+            this.maxRequestBufferSizeBytes = val;
+            return this;
+        }
+
+        public Builder harPrecedence(HarPrecedence val) {
+            this.harPrecedence = requireNonNull(val);
+            return this;
+        }
+
         public VhsReplayManagerConfig build() {
             return new VhsReplayManagerConfig(this);
         }
@@ -0,0 +1,165 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import com.google.common.collect.ImmutableList;
+import de.sstoehr.harreader.model.HarContent;
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarRequest;
+import de.sstoehr.harreader.model.HarResponse;
+import de.sstoehr.harreader.model.HttpMethod;
+import io.github.mike10004.harreplay.ReplayServerConfig.EntryFilter;
+import io.github.mike10004.harreplay.ReplayServerConfig.RegexHolder;
+import io.github.mike10004.harreplay.ReplayServerConfig.StringLiteral;
+import io.github.mike10004.vhs.EntryParser;
+import io.github.mike10004.vhs.HarBridgeEntryParser;
+import io.github.mike10004.vhs.HarResponseEncoderFactory;
+import io.github.mike10004.vhs.HttpRespondable;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EntryPrunerTest {
+
+    private final EntryParser<HarEntry> parser = new HarBridgeEntryParser<>(new SstoehrHarBridge(), HarResponseEncoderFactory.alwaysIdentityEncoding());
+
+    @Test
+    public void passThrough() throws Exception {
+        EntryPruner pruner = new EntryPruner(ImmutableList.of(), false);
+        assertTrue("pass through", pruner.isPassThrough());
+        List<HarEntry> entries = Arrays.asList(makeEntry(HttpMethod.GET, "http://example.com/", 200, "a"), makeEntry(HttpMethod.GET, "http://example.com/", 200, "a"));
+        assertEquals("entries", entries, pruner.prune(entries, parser).entries);
+    }
+
+    @Test
+    public void filter() throws Exception {
+        EntryPruner pruner = new EntryPruner(ImmutableList.of(
+                EntryFilter.status(0),
+                EntryFilter.method("OPTIONS"),
+                EntryFilter.host(StringLiteral.of("stats.example.com")),
+                EntryFilter.url(RegexHolder.of(".*/beacon\\?.*"))), false);
+        List<HarEntry> entries = Arrays.asList(
+                makeEntry(HttpMethod.GET, "http://example.com/keep", 200, "keep"),
+                makeEntry(HttpMethod.GET, "http://example.com/blocked", 0, ""),
+                makeEntry(HttpMethod.OPTIONS, "http://example.com/keep", 204, ""),
+                makeEntry(HttpMethod.GET, "http://stats.example.com/x", 200, "x"),
+                makeEntry(HttpMethod.GET, "http://example.com/beacon?t=1", 200, ""),
+                makeEntry(HttpMethod.POST, "http://example.com/keep", 404, "missing"));
+        EntryPruner.PrunedEntries<HarEntry> pruned = pruner.prune(entries, parser);
+        assertEquals("urls", Arrays.asList("http://example.com/keep", "http://example.com/keep"), urls(pruned.entries));
+        assertEquals("numFiltered", 4, pruned.numFiltered);
+        assertEquals("multiplicities", Arrays.asList(1, 1), pruned.multiplicities);
+    }
+
+    @Test
+    public void collapseDuplicates() throws Exception {
+        EntryPruner pruner = new EntryPruner(ImmutableList.of(), true);
+        List<HarEntry> entries = Arrays.asList(
+                makeEntry(HttpMethod.GET, "http://example.com/beacon", 204, ""),
+                makeEntry(HttpMethod.GET, "http://example.com/a", 200, "first"),
+                makeEntry(HttpMethod.GET, "http://example.com/beacon", 204, ""),
+                makeEntry(HttpMethod.GET, "http://example.com/a", 200, "second"),
+                makeEntry(HttpMethod.GET, "http://example.com/beacon", 204, ""));
+        EntryPruner.PrunedEntries<HarEntry> pruned = pruner.prune(entries, parser);
+        assertEquals("urls", Arrays.asList("http://example.com/beacon", "http://example.com/a", "http://example.com/a"), urls(pruned.entries));
+        assertEquals("retained first", entries.get(0), pruned.entries.get(0));
+        assertEquals("multiplicities", Arrays.asList(3, 1, 1), pruned.multiplicities);
+        assertEquals("numCollapsed", 2, pruned.numCollapsed);
+    }
+
+    @Test
+    public void collapseDuplicates_onlyConsecutiveWithinMethodAndUrl() throws Exception {
+        EntryPruner pruner = new EntryPruner(ImmutableList.of(), true);
+        List<HarEntry> entries = Arrays.asList(
+                makeEntry(HttpMethod.GET, "http://example.com/a", 200, "first"),
+                makeEntry(HttpMethod.GET, "http://example.com/a", 200, "first"),
+                makeEntry(HttpMethod.GET, "http://example.com/a", 200, "second"),
+                makeEntry(HttpMethod.GET, "http://example.com/a", 200, "first"));
+        EntryPruner.PrunedEntries<HarEntry> pruned = pruner.prune(entries, parser);
+        assertEquals("retained", Arrays.asList(entries.get(0), entries.get(2), entries.get(3)), pruned.entries);
+        assertEquals("multiplicities", Arrays.asList(2, 1, 1), pruned.multiplicities);
+        assertEquals("numCollapsed", 1, pruned.numCollapsed);
+    }
+
+    @Test
+    public void collapseDuplicates_responsesParsedOnlyForSameRequests() throws Exception {
+        EntryPruner pruner = new EntryPruner(ImmutableList.of(), true);
+        List<HarEntry> entries = Arrays.asList(
+                makeEntry(HttpMethod.GET, "http://example.com/a", 200, "a"),
+                makeEntry(HttpMethod.GET, "http://example.com/b", 200, "b"),
+                makeEntry(HttpMethod.GET, "http://example.com/c", 200, "c"),
+                makeEntry(HttpMethod.GET, "http://example.com/b", 200, "b"));
+        List<HarEntry> parsedResponses = new ArrayList<>();
+        EntryPruner.PrunedEntries<HarEntry> pruned = pruner.prune(entries, countingParser(parsedResponses));
+        assertEquals("urls", Arrays.asList("http://example.com/a", "http://example.com/b", "http://example.com/c"), urls(pruned.entries));
+        assertEquals("entries whose responses were parsed", Arrays.asList(entries.get(1), entries.get(3)), parsedResponses);
+    }
+
+    @Test
+    public void filter_responsesParsedOnlyForStatusFilteredRequests() throws Exception {
+        EntryPruner pruner = new EntryPruner(ImmutableList.of(
+                new EntryFilter(ImmutableList.of(0), null, StringLiteral.of("stats.example.com"), null)), false);
+        List<HarEntry> entries = Arrays.asList(
+                makeEntry(HttpMethod.GET, "http://example.com/blocked", 0, ""),
+                makeEntry(HttpMethod.GET, "http://stats.example.com/blocked", 0, ""),
+                makeEntry(HttpMethod.GET, "http://stats.example.com/ok", 200, "ok"));
+        List<HarEntry> parsedResponses = new ArrayList<>();
+        EntryPruner.PrunedEntries<HarEntry> pruned = pruner.prune(entries, countingParser(parsedResponses));
+        assertEquals("urls", Arrays.asList("http://example.com/blocked", "http://stats.example.com/ok"), urls(pruned.entries));
+        assertEquals("entries whose responses were parsed", entries.subList(1, 3), parsedResponses);
+    }
+
+    @Test
+    public void equalsAndHashCode() {
+        EntryPruner a = new EntryPruner(ImmutableList.of(EntryFilter.status(0), EntryFilter.method("OPTIONS")), true);
+        EntryPruner b = new EntryPruner(ImmutableList.of(EntryFilter.status(0), EntryFilter.method("OPTIONS")), true);
+        assertEquals("equal", a, b);
+        assertEquals("hash code", a.hashCode(), b.hashCode());
+        assertNotEquals("collapse differs", a, new EntryPruner(ImmutableList.of(EntryFilter.status(0), EntryFilter.method("OPTIONS")), false));
+        assertNotEquals("filters differ", a, new EntryPruner(ImmutableList.of(EntryFilter.status(0)), true));
+    }
+
+    private EntryParser<HarEntry> countingParser(List<HarEntry> parsedResponses) {
+        return new EntryParser<HarEntry>() {
+            @Override
+            public ParsedRequest parseRequest(HarEntry harEntry) throws IOException {
+                return parser.parseRequest(harEntry);
+            }
+
+            @Override
+            public HttpRespondable parseResponse(ParsedRequest request, HarEntry harEntry) throws IOException {
+                parsedResponses.add(harEntry);
+                return parser.parseResponse(request, harEntry);
+            }
+        };
+    }
+
+    private static List<String> urls(List<HarEntry> entries) {
+        return entries.stream().map(entry -> entry.getRequest().getUrl()).collect(Collectors.toList());
+    }
+
+    private static HarEntry makeEntry(HttpMethod method, String url, int status, String responseText) {
+        HarEntry entry = new HarEntry();
+        HarRequest request = new HarRequest();
+        request.setMethod(method);
+        request.setUrl(url);
+        HarResponse response = new HarResponse();
+        response.setStatus(status);
+        HarContent content = new HarContent();
+        content.setText(responseText);
+        content.setMimeType("text/plain");
+        content.setSize((long) responseText.length());
+        response.setContent(content);
+        entry.setRequest(request);
+        entry.setResponse(response);
+        return entry;
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.io.ByteStreams;
+import de.sstoehr.harreader.HarReaderMode;
+import de.sstoehr.harreader.model.Har;
+import io.github.mike10004.harreplay.tests.Fixtures;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HarInputStreamsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private interface Compressor {
+        OutputStream wrap(OutputStream out) throws IOException;
+    }
+
+    @Test
+    public void open_uncompressed() throws Exception {
+        File harFile = Fixtures.copyBrowsermobGeneratedHarFile(temporaryFolder.getRoot().toPath());
+        assertFalse("compressed", HarInputStreams.isCompressed(harFile));
+        assertArrayEquals("content", Files.readAllBytes(harFile.toPath()), read(harFile));
+    }
+
+    @Test
+    public void open_gzip() throws Exception {
+        testCompressed("browsermob.har.gz", GZIPOutputStream::new);
+    }
+
+    @Test
+    public void open_zstd() throws Exception {
+        testCompressed("browsermob.har.zst", ZstdOutputStream::new);
+    }
+
+    @Test
+    public void open_zstdWithoutLibrary() throws Exception {
+        File compressedFile = new File(temporaryFolder.getRoot(), "a.har.zst");
+        try (OutputStream out = new ZstdOutputStream(new FileOutputStream(compressedFile))) {
+            out.write("{}".getBytes(StandardCharsets.UTF_8));
+        }
+        URL classesLocation = HarInputStreams.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader parent = new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (name.startsWith("com.github.luben.") || name.startsWith(HarInputStreams.class.getPackage().getName() + ".")) {
+                    throw new ClassNotFoundException(name);
+                }
+                return super.loadClass(name, resolve);
+            }
+        };
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classesLocation}, parent)) {
+            Method isCompressed = loader.loadClass(HarInputStreams.class.getName()).getMethod("isCompressed", File.class);
+            assertEquals("compressed", Boolean.TRUE, isCompressed.invoke(null, compressedFile));
+            Method open = loader.loadClass(HarInputStreams.class.getName()).getMethod("open", File.class);
+            try {
+                ((InputStream) open.invoke(null, compressedFile)).close();
+                fail("should have thrown");
+            } catch (InvocationTargetException e) {
+                assertTrue("cause is IOException: " + e.getCause(), e.getCause() instanceof IOException);
+                assertTrue("cause of cause is LinkageError: " + e.getCause().getCause(), e.getCause().getCause() instanceof LinkageError);
+            }
+        }
+    }
+
+    @Test
+    public void hasHarFilenameSuffix() {
+        assertTrue(HarInputStreams.hasHarFilenameSuffix("a.har"));
+        assertTrue(HarInputStreams.hasHarFilenameSuffix("a.HAR.GZ"));
+        assertTrue(HarInputStreams.hasHarFilenameSuffix("a.har.zst"));
+        assertFalse(HarInputStreams.hasHarFilenameSuffix("a.gz"));
+        assertFalse(HarInputStreams.hasHarFilenameSuffix("a.har.bak"));
+    }
+
+    private void testCompressed(String filename, Compressor compressor) throws Exception {
+        File harFile = Fixtures.copyBrowsermobGeneratedHarFile(temporaryFolder.getRoot().toPath());
+        File compressedFile = new File(temporaryFolder.getRoot(), filename);
+        try (OutputStream out = compressor.wrap(new FileOutputStream(compressedFile))) {
+            Files.copy(harFile.toPath(), out);
+        }
+        assertTrue("compressed", HarInputStreams.isCompressed(compressedFile));
+        assertArrayEquals("content", Files.readAllBytes(harFile.toPath()), read(compressedFile));
+        HarReaderFactory factory = HarReaderFactory.easier();
+        Har expected = factory.readHarFile(harFile, HarReaderMode.STRICT);
+        Har actual = factory.readHarFile(compressedFile, HarReaderMode.STRICT);
+        assertEquals("num entries", expected.getLog().getEntries().size(), actual.getLog().getEntries().size());
+        try (StreamingHarReader.EntryIterator entries = StreamingHarReader.create(factory, HarReaderMode.STRICT).open(compressedFile)) {
+            assertEquals("first url", expected.getLog().getEntries().get(0).getRequest().getUrl(), entries.next().getRequest().getUrl());
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        try (InputStream in = HarInputStreams.open(file)) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
@@ -42,6 +42,9 @@ public class MoreFlexibleDateDeserializerTest {
         return Arrays.asList(new TestCase[]{
                 TestCase.of("2018-03-12T10:44:05.37-04:00", "2018-03-12T10:44:05.37-04:00"),
                 TestCase.of("2018-03-12T10:44:05.37+09:00", "2018-03-12T10:44:05.37+09:00"),
+                TestCase.of("2018-03-12T10:44:05.370Z", "2018-03-12T10:44:05.37Z"),
+                TestCase.of("2018-03-12T10:44:05.370-0400", "2018-03-12T10:44:05.37-04:00"),
+                TestCase.of("Mon, 12 Mar 2018 14:44:05 GMT", "2018-03-12T14:44:05Z"),
                 TestCase.of("Feb 16, 2018 4:41:27 PM", localIsoFormat.parse("2018-02-16T16:41:27")),
                 TestCase.of(new Date().getTime()),
                 new TestCase(JsonNull.INSTANCE, null, ex -> false),
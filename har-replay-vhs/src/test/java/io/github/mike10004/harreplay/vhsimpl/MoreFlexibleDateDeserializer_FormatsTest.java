@@ -0,0 +1,138 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
+import io.github.mike10004.harreplay.vhsimpl.MoreFlexibleDateDeserializer.LastUsedFormat;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class MoreFlexibleDateDeserializer_FormatsTest {
+
+    private static Date deserialize(MoreFlexibleDateDeserializer deserializer, String dateStr) throws IOException {
+        return createMapper(deserializer).readValue(new JsonPrimitive(dateStr).toString(), Date.class);
+    }
+
+    private static ObjectMapper createMapper(MoreFlexibleDateDeserializer deserializer) {
+        ObjectMapper mapper = new ObjectMapper();
+        SimpleModule module = new SimpleModule();
+        module.addDeserializer(Date.class, deserializer);
+        mapper.registerModule(module);
+        return mapper;
+    }
+
+    @Test
+    public void zuluIsUtcInAnyLocalZone() throws Exception {
+        MoreFlexibleDateDeserializer deserializer = MoreFlexibleDateDeserializer.withLocalZone(ZoneId.of("Asia/Tokyo"));
+        Date actual = deserialize(deserializer, "2018-03-12T10:44:05.370Z");
+        assertEquals("instant", Instant.parse("2018-03-12T10:44:05.370Z"), actual.toInstant());
+    }
+
+    @Test
+    public void localZone() throws Exception {
+        ZoneId zone = ZoneId.of("Asia/Tokyo");
+        Date actual = deserialize(MoreFlexibleDateDeserializer.withLocalZone(zone), "Feb 16, 2018 4:41:27 PM");
+        assertEquals("instant", LocalDateTime.parse("2018-02-16T16:41:27").atZone(zone).toInstant(), actual.toInstant());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void legacyFormats() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy/MM/dd HH:mm", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date actual = deserialize(new MoreFlexibleDateDeserializer(Collections.singletonList(format)), "2018/03/12 10:44");
+        assertEquals("instant", Instant.parse("2018-03-12T10:44:00Z"), actual.toInstant());
+    }
+
+    @Test
+    public void additionalFormats() throws Exception {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm", Locale.US).withZone(ZoneOffset.UTC);
+        MoreFlexibleDateDeserializer deserializer = MoreFlexibleDateDeserializer.withAdditionalFormats(Collections.singletonList(format));
+        LastUsedFormat lastUsedFormat = new LastUsedFormat();
+        for (int i = 0; i < 2; i++) {
+            assertEquals("additional format", Instant.parse("2018-03-12T10:44:00Z"), deserializer.parseInstant("2018/03/12 10:44", lastUsedFormat));
+            assertSame("last used", format, lastUsedFormat.format);
+            assertEquals("built-in format", Instant.parse("2018-03-12T14:44:05Z"), deserializer.parseInstant("Mon, 12 Mar 2018 14:44:05 GMT", lastUsedFormat));
+        }
+    }
+
+    @Test
+    public void mixedFormatsInOneRead() throws Exception {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm", Locale.US).withZone(ZoneOffset.UTC);
+        ObjectMapper mapper = createMapper(MoreFlexibleDateDeserializer.withAdditionalFormats(Collections.singletonList(format)));
+        JsonArray array = new JsonArray();
+        Arrays.asList("2018/03/12 10:44", "2018/03/12 10:45", "2018-03-12T10:46:00Z", "2018/03/12 10:47").forEach(array::add);
+        List<Date> actual = mapper.readValue(array.toString(), new TypeReference<List<Date>>(){});
+        assertEquals("dates", Arrays.asList(
+                Date.from(Instant.parse("2018-03-12T10:44:00Z")),
+                Date.from(Instant.parse("2018-03-12T10:45:00Z")),
+                Date.from(Instant.parse("2018-03-12T10:46:00Z")),
+                Date.from(Instant.parse("2018-03-12T10:47:00Z"))), actual);
+    }
+
+    @Test
+    public void concurrentReads() throws Exception {
+        ObjectMapper mapper = createMapper(new MoreFlexibleDateDeserializer());
+        Map<String, Instant> expectations = ImmutableMap.of(
+                "2018-03-12T10:44:05.37-04:00", Instant.parse("2018-03-12T14:44:05.370Z"),
+                "2018-03-12T10:44:05.370Z", Instant.parse("2018-03-12T10:44:05.370Z"),
+                "Mon, 12 Mar 2018 14:44:05 GMT", Instant.parse("2018-03-12T14:44:05Z"),
+                "Feb 16, 2018 4:41:27 PM", LocalDateTime.parse("2018-02-16T16:41:27").atZone(ZoneId.systemDefault()).toInstant());
+        List<String> inputs = new ArrayList<>(expectations.keySet());
+        int numThreads = 8, numIterations = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                String input = inputs.get(t % inputs.size());
+                JsonArray array = new JsonArray();
+                for (int i = 0; i < 4; i++) {
+                    array.add(input);
+                }
+                futures.add(executor.submit(() -> {
+                    int mismatches = 0;
+                    for (int i = 0; i < numIterations; i++) {
+                        List<Date> dates = mapper.readValue(array.toString(), new TypeReference<List<Date>>(){});
+                        for (Date date : dates) {
+                            assertNotNull(date);
+                            if (!expectations.get(input).equals(date.toInstant())) {
+                                mismatches++;
+                            }
+                        }
+                    }
+                    return mismatches;
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals("mismatches", 0, future.get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
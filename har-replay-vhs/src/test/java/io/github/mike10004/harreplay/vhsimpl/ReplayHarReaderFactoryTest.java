@@ -0,0 +1,49 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import de.sstoehr.harreader.HarReaderMode;
+import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarHeader;
+import io.github.mike10004.harreplay.tests.Fixtures;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ReplayHarReaderFactoryTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readHarGeneratedByBrowsermob() throws Exception {
+        File harFile = Fixtures.copyBrowsermobGeneratedHarFile(temporaryFolder.getRoot().toPath());
+        List<HarEntry> fullEntries = new EasierHarReaderFactory().createReader().readFromFile(harFile, HarReaderMode.STRICT).getLog().getEntries();
+        Har har = HarReaderFactory.replay().createReader().readFromFile(harFile, HarReaderMode.STRICT);
+        List<HarEntry> entries = har.getLog().getEntries();
+        assertEquals("num entries", fullEntries.size(), entries.size());
+        assertFalse("entries present", entries.isEmpty());
+        for (int i = 0; i < entries.size(); i++) {
+            HarEntry full = fullEntries.get(i), entry = entries.get(i);
+            assertEquals("method", full.getRequest().getMethod(), entry.getRequest().getMethod());
+            assertEquals("url", full.getRequest().getUrl(), entry.getRequest().getUrl());
+            assertEquals("request headers", describe(full.getRequest().getHeaders()), describe(entry.getRequest().getHeaders()));
+            assertEquals("status", full.getResponse().getStatus(), entry.getResponse().getStatus());
+            assertEquals("response headers", describe(full.getResponse().getHeaders()), describe(entry.getResponse().getHeaders()));
+            assertEquals("content text", full.getResponse().getContent().getText(), entry.getResponse().getContent().getText());
+            assertEquals("content type", full.getResponse().getContent().getMimeType(), entry.getResponse().getContent().getMimeType());
+            assertNull("startedDateTime", entry.getStartedDateTime());
+            assertEquals("cookies", Collections.emptyList(), entry.getRequest().getCookies());
+        }
+    }
+
+    private static List<String> describe(List<HarHeader> headers) {
+        return headers.stream().map(h -> h.getName() + ": " + h.getValue()).collect(Collectors.toList());
+    }
+}
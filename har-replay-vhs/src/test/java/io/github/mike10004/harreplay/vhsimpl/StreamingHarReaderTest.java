@@ -0,0 +1,64 @@
+package io.github.mike10004.harreplay.vhsimpl;
+
+import de.sstoehr.harreader.HarReaderMode;
+import de.sstoehr.harreader.model.HarEntry;
+import io.github.mike10004.harreplay.tests.Fixtures;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class StreamingHarReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readHarGeneratedByBrowsermob() throws Exception {
+        File harFile = Fixtures.copyBrowsermobGeneratedHarFile(temporaryFolder.getRoot().toPath());
+        HarReaderFactory factory = HarReaderFactory.easier();
+        List<HarEntry> expected = factory.createReader().readFromFile(harFile, HarReaderMode.STRICT).getLog().getEntries();
+        List<HarEntry> actual = new ArrayList<>();
+        try (StreamingHarReader.EntryIterator entries = StreamingHarReader.create(factory, HarReaderMode.STRICT).open(harFile)) {
+            entries.forEachRemaining(actual::add);
+        }
+        assertFalse("entries present", expected.isEmpty());
+        assertEquals("num entries", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("url", expected.get(i).getRequest().getUrl(), actual.get(i).getRequest().getUrl());
+            assertEquals("status", expected.get(i).getResponse().getStatus(), actual.get(i).getResponse().getStatus());
+            assertEquals("content", expected.get(i).getResponse().getContent().getText(), actual.get(i).getResponse().getContent().getText());
+        }
+    }
+
+    @Test
+    public void skipsOtherProperties() throws Exception {
+        String json = "{\"log\": {\"version\": \"1.2\", \"pages\": [{\"id\": \"p\", \"pageTimings\": {}}], " +
+                "\"entries\": [{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/a\"}}, " +
+                "{\"request\": {\"method\": \"GET\", \"url\": \"http://example.com/b\"}}], \"comment\": \"x\"}}";
+        List<String> urls = new ArrayList<>();
+        try (StreamingHarReader.EntryIterator entries = StreamingHarReader.create(HarReaderFactory.easier(), HarReaderMode.LAX)
+                .open(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))) {
+            entries.forEachRemaining(entry -> urls.add(entry.getRequest().getUrl()));
+        }
+        assertEquals("urls", Arrays.asList("http://example.com/a", "http://example.com/b"), urls);
+    }
+
+    @Test
+    public void noEntries() throws Exception {
+        String json = "{\"log\": {\"version\": \"1.2\"}}";
+        try (StreamingHarReader.EntryIterator entries = StreamingHarReader.create(HarReaderFactory.stock(), HarReaderMode.LAX)
+                .open(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))) {
+            assertFalse("hasNext", entries.hasNext());
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package io.github.mike10004.harreplay.vhsimpl;
 
 import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 import com.google.common.net.HostAndPort;
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarHeader;
+import de.sstoehr.harreader.model.HarRequest;
+import io.github.mike10004.harreplay.ReloadableReplaySessionControl;
 import io.github.mike10004.harreplay.ReplayManager;
 import io.github.mike10004.harreplay.ReplayServerConfig;
+import io.github.mike10004.harreplay.ReplayServerConfig.EntryFilter;
+import io.github.mike10004.harreplay.ReplayServerConfig.StringLiteral;
 import io.github.mike10004.harreplay.ReplaySessionConfig;
 import io.github.mike10004.harreplay.ReplaySessionControl;
 import io.github.mike10004.harreplay.tests.Fixtures.Fixture;
@@ -13,14 +20,27 @@ import io.github.mike10004.harreplay.tests.ImmutableHttpResponse;
 import io.github.mike10004.harreplay.tests.ReplayManagerTestBase;
 import io.github.mike10004.harreplay.tests.ReplayManagerTester;
 import io.github.mike10004.harreplay.tests.Tests;
+import io.github.mike10004.harreplay.vhsimpl.VhsReplayManagerConfig.HarPrecedence;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -28,9 +48,11 @@ public class VhsReplayManagerTest extends ReplayManagerTestBase {
 
     static final String SYSPROP_RESERVED_PORT = "har-replay.unit-tests.reservedPort";
 
+    private VhsReplayManagerConfig managerConfig = VhsReplayManagerConfig.getDefault();
+
     @Override
     protected ReplayManagerTester createTester(Path tempDir, File harFile, ReplayServerConfig config) {
-        return new VhsReplayManagerTester(tempDir, harFile, config);
+        return new VhsReplayManagerTester(tempDir, harFile, config, managerConfig);
     }
 
     @Override
@@ -38,6 +60,19 @@ public class VhsReplayManagerTest extends ReplayManagerTestBase {
         return SYSPROP_RESERVED_PORT;
     }
 
+    @Test
+    public void bypassUpstreamTls_disabledByDefault() {
+        assertFalse("bypass by default", VhsReplayManagerConfig.getDefault().bypassUpstreamTls);
+    }
+
+    @Test
+    public void https_bypassUpstreamTls() throws Exception {
+        managerConfig = VhsReplayManagerConfig.builder()
+                .bypassUpstreamTls(true)
+                .build();
+        https();
+    }
+
     @Test
     public void unmatchedDoesNotHang() throws Exception {
         ReplayManager replayManager = new VhsReplayManager();
@@ -82,6 +117,231 @@ public class VhsReplayManagerTest extends ReplayManagerTestBase {
 
     private static final CharMatcher ASCII = CharMatcher.ascii();
 
+    @Test
+    public void sessionsShareLoadedHar() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        VhsReplayManager replayManager = new VhsReplayManager() {
+            @Override
+            protected LoadedHar loadHar(ReplaySessionConfig sessionConfig, List<HarFileVersion> versions) throws IOException {
+                loads.incrementAndGet();
+                return super.loadHar(sessionConfig, versions);
+            }
+        };
+        Fixture fixture = fixturesRule.getFixtures().http();
+        URI url = fixture.startUrl();
+        ReplaySessionConfig config1 = ReplaySessionConfig.builder(temporaryFolder.newFolder().toPath())
+                .port(Tests.findOpenPort())
+                .build(fixture.harFile());
+        try (ReplaySessionControl ctrl1 = replayManager.start(config1)) {
+            // the second port is found after the first session has bound its port
+            ReplaySessionConfig config2 = ReplaySessionConfig.builder(temporaryFolder.newFolder().toPath())
+                    .port(Tests.findOpenPort())
+                    .build(fixture.harFile());
+            try (ReplaySessionControl ctrl2 = replayManager.start(config2)) {
+                for (ReplaySessionControl ctrl : new ReplaySessionControl[]{ctrl1, ctrl2}) {
+                    ImmutableHttpResponse rsp = Tests.fetch(ctrl.getSocketAddress(), url);
+                    assertEquals("status from " + ctrl.getSocketAddress(), 200, rsp.status);
+                }
+            }
+        }
+        assertEquals("loads", 1, loads.get());
+    }
+
+    @Test
+    public void reload() throws Exception {
+        VhsReplayManager replayManager = new VhsReplayManager();
+        File emptyHarFile = temporaryFolder.newFile();
+        Resources.asByteSource(getClass().getResource("/empty.har")).copyTo(Files.asByteSink(emptyHarFile));
+        Fixture fixture = fixturesRule.getFixtures().http();
+        URI url = fixture.startUrl();
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.newFolder().toPath())
+                .build(emptyHarFile);
+        try (ReloadableReplaySessionControl ctrl = replayManager.start(config)) {
+            HostAndPort proxyAddress = ctrl.getSocketAddress();
+            assertEquals("status before reload", 404, Tests.fetch(proxyAddress, url).status);
+            ctrl.reload(fixture.harFile(), ReplayServerConfig.empty());
+            assertEquals("status after reload", 200, Tests.fetch(proxyAddress, url).status);
+            ctrl.reload(emptyHarFile, ReplayServerConfig.empty());
+            assertEquals("status after second reload", 404, Tests.fetch(proxyAddress, url).status);
+        }
+    }
+
+    @Test
+    public void directoryOfHarFiles() throws Exception {
+        List<File> reads = Collections.synchronizedList(new ArrayList<>());
+        VhsReplayManager replayManager = new VhsReplayManager() {
+            @Override
+            protected List<HarEntry> readHarEntries(File harFile) throws IOException {
+                reads.add(harFile);
+                return super.readHarEntries(harFile);
+            }
+        };
+        File harDir = temporaryFolder.newFolder();
+        writeHar(new File(harDir, "a.har"), "http://www.example.com/a", "A");
+        writeHar(new File(harDir, "b.har"), "http://www.example.com/b", "B");
+        Files.write(new byte[0], new File(harDir, "notes.txt"));
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.newFolder().toPath())
+                .build(harDir);
+        try (ReloadableReplaySessionControl ctrl = replayManager.start(config)) {
+            assertEquals("a", "A", fetchText(ctrl, "http://www.example.com/a"));
+            assertEquals("b", "B", fetchText(ctrl, "http://www.example.com/b"));
+            assertEquals("reads", 2, reads.size());
+            writeHar(new File(harDir, "c.har"), "http://www.example.com/c", "C");
+            ctrl.reload(harDir, ReplayServerConfig.empty());
+            assertEquals("c", "C", fetchText(ctrl, "http://www.example.com/c"));
+            assertEquals("a after reload", "A", fetchText(ctrl, "http://www.example.com/a"));
+            assertEquals("reads after reload", 3, reads.size());
+            assertEquals("file read on reload", "c.har", reads.get(2).getName());
+        }
+    }
+
+    @Test
+    public void headerStringsSharedAcrossFiles() throws Exception {
+        VhsReplayManager replayManager = new VhsReplayManager();
+        // each file gets its own parser, as in a directory of HAR files
+        ParsedRequest first = replayManager.createHarEntryParser().parseRequest(createEntry("http://www.example.com/a", new String("Foo/1.0")));
+        ParsedRequest second = replayManager.createHarEntryParser().parseRequest(createEntry("http://www.example.com/b", new String("Foo/1.0")));
+        assertSame("user agent", first.getFirstHeaderValue("user-agent"), second.getFirstHeaderValue("user-agent"));
+    }
+
+    private static HarEntry createEntry(String url, String userAgent) {
+        HarRequest request = new HarRequest();
+        request.setMethod(de.sstoehr.harreader.model.HttpMethod.GET);
+        request.setUrl(url);
+        HarHeader header = new HarHeader();
+        header.setName("User-Agent");
+        header.setValue(userAgent);
+        request.getHeaders().add(header);
+        HarEntry entry = new HarEntry();
+        entry.setRequest(request);
+        return entry;
+    }
+
+    @Test
+    public void harLoaderPoolSharedAndShutDownOnClose() throws Exception {
+        Map<String, Thread> loaderThreads = new ConcurrentHashMap<>();
+        VhsReplayManager replayManager = new VhsReplayManager() {
+            @Override
+            protected List<HarEntry> readHarEntries(File harFile) throws IOException {
+                Thread current = Thread.currentThread();
+                Thread previous = loaderThreads.putIfAbsent(current.getName(), current);
+                if (previous != null) {
+                    assertSame("thread named " + current.getName(), previous, current);
+                }
+                return super.readHarEntries(harFile);
+            }
+        };
+        File harDir = temporaryFolder.newFolder();
+        try {
+            for (int round = 0; round < 3; round++) {
+                writeHar(new File(harDir, "a" + round + ".har"), "http://www.example.com/a", "A");
+                writeHar(new File(harDir, "b" + round + ".har"), "http://www.example.com/b", "B");
+                ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.newFolder().toPath())
+                        .build(harDir);
+                try (ReplaySessionControl ignore = replayManager.start(config)) {
+                    assertFalse("loader threads", loaderThreads.isEmpty());
+                }
+            }
+        } finally {
+            replayManager.close();
+        }
+        for (Thread thread : loaderThreads.values()) {
+            thread.join(5000);
+            assertFalse("alive after close: " + thread.getName(), thread.isAlive());
+        }
+    }
+
+    @Test
+    public void harPrecedence() throws Exception {
+        File first = writeHar(temporaryFolder.newFile("first.har"), "http://www.example.com/", "first");
+        File second = writeHar(temporaryFolder.newFile("second.har"), "http://www.example.com/", "second");
+        Map<HarPrecedence, String> expecteds = ImmutableMap.of(HarPrecedence.FIRST, "first", HarPrecedence.LAST, "second");
+        for (HarPrecedence precedence : expecteds.keySet()) {
+            VhsReplayManager replayManager = new VhsReplayManager(VhsReplayManagerConfig.builder().harPrecedence(precedence).build());
+            ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.newFolder().toPath())
+                    .port(Tests.findOpenPort())
+                    .build(Arrays.asList(first, second));
+            try (ReplaySessionControl ctrl = replayManager.start(config)) {
+                assertEquals("response with precedence " + precedence, expecteds.get(precedence), fetchText(ctrl, "http://www.example.com/"));
+            }
+        }
+    }
+
+    @Test
+    public void compressedHarFiles() throws Exception {
+        File harDir = temporaryFolder.newFolder();
+        File plain = writeHar(temporaryFolder.newFile("plain.har"), "http://www.example.com/gz", "gzipped");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(new File(harDir, "a.har.gz")))) {
+            Files.copy(plain, out);
+        }
+        ReplayManager replayManager = new VhsReplayManager();
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.newFolder().toPath())
+                .build(harDir);
+        try (ReplaySessionControl ctrl = replayManager.start(config)) {
+            assertEquals("gz", "gzipped", fetchText(ctrl, "http://www.example.com/gz"));
+        }
+    }
+
+    @Test
+    public void entryFilters() throws Exception {
+        File harFile = writeHar(temporaryFolder.newFile("filtered.har"), "http://ads.example.com/", "ad");
+        ReplayServerConfig serverConfig = ReplayServerConfig.builder()
+                .filterEntries(EntryFilter.host(StringLiteral.of("ads.example.com")))
+                .build();
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.newFolder().toPath())
+                .config(serverConfig)
+                .build(harFile);
+        try (ReloadableReplaySessionControl ctrl = new VhsReplayManager().start(config)) {
+            assertEquals("status", 404, Tests.fetch(ctrl.getSocketAddress(), URI.create("http://ads.example.com/")).status);
+            ctrl.reload(harFile, ReplayServerConfig.empty());
+            assertEquals("response after reload without filters", "ad", fetchText(ctrl, "http://ads.example.com/"));
+        }
+    }
+
+    @Test
+    public void precompression() throws Exception {
+        assertNull("disabled by default", VhsReplayManagerConfig.getDefault().brotliPrecompressionQuality);
+        File harDir = temporaryFolder.newFolder();
+        for (String name : new String[]{"a", "b", "c"}) {
+            writeHar(new File(harDir, name + ".har"), "http://www.example.com/" + name, StringUtils.repeat(name, 4096));
+        }
+        ReplaySessionConfig config = ReplaySessionConfig.builder(temporaryFolder.newFolder().toPath())
+                .build(harDir);
+        try (VhsReplayManager replayManager = new VhsReplayManager(VhsReplayManagerConfig.builder().brotliPrecompressionQuality(1).build())) {
+            try (ReplaySessionControl ctrl = replayManager.start(config)) {
+                assertTrue("one precompression thread for all files", countThreads("vhs-precompression-") <= 1);
+                assertEquals("a", StringUtils.repeat("a", 4096), fetchText(ctrl, "http://www.example.com/a"));
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countThreads("vhs-precompression-") > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals("precompression threads after close", 0, countThreads("vhs-precompression-"));
+    }
+
+    private static long countThreads(String namePrefix) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(Thread::isAlive)
+                .filter(thread -> thread.getName().startsWith(namePrefix))
+                .count();
+    }
+
+    private static File writeHar(File harFile, String url, String responseText) throws IOException {
+        String json = "{\"log\": {\"version\": \"1.2\", \"creator\": {\"name\": \"test\", \"version\": \"0\"}, \"entries\": [{" +
+                "\"startedDateTime\": \"2018-01-01T00:00:00.000Z\", \"time\": 1, \"timings\": {\"send\": 0, \"wait\": 0, \"receive\": 0}, " +
+                "\"request\": {\"method\": \"GET\", \"url\": \"" + url + "\", \"httpVersion\": \"HTTP/1.1\", \"headers\": [], \"queryString\": [], \"cookies\": [], \"headersSize\": -1, \"bodySize\": 0}, " +
+                "\"response\": {\"status\": 200, \"statusText\": \"OK\", \"httpVersion\": \"HTTP/1.1\", \"headers\": [], \"cookies\": [], \"redirectURL\": \"\", \"headersSize\": -1, \"bodySize\": " + responseText.length() + ", " +
+                "\"content\": {\"size\": " + responseText.length() + ", \"mimeType\": \"text/plain\", \"text\": \"" + responseText + "\"}}}]}}";
+        Files.asCharSink(harFile, StandardCharsets.UTF_8).write(json);
+        return harFile;
+    }
+
+    private static String fetchText(ReplaySessionControl ctrl, String url) throws IOException {
+        ImmutableHttpResponse rsp = Tests.fetch(ctrl.getSocketAddress(), URI.create(url));
+        return rsp.data.asCharSource(StandardCharsets.UTF_8).read();
+    }
+
     @Test
     public void nettyReflection() throws Exception {
         Class.forName("io.netty.util.internal.ReflectionUtil");
@@ -10,19 +10,25 @@ import java.nio.file.Path;
 class VhsReplayManagerTester extends ReplayManagerTester {
 
     private final ReplayServerConfig config;
+    private final VhsReplayManagerConfig managerConfig;
 
     public VhsReplayManagerTester(Path tempDir, File harFile) {
         this(tempDir, harFile, ReplayServerConfig.empty());
     }
 
     public VhsReplayManagerTester(Path tempDir, File harFile, ReplayServerConfig config) {
+        this(tempDir, harFile, config, VhsReplayManagerConfig.getDefault());
+    }
+
+    public VhsReplayManagerTester(Path tempDir, File harFile, ReplayServerConfig config, VhsReplayManagerConfig managerConfig) {
         super(tempDir, harFile);
         this.config = config;
+        this.managerConfig = managerConfig;
     }
 
     @Override
     protected ReplayManager createReplayManager() {
-        return new VhsReplayManager();
+        return new VhsReplayManager(managerConfig);
     }
 
     @Override
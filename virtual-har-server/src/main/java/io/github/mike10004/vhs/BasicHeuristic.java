@@ -154,7 +154,6 @@ public class BasicHeuristic implements Heuristic {
     public int rate(ParsedRequest entryRequest, ParsedRequest request) {
         // String name;
         URI requestUrl = request.url;
-        Multimap<String, String> requestHeaders = request.indexedHeaders;
         // method, host and pathname must match
         if (requestUrl == null) {
             return 0;
@@ -169,16 +168,11 @@ public class BasicHeuristic implements Heuristic {
             return 0;
         }
         int points = increment; // One point for matching above requirements
-        points += rateQuerySameness(entryRequest.query, request.query);
+        points += rateQuerySameness(entryRequest.getQuery(), request.getQuery());
 
-        // each header
-        Multimap<String, String> entryHeaders = entryRequest.indexedHeaders;
-        for (String name : requestHeaders.keySet()) {
-            if (entryHeaders.containsKey(name)) {
-                points += stripProtocolFromStrings(entryHeaders.get(name)).equals(stripProtocolFromStrings(requestHeaders.get(name))) ? increment : 0;
-            }
-            // TODO handle missing headers and adjust score appropriately
-        }
+        // each header; names and multisets of values are compared by fingerprint
+        points += request.getHeaderFingerprints().countSameValuedNames(entryRequest.getHeaderFingerprints()) * increment;
+        // TODO handle missing headers and adjust score appropriately
 
         if (request.method == HttpMethod.POST || request.method == HttpMethod.PUT) {
             if (!request.isBodyPresent() && !entryRequest.isBodyPresent()) {
@@ -266,10 +260,6 @@ public class BasicHeuristic implements Heuristic {
         };
     }
 
-    private static Multiset<String> stripProtocolFromStrings(Collection<String> strings) {
-        return strings.stream().map(string -> string.replaceAll("^https?", "")).collect(ImmutableMultiset.toImmutableMultiset());
-    }
-
     private static Multiset<Optional<String>> stripProtocolFromOptionals(Collection<Optional<String>> strings) {
         return strings.stream()
                 .map(stringOpt -> {
@@ -18,4 +18,21 @@ public interface EntryMatcherFactory<S> {
      */
     <E> EntryMatcher<S> createEntryMatcher(List<E> harEntries, EntryParser<E> requestParser) throws IOException;
 
+    /**
+     * Creates an entry matcher from entries each of which stands for a number of
+     * identical entries that were collapsed into it. The collapsed entries were
+     * consecutive among the entries with the same method and URL. The default
+     * implementation ignores the multiplicities, which is correct for a matcher
+     * that rates each entry independently of its position.
+     * @param <E> HAR entry type
+     * @param harEntries list of har entries
+     * @param multiplicities number of original entries that each entry stands for, in the same order as the entries
+     * @param requestParser request parser
+     * @return an entry matcher instance
+     * @throws IOException on I/O error
+     */
+    default <E> EntryMatcher<S> createEntryMatcher(List<E> harEntries, List<Integer> multiplicities, EntryParser<E> requestParser) throws IOException {
+        return createEntryMatcher(harEntries, requestParser);
+    }
+
 }
@@ -1,6 +1,7 @@
 package io.github.mike10004.vhs;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Interner;
 import com.google.common.collect.Multimap;
 import com.google.common.io.ByteSource;
 import com.google.common.net.HostAndPort;
@@ -33,10 +34,24 @@ public class HarBridgeEntryParser<E> implements EntryParser<E> {
 
     private final HarBridge<E> bridge;
     private final HarResponseEncoderFactory<E> responseEncoderFactory;
+    @Nullable
+    private final Interner<String> headerInterner;
 
     public HarBridgeEntryParser(HarBridge<E> bridge, HarResponseEncoderFactory<E> responseEncoderFactory) {
+        this(bridge, responseEncoderFactory, null);
+    }
+
+    /**
+     * Constructs an instance of the class.
+     * @param bridge the bridge
+     * @param responseEncoderFactory the response encoder factory
+     * @param headerInterner interner of the header strings of the parsed requests, or null
+     *                       if each parsed request is to retain its own header strings
+     */
+    public HarBridgeEntryParser(HarBridge<E> bridge, HarResponseEncoderFactory<E> responseEncoderFactory, @Nullable Interner<String> headerInterner) {
         this.bridge = requireNonNull(bridge);
         this.responseEncoderFactory = requireNonNull(responseEncoderFactory);
+        this.headerInterner = headerInterner;
     }
 
     public static <E> HarBridgeEntryParser<E> withPlainEncoder(HarBridge<E> bridge) {
@@ -82,15 +97,26 @@ public class HarBridgeEntryParser<E> implements EntryParser<E> {
         }
     }
 
+    /**
+     * Parses the request of an entry. The query and headers are decoded here rather
+     * than on demand, so that an entry that cannot be decoded is reported when the
+     * entries are parsed, which for a replay server is when the HAR is loaded.
+     * @param harEntry the entry
+     * @return the parsed request
+     * @throws IOException on I/O error
+     */
     @Override
     public ParsedRequest parseRequest(E harEntry) throws IOException {
         HttpMethod method = HttpMethod.valueOf(bridge.getRequestMethod(harEntry));
         URI parsedUrl = parseUrl(method, bridge.getRequestUrl(harEntry));
-        Multimap<String, Optional<String>> query = parseQuery(parsedUrl);
-        Multimap<String, String> indexedHeaders = indexHeaders(bridge.getRequestHeaders(harEntry));
         ByteSource bodySource = bridge.getRequestPostData(harEntry);
         byte[] body = bodySource.read();
-        return ParsedRequest.inMemory(method, parsedUrl, query, indexedHeaders, body);
+        @Nullable Multimap<String, Optional<String>> query = parseQuery(parsedUrl);
+        Multimap<String, String> headers = indexHeaders(bridge.getRequestHeaders(harEntry));
+        if (headerInterner != null) {
+            return ParsedRequest.interned(method, parsedUrl, query, headers, headerInterner, body);
+        }
+        return ParsedRequest.inMemoryTakingOwnership(method, parsedUrl, query, headers, body);
     }
 
     /**
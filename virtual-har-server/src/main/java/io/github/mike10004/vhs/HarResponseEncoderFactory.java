@@ -1,8 +1,12 @@
 package io.github.mike10004.vhs;
 
+import com.google.common.net.HttpHeaders;
+import io.github.mike10004.vhs.harbridge.EncodedVariantCache;
 import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
 import io.github.mike10004.vhs.harbridge.ParsedRequest;
 
+import static java.util.Objects.requireNonNull;
+
 public interface HarResponseEncoderFactory<E> {
 
     HarResponseEncoding getEncoder(ParsedRequest request, E harEntry);
@@ -10,4 +14,17 @@ public interface HarResponseEncoderFactory<E> {
     static <E> HarResponseEncoderFactory<E> alwaysIdentityEncoding() {
         return (request, entry) -> HarResponseEncoding.unencoded();
     }
+
+    /**
+     * Returns a factory that produces encoders that negotiate the content encoding
+     * from the request's {@code Accept-Encoding} header. Compressed variants are
+     * cached per HAR entry.
+     * @param variantCache the variant cache
+     * @param <E> HAR entry type
+     * @return a new factory
+     */
+    static <E> HarResponseEncoderFactory<E> negotiating(EncodedVariantCache variantCache) {
+        requireNonNull(variantCache, "variantCache");
+        return (request, entry) -> HarResponseEncoding.negotiated(request.getFirstHeaderValue(HttpHeaders.ACCEPT_ENCODING), variantCache, entry);
+    }
 }
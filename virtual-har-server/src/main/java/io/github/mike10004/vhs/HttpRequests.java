@@ -1,6 +1,6 @@
 package io.github.mike10004.vhs;
 
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Multimap;
 import io.github.mike10004.vhs.repackaged.org.apache.http.client.utils.URLEncodedUtils;
 
@@ -21,11 +21,11 @@ class HttpRequests {
      * Creates a lowercase-keyed multimap from a list of headers.
      */
     public static <V> Multimap<String, V> indexHeaders(Stream<? extends Map.Entry<String, V>> entryHeaders) {
-        Multimap<String, V> headers = ArrayListMultimap.create();
+        ImmutableListMultimap.Builder<String, V> headers = ImmutableListMultimap.builder();
         entryHeaders.forEach(header -> {
             headers.put(header.getKey().toLowerCase(), header.getValue());
         });
-        return headers;
+        return headers.build();
     }
 
     /**
@@ -45,10 +45,10 @@ class HttpRequests {
             return null;
         }
         List<Entry<String, String>> nvps = URLEncodedUtils.parse(uri, StandardCharsets.UTF_8);
-        Multimap<String, Optional<String>> mm = ArrayListMultimap.create();
+        ImmutableListMultimap.Builder<String, Optional<String>> mm = ImmutableListMultimap.builder();
         nvps.forEach(nvp -> {
             mm.put(nvp.getKey().toLowerCase(), Optional.ofNullable(nvp.getValue()));
         });
-        return mm;
+        return mm.build();
     }
 }
@@ -1,6 +1,7 @@
 package io.github.mike10004.vhs;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Range;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.AtomicLongMap;
 import io.github.mike10004.vhs.harbridge.HttpMethod;
@@ -12,26 +13,51 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.function.Function;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class StatefulHeuristicEntryMatcher extends HeuristicEntryMatcher<ReplaySessionState> {
 
     private static final int SEQUENCE_MATCH_BOOST = BasicHeuristic.DEFAULT_INCREMENT;
 
-    private final ImmutableMap<ParsedEntry, Integer> entrySequencePositions;
+    private final ImmutableMap<ParsedEntry, Range<Integer>> entrySequencePositions;
 
     public StatefulHeuristicEntryMatcher(Heuristic heuristic, int thresholdExclusive, Collection<ParsedEntry> entries) {
+        this(heuristic, thresholdExclusive, entries, Collections.nCopies(entries.size(), 1));
+    }
+
+    /**
+     * Constructs an instance of the class from entries that may stand for collapsed duplicates.
+     * @param heuristic the heuristic
+     * @param thresholdExclusive the rating threshold
+     * @param entries the entries
+     * @param multiplicities number of original entries that each entry stands for
+     * @see EntryMatcherFactory#createEntryMatcher(List, List, EntryParser)
+     */
+    public StatefulHeuristicEntryMatcher(Heuristic heuristic, int thresholdExclusive, Collection<ParsedEntry> entries, List<Integer> multiplicities) {
         super(heuristic, thresholdExclusive, entries);
-        this.entrySequencePositions = findSequencePositions(entries);
+        checkArgument(multiplicities.size() == entries.size(), "%s multiplicities for %s entries", multiplicities.size(), entries.size());
+        this.entrySequencePositions = findSequencePositions(entries, multiplicities);
     }
 
-    private static ImmutableMap<ParsedEntry, Integer> findSequencePositions(Iterable<ParsedEntry> entries) {
-        ImmutableMap.Builder<ParsedEntry, Integer> b = ImmutableMap.builder();
+    /**
+     * Finds the positions of each entry among the entries with the same method and URL.
+     * An entry that stands for collapsed duplicates occupies as many consecutive
+     * positions as the number of entries it stands for.
+     */
+    private static ImmutableMap<ParsedEntry, Range<Integer>> findSequencePositions(Iterable<ParsedEntry> entries, List<Integer> multiplicities) {
+        ImmutableMap.Builder<ParsedEntry, Range<Integer>> b = ImmutableMap.builder();
         AtomicLongMap<Pair<HttpMethod, URI>> counter = AtomicLongMap.create();
+        Iterator<Integer> multiplicityIterator = multiplicities.iterator();
         for (ParsedEntry entry : entries) {
-            int sequencePosition = Ints.saturatedCast(counter.getAndIncrement(ImmutablePair.of(entry.request.method, entry.request.url)));
-            b.put(entry, sequencePosition);
+            int multiplicity = multiplicityIterator.next();
+            checkArgument(multiplicity > 0, "multiplicity must be positive: %s", multiplicity);
+            int sequencePosition = Ints.saturatedCast(counter.getAndAdd(ImmutablePair.of(entry.request.method, entry.request.url), multiplicity));
+            b.put(entry, Range.closedOpen(sequencePosition, sequencePosition + multiplicity));
         }
         return b.build();
     }
@@ -42,9 +68,8 @@ public class StatefulHeuristicEntryMatcher extends HeuristicEntryMatcher<ReplayS
             int rating = heuristic.rate(entry.request, request);
             int boost = 0;
             if (rating > 0) {
-                int entrySequencePosition = entrySequencePositions.get(entry);
                 int requestSequencePosition = state.query(request);
-                boost = entrySequencePosition == requestSequencePosition ? SEQUENCE_MATCH_BOOST : 0;
+                boost = entrySequencePositions.get(entry).contains(requestSequencePosition) ? SEQUENCE_MATCH_BOOST : 0;
             }
             return new RatedEntry(entry, rating + boost);
         };
@@ -65,5 +90,11 @@ public class StatefulHeuristicEntryMatcher extends HeuristicEntryMatcher<ReplayS
             List<ParsedEntry> parsedEntries = parseEntries(entries, requestParser);
             return new StatefulHeuristicEntryMatcher(heuristic, thresholdExclusive, parsedEntries);
         }
+
+        @Override
+        public <E> EntryMatcher<ReplaySessionState> createEntryMatcher(List<E> entries, List<Integer> multiplicities, EntryParser<E> requestParser) throws IOException {
+            List<ParsedEntry> parsedEntries = parseEntries(entries, requestParser);
+            return new StatefulHeuristicEntryMatcher(heuristic, thresholdExclusive, parsedEntries, multiplicities);
+        }
     }
 }
@@ -1,6 +1,7 @@
 package io.github.mike10004.vhs.bmp;
 
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.MoreExecutors;
 import net.lightbody.bmp.mitm.TrustSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,12 +10,17 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import static java.util.Objects.requireNonNull;
+
 /**
  * Implementation of a TLS endpoint that starts a thread that accepts and
  * closes all socket connections. The proxy will interpret this as a
- * bad gateway.
+ * bad gateway. Accepted sockets are handled by an executor, so that the
+ * accepting thread is not held up by any one connection.
  */
 class BrokenTlsEndpoint implements TlsEndpoint {
 
@@ -26,25 +32,49 @@ class BrokenTlsEndpoint implements TlsEndpoint {
     private final HostAndPort socketAddress;
     private final Thread thread;
     private final AtomicBoolean closed;
+    private final ExecutorService socketHandlerExecutor;
 
     public BrokenTlsEndpoint() throws IOException {
+        this(MoreExecutors.newDirectExecutorService());
+    }
+
+    /**
+     * Constructs an instance.
+     * @param socketHandlerExecutor executor that handles accepted sockets;
+     *                              it is shut down when this endpoint is closed
+     * @throws IOException if the server socket cannot be opened
+     */
+    public BrokenTlsEndpoint(ExecutorService socketHandlerExecutor) throws IOException {
+        this.socketHandlerExecutor = requireNonNull(socketHandlerExecutor);
         serverSocket = new ServerSocket(0);
         socketAddress = HostAndPort.fromParts("localhost", serverSocket.getLocalPort());
         closed = new AtomicBoolean(false);
         thread = new Thread(() -> {
             while (!closed.get()) {
-                try (Socket socket = serverSocket.accept()) {
-                    socketAccepted(socket);
+                try {
+                    Socket socket = serverSocket.accept();
+                    socketHandlerExecutor.execute(() -> handle(socket));
                 } catch (IOException e) {
                     if (!isSocketClosedException(e)) {
                         log.info("failed to accept socket", e);
                     }
+                } catch (RejectedExecutionException e) {
+                    log.debug("socket accepted after close: {}", e.toString());
                 }
             }
         });
+        thread.setDaemon(true);
         thread.start();
     }
 
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            socketAccepted(s);
+        } catch (IOException e) {
+            log.debug("failed to close socket: {}", e.toString());
+        }
+    }
+
     @SuppressWarnings("unused")
     protected void socketAccepted(Socket socket) {
         log.info("accepted socket; closing");
@@ -73,6 +103,7 @@ class BrokenTlsEndpoint implements TlsEndpoint {
         } catch (RuntimeException e) {
             log.warn("thread interrupt error", e);
         }
+        socketHandlerExecutor.shutdownNow();
     }
 
     /**
@@ -1,12 +1,19 @@
 package io.github.mike10004.vhs.bmp;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import net.lightbody.bmp.mitm.CertificateAndKeySource;
+import net.lightbody.bmp.proxy.CaptureType;
 import org.apache.commons.io.FileUtils;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 public class BrowsermobVhsConfig {
@@ -21,6 +28,66 @@ public class BrowsermobVhsConfig {
     public final CertificateAndKeySourceFactory certificateAndKeySourceFactory;
     public final BmpResponseListener bmpResponseListener;
 
+    /**
+     * Hostnames for which certificates to impersonate HTTPS hosts are generated
+     * when the server starts. If not empty, or if {@link #impersonationCertificateFile}
+     * is set, an {@link ImpersonationCertificateCache} is used.
+     */
+    public final ImmutableSet<String> prewarmedHosts;
+    public final PrewarmMode certificatePrewarmMode;
+
+    /**
+     * File in which impersonation certificates are persisted for reuse by later sessions;
+     * null if they are not persisted.
+     */
+    @Nullable
+    public final Path impersonationCertificateFile;
+
+    /**
+     * Cache of impersonation certificates shared with other servers; null if each
+     * server creates its own. The cache must be based on the same root certificate
+     * as the one produced by {@link #certificateAndKeySourceFactory}.
+     */
+    @Nullable
+    public final ImpersonationCertificateCache impersonationCertificateCache;
+
+    /**
+     * Flag specifying that the proxy does not perform a TLS handshake with the
+     * TLS endpoint when intercepting HTTPS traffic. Only the client side of a
+     * connection to the endpoint is encrypted, which is sufficient because requests
+     * sent to the endpoint are answered by the response manufacturer. Connections to
+     * any other upstream, such as requests passed through to a remote host, are
+     * still encrypted.
+     */
+    public final boolean bypassUpstreamTls;
+
+    public final ConcurrencyConfig concurrency;
+
+    /**
+     * Maximum size in bytes of a request that the proxy aggregates before the response
+     * is manufactured. Zero, the default, means requests are not aggregated: the response
+     * is manufactured from the request line and headers, and the request body is not
+     * seen. Otherwise the body is available to the response manufacturer, and a request
+     * whose body exceeds the maximum is rejected by the proxy with status 413.
+     */
+    public final int maxRequestBufferSizeBytes;
+
+    /**
+     * Types of data the proxy captures in a HAR of the traffic it serves.
+     * Empty, the default, means no HAR is captured. Requests answered by the
+     * response manufacturer are not seen by the capture filter, so the HAR
+     * records only traffic that is passed through.
+     */
+    public final ImmutableSet<CaptureType> harCaptureTypes;
+
+    /**
+     * Maximum number of entries retained in the captured HAR; the oldest entries
+     * are discarded when the limit is exceeded. Ignored if no HAR is captured.
+     * The limit applies only to passed-through traffic, because that is all the
+     * HAR records.
+     */
+    public final int harCaptureMaxEntries;
+
     private BrowsermobVhsConfig(Builder builder) {
         port = builder.port;
         scratchDirProvider = builder.scratchDirProvider;
@@ -28,6 +95,32 @@ public class BrowsermobVhsConfig {
         tlsEndpointFactory = builder.tlsEndpointFactory;
         certificateAndKeySourceFactory = builder.certificateAndKeySourceFactory;
         bmpResponseListener = builder.bmpResponseListener;
+        prewarmedHosts = ImmutableSet.copyOf(builder.prewarmedHosts);
+        certificatePrewarmMode = builder.certificatePrewarmMode;
+        impersonationCertificateFile = builder.impersonationCertificateFile;
+        impersonationCertificateCache = builder.impersonationCertificateCache;
+        bypassUpstreamTls = builder.bypassUpstreamTls;
+        concurrency = builder.concurrency;
+        maxRequestBufferSizeBytes = builder.maxRequestBufferSizeBytes;
+        harCaptureTypes = Sets.immutableEnumSet(builder.harCaptureTypes);
+        harCaptureMaxEntries = builder.harCaptureMaxEntries;
+    }
+
+    /**
+     * Enumeration of ways to generate impersonation certificates for known hosts.
+     */
+    public enum PrewarmMode {
+
+        /**
+         * Generate certificates before the server starts accepting connections.
+         */
+        EAGER,
+
+        /**
+         * Generate certificates on a background pool while the server runs; a host
+         * contacted before its certificate is ready gets it generated on demand.
+         */
+        BACKGROUND
     }
 
     public static Builder builder(BmpResponseManufacturer bmanufacturer) {
@@ -63,11 +156,22 @@ public class BrowsermobVhsConfig {
         private TlsEndpointFactory tlsEndpointFactory;
         private CertificateAndKeySourceFactory certificateAndKeySourceFactory;
         private BmpResponseListener bmpResponseListener = BmpResponseListener.inactive();
+        private Collection<String> prewarmedHosts = Collections.emptySet();
+        private PrewarmMode certificatePrewarmMode = PrewarmMode.BACKGROUND;
+        @Nullable
+        private Path impersonationCertificateFile;
+        @Nullable
+        private ImpersonationCertificateCache impersonationCertificateCache;
+        private boolean bypassUpstreamTls;
+        private ConcurrencyConfig concurrency = ConcurrencyConfig.defaults();
+        private int maxRequestBufferSizeBytes;
+        private Set<CaptureType> harCaptureTypes = Collections.emptySet();
+        private int harCaptureMaxEntries;
 
         private Builder(BmpResponseManufacturer bmpResponseManufacturer) {
             this.bmpResponseManufacturer = requireNonNull(bmpResponseManufacturer);
             scratchDirProvider = ScratchDirProvider.under(FileUtils.getTempDirectory().toPath());
-            tlsEndpointFactory = (config, dir) -> TlsEndpoint.createDefault();
+            tlsEndpointFactory = (config, dir) -> new BrokenTlsEndpoint(config.concurrency.newBlockingExecutor("vhs-broken-tls-endpoint-"));
             certificateAndKeySourceFactory = (config, dir) -> new LazyCertificateAndKeySource(KeystoreGenerator.createJreGenerator(DEFAULT_KEYSTORE_TYPE), null);
         }
 
@@ -100,6 +204,79 @@ public class BrowsermobVhsConfig {
             return this;
         }
 
+        /**
+         * Sets the hosts for which impersonation certificates are generated ahead of time.
+         * @param hostnames the hostnames
+         * @param mode how certificates are generated
+         * @return this builder instance
+         */
+        public Builder prewarmCertificates(Collection<String> hostnames, PrewarmMode mode) {
+            prewarmedHosts = ImmutableSet.copyOf(hostnames);
+            certificatePrewarmMode = requireNonNull(mode);
+            return this;
+        }
+
+        public Builder impersonationCertificateFile(Path val) {
+            impersonationCertificateFile = requireNonNull(val);
+            return this;
+        }
+
+        /**
+         * Sets a certificate cache to be used instead of one created by the server.
+         * @param val the cache
+         * @return this builder instance
+         * @see BrowsermobVhsConfig#impersonationCertificateCache
+         */
+        public Builder impersonationCertificateCache(ImpersonationCertificateCache val) {
+            impersonationCertificateCache = requireNonNull(val);
+            return this;
+        }
+
+        /**
+         * Sets whether the proxy skips the TLS handshake with the TLS endpoint.
+         * @param val true to skip the handshake
+         * @return this builder instance
+         * @see BrowsermobVhsConfig#bypassUpstreamTls
+         */
+        public Builder bypassUpstreamTls(boolean val) {
+            bypassUpstreamTls = val;
+            return this;
+        }
+
+        public Builder concurrency(ConcurrencyConfig val) {
+            concurrency = requireNonNull(val);
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of a request that the proxy aggregates, so that
+         * the request body is available to the response manufacturer.
+         * @param val maximum size in bytes; zero to disable aggregation
+         * @return this builder instance
+         * @see BrowsermobVhsConfig#maxRequestBufferSizeBytes
+         */
+        public Builder maxRequestBufferSizeBytes(int val) {
+            checkArgument(val >= 0, "max request buffer size must be nonnegative: %s", val);
+            maxRequestBufferSizeBytes = val;
+            return this;
+        }
+
+        /**
+         * Enables capture of a HAR of the traffic the proxy passes through. The HAR is
+         * held in memory, so the number of entries retained is bounded. Responses
+         * produced by the response manufacturer are neither captured nor counted
+         * toward the limit.
+         * @param captureTypes types of data to capture
+         * @param maxEntries maximum number of entries to retain
+         * @return this builder instance
+         */
+        public Builder harCapture(Set<CaptureType> captureTypes, int maxEntries) {
+            checkArgument(maxEntries > 0, "max entries must be positive: %s", maxEntries);
+            harCaptureTypes = ImmutableSet.copyOf(captureTypes);
+            harCaptureMaxEntries = maxEntries;
+            return this;
+        }
+
         public BrowsermobVhsConfig build() {
             return new BrowsermobVhsConfig(this);
         }
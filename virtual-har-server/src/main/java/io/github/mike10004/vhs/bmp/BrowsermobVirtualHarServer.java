@@ -1,29 +1,47 @@
 package io.github.mike10004.vhs.bmp;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.Closeables;
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.github.mike10004.vhs.VirtualHarServer;
 import io.github.mike10004.vhs.VirtualHarServerControl;
+import io.github.mike10004.vhs.bmp.BrowsermobVhsConfig.PrewarmMode;
 import io.github.mike10004.vhs.bmp.ResponseManufacturingFiltersSource.PassthruPredicate;
 import io.github.mike10004.vhs.bmp.ScratchDirProvider.Scratch;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
 import net.lightbody.bmp.BrowserMobProxy;
 import net.lightbody.bmp.BrowserMobProxyServer;
+import net.lightbody.bmp.core.har.Har;
+import net.lightbody.bmp.core.har.HarEntry;
 import net.lightbody.bmp.mitm.CertificateAndKeySource;
 import net.lightbody.bmp.mitm.TrustSource;
+import net.lightbody.bmp.mitm.keys.RSAKeyGenerator;
 import net.lightbody.bmp.mitm.manager.ImpersonatingMitmManager;
 import net.lightbody.bmp.proxy.CaptureType;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
 import org.littleshoot.proxy.MitmManager;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.EnumSet;
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Supplier;
 
 import static java.util.Objects.requireNonNull;
@@ -50,10 +68,15 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
         Path scratchPath = scratch.getRoot();
         try {
             certificateAndKeySource = config.certificateAndKeySourceFactory.produce(config, scratchPath);
+            @Nullable ImpersonationCertificateCache certificateCache = createImpersonationCertificateCache(certificateAndKeySource);
+            if (certificateCache != null) {
+                closeables.add(certificateCache::persist);
+                prewarmCertificates(certificateCache);
+            }
             TlsEndpoint httpsInterceptionServer = config.tlsEndpointFactory.produce(config, scratchPath);
             closeables.add(httpsInterceptionServer);
             TrustSource trustSource = httpsInterceptionServer.getTrustSource();
-            proxy = startProxy(config.bmpResponseManufacturer.withFreshState(), httpsInterceptionServer.getSocketAddress(), certificateAndKeySource, trustSource);
+            proxy = startProxy(config.bmpResponseManufacturer.withFreshState(), httpsInterceptionServer.getSocketAddress(), certificateAndKeySource, certificateCache, trustSource);
         } catch (RuntimeException | IOException e) {
             closeAll(closeables, true);
             throw e;
@@ -61,6 +84,46 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
         return new BrowsermobVhsControl(proxy, closeables);
     }
 
+    /**
+     * Creates the cache of impersonation certificates, if the configuration calls for one.
+     * If the configuration specifies a shared cache, that cache is returned.
+     * @param certificateAndKeySource source of the root certificate
+     * @return the cache, or null
+     */
+    @Nullable
+    protected ImpersonationCertificateCache createImpersonationCertificateCache(CertificateAndKeySource certificateAndKeySource) {
+        if (config.impersonationCertificateCache != null) {
+            return config.impersonationCertificateCache;
+        }
+        if (config.prewarmedHosts.isEmpty() && config.impersonationCertificateFile == null) {
+            return null;
+        }
+        return new ImpersonationCertificateCache(certificateAndKeySource, new RSAKeyGenerator(), config.impersonationCertificateFile);
+    }
+
+    private void prewarmCertificates(ImpersonationCertificateCache certificateCache) {
+        if (config.prewarmedHosts.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactoryBuilder()
+                .setNameFormat("vhs-certificate-prewarm-%d")
+                .setDaemon(true)
+                .build());
+        long start = System.currentTimeMillis();
+        CompletableFuture<Void> completion = certificateCache.prewarm(config.prewarmedHosts, executor).thenRun(() -> {
+            log.debug("generated impersonation certificates for {} hosts in {} ms", config.prewarmedHosts.size(), System.currentTimeMillis() - start);
+            try {
+                certificateCache.persist();
+            } catch (IOException e) {
+                log.info("failed to persist impersonation certificates: {}", e.toString());
+            }
+        });
+        executor.shutdown();
+        if (config.certificatePrewarmMode == PrewarmMode.EAGER) {
+            completion.join();
+        }
+    }
+
     private static void closeAll(Iterable<? extends Closeable> closeables, @SuppressWarnings("SameParameterValue") boolean swallowIOException) {
         for (Closeable closeable : closeables) {
             try {
@@ -74,11 +137,12 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
     protected BrowserMobProxy startProxy(BmpResponseManufacturer.WithState<?> responseManufacturer,
                                       HostAndPort httpsHostRewriteDestination,
                                       CertificateAndKeySource certificateAndKeySource,
+                                      @Nullable ImpersonationCertificateCache certificateCache,
                                       TrustSource trustSource) throws IOException {
         BrowserMobProxy bmp = instantiateProxy();
-        configureProxy(bmp, responseManufacturer, httpsHostRewriteDestination, certificateAndKeySource, config.bmpResponseListener, trustSource);
-        bmp.enableHarCaptureTypes(getCaptureTypes());
-        bmp.newHar();
+        configureThreadPool(bmp);
+        configureProxy(bmp, responseManufacturer, httpsHostRewriteDestination, certificateAndKeySource, certificateCache, config.bmpResponseListener, trustSource);
+        configureHarCapture(bmp);
         if (config.port == null) {
             bmp.start();
         } else {
@@ -87,12 +151,27 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
         return bmp;
     }
 
-    protected MitmManager createMitmManager(@SuppressWarnings("unused") BrowserMobProxy proxy, CertificateAndKeySource certificateAndKeySource, TrustSource trustSource) {
-        MitmManager mitmManager = ImpersonatingMitmManager.builder()
+    private void configureThreadPool(BrowserMobProxy bmp) {
+        @Nullable ThreadPoolConfiguration threadPoolConfiguration = config.concurrency.toThreadPoolConfiguration();
+        if (threadPoolConfiguration != null) {
+            if (bmp instanceof BrowserMobProxyServer) {
+                ((BrowserMobProxyServer) bmp).setThreadPoolConfiguration(threadPoolConfiguration);
+            } else {
+                log.info("thread pool configuration not applicable to proxy of type {}", bmp.getClass());
+            }
+        }
+    }
+
+    protected MitmManager createMitmManager(@SuppressWarnings("unused") BrowserMobProxy proxy, CertificateAndKeySource certificateAndKeySource, @Nullable ImpersonationCertificateCache certificateCache, TrustSource trustSource) {
+        ImpersonatingMitmManager.Builder builder = ImpersonatingMitmManager.builder()
                 .rootCertificateSource(certificateAndKeySource)
-                .trustSource(trustSource)
-                .build();
-        return mitmManager;
+                .trustSource(trustSource);
+        if (certificateCache != null) {
+            builder.serverKeyGenerator(certificateCache.asKeyGenerator())
+                    .certificateTool(certificateCache.asSecurityProviderTool())
+                    .serverMessageDigest(ImpersonationCertificateCache.MESSAGE_DIGEST);
+        }
+        return builder.build();
     }
 
     protected PassthruPredicate createPassthruPredicate() {
@@ -109,16 +188,21 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
                                   BmpResponseManufacturer.WithState<?> responseManufacturer,
                                   HostAndPort httpsHostRewriteDestination,
                                   CertificateAndKeySource certificateAndKeySource,
+                                  @Nullable ImpersonationCertificateCache certificateCache,
                                   BmpResponseListener bmpResponseListener,
                                   TrustSource trustSource) {
-        MitmManager mitmManager = createMitmManager(bmp, certificateAndKeySource, trustSource);
+        MitmManager mitmManager = createMitmManager(bmp, certificateAndKeySource, certificateCache, trustSource);
+        if (config.bypassUpstreamTls) {
+            // only connections to the TLS endpoint skip the handshake; passed-through requests stay encrypted
+            mitmManager = new UpstreamTlsBypassingMitmManager(mitmManager, httpsHostRewriteDestination);
+        }
         bmp.setMitmManager(mitmManager);
         HostRewriter hostRewriter = HostRewriter.from(httpsHostRewriteDestination);
         bmp.addFirstHttpFilterFactory(createFirstFiltersSource(responseManufacturer, hostRewriter, bmpResponseListener, createPassthruPredicate()));
     }
 
     /* package */ ResponseManufacturingFiltersSource createFirstFiltersSource(BmpResponseManufacturer.WithState<?> responseManufacturer, HostRewriter hostRewriter, BmpResponseListener bmpResponseListener, PassthruPredicate passthruPredicate) {
-        return new ResponseManufacturingFiltersSource(responseManufacturer, hostRewriter, bmpResponseListener, passthruPredicate);
+        return new ResponseManufacturingFiltersSource(responseManufacturer, hostRewriter, bmpResponseListener, passthruPredicate, config.maxRequestBufferSizeBytes);
     }
 
     class BrowsermobVhsControl implements VirtualHarServerControl {
@@ -143,10 +227,60 @@ public class BrowsermobVirtualHarServer implements VirtualHarServer {
         }
     }
 
-    private static final Set<CaptureType> ALL_CAPTURE_TYPES = EnumSet.allOf(CaptureType.class);
+    /**
+     * Enables HAR capture if the configuration calls for it. Entries beyond the configured
+     * maximum are discarded as responses are sent, oldest first, so that memory use stays
+     * bounded however long the server runs. Only traffic that is passed through is
+     * captured; requests answered by the response manufacturer never reach the
+     * capture filter.
+     * @param bmp the proxy
+     */
+    protected void configureHarCapture(BrowserMobProxy bmp) {
+        Set<CaptureType> captureTypes = getCaptureTypes();
+        if (captureTypes.isEmpty()) {
+            return;
+        }
+        bmp.enableHarCaptureTypes(captureTypes);
+        bmp.newHar();
+        int maxEntries = config.harCaptureMaxEntries;
+        bmp.addLastHttpFilterFactory(new HttpFiltersSourceAdapter() {
+            @Override
+            public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+                return new HttpFiltersAdapter(originalRequest, ctx) {
+                    @Override
+                    public HttpObject proxyToClientResponse(HttpObject httpObject) {
+                        if (httpObject instanceof HttpResponse) {
+                            trimHar(bmp.getHar(), maxEntries);
+                        }
+                        return httpObject;
+                    }
+                };
+            }
+        });
+    }
+
+    @VisibleForTesting
+    static void trimHar(@Nullable Har har, int maxEntries) {
+        if (har == null) {
+            return;
+        }
+        // the entries list is copy-on-write, so the excess is removed with one copy;
+        // synchronizing only keeps trimming threads apart, because adds do not lock the list,
+        // and an add between taking the sublist and clearing it makes the clear fail and retry
+        List<HarEntry> entries = har.getLog().getEntries();
+        synchronized (entries) {
+            int excess;
+            while ((excess = entries.size() - maxEntries) > 0) {
+                try {
+                    entries.subList(0, excess).clear();
+                } catch (ConcurrentModificationException ignore) {
+                }
+            }
+        }
+    }
 
     protected Set<CaptureType> getCaptureTypes() {
-        return ALL_CAPTURE_TYPES;
+        return config.harCaptureTypes;
     }
 
 }
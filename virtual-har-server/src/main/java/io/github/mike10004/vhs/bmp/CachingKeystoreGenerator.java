@@ -0,0 +1,168 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keystore generator that stores generated keystores in a directory and returns
+ * the stored keystore on subsequent requests for the same keystore type and common
+ * name, including requests made by other processes. This avoids paying for key
+ * generation in every replay session.
+ *
+ * <p>Each stored keystore is protected by a digest, and on reading it is checked that
+ * the keystore loads, that the private key entry is present and that the certificate
+ * remains valid for at least {@link #MIN_REMAINING_VALIDITY_MILLIS}. A keystore that
+ * fails any check is replaced with a newly generated one.
+ *
+ * <p>The stored keystores include their passwords, so the directory should be
+ * private to the user. Generators that produce different kinds of keys, such as
+ * RSA and EC, should use different directories.
+ */
+public class CachingKeystoreGenerator implements KeystoreGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingKeystoreGenerator.class);
+
+    /**
+     * Minimum duration for which a cached certificate must remain valid to be reused.
+     */
+    public static final long MIN_REMAINING_VALIDITY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final String MAGIC = "VHSKEYSTORE";
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_SUFFIX = ".keystore";
+
+    private final KeystoreGenerator delegate;
+    private final KeystoreType keystoreType;
+    private final Path cacheDir;
+
+    /**
+     * Constructs an instance.
+     * @param delegate generator that produces keystores not found in the cache
+     * @param keystoreType type of keystore produced by the delegate
+     * @param cacheDir directory in which keystores are stored; created if it does not exist
+     */
+    public CachingKeystoreGenerator(KeystoreGenerator delegate, KeystoreType keystoreType, Path cacheDir) {
+        this.delegate = requireNonNull(delegate);
+        this.keystoreType = requireNonNull(keystoreType);
+        this.cacheDir = requireNonNull(cacheDir);
+    }
+
+    /**
+     * Gets the stored keystore with the given common name, or generates and stores one if
+     * no valid keystore is stored. If the common name is null, the keystore stored for the
+     * null common name is returned, whatever common name the delegate assigned to it.
+     * @param certificateCommonName the common name (CN) to be assigned to the
+     *                              certificate associated with the keystore
+     * @return the keystore data
+     * @throws IOException on I/O error
+     * @throws GeneralSecurityException if a security-related error occurs
+     */
+    @Override
+    public synchronized KeystoreData generate(@Nullable String certificateCommonName) throws IOException, GeneralSecurityException {
+        String commonNameKey = Strings.nullToEmpty(certificateCommonName);
+        Path file = resolveFile(commonNameKey);
+        @Nullable KeystoreData cached = read(file, commonNameKey);
+        if (cached != null) {
+            log.debug("reusing keystore from {}", file);
+            return cached;
+        }
+        KeystoreData generated = delegate.generate(certificateCommonName);
+        if (generated.keystoreType != keystoreType) {
+            log.warn("not caching keystore of type {} in cache of {} keystores", generated.keystoreType, keystoreType);
+            return generated;
+        }
+        write(file, commonNameKey, generated);
+        return generated;
+    }
+
+    Path resolveFile(String commonNameKey) {
+        String commonNameHash = Hashing.sha256().hashString(commonNameKey, UTF_8).toString().substring(0, 32);
+        return cacheDir.resolve(keystoreType.name().toLowerCase() + "-" + commonNameHash + FILE_SUFFIX);
+    }
+
+    @Nullable
+    private KeystoreData read(Path file, String commonNameKey) {
+        try {
+            @Nullable byte[] content = DigestedFiles.read(file);
+            if (content == null) {
+                return null;
+            }
+            KeystoreData keystoreData = decode(content, commonNameKey);
+            checkUsable(keystoreData);
+            return keystoreData;
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            log.info("discarding cached keystore {} that failed integrity check: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    private KeystoreData decode(byte[] content, String commonNameKey) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        if (!MAGIC.equals(in.readUTF()) || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("unrecognized format");
+        }
+        KeystoreType storedType = KeystoreType.valueOf(in.readUTF());
+        String storedCommonNameKey = in.readUTF();
+        if (storedType != keystoreType || !storedCommonNameKey.equals(commonNameKey)) {
+            throw new IOException("keystore does not match " + keystoreType + "/" + commonNameKey);
+        }
+        String privateKeyAlias = in.readUTF();
+        char[] password = in.readUTF().toCharArray();
+        byte[] keystoreBytes = new byte[in.readInt()];
+        ByteStreams.readFully(in, keystoreBytes);
+        return new KeystoreData(storedType, keystoreBytes, privateKeyAlias, password);
+    }
+
+    private static void checkUsable(KeystoreData keystoreData) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = keystoreData.loadKeystore();
+        if (!keyStore.isKeyEntry(keystoreData.privateKeyAlias)) {
+            throw new GeneralSecurityException("no key entry at alias " + keystoreData.privateKeyAlias);
+        }
+        Certificate certificate = keyStore.getCertificate(keystoreData.privateKeyAlias);
+        if (!(certificate instanceof X509Certificate)) {
+            throw new GeneralSecurityException("no X.509 certificate at alias " + keystoreData.privateKeyAlias);
+        }
+        ((X509Certificate) certificate).checkValidity(new Date(System.currentTimeMillis() + MIN_REMAINING_VALIDITY_MILLIS));
+    }
+
+    private void write(Path file, String commonNameKey, KeystoreData keystoreData) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(keystoreData.keystoreBytes.length + 256);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeUTF(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(keystoreData.keystoreType.name());
+        out.writeUTF(commonNameKey);
+        out.writeUTF(keystoreData.privateKeyAlias);
+        out.writeUTF(keystoreData.keystorePassword == null ? "" : String.valueOf(keystoreData.keystorePassword));
+        out.writeInt(keystoreData.keystoreBytes.length);
+        out.write(keystoreData.keystoreBytes);
+        out.flush();
+        DigestedFiles.write(file, baos.toByteArray());
+        log.debug("stored keystore in {}", file);
+    }
+
+    @Override
+    public String toString() {
+        return "CachingKeystoreGenerator{keystoreType=" + keystoreType + ", cacheDir=" + cacheDir + "}";
+    }
+}
@@ -0,0 +1,226 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Configuration of the threads used by the proxy and by TLS endpoints.
+ * Thread counts that are not set are left at the proxy's defaults.
+ */
+public class ConcurrencyConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ConcurrencyConfig.class);
+
+    /**
+     * Number of threads that accept proxy connections; null means the proxy default.
+     */
+    @Nullable
+    public final Integer acceptorThreads;
+
+    /**
+     * Size of the event loop serving connections from clients to the proxy;
+     * null means the proxy default.
+     */
+    @Nullable
+    public final Integer clientToProxyWorkerThreads;
+
+    /**
+     * Size of the event loop serving connections from the proxy to the TLS endpoint;
+     * null means the proxy default.
+     */
+    @Nullable
+    public final Integer proxyToServerWorkerThreads;
+
+    /**
+     * Flag specifying that blocking components, such as TLS endpoints that serve
+     * each connection on its own thread, use virtual threads. Virtual threads are
+     * only available on Java 21 and later; on earlier versions, pooled platform
+     * threads are used instead.
+     */
+    public final boolean virtualThreads;
+
+    private ConcurrencyConfig(Builder builder) {
+        acceptorThreads = builder.acceptorThreads;
+        clientToProxyWorkerThreads = builder.clientToProxyWorkerThreads;
+        proxyToServerWorkerThreads = builder.proxyToServerWorkerThreads;
+        virtualThreads = builder.virtualThreads;
+    }
+
+    private static final ConcurrencyConfig DEFAULTS = builder().build();
+
+    /**
+     * Gets the default configuration, which leaves thread counts at the proxy's
+     * defaults and uses platform threads.
+     * @return the default configuration
+     */
+    public static ConcurrencyConfig defaults() {
+        return DEFAULTS;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates the proxy thread pool configuration, or returns null if no thread count is set.
+     * @return the thread pool configuration, or null
+     */
+    @Nullable
+    ThreadPoolConfiguration toThreadPoolConfiguration() {
+        if (acceptorThreads == null && clientToProxyWorkerThreads == null && proxyToServerWorkerThreads == null) {
+            return null;
+        }
+        ThreadPoolConfiguration configuration = new ThreadPoolConfiguration();
+        if (acceptorThreads != null) {
+            configuration.withAcceptorThreads(acceptorThreads);
+        }
+        if (clientToProxyWorkerThreads != null) {
+            configuration.withClientToProxyWorkerThreads(clientToProxyWorkerThreads);
+        }
+        if (proxyToServerWorkerThreads != null) {
+            configuration.withProxyToServerWorkerThreads(proxyToServerWorkerThreads);
+        }
+        return configuration;
+    }
+
+    /**
+     * Creates an executor for tasks that block, such as serving a socket connection.
+     * Each task runs on its own virtual thread if virtual threads are enabled and
+     * supported; otherwise tasks run on a cached pool of daemon threads.
+     * @param threadNamePrefix prefix of thread names
+     * @return a new executor
+     */
+    public ExecutorService newBlockingExecutor(String threadNamePrefix) {
+        if (virtualThreads) {
+            @Nullable ExecutorService executor = newVirtualThreadExecutor(threadNamePrefix);
+            if (executor != null) {
+                return executor;
+            }
+        }
+        return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat(threadNamePrefix + "%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Checks whether this JVM supports virtual threads.
+     * @return true if virtual threads are supported
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.EXECUTOR_FACTORY != null;
+    }
+
+    @Nullable
+    private static ExecutorService newVirtualThreadExecutor(String threadNamePrefix) {
+        if (VirtualThreads.EXECUTOR_FACTORY == null) {
+            log.debug("virtual threads not supported by this JVM; using platform threads");
+            return null;
+        }
+        try {
+            Object threadBuilder = VirtualThreads.OF_VIRTUAL.invoke(null);
+            threadBuilder = VirtualThreads.NAME.invoke(threadBuilder, threadNamePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) VirtualThreads.FACTORY.invoke(threadBuilder);
+            return (ExecutorService) VirtualThreads.EXECUTOR_FACTORY.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.info("failed to create virtual thread executor: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Reflective access to the virtual thread API, which this library cannot
+     * reference directly because it targets Java 8.
+     */
+    private static final class VirtualThreads {
+
+        @Nullable
+        public static final Method OF_VIRTUAL, NAME, FACTORY, EXECUTOR_FACTORY;
+
+        static {
+            Method ofVirtual = null, name = null, factory = null, executorFactory = null;
+            try {
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                name = builderClass.getMethod("name", String.class, long.class);
+                factory = builderClass.getMethod("factory");
+                executorFactory = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            } catch (ReflectiveOperationException ignore) {
+                // virtual threads are not supported before Java 21
+            }
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            FACTORY = factory;
+            EXECUTOR_FACTORY = executorFactory;
+        }
+
+        private VirtualThreads() {}
+    }
+
+    @SuppressWarnings({"unused", "UnusedReturnValue"})
+    public static final class Builder {
+
+        @Nullable
+        private Integer acceptorThreads;
+        @Nullable
+        private Integer clientToProxyWorkerThreads;
+        @Nullable
+        private Integer proxyToServerWorkerThreads;
+        private boolean virtualThreads;
+
+        private Builder() {
+        }
+
+        public Builder acceptorThreads(int val) {
+            checkArgument(val > 0, "acceptor threads must be positive: %s", val);
+            acceptorThreads = val;
+            return this;
+        }
+
+        public Builder clientToProxyWorkerThreads(int val) {
+            checkArgument(val > 0, "worker threads must be positive: %s", val);
+            clientToProxyWorkerThreads = val;
+            return this;
+        }
+
+        public Builder proxyToServerWorkerThreads(int val) {
+            checkArgument(val > 0, "worker threads must be positive: %s", val);
+            proxyToServerWorkerThreads = val;
+            return this;
+        }
+
+        /**
+         * Sets both worker event loop sizes.
+         * @param val the number of threads in each event loop
+         * @return this builder instance
+         */
+        public Builder workerThreads(int val) {
+            return clientToProxyWorkerThreads(val).proxyToServerWorkerThreads(val);
+        }
+
+        /**
+         * Sets whether blocking components use virtual threads, if the JVM supports them.
+         * @param val true to use virtual threads
+         * @return this builder instance
+         * @see ConcurrencyConfig#virtualThreads
+         */
+        public Builder virtualThreads(boolean val) {
+            virtualThreads = val;
+            return this;
+        }
+
+        public ConcurrencyConfig build() {
+            return new ConcurrencyConfig(this);
+        }
+    }
+}
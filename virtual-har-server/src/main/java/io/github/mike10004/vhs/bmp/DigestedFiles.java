@@ -0,0 +1,93 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+/**
+ * Static utility methods for files whose content is followed by a SHA-256 digest
+ * of the content, so that truncated or otherwise corrupted files are detected
+ * when read. Files are written atomically and made readable by the owner only,
+ * because they are used to store keys.
+ */
+final class DigestedFiles {
+
+    private static final Logger log = LoggerFactory.getLogger(DigestedFiles.class);
+
+    private static final HashFunction DIGEST_FUNCTION = Hashing.sha256();
+    private static final int DIGEST_LENGTH = DIGEST_FUNCTION.bits() / Byte.SIZE;
+
+    private DigestedFiles() {}
+
+    /**
+     * Reads the content of a file and verifies its digest.
+     * @param file the file
+     * @return the content, or null if the file does not exist
+     * @throws IOException if the file cannot be read or the digest does not match
+     */
+    @Nullable
+    public static byte[] read(Path file) throws IOException {
+        byte[] fileBytes;
+        try {
+            fileBytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (fileBytes.length < DIGEST_LENGTH) {
+            throw new IOException("truncated: " + file);
+        }
+        int contentLength = fileBytes.length - DIGEST_LENGTH;
+        HashCode expected = HashCode.fromBytes(Arrays.copyOfRange(fileBytes, contentLength, fileBytes.length));
+        HashCode actual = DIGEST_FUNCTION.hashBytes(fileBytes, 0, contentLength);
+        if (!expected.equals(actual)) {
+            throw new IOException("digest mismatch: " + file);
+        }
+        return Arrays.copyOf(fileBytes, contentLength);
+    }
+
+    /**
+     * Writes content followed by its digest to a file, replacing the file atomically if
+     * it exists. Parent directories are created as necessary.
+     * @param file the file
+     * @param content the content
+     * @throws IOException on I/O error
+     */
+    public static void write(Path file, byte[] content) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            restrictPermissions(tempFile);
+            byte[] fileBytes = Arrays.copyOf(content, content.length + DIGEST_LENGTH);
+            DIGEST_FUNCTION.hashBytes(content).writeBytesTo(fileBytes, content.length, DIGEST_LENGTH);
+            Files.write(tempFile, fileBytes);
+            try {
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static void restrictPermissions(Path file) {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException | IOException e) {
+            log.debug("could not restrict permissions of {}: {}", file, e.toString());
+        }
+    }
+}
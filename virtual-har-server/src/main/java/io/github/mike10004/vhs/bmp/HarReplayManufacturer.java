@@ -22,7 +22,8 @@ import static java.util.Objects.requireNonNull;
 
 /**
  * Implementation of a response manufacturer that manufactures responses
- * based on the content of a HAR file.
+ * based on the content of a HAR file. The entry matcher and response interceptors
+ * may be replaced while the server is running; see {@link #replace(EntryMatcher, Iterable)}.
  */
 public class HarReplayManufacturer implements BmpResponseManufacturer<ReplaySessionState> {
 
@@ -30,8 +31,7 @@ public class HarReplayManufacturer implements BmpResponseManufacturer<ReplaySess
     private static final Charset OUTGOING_CHARSET = StandardCharsets.UTF_8;
 
     private final Supplier<? extends ReplaySessionState> sessionStateFactory;
-    private final EntryMatcher<? super ReplaySessionState> entryMatcher;
-    private final ImmutableList<ResponseInterceptor> responseInterceptors;
+    private volatile Replay replay;
     private final HttpAssistant<RequestCapture, HttpResponse> bmpAssistant;
 
     /**
@@ -48,12 +48,40 @@ public class HarReplayManufacturer implements BmpResponseManufacturer<ReplaySess
     }
 
     protected HarReplayManufacturer(EntryMatcher<? super ReplaySessionState> entryMatcher, Iterable<ResponseInterceptor> responseInterceptors, HttpAssistant<RequestCapture, HttpResponse> bmpAssistant, Supplier<? extends ReplaySessionState> sessionStateFactory) {
-        this.entryMatcher = requireNonNull(entryMatcher);
-        this.responseInterceptors = ImmutableList.copyOf(responseInterceptors);
+        this.replay = new Replay(entryMatcher, responseInterceptors);
         this.bmpAssistant = requireNonNull(bmpAssistant);
         this.sessionStateFactory = requireNonNull(sessionStateFactory);
     }
 
+    /**
+     * Entry matcher and the response interceptors that apply to its entries.
+     * They are replaced together, so that a request is never served by a matcher
+     * with the interceptors of another.
+     */
+    private static final class Replay {
+
+        public final EntryMatcher<? super ReplaySessionState> entryMatcher;
+        public final ImmutableList<ResponseInterceptor> responseInterceptors;
+
+        public Replay(EntryMatcher<? super ReplaySessionState> entryMatcher, Iterable<ResponseInterceptor> responseInterceptors) {
+            this.entryMatcher = requireNonNull(entryMatcher);
+            this.responseInterceptors = ImmutableList.copyOf(responseInterceptors);
+        }
+    }
+
+    /**
+     * Replaces the entry matcher and response interceptors. Requests being served
+     * when this method is invoked are completed with the previous matcher and interceptors,
+     * and requests received afterwards are served with the new ones. Session state,
+     * such as the count of requests for each URL, is retained.
+     * @param entryMatcher the new entry matcher
+     * @param responseInterceptors the new response interceptors
+     */
+    public void replace(EntryMatcher<? super ReplaySessionState> entryMatcher, Iterable<ResponseInterceptor> responseInterceptors) {
+        replay = new Replay(entryMatcher, responseInterceptors);
+        log.debug("replaced entry matcher with {}", entryMatcher);
+    }
+
     @Override
     public ReplaySessionState createFreshState() {
         return sessionStateFactory.get();
@@ -89,9 +117,10 @@ public class HarReplayManufacturer implements BmpResponseManufacturer<ReplaySess
             HttpResponse netty = assistant.constructResponse(incoming, outgoing);
             return ResponseCapture.error(netty);
         }
-        @Nullable HttpRespondable bestEntry = entryMatcher.findTopEntry(sessionState, request);
+        Replay replay = this.replay;
+        @Nullable HttpRespondable bestEntry = replay.entryMatcher.findTopEntry(sessionState, request);
         if (bestEntry != null) {
-            for (ResponseInterceptor interceptor : responseInterceptors) {
+            for (ResponseInterceptor interceptor : replay.responseInterceptors) {
                 bestEntry = interceptor.intercept(request, bestEntry);
             }
         }
@@ -0,0 +1,365 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.base.Suppliers;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import net.lightbody.bmp.mitm.CertificateAndKey;
+import net.lightbody.bmp.mitm.CertificateAndKeySource;
+import net.lightbody.bmp.mitm.CertificateInfo;
+import net.lightbody.bmp.mitm.CertificateInfoGenerator;
+import net.lightbody.bmp.mitm.HostnameCertificateInfoGenerator;
+import net.lightbody.bmp.mitm.keys.KeyGenerator;
+import net.lightbody.bmp.mitm.tools.DefaultSecurityProviderTool;
+import net.lightbody.bmp.mitm.tools.SecurityProviderTool;
+import net.lightbody.bmp.mitm.util.MitmConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManager;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cache of the certificates that the proxy presents to clients to impersonate
+ * HTTPS hosts. All impersonation certificates share a single server key pair,
+ * so that no key pair is generated when a host is first contacted, and
+ * certificates for known hosts may be generated ahead of time by
+ * {@link #prewarm(Collection, Executor)}. If a file is specified, the key pair
+ * and certificates are persisted to it and reused by later instances, as long as
+ * the root certificate is the same.
+ *
+ * <p>The cache is installed in a {@link net.lightbody.bmp.mitm.manager.ImpersonatingMitmManager}
+ * through its server key generator and certificate tool; see {@link #asKeyGenerator()}
+ * and {@link #asSecurityProviderTool()}.
+ */
+public class ImpersonationCertificateCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ImpersonationCertificateCache.class);
+
+    private static final String MAGIC = "VHSIMPERSONATION";
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Message digest used to sign impersonation certificates. This is the
+     * default of the MITM manager, and the manager must be configured with
+     * the same digest.
+     */
+    public static final String MESSAGE_DIGEST = MitmConstants.DEFAULT_MESSAGE_DIGEST;
+
+    private final CertificateAndKeySource rootCertificateSource;
+    private final KeyGenerator serverKeyGenerator;
+    @Nullable
+    private final Path persistenceFile;
+    private final SecurityProviderTool securityProviderTool;
+    private final CertificateInfoGenerator certificateInfoGenerator;
+    private final Supplier<State> state;
+
+    /**
+     * Number of certificates generated; compared with the number at the last
+     * successful write to determine whether the cache has been modified.
+     */
+    private final AtomicLong generatedCount;
+    private long persistedCount; // guarded by this
+
+    /**
+     * Constructs an instance.
+     * @param rootCertificateSource source of the root certificate that signs impersonation certificates
+     * @param serverKeyGenerator generator of the shared server key pair, invoked only if no key pair is persisted
+     * @param persistenceFile file in which the key pair and certificates are persisted; null to not persist
+     */
+    public ImpersonationCertificateCache(CertificateAndKeySource rootCertificateSource, KeyGenerator serverKeyGenerator, @Nullable Path persistenceFile) {
+        this.rootCertificateSource = requireNonNull(rootCertificateSource);
+        this.serverKeyGenerator = requireNonNull(serverKeyGenerator);
+        this.persistenceFile = persistenceFile;
+        securityProviderTool = new DefaultSecurityProviderTool();
+        certificateInfoGenerator = new HostnameCertificateInfoGenerator();
+        state = Suppliers.memoize(this::loadState);
+        generatedCount = new AtomicLong();
+    }
+
+    private static class State {
+
+        public final CertificateAndKey root;
+        public final KeyPair serverKeyPair;
+        public final ConcurrentMap<String, X509Certificate> certificates;
+
+        private State(CertificateAndKey root, KeyPair serverKeyPair, Map<String, X509Certificate> certificates) {
+            this.root = requireNonNull(root);
+            this.serverKeyPair = requireNonNull(serverKeyPair);
+            this.certificates = new ConcurrentHashMap<>(certificates);
+        }
+    }
+
+    private State loadState() {
+        CertificateAndKey root = rootCertificateSource.load();
+        if (persistenceFile != null) {
+            try {
+                @Nullable byte[] content = DigestedFiles.read(persistenceFile);
+                if (content != null) {
+                    State persisted = decode(content, root);
+                    log.debug("loaded {} impersonation certificates from {}", persisted.certificates.size(), persistenceFile);
+                    return persisted;
+                }
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                log.info("discarding persisted impersonation certificates {}: {}", persistenceFile, e.toString());
+            }
+        }
+        return new State(root, serverKeyGenerator.generate(), Collections.emptyMap());
+    }
+
+    /**
+     * Gets the certificate that impersonates the given host, generating it if necessary.
+     * @param hostname the hostname
+     * @return the certificate
+     */
+    public X509Certificate getCertificate(String hostname) {
+        State s = state.get();
+        @Nullable X509Certificate existing = s.certificates.get(hostname);
+        if (existing != null) {
+            return existing;
+        }
+        AtomicBoolean generated = new AtomicBoolean();
+        X509Certificate certificate = s.certificates.computeIfAbsent(hostname, h -> {
+            CertificateInfo certificateInfo = certificateInfoGenerator.generate(Collections.singletonList(h), null);
+            generated.set(true);
+            return securityProviderTool.createServerCertificate(certificateInfo, s.root.getCertificate(), s.root.getPrivateKey(), s.serverKeyPair, MESSAGE_DIGEST).getCertificate();
+        });
+        if (generated.get()) {
+            // counted after the certificate is in the map, so that a write that sees the count includes it
+            generatedCount.incrementAndGet();
+        }
+        return certificate;
+    }
+
+    /**
+     * Generates certificates for the given hosts. Failures are logged and do not
+     * cause the returned future to complete exceptionally.
+     * @param hostnames the hostnames
+     * @param executor executor on which certificates are generated
+     * @return a future that completes when all certificates have been generated
+     */
+    public CompletableFuture<Void> prewarm(Collection<String> hostnames, Executor executor) {
+        CompletableFuture<?>[] futures = hostnames.stream()
+                .map(hostname -> CompletableFuture.runAsync(() -> {
+                    try {
+                        getCertificate(hostname);
+                    } catch (RuntimeException e) {
+                        log.info("failed to generate impersonation certificate for {}: {}", hostname, e.toString());
+                    }
+                }, executor))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Writes the key pair and certificates to the persistence file, if a file was
+     * specified and certificates have been generated since the last successful write.
+     * If the write fails, the certificates are written by the next invocation.
+     * @throws IOException on I/O error
+     */
+    public synchronized void persist() throws IOException {
+        long count = generatedCount.get();
+        if (persistenceFile == null || count == persistedCount) {
+            return;
+        }
+        State s = state.get();
+        DigestedFiles.write(persistenceFile, encode(s));
+        persistedCount = count;
+        log.debug("persisted {} impersonation certificates to {}", s.certificates.size(), persistenceFile);
+    }
+
+    /**
+     * Returns a key generator that supplies the shared server key pair.
+     * @return the key generator
+     */
+    public KeyGenerator asKeyGenerator() {
+        return () -> state.get().serverKeyPair;
+    }
+
+    /**
+     * Returns a certificate tool that serves impersonation certificates from this cache.
+     * @return the certificate tool
+     */
+    public SecurityProviderTool asSecurityProviderTool() {
+        return new CachingSecurityProviderTool();
+    }
+
+    private static byte[] fingerprint(X509Certificate certificate) throws CertificateException {
+        return Hashing.sha256().hashBytes(certificate.getEncoded()).asBytes();
+    }
+
+    private static State decode(byte[] content, CertificateAndKey root) throws IOException, GeneralSecurityException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        if (!MAGIC.equals(in.readUTF()) || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("unrecognized format");
+        }
+        if (!Arrays.equals(fingerprint(root.getCertificate()), readBytes(in))) {
+            throw new IOException("persisted certificates were signed by a different root certificate");
+        }
+        KeyFactory keyFactory = KeyFactory.getInstance(in.readUTF());
+        PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(readBytes(in)));
+        PrivateKey privateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(readBytes(in)));
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        Date validityThreshold = new Date(System.currentTimeMillis() + CachingKeystoreGenerator.MIN_REMAINING_VALIDITY_MILLIS);
+        int count = in.readInt();
+        Map<String, X509Certificate> certificates = new ConcurrentHashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            String hostname = in.readUTF();
+            X509Certificate certificate = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(readBytes(in)));
+            try {
+                certificate.checkValidity(validityThreshold);
+                certificates.put(hostname, certificate);
+            } catch (CertificateException e) {
+                log.debug("discarding expiring impersonation certificate for {}", hostname);
+            }
+        }
+        return new State(root, new KeyPair(publicKey, privateKey), certificates);
+    }
+
+    private static byte[] encode(State s) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(1024 * (s.certificates.size() + 1));
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeUTF(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        try {
+            writeBytes(out, fingerprint(s.root.getCertificate()));
+            out.writeUTF(s.serverKeyPair.getPublic().getAlgorithm());
+            writeBytes(out, s.serverKeyPair.getPublic().getEncoded());
+            writeBytes(out, s.serverKeyPair.getPrivate().getEncoded());
+            Map<String, X509Certificate> certificates = new TreeMap<>(s.certificates);
+            out.writeInt(certificates.size());
+            for (Map.Entry<String, X509Certificate> entry : certificates.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeBytes(out, entry.getValue().getEncoded());
+            }
+        } catch (CertificateException e) {
+            throw new IOException(e);
+        }
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        ByteStreams.readFully(in, bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Certificate tool that serves impersonation certificates from the cache when the
+     * MITM manager requests a certificate for a single host signed with the shared
+     * key pair, and otherwise delegates to the default tool.
+     */
+    private class CachingSecurityProviderTool implements SecurityProviderTool {
+
+        @Override
+        public CertificateAndKey createServerCertificate(CertificateInfo certificateInfo, X509Certificate caRootCertificate, PrivateKey caPrivateKey, KeyPair serverKeyPair, String messageDigest) {
+            State s = state.get();
+            List<String> subjectAlternativeNames = certificateInfo.getSubjectAlternativeNames();
+            if (serverKeyPair == s.serverKeyPair
+                    && caRootCertificate.equals(s.root.getCertificate())
+                    && MESSAGE_DIGEST.equals(messageDigest)
+                    && subjectAlternativeNames.size() == 1
+                    && subjectAlternativeNames.get(0).equals(certificateInfo.getCommonName())) {
+                X509Certificate certificate = getCertificate(certificateInfo.getCommonName());
+                return new CertificateAndKey(certificate, serverKeyPair.getPrivate());
+            }
+            return securityProviderTool.createServerCertificate(certificateInfo, caRootCertificate, caPrivateKey, serverKeyPair, messageDigest);
+        }
+
+        @Override
+        public CertificateAndKey createCARootCertificate(CertificateInfo certificateInfo, KeyPair keyPair, String messageDigest) {
+            return securityProviderTool.createCARootCertificate(certificateInfo, keyPair, messageDigest);
+        }
+
+        @Override
+        public KeyStore createServerKeyStore(String keyStoreType, CertificateAndKey serverCertificateAndKey, X509Certificate rootCertificate, String privateKeyAlias, String password) {
+            return securityProviderTool.createServerKeyStore(keyStoreType, serverCertificateAndKey, rootCertificate, privateKeyAlias, password);
+        }
+
+        @Override
+        public KeyStore createRootCertificateKeyStore(String keyStoreType, CertificateAndKey rootCertificateAndKey, String privateKeyAlias, String password) {
+            return securityProviderTool.createRootCertificateKeyStore(keyStoreType, rootCertificateAndKey, privateKeyAlias, password);
+        }
+
+        @Override
+        public String encodePrivateKeyAsPem(PrivateKey privateKey, String passwordForPrivateKey, String encryptionAlgorithm) {
+            return securityProviderTool.encodePrivateKeyAsPem(privateKey, passwordForPrivateKey, encryptionAlgorithm);
+        }
+
+        @Override
+        public String encodeCertificateAsPem(Certificate certificate) {
+            return securityProviderTool.encodeCertificateAsPem(certificate);
+        }
+
+        @Override
+        public PrivateKey decodePemEncodedPrivateKey(Reader privateKeyReader, String password) {
+            return securityProviderTool.decodePemEncodedPrivateKey(privateKeyReader, password);
+        }
+
+        @Override
+        public X509Certificate decodePemEncodedCertificate(Reader certificateReader) {
+            return securityProviderTool.decodePemEncodedCertificate(certificateReader);
+        }
+
+        @Override
+        public KeyStore loadKeyStore(File file, String keyStoreType, String password) {
+            return securityProviderTool.loadKeyStore(file, keyStoreType, password);
+        }
+
+        @Override
+        public void saveKeyStore(File file, KeyStore keyStore, String keystorePassword) {
+            securityProviderTool.saveKeyStore(file, keyStore, keystorePassword);
+        }
+
+        @Override
+        public KeyManager[] getKeyManagers(KeyStore keyStore, String keyStorePassword) {
+            return securityProviderTool.getKeyManagers(keyStore, keyStorePassword);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImpersonationCertificateCache{persistenceFile=" + persistenceFile + "}";
+    }
+}
@@ -5,6 +5,7 @@ import net.lightbody.bmp.mitm.CertificateAndKey;
 import net.lightbody.bmp.mitm.CertificateInfo;
 import net.lightbody.bmp.mitm.RootCertificateGenerator;
 import net.lightbody.bmp.mitm.exception.KeyStoreAccessException;
+import net.lightbody.bmp.mitm.keys.KeyGenerator;
 import net.lightbody.bmp.mitm.util.KeyStoreUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,10 +46,23 @@ public class JreKeystoreGenerator implements KeystoreGenerator {
 
     private final Random random;
     private final KeystoreType keystoreType;
+    @Nullable
+    private final KeyGenerator keyGenerator;
 
     public JreKeystoreGenerator(KeystoreType keystoreType, Random random) {
+        this(keystoreType, random, null);
+    }
+
+    /**
+     * Constructs an instance that generates keys with the given key generator.
+     * @param keystoreType keystore type
+     * @param random source of randomness for keystore passwords
+     * @param keyGenerator key generator; if null, 2048-bit RSA keys are generated
+     */
+    public JreKeystoreGenerator(KeystoreType keystoreType, Random random, @Nullable KeyGenerator keyGenerator) {
         this.random = requireNonNull(random);
         this.keystoreType = requireNonNull(keystoreType);
+        this.keyGenerator = keyGenerator;
     }
 
     public JreKeystoreGenerator(KeystoreType keystoreType) {
@@ -135,7 +149,8 @@ public class JreKeystoreGenerator implements KeystoreGenerator {
     private static final int PASSWORD_GENERATION_BYTE_LENGTH = 32;
 
     /**
-     * Creates a dynamic CA root certificate generator using default settings (2048-bit RSA keys).
+     * Creates a dynamic CA root certificate generator using default settings (2048-bit RSA keys)
+     * or the key generator specified at construction.
      * @return the generator
      */
     protected RootCertificateGenerator buildCertificateGenerator(@Nullable String commonName) {
@@ -148,9 +163,12 @@ public class JreKeystoreGenerator implements KeystoreGenerator {
                 .organization("CA dynamically generated by KeystoreGenerator")
                 .notBefore(new Date(timestamp - 365L * 24L * 60L * 60L * 1000L))
                 .notAfter(new Date(timestamp + 365L * 24L * 60L * 60L * 1000L));
-        RootCertificateGenerator rootCertificateGenerator = RootCertificateGenerator.builder()
-                .certificateInfo(certificateInfo)
-                .build();
+        RootCertificateGenerator.Builder builder = RootCertificateGenerator.builder()
+                .certificateInfo(certificateInfo);
+        if (keyGenerator != null) {
+            builder.keyGenerator(keyGenerator);
+        }
+        RootCertificateGenerator rootCertificateGenerator = builder.build();
         return rootCertificateGenerator;
     }
 
@@ -1,8 +1,12 @@
 package io.github.mike10004.vhs.bmp;
 
+import net.lightbody.bmp.mitm.keys.ECKeyGenerator;
+
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 
 /**
  * Interface that defines methods to generate keystores.
@@ -36,4 +40,27 @@ public interface KeystoreGenerator {
     static KeystoreGenerator createJreGenerator(KeystoreType keystoreType) {
         return new JreKeystoreGenerator(keystoreType);
     }
+
+    /**
+     * Returns an implementation that uses the JRE's key generation facilities to
+     * generate elliptic curve keys, which is much faster than generating RSA keys.
+     * @param keystoreType keystore type
+     * @return a new generator instance
+     */
+    static KeystoreGenerator createJreEcGenerator(KeystoreType keystoreType) {
+        return new JreKeystoreGenerator(keystoreType, new SecureRandom(), new ECKeyGenerator());
+    }
+
+    /**
+     * Returns an implementation that stores keystores produced by another generator
+     * in a directory and reuses them.
+     * @param delegate the generator that produces new keystores
+     * @param keystoreType type of keystore produced by the delegate
+     * @param cacheDir the directory
+     * @return a new generator instance
+     * @see CachingKeystoreGenerator
+     */
+    static KeystoreGenerator cached(KeystoreGenerator delegate, KeystoreType keystoreType, Path cacheDir) {
+        return new CachingKeystoreGenerator(delegate, keystoreType, cacheDir);
+    }
 }
@@ -58,8 +58,12 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -87,7 +91,7 @@ public class NanohttpdTlsEndpointFactory implements TlsEndpointFactory {
 
     @Override
     public TlsEndpoint produce(BrowsermobVhsConfig config, Path scratchDir) throws IOException {
-        return new NanoEndpoint(findPort());
+        return new NanoEndpoint(findPort(), config.concurrency.newBlockingExecutor("vhs-nanohttpd-endpoint-"));
     }
 
     private int findPort() throws IOException {
@@ -149,8 +153,9 @@ public class NanohttpdTlsEndpointFactory implements TlsEndpointFactory {
         private NanoHTTPD server;
         private HostAndPort socketAddress;
 
-        public NanoEndpoint(int port) throws IOException {
+        public NanoEndpoint(int port, ExecutorService clientHandlerExecutor) throws IOException {
             server = createServer(port);
+            server.setAsyncRunner(new ExecutorAsyncRunner(clientHandlerExecutor));
             server.start();
             socketAddress = HostAndPort.fromParts("localhost", server.getListeningPort());
         }
@@ -173,6 +178,43 @@ public class NanohttpdTlsEndpointFactory implements TlsEndpointFactory {
         }
     }
 
+    /**
+     * Threading strategy that runs client handlers on an executor instead of
+     * starting a new thread for each connection.
+     */
+    private static class ExecutorAsyncRunner implements NanoHTTPD.AsyncRunner {
+
+        private final ExecutorService executor;
+        private final Set<NanoHTTPD.ClientHandler> running;
+
+        public ExecutorAsyncRunner(ExecutorService executor) {
+            this.executor = requireNonNull(executor);
+            running = ConcurrentHashMap.newKeySet();
+        }
+
+        @Override
+        public void closeAll() {
+            running.forEach(NanoHTTPD.ClientHandler::close);
+            executor.shutdown();
+        }
+
+        @Override
+        public void closed(NanoHTTPD.ClientHandler clientHandler) {
+            running.remove(clientHandler);
+        }
+
+        @Override
+        public void exec(NanoHTTPD.ClientHandler clientHandler) {
+            running.add(clientHandler);
+            try {
+                executor.execute(clientHandler);
+            } catch (RejectedExecutionException e) {
+                running.remove(clientHandler);
+                clientHandler.close();
+            }
+        }
+    }
+
     /**
      * A simple, tiny, nicely embeddable HTTP server in Java
      * <p/>
@@ -0,0 +1,259 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.mike10004.vhs.bmp.BrowsermobVhsConfig.TlsEndpointFactory;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import net.lightbody.bmp.mitm.TrustSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManagerFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Factory that produces a TLS endpoint served by Netty. Connections are handled
+ * by an event loop group rather than a thread per connection, and all endpoints
+ * produced by a factory share one SSL context, so TLS sessions established with
+ * one endpoint may be resumed with another. Like the endpoint produced by
+ * {@link NanohttpdTlsEndpointFactory}, the endpoint completes TLS handshakes and
+ * responds to every request with 404 Not Found. Closing the factory closes the
+ * endpoints it has produced that are still open.
+ */
+public class NettyTlsEndpointFactory implements TlsEndpointFactory, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(NettyTlsEndpointFactory.class);
+
+    /**
+     * Maximum number of TLS sessions cached for resumption.
+     */
+    public static final long SESSION_CACHE_SIZE = 4096;
+
+    /**
+     * Duration in seconds for which cached TLS sessions may be resumed.
+     */
+    public static final long SESSION_TIMEOUT_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    private static final int CLOSE_TIMEOUT_MS = 1000;
+
+    private final SslContext sslContext;
+    private final TrustSource trustSource;
+    @Nullable
+    private final Integer port;
+    private final EventLoopGroup eventLoopGroup;
+    private final Set<NettyEndpoint> openEndpoints;
+    private volatile boolean closed;
+
+    /**
+     * Constructs an instance.
+     * @param sslContext the server SSL context
+     * @param trustSource the trust source the proxy uses to connect to the endpoint
+     * @param port the port; null means any available port
+     * @param eventLoopGroup the event loop group that accepts and serves connections;
+     *                       it is not shut down when endpoints are closed
+     */
+    public NettyTlsEndpointFactory(SslContext sslContext, TrustSource trustSource, @Nullable Integer port, EventLoopGroup eventLoopGroup) {
+        this.sslContext = requireNonNull(sslContext, "sslContext");
+        this.trustSource = requireNonNull(trustSource, "trustSource");
+        this.port = port;
+        this.eventLoopGroup = requireNonNull(eventLoopGroup, "eventLoopGroup");
+        openEndpoints = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Creates a factory whose endpoints present the certificate in the given keystore.
+     * @param keystoreData the keystore data
+     * @param port the port
+     * @param eventLoopGroup the event loop group that accepts and serves connections;
+     *                       the caller remains responsible for shutting it down
+     * @return the factory
+     * @throws IOException on I/O error
+     * @throws GeneralSecurityException on security error
+     * @see #createEventLoopGroup(int)
+     */
+    public static NettyTlsEndpointFactory create(KeystoreData keystoreData, @Nullable Integer port, EventLoopGroup eventLoopGroup) throws IOException, GeneralSecurityException {
+        SslContext sslContext = createSslContext(keystoreData);
+        TrustSource trustSource = NanohttpdTlsEndpointFactory.createTrustSource(keystoreData);
+        return new NettyTlsEndpointFactory(sslContext, trustSource, port, eventLoopGroup);
+    }
+
+    /**
+     * Creates an event loop group of daemon threads suitable for serving TLS endpoints.
+     * The caller must shut the group down when the endpoints it serves are no longer needed.
+     * @param numThreads number of threads; zero means the Netty default
+     * @return a new event loop group
+     */
+    public static EventLoopGroup createEventLoopGroup(int numThreads) {
+        return new NioEventLoopGroup(numThreads, new ThreadFactoryBuilder()
+                .setNameFormat("vhs-tls-endpoint-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    public static SslContext createSslContext(KeystoreData keystoreData) throws IOException, GeneralSecurityException {
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keystoreData.loadKeystore(), keystoreData.keystorePassword);
+        return SslContextBuilder.forServer(keyManagerFactory)
+                .sessionCacheSize(SESSION_CACHE_SIZE)
+                .sessionTimeout(SESSION_TIMEOUT_SECONDS)
+                .build();
+    }
+
+    @Override
+    public TlsEndpoint produce(BrowsermobVhsConfig config, Path scratchDir) throws IOException {
+        if (closed) {
+            throw new IOException("factory is closed");
+        }
+        ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(eventLoopGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        channels.add(ch);
+                        ch.pipeline()
+                                .addLast(sslContext.newHandler(ch.alloc()))
+                                .addLast(new HttpServerCodec())
+                                .addLast(new NotFoundHandler());
+                    }
+                });
+        ChannelFuture bindFuture = bootstrap.bind(new InetSocketAddress(port == null ? 0 : port)).awaitUninterruptibly();
+        if (!bindFuture.isSuccess()) {
+            throw new IOException("failed to bind TLS endpoint", bindFuture.cause());
+        }
+        channels.add(bindFuture.channel());
+        NettyEndpoint endpoint = new NettyEndpoint(bindFuture.channel(), channels);
+        openEndpoints.add(endpoint);
+        if (closed) {
+            endpoint.close();
+            throw new IOException("factory is closed");
+        }
+        return endpoint;
+    }
+
+    /**
+     * Closes the endpoints produced by this factory that are still open. Endpoints
+     * may not be produced after the factory is closed. The event loop group is
+     * not shut down.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (NettyEndpoint endpoint : openEndpoints) {
+            endpoint.close();
+        }
+    }
+
+    private static class NotFoundHandler extends SimpleChannelInboundHandler<HttpObject> {
+
+        private static final byte[] CONTENT = "Not Found".getBytes(US_ASCII);
+        private static final String CONNECTION_KEEP_ALIVE = "keep-alive";
+        private static final String CONNECTION_CLOSE = "close";
+
+        private boolean keepAlive;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+            if (msg instanceof HttpRequest) {
+                keepAlive = isKeepAlive((HttpRequest) msg);
+            }
+            if (msg instanceof LastHttpContent) {
+                ByteBuf content = Unpooled.wrappedBuffer(CONTENT);
+                FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND, content);
+                response.headers()
+                        .set(HttpHeaders.CONTENT_TYPE, "text/plain")
+                        .set(HttpHeaders.CONTENT_LENGTH, CONTENT.length)
+                        .set(HttpHeaders.CONNECTION, keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+                ChannelFuture writeFuture = ctx.writeAndFlush(response);
+                if (!keepAlive) {
+                    writeFuture.addListener(ChannelFutureListener.CLOSE);
+                }
+            }
+        }
+
+        /**
+         * Determines whether the connection is to be kept open after the response, from
+         * the request's Connection header or, if absent, the default of the protocol version.
+         */
+        private static boolean isKeepAlive(HttpRequest request) {
+            @Nullable String connection = request.headers().get(HttpHeaders.CONNECTION);
+            if (CONNECTION_CLOSE.equalsIgnoreCase(connection)) {
+                return false;
+            }
+            return request.getProtocolVersion().isKeepAliveDefault() || CONNECTION_KEEP_ALIVE.equalsIgnoreCase(connection);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.debug("closing TLS endpoint connection after exception: {}", cause.toString());
+            ctx.close();
+        }
+    }
+
+    private class NettyEndpoint implements TlsEndpoint {
+
+        private final ChannelGroup channels;
+        private final HostAndPort socketAddress;
+
+        public NettyEndpoint(Channel serverChannel, ChannelGroup channels) {
+            this.channels = requireNonNull(channels);
+            socketAddress = HostAndPort.fromParts("localhost", ((InetSocketAddress) serverChannel.localAddress()).getPort());
+        }
+
+        @Override
+        public HostAndPort getSocketAddress() {
+            return socketAddress;
+        }
+
+        @Override
+        public TrustSource getTrustSource() {
+            return trustSource;
+        }
+
+        @Override
+        public void close() {
+            openEndpoints.remove(this);
+            if (!channels.close().awaitUninterruptibly(CLOSE_TIMEOUT_MS)) {
+                log.info("timed out waiting for TLS endpoint at {} to close", socketAddress);
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package io.github.mike10004.vhs.bmp;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.security.cert.X509Certificate;
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SSL engine that performs no handshake and copies data through unencrypted.
+ * The proxy uses it for the connection to the TLS endpoint when every request
+ * is answered by the response manufacturer, so that the connection reports an
+ * established TLS session without the cost of a handshake. The session has no
+ * peer certificates, so impersonation certificates are based on the hostname alone.
+ */
+class PassThroughSslEngine extends SSLEngine {
+
+    private static final String[] NO_STRINGS = {};
+
+    /**
+     * Buffer size reported by the session; the maximum TLS record size, so that
+     * callers allocate buffers as they would for a real engine.
+     */
+    private static final int BUFFER_SIZE = 16 * 1024 + 2048;
+
+    private final SSLSession session;
+    private volatile boolean inboundDone;
+    private volatile boolean outboundDone;
+    private volatile boolean clientMode;
+    private volatile boolean handshakeBegun;
+
+    public PassThroughSslEngine(@Nullable String peerHost, int peerPort) {
+        super(peerHost, peerPort);
+        session = new PassThroughSession(peerHost, peerPort);
+    }
+
+    @Override
+    public SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst) {
+        if (outboundDone) {
+            return new SSLEngineResult(Status.CLOSED, HandshakeStatus.NOT_HANDSHAKING, 0, 0);
+        }
+        int transferred = 0;
+        for (int i = offset; i < offset + length; i++) {
+            transferred += transfer(srcs[i], dst);
+        }
+        return result(transferred, remaining(srcs, offset, length) > 0);
+    }
+
+    @Override
+    public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length) {
+        if (inboundDone) {
+            return new SSLEngineResult(Status.CLOSED, HandshakeStatus.NOT_HANDSHAKING, 0, 0);
+        }
+        int transferred = 0;
+        for (int i = offset; i < offset + length && src.hasRemaining(); i++) {
+            transferred += transfer(src, dsts[i]);
+        }
+        return result(transferred, src.hasRemaining());
+    }
+
+    private static SSLEngineResult result(int transferred, boolean overflow) {
+        return new SSLEngineResult(overflow ? Status.BUFFER_OVERFLOW : Status.OK, HandshakeStatus.NOT_HANDSHAKING, transferred, transferred);
+    }
+
+    private static int transfer(ByteBuffer src, ByteBuffer dst) {
+        int n = Math.min(src.remaining(), dst.remaining());
+        if (n > 0) {
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + n);
+            dst.put(slice);
+            src.position(src.position() + n);
+        }
+        return n;
+    }
+
+    private static long remaining(ByteBuffer[] buffers, int offset, int length) {
+        long remaining = 0;
+        for (int i = offset; i < offset + length; i++) {
+            remaining += buffers[i].remaining();
+        }
+        return remaining;
+    }
+
+    @Nullable
+    @Override
+    public Runnable getDelegatedTask() {
+        return null;
+    }
+
+    @Override
+    public void closeInbound() {
+        inboundDone = true;
+    }
+
+    @Override
+    public boolean isInboundDone() {
+        return inboundDone;
+    }
+
+    @Override
+    public void closeOutbound() {
+        outboundDone = true;
+    }
+
+    @Override
+    public boolean isOutboundDone() {
+        return outboundDone;
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return NO_STRINGS;
+    }
+
+    @Override
+    public String[] getEnabledCipherSuites() {
+        return NO_STRINGS;
+    }
+
+    @Override
+    public void setEnabledCipherSuites(String[] suites) {
+    }
+
+    @Override
+    public String[] getSupportedProtocols() {
+        return NO_STRINGS;
+    }
+
+    @Override
+    public String[] getEnabledProtocols() {
+        return NO_STRINGS;
+    }
+
+    @Override
+    public void setEnabledProtocols(String[] protocols) {
+    }
+
+    @Override
+    public SSLSession getSession() {
+        return session;
+    }
+
+    @Override
+    public void beginHandshake() {
+        handshakeBegun = true;
+    }
+
+    /**
+     * Gets the handshake status. Once a handshake has begun, this returns
+     * {@link HandshakeStatus#FINISHED} instead of {@code NOT_HANDSHAKING}.
+     *
+     * <p>This breaks the {@link SSLEngine} contract in two ways: {@code FINISHED} is
+     * specified to be reported only in the result of {@code wrap} or {@code unwrap},
+     * never by this method; and the results of {@code wrap} and {@code unwrap} report
+     * {@code NOT_HANDSHAKING} without ever reporting the completion of the handshake.
+     * The engine is therefore usable only by a caller that reads this method solely to
+     * decide whether to begin a handshake, and that treats a {@code NOT_HANDSHAKING}
+     * result as a completed handshake. Netty's {@code SslHandler}, on the connection
+     * from the proxy to the TLS endpoint, is such a caller: it begins a handshake both
+     * when it is added to an active channel and when the channel becomes active, and
+     * skips the second if this method returns anything but {@code NOT_HANDSHAKING}.
+     * Instances are created only by {@link UpstreamTlsBypassingMitmManager} for that
+     * connection.
+     * @return the handshake status
+     */
+    @Override
+    public HandshakeStatus getHandshakeStatus() {
+        return handshakeBegun ? HandshakeStatus.FINISHED : HandshakeStatus.NOT_HANDSHAKING;
+    }
+
+    @Override
+    public void setUseClientMode(boolean mode) {
+        clientMode = mode;
+    }
+
+    @Override
+    public boolean getUseClientMode() {
+        return clientMode;
+    }
+
+    @Override
+    public void setNeedClientAuth(boolean need) {
+    }
+
+    @Override
+    public boolean getNeedClientAuth() {
+        return false;
+    }
+
+    @Override
+    public void setWantClientAuth(boolean want) {
+    }
+
+    @Override
+    public boolean getWantClientAuth() {
+        return false;
+    }
+
+    @Override
+    public void setEnableSessionCreation(boolean flag) {
+    }
+
+    @Override
+    public boolean getEnableSessionCreation() {
+        return false;
+    }
+
+    private static class PassThroughSession implements SSLSession {
+
+        private static final byte[] NO_ID = {};
+
+        @Nullable
+        private final String peerHost;
+        private final int peerPort;
+        private final long creationTime;
+        private final Map<String, Object> values;
+
+        private PassThroughSession(@Nullable String peerHost, int peerPort) {
+            this.peerHost = peerHost;
+            this.peerPort = peerPort;
+            creationTime = System.currentTimeMillis();
+            values = new ConcurrentHashMap<>();
+        }
+
+        @Override
+        public byte[] getId() {
+            return NO_ID;
+        }
+
+        @Nullable
+        @Override
+        public SSLSessionContext getSessionContext() {
+            return null;
+        }
+
+        @Override
+        public long getCreationTime() {
+            return creationTime;
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            return creationTime;
+        }
+
+        @Override
+        public void invalidate() {
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+        @Override
+        public void putValue(String name, Object value) {
+            values.put(name, value);
+        }
+
+        @Override
+        public Object getValue(String name) {
+            return values.get(name);
+        }
+
+        @Override
+        public void removeValue(String name) {
+            values.remove(name);
+        }
+
+        @Override
+        public String[] getValueNames() {
+            return values.keySet().toArray(NO_STRINGS);
+        }
+
+        @Override
+        public Certificate[] getPeerCertificates() throws SSLPeerUnverifiedException {
+            throw new SSLPeerUnverifiedException("no handshake performed");
+        }
+
+        @Nullable
+        @Override
+        public Certificate[] getLocalCertificates() {
+            return null;
+        }
+
+        @Override
+        public X509Certificate[] getPeerCertificateChain() throws SSLPeerUnverifiedException {
+            throw new SSLPeerUnverifiedException("no handshake performed");
+        }
+
+        @Override
+        public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+            throw new SSLPeerUnverifiedException("no handshake performed");
+        }
+
+        @Nullable
+        @Override
+        public Principal getLocalPrincipal() {
+            return null;
+        }
+
+        @Override
+        public String getCipherSuite() {
+            return "SSL_NULL_WITH_NULL_NULL";
+        }
+
+        @Override
+        public String getProtocol() {
+            return "NONE";
+        }
+
+        @Nullable
+        @Override
+        public String getPeerHost() {
+            return peerHost;
+        }
+
+        @Override
+        public int getPeerPort() {
+            return peerPort;
+        }
+
+        @Override
+        public int getPacketBufferSize() {
+            return BUFFER_SIZE;
+        }
+
+        @Override
+        public int getApplicationBufferSize() {
+            return BUFFER_SIZE;
+        }
+    }
+}
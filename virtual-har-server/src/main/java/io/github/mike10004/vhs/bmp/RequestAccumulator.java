@@ -1,19 +1,17 @@
 package io.github.mike10004.vhs.bmp;
 
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Multimap;
 import io.github.mike10004.vhs.harbridge.HttpMethod;
 import io.github.mike10004.vhs.harbridge.ParsedRequest;
 import io.github.mike10004.vhs.repackaged.org.apache.http.client.utils.URLEncodedUtils;
+import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.HttpVersion;
-import net.lightbody.bmp.core.har.HarNameValuePair;
 
 import javax.annotation.Nullable;
-import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -21,15 +19,18 @@ import java.util.Optional;
 import static java.util.Objects.requireNonNull;
 
 /**
- * Class that represents an accumulation of request data.
+ * Class that represents an accumulation of request data. An instance is confined
+ * to the channel that receives the request, so it is not thread-safe.
  */
 class RequestAccumulator {
 
+    private static final byte[] EMPTY_BODY = {};
+
     private final HttpVersion httpVersion;
-    private volatile String method;
-    private volatile String url;
-    private final List<HarNameValuePair> headers = Collections.synchronizedList(new ArrayList<>());
-    private volatile byte[] body = new byte[0];
+    private String method;
+    private RequestUrl url;
+    private final ImmutableListMultimap.Builder<String, String> headers = ImmutableListMultimap.builder();
+    private byte[] body = EMPTY_BODY;
 
     public RequestAccumulator(HttpVersion httpVersion) {
         this.httpVersion = requireNonNull(httpVersion);
@@ -43,30 +44,41 @@ class RequestAccumulator {
         this.method = method;
     }
 
-    private String getUrl() {
+    private RequestUrl getUrl() {
         return url;
     }
 
-    public void setUrl(String url) {
+    public void setUrl(RequestUrl url) {
         this.url = url;
     }
 
-    private List<HarNameValuePair> getHeaders() {
-        return headers;
+    public void setUrl(String url) {
+        setUrl(RequestUrl.parse(url));
     }
 
     public void addHeader(String name, String value) {
-        getHeaders().add(new HarNameValuePair(name, value));
+        headers.put(name, value);
     }
 
-    public void setBody(byte[] body) {
-        this.body = requireNonNull(body, "body");
+    /**
+     * Appends the readable bytes of a content buffer to the body. The buffer's
+     * reader index is not modified. If the request is aggregated, the content
+     * arrives in a single buffer and is copied exactly once.
+     * @param content the content buffer
+     */
+    public void appendBody(ByteBuf content) {
+        int length = content.readableBytes();
+        if (length == 0) {
+            return;
+        }
+        int offset = body.length;
+        body = offset == 0 ? new byte[length] : Arrays.copyOf(body, offset + length);
+        content.getBytes(content.readerIndex(), body, offset, length);
     }
 
     /**
      * Freezes this accumulation and returns an immutable object.
      * @return the frozen request
-     * @throws IOException if formatting the body fails
      */
     public RequestCapture freeze() {
         ParsedRequest parsed = parse();
@@ -75,36 +87,32 @@ class RequestAccumulator {
 
     protected ParsedRequest parse() {
         HttpMethod method = HttpMethod.valueOf(getMethod());
-        URI url = URI.create(getUrl());
-        Multimap<String, String> headers = toMultimap(getHeaders());
-        @Nullable Multimap<String, Optional<String>> query = queryStringToMultimapOfOptionals(url);
-        byte[] body = this.body;
-        return ParsedRequest.inMemory(method, url, query, headers, body);
+        RequestUrl url = getUrl();
+        @Nullable String rawQuery = url.rawQuery;
+        // the query is decoded only if a matcher gets past method, host and path
+        return ParsedRequest.withUndecodedQuery(method, url.toUri(), () -> queryStringToMultimapOfOptionals(rawQuery), headers.build(), body);
     }
 
     @Nullable
     protected static Multimap<String, Optional<String>> queryStringToMultimapOfOptionals(URI uri) {
-        if (uri.getQuery() == null) {
+        return queryStringToMultimapOfOptionals(uri.getRawQuery());
+    }
+
+    @Nullable
+    protected static Multimap<String, Optional<String>> queryStringToMultimapOfOptionals(@Nullable String rawQuery) {
+        if (rawQuery == null) {
             return null;
         }
-        List<Map.Entry<String, String>> params = URLEncodedUtils.parse(uri, StandardCharsets.UTF_8);
+        List<Map.Entry<String, String>> params = URLEncodedUtils.parse(rawQuery, StandardCharsets.UTF_8);
         return toMultimapOfOptionals(params);
     }
 
     protected static Multimap<String, Optional<String>> toMultimapOfOptionals(Iterable<Map.Entry<String, String>> nameValuePairs) {
-        Multimap<String, Optional<String>> mm = ArrayListMultimap.create();
+        ImmutableListMultimap.Builder<String, Optional<String>> mm = ImmutableListMultimap.builder();
         nameValuePairs.forEach(pair -> {
             mm.put(pair.getKey(), Optional.ofNullable(pair.getValue()));
         });
-        return mm;
-    }
-
-    protected Multimap<String, String> toMultimap(Iterable<? extends HarNameValuePair> nameValuePairs) {
-        Multimap<String, String> mm = ArrayListMultimap.create();
-        nameValuePairs.forEach(pair -> {
-            mm.put(pair.getName(), pair.getValue());
-        });
-        return mm;
+        return mm.build();
     }
 
 }
@@ -0,0 +1,159 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.base.CharMatcher;
+
+import javax.annotation.Nullable;
+import java.net.URI;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Absolute URL of a captured request, split into its components once.
+ * Components are kept in their raw (encoded) form; the string form and the
+ * {@link URI} are constructed on demand and memoized. Fragments are not retained,
+ * because the HAR spec excludes them from request URLs. Like the request
+ * accumulator, an instance is confined to one channel, so memoization is unsynchronized.
+ */
+final class RequestUrl {
+
+    private static final CharMatcher AUTHORITY_END = CharMatcher.anyOf("/?#");
+    private static final CharMatcher PATH_END = CharMatcher.anyOf("?#");
+
+    public final String scheme;
+
+    @Nullable
+    public final String userInfo;
+
+    public final String host;
+
+    /**
+     * Port, or -1 if the URL does not specify one.
+     */
+    public final int port;
+
+    /**
+     * Raw path; empty if the URL has no path.
+     */
+    public final String rawPath;
+
+    /**
+     * Raw query string, without the {@code ?}; null if the URL has no query.
+     */
+    @Nullable
+    public final String rawQuery;
+
+    private String string;
+    private URI uri;
+
+    private RequestUrl(String scheme, @Nullable String userInfo, String host, int port, String rawPath, @Nullable String rawQuery) {
+        this.scheme = requireNonNull(scheme);
+        this.userInfo = userInfo;
+        this.host = requireNonNull(host);
+        this.port = port;
+        this.rawPath = requireNonNull(rawPath);
+        this.rawQuery = rawQuery;
+    }
+
+    /**
+     * Parses an absolute URL.
+     * @param url the URL
+     * @return the parsed URL
+     * @throws IllegalArgumentException if the URL is not absolute or the port is invalid
+     */
+    public static RequestUrl parse(String url) {
+        int schemeEnd = url.indexOf("://");
+        checkArgument(schemeEnd > 0, "not an absolute URL: %s", url);
+        String scheme = url.substring(0, schemeEnd);
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = AUTHORITY_END.indexIn(url, authorityStart);
+        if (authorityEnd < 0) {
+            authorityEnd = url.length();
+        }
+        String authority = url.substring(authorityStart, authorityEnd);
+        @Nullable String userInfo = null;
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) {
+            userInfo = authority.substring(0, at);
+            authority = authority.substring(at + 1);
+        }
+        int fragmentStart = url.indexOf('#', authorityEnd);
+        int end = fragmentStart < 0 ? url.length() : fragmentStart;
+        int pathEnd = PATH_END.indexIn(url, authorityEnd);
+        if (pathEnd < 0) {
+            pathEnd = end;
+        }
+        String rawPath = url.substring(authorityEnd, pathEnd);
+        @Nullable String rawQuery = pathEnd < end && url.charAt(pathEnd) == '?' ? url.substring(pathEnd + 1, end) : null;
+        return withAuthority(scheme, userInfo, authority, rawPath, rawQuery);
+    }
+
+    private static RequestUrl withAuthority(String scheme, @Nullable String userInfo, String authority, String rawPath, @Nullable String rawQuery) {
+        int colon = authority.lastIndexOf(':');
+        // a colon inside brackets belongs to an IPv6 address
+        if (colon < 0 || colon < authority.lastIndexOf(']')) {
+            return new RequestUrl(scheme, userInfo, authority, -1, rawPath, rawQuery);
+        }
+        String host = authority.substring(0, colon);
+        String portStr = authority.substring(colon + 1);
+        int port = -1;
+        if (!portStr.isEmpty()) {
+            try {
+                port = Integer.parseInt(portStr);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid port in authority " + authority, e);
+            }
+            checkArgument(port >= 0 && port <= 65535, "port out of range: %s", port);
+        }
+        return new RequestUrl(scheme, userInfo, host, port, rawPath, rawQuery);
+    }
+
+    /**
+     * Returns a URL with the host and port of a {@code Host} header value. The port
+     * is omitted if the header does not specify one or if it is the default port for the scheme.
+     * @param hostHeaderValue value of the {@code Host} header
+     * @return a new URL
+     */
+    public RequestUrl withHost(String hostHeaderValue) {
+        RequestUrl replacement = withAuthority(scheme, userInfo, hostHeaderValue, rawPath, rawQuery);
+        if (replacement.port >= 0 && ResponseManufacturingFilter.isDefaultPortForScheme(scheme, replacement.port)) {
+            return new RequestUrl(scheme, userInfo, replacement.host, -1, rawPath, rawQuery);
+        }
+        return replacement;
+    }
+
+    /**
+     * Gets this URL as a {@link URI}, which is parsed once and memoized.
+     * @return the URI
+     * @throws IllegalArgumentException if the URL violates URI syntax
+     */
+    public URI toUri() {
+        URI uri = this.uri;
+        if (uri == null) {
+            this.uri = uri = URI.create(toString());
+        }
+        return uri;
+    }
+
+    @Override
+    public String toString() {
+        String string = this.string;
+        if (string == null) {
+            StringBuilder sb = new StringBuilder(scheme.length() + host.length() + rawPath.length() + 16 + (rawQuery == null ? 0 : rawQuery.length() + 1));
+            sb.append(scheme).append("://");
+            if (userInfo != null) {
+                sb.append(userInfo).append('@');
+            }
+            sb.append(host);
+            if (port >= 0) {
+                sb.append(':').append(port);
+            }
+            sb.append(rawPath);
+            if (rawQuery != null) {
+                sb.append('?').append(rawQuery);
+            }
+            this.string = string = sb.toString();
+        }
+        return string;
+    }
+}
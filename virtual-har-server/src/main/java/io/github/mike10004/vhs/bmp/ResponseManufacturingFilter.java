@@ -2,15 +2,14 @@ package io.github.mike10004.vhs.bmp;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.net.HostAndPort;
-import io.github.mike10004.vhs.repackaged.org.apache.http.client.utils.URIBuilder;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.LastHttpContent;
-import net.lightbody.bmp.filters.ClientRequestCaptureFilter;
 import net.lightbody.bmp.filters.HttpsAwareFiltersAdapter;
 import org.littleshoot.proxy.impl.ProxyUtils;
 import org.slf4j.Logger;
@@ -18,8 +17,6 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.net.InetSocketAddress;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -37,18 +34,16 @@ class ResponseManufacturingFilter extends HttpsAwareFiltersAdapter {
 
     private static final Logger log = LoggerFactory.getLogger(ResponseManufacturingFilter.class);
 
-    private transient final Object responseLock = new Object();
     private final transient AtomicBoolean unreachableExceptionThrown = new AtomicBoolean(false);
-    private volatile boolean responseSent;
-    private final RequestAccumulator requestAccumulator;
-    private final BmpResponseListener responseListener;
 
     /**
-     * The requestCaptureFilter captures all request content, including headers, trailing headers, and content. This filter
-     * delegates to it when the clientToProxyRequest() callback is invoked. If this request does not need content capture, the
-     * ClientRequestCaptureFilter filter will not be instantiated and will not capture content.
+     * Flag indicating that a response has been produced. The proxy invokes the
+     * request callbacks of a filter instance on the channel's event loop only,
+     * so no synchronization is needed.
      */
-    private final ClientRequestCaptureFilter requestCaptureFilter;
+    private boolean responseSent;
+    private final RequestAccumulator requestAccumulator;
+    private final BmpResponseListener responseListener;
 
     private final BmpResponseManufacturer.WithState<?> responseManufacturer;
 
@@ -64,7 +59,6 @@ class ResponseManufacturingFilter extends HttpsAwareFiltersAdapter {
             throw new IllegalArgumentException("HTTP CONNECT requests not supported by these filters");
         }
         requestAccumulator = new RequestAccumulator(originalRequest.getProtocolVersion());
-        requestCaptureFilter = new ClientRequestCaptureFilter(originalRequest);
         this.responseManufacturer = requireNonNull(responseManufacturer);
         this.responseListener = requireNonNull(responseListener);
     }
@@ -89,7 +83,6 @@ class ResponseManufacturingFilter extends HttpsAwareFiltersAdapter {
     }
 
     protected void captureRequest(HttpObject httpObject) {
-        requestCaptureFilter.clientToProxyRequest(httpObject);
         if (httpObject instanceof HttpRequest) {
             HttpRequest httpRequest = (HttpRequest) httpObject;
             // associate this request's HarRequest object with the har entry
@@ -97,20 +90,21 @@ class ResponseManufacturingFilter extends HttpsAwareFiltersAdapter {
             captureRequestHeaders(httpRequest);
         }
 
+        if (httpObject instanceof HttpContent) {
+            captureRequestContent(((HttpContent) httpObject).content());
+        }
+
         if (httpObject instanceof LastHttpContent) {
             LastHttpContent lastHttpContent = (LastHttpContent) httpObject;
             captureTrailingHeaders(lastHttpContent);
-            captureRequestContent(requestCaptureFilter.getFullRequestContents());
         }
     }
 
     protected HttpResponse interceptRequest(HttpObject httpObject) {
         captureRequest(httpObject);
-        synchronized (responseLock) {
-            checkState(!responseSent, "response already sent");
-            log.debug("producing response for {}", describe(httpObject));
-            responseSent = true;
-        }
+        checkState(!responseSent, "response already sent");
+        log.debug("producing response for {}", describe(httpObject));
+        responseSent = true;
         HttpResponse response = produceResponse(freezeRequestCapture());
         return response;
     }
@@ -157,16 +151,7 @@ class ResponseManufacturingFilter extends HttpsAwareFiltersAdapter {
         return defaultPort != null && port == defaultPort.intValue();
     }
 
-    private static void cleanHostAndPort(URIBuilder uriBuilder, String hostHeaderValue, @Nullable String scheme) {
-        HostAndPort hap = HostAndPort.fromString(hostHeaderValue);
-        uriBuilder.setHost(hap.getHost());
-        uriBuilder.setPort(-1);
-        if (hap.hasPort() && !isDefaultPortForScheme(scheme, hap.getPort())) {
-            uriBuilder.setPort(hap.getPort());
-        }
-    }
-
-    protected String reconstructUrlFromRequest(HttpRequest request) {
+    protected RequestUrl reconstructUrlFromRequest(HttpRequest request) {
         // the HAR spec defines the request.url field as:
         //     url [string] - Absolute URL of the request (fragments are not included).
         // the URI on the httpRequest may only identify the path of the resource, so find the full URL.
@@ -176,22 +161,20 @@ class ResponseManufacturingFilter extends HttpsAwareFiltersAdapter {
         return reconstructUrlFromFullUrlAndHostHeader(fullUrl, hostHeader);
     }
 
-    protected String reconstructUrlFromFullUrlAndHostHeader(String fullUrl, @Nullable String hostHeader) {
+    protected RequestUrl reconstructUrlFromFullUrlAndHostHeader(String fullUrl, @Nullable String hostHeader) {
+        RequestUrl url = RequestUrl.parse(fullUrl);
         if (isHttps()) {
             if (hostHeader != null) {
                 try {
-                    URI fullUrlUri = new URI(fullUrl);
-                    URIBuilder uriBuilder = new URIBuilder(fullUrlUri);
-                    cleanHostAndPort(uriBuilder, hostHeader, fullUrlUri.getScheme());
-                    fullUrl = uriBuilder.build().toString();
-                } catch (URISyntaxException e) {
+                    url = url.withHost(hostHeader);
+                } catch (IllegalArgumentException e) {
                     log.info("failed to reconstruct URL with proper host", e);
                 }
             } else {
                 log.info("no host header in request {} {}", requestAccumulator.getMethod(), fullUrl);
             }
         }
-        return fullUrl;
+        return url;
     }
 
     protected void captureRequestHeaders(HttpRequest httpRequest) {
@@ -205,13 +188,13 @@ class ResponseManufacturingFilter extends HttpsAwareFiltersAdapter {
     }
 
     protected void captureHeaders(HttpHeaders headers) {
-        for (Map.Entry<String, String> header : headers.entries()) {
+        for (Map.Entry<String, String> header : headers) {
             requestAccumulator.addHeader(header.getKey(), header.getValue());
         }
     }
 
-    protected void captureRequestContent(byte[] fullMessage) {
-        requestAccumulator.setBody(fullMessage);
+    protected void captureRequestContent(ByteBuf content) {
+        requestAccumulator.appendBody(content);
     }
 
     /**
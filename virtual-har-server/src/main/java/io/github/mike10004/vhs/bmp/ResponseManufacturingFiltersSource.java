@@ -14,6 +14,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 class ResponseManufacturingFiltersSource extends HttpFiltersSourceAdapter {
@@ -24,12 +25,15 @@ class ResponseManufacturingFiltersSource extends HttpFiltersSourceAdapter {
     private final HostRewriter hostRewriter;
     private final BmpResponseListener bmpResponseListener;
     private final PassthruPredicate passthruPredicate;
+    private final int maxRequestBufferSizeBytes;
 
-    public ResponseManufacturingFiltersSource(BmpResponseManufacturer.WithState<?> responseManufacturer, HostRewriter hostRewriter, BmpResponseListener bmpResponseListener, PassthruPredicate passthruPredicate) {
+    public ResponseManufacturingFiltersSource(BmpResponseManufacturer.WithState<?> responseManufacturer, HostRewriter hostRewriter, BmpResponseListener bmpResponseListener, PassthruPredicate passthruPredicate, int maxRequestBufferSizeBytes) {
         this.responseManufacturer = requireNonNull(responseManufacturer);
         this.hostRewriter = requireNonNull(hostRewriter);
         this.bmpResponseListener = requireNonNull(bmpResponseListener);
         this.passthruPredicate = requireNonNull(passthruPredicate);
+        checkArgument(maxRequestBufferSizeBytes >= 0, "max request buffer size must be nonnegative: %s", maxRequestBufferSizeBytes);
+        this.maxRequestBufferSizeBytes = maxRequestBufferSizeBytes;
     }
 
     public interface PassthruPredicate {
@@ -86,9 +90,14 @@ class ResponseManufacturingFiltersSource extends HttpFiltersSourceAdapter {
         }
     }
 
+    /**
+     * Gets the maximum size of a request that is aggregated before it is passed to the filters.
+     * @return the maximum size; zero if requests are not aggregated
+     * @see BrowsermobVhsConfig#maxRequestBufferSizeBytes
+     */
     @Override
     public int getMaximumRequestBufferSizeInBytes() {
-        return 0;
+        return maxRequestBufferSizeBytes;
     }
 
     @Override
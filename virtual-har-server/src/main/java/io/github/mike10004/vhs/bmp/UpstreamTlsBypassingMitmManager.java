@@ -0,0 +1,58 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.net.HostAndPort;
+import io.netty.handler.codec.http.HttpRequest;
+import org.littleshoot.proxy.MitmManager;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * MITM manager that terminates TLS on the client side only for connections to the
+ * TLS endpoint. The proxy's connection to the TLS endpoint uses a
+ * {@link PassThroughSslEngine}, so no TLS handshake is performed with it. Connections
+ * to any other upstream, such as requests passed through to a real remote host, use
+ * engines produced by the delegate manager, so that their traffic is encrypted.
+ * Client-side engines are always produced by the delegate manager.
+ */
+class UpstreamTlsBypassingMitmManager implements MitmManager {
+
+    private final MitmManager delegate;
+    private final HostAndPort tlsEndpointAddress;
+
+    public UpstreamTlsBypassingMitmManager(MitmManager delegate, HostAndPort tlsEndpointAddress) {
+        this.delegate = requireNonNull(delegate);
+        this.tlsEndpointAddress = requireNonNull(tlsEndpointAddress);
+    }
+
+    @Override
+    public SSLEngine serverSslEngine(String peerHost, int peerPort) {
+        if (isTlsEndpoint(peerHost, peerPort)) {
+            return new PassThroughSslEngine(peerHost, peerPort);
+        }
+        return delegate.serverSslEngine(peerHost, peerPort);
+    }
+
+    private boolean isTlsEndpoint(String peerHost, int peerPort) {
+        return tlsEndpointAddress.getHost().equalsIgnoreCase(peerHost)
+                && tlsEndpointAddress.getPortOrDefault(-1) == peerPort;
+    }
+
+    /**
+     * Produces an engine for an upstream whose address is unknown, which the proxy
+     * requests only if SNI is disabled. Because the upstream may not be the TLS
+     * endpoint, the engine is produced by the delegate manager.
+     * @return the delegate's engine
+     */
+    @Override
+    public SSLEngine serverSslEngine() {
+        return delegate.serverSslEngine();
+    }
+
+    @Override
+    public SSLEngine clientSslEngineFor(HttpRequest httpRequest, SSLSession serverSslSession) {
+        return delegate.clientSslEngineFor(httpRequest, serverSslSession);
+    }
+}
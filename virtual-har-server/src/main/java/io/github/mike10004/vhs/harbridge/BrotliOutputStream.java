@@ -0,0 +1,529 @@
+package io.github.mike10004.vhs.harbridge;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Output stream that compresses data in the brotli format (RFC 7932).
+ *
+ * <p>Input is buffered into chunks, and each chunk is written as one compressed meta-block
+ * with a single block type per category and one prefix code each for literals,
+ * insert-and-copy lengths, and distances. Backward references are found with a hash chain
+ * whose search depth, and whether lazy matching is used, depends on the quality level.
+ * References do not cross chunk boundaries. The static dictionary and context modeling
+ * are not used, so output is larger than that of the reference encoder at equal quality,
+ * but it is decodable by any conforming decoder.
+ */
+class BrotliOutputStream extends FilterOutputStream {
+
+    public static final int MIN_QUALITY = 0;
+    public static final int MAX_QUALITY = 11;
+
+    private static final int WINDOW_BITS = 22;
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_MATCH = 1 << 16;
+    private static final int HASH_BITS = 16;
+
+    private static final int NUM_LITERAL_SYMBOLS = 256;
+    private static final int NUM_COMMAND_SYMBOLS = 704;
+    private static final int NUM_DISTANCE_SYMBOLS = 64;
+    private static final int MAX_CODE_LENGTH = 15;
+    private static final int MAX_CODE_LENGTH_CODE_LENGTH = 5;
+
+    private static final int[] INSERT_OFFSETS = {0, 1, 2, 3, 4, 5, 6, 8, 10, 14, 18, 26, 34, 50, 66, 98, 130, 194, 322, 578, 1090, 2114, 6210, 22594};
+    private static final int[] INSERT_EXTRA_BITS = {0, 0, 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 7, 8, 9, 10, 12, 14, 24};
+    private static final int[] COPY_OFFSETS = {2, 3, 4, 5, 6, 7, 8, 9, 10, 12, 14, 18, 22, 30, 38, 54, 70, 102, 134, 198, 326, 582, 1094, 2118};
+    private static final int[] COPY_EXTRA_BITS = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 7, 8, 9, 10, 24};
+    private static final int[] CODE_LENGTH_CODE_ORDER = {1, 2, 3, 4, 0, 5, 17, 6, 16, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+    private static final int[] CODE_LENGTH_CODE_LENGTH_BITS = {0b00, 0b0111, 0b011, 0b10, 0b01, 0b1111};
+    private static final int[] CODE_LENGTH_CODE_LENGTH_WIDTHS = {2, 4, 3, 2, 2, 4};
+
+    private final int maxChainLength;
+    private final boolean lazyMatching;
+    private final BitWriter bits;
+    private final byte[] chunk;
+    private int chunkLength;
+    private boolean headerWritten;
+    private boolean finished;
+
+    private final int[] head;
+    private final int[] chain;
+
+    public BrotliOutputStream(OutputStream out, int quality) {
+        super(out);
+        checkArgument(quality >= MIN_QUALITY && quality <= MAX_QUALITY, "quality must be in range [%s, %s]: %s", MIN_QUALITY, MAX_QUALITY, quality);
+        this.maxChainLength = quality == 0 ? 0 : 1 << ((quality + 1) / 2);
+        this.lazyMatching = quality >= 5;
+        this.bits = new BitWriter(out);
+        this.chunk = new byte[CHUNK_SIZE];
+        this.head = new int[1 << HASH_BITS];
+        this.chain = new int[CHUNK_SIZE];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkNotFinished();
+        if (chunkLength == chunk.length) {
+            writeMetaBlock(false);
+        }
+        chunk[chunkLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkNotFinished();
+        while (len > 0) {
+            if (chunkLength == chunk.length) {
+                writeMetaBlock(false);
+            }
+            int n = Math.min(len, chunk.length - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, n);
+            chunkLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void checkNotFinished() throws IOException {
+        if (finished) {
+            throw new IOException("stream finished");
+        }
+    }
+
+    /**
+     * Writes the final meta-block without closing the underlying stream.
+     * @throws IOException on I/O error
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        writeStreamHeaderIfNecessary();
+        if (chunkLength == 0) {
+            bits.write(1, 1); // ISLAST
+            bits.write(1, 1); // ISLASTEMPTY
+        } else {
+            writeMetaBlock(true);
+        }
+        bits.flushToByteBoundary();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // a pending chunk is not emitted early, because a meta-block cannot be split mid-stream
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            super.close();
+        }
+    }
+
+    private void writeStreamHeaderIfNecessary() throws IOException {
+        if (!headerWritten) {
+            headerWritten = true;
+            // WBITS: 1 followed by 3-bit (WBITS - 17)
+            bits.write(1, 1);
+            bits.write(WINDOW_BITS - 17, 3);
+        }
+    }
+
+    private static final class Command {
+        final int insertPosition;
+        final int insertLength;
+        final int copyLength;
+        final int distance;
+
+        Command(int insertPosition, int insertLength, int copyLength, int distance) {
+            this.insertPosition = insertPosition;
+            this.insertLength = insertLength;
+            this.copyLength = copyLength;
+            this.distance = distance;
+        }
+    }
+
+    private static int hash(byte[] data, int pos) {
+        int v = (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8 | (data[pos + 2] & 0xFF) << 16 | (data[pos + 3] & 0xFF) << 24;
+        return (v * 0x1E35A7BD) >>> (32 - HASH_BITS);
+    }
+
+    private void insertHash(int pos, int limit) {
+        if (pos + MIN_MATCH <= limit) {
+            int h = hash(chunk, pos);
+            chain[pos] = head[h];
+            head[h] = pos;
+        }
+    }
+
+    /**
+     * Finds the longest match for the data at the given position.
+     * @return the match length in the low 32 bits and the distance in the high 32 bits, or 0 if no match
+     */
+    private long findMatch(int pos, int limit) {
+        if (maxChainLength == 0 || pos + MIN_MATCH > limit) {
+            return 0;
+        }
+        int bestLength = MIN_MATCH - 1;
+        int bestDistance = 0;
+        int maxLength = Math.min(MAX_MATCH, limit - pos);
+        int candidate = head[hash(chunk, pos)];
+        for (int i = 0; i < maxChainLength && candidate >= 0; i++) {
+            if (chunk[candidate + bestLength] == chunk[pos + bestLength]) {
+                int length = 0;
+                while (length < maxLength && chunk[candidate + length] == chunk[pos + length]) {
+                    length++;
+                }
+                if (length > bestLength) {
+                    bestLength = length;
+                    bestDistance = pos - candidate;
+                    if (length == maxLength) {
+                        break;
+                    }
+                }
+            }
+            candidate = chain[candidate];
+        }
+        if (bestLength < MIN_MATCH) {
+            return 0;
+        }
+        return ((long) bestDistance << 32) | bestLength;
+    }
+
+    private List<Command> findCommands(int limit) {
+        Arrays.fill(head, -1);
+        List<Command> commands = new ArrayList<>();
+        int insertStart = 0;
+        int pos = 0;
+        while (pos < limit) {
+            long match = findMatch(pos, limit);
+            insertHash(pos, limit);
+            if (match != 0 && lazyMatching) {
+                long next = findMatch(pos + 1, limit);
+                if ((int) next > (int) match) {
+                    pos++;
+                    match = next;
+                    insertHash(pos, limit);
+                }
+            }
+            if (match == 0) {
+                pos++;
+                continue;
+            }
+            int length = (int) match;
+            int distance = (int) (match >>> 32);
+            commands.add(new Command(insertStart, pos - insertStart, length, distance));
+            for (int p = pos + 1; p < pos + length; p++) {
+                insertHash(p, limit);
+            }
+            pos += length;
+            insertStart = pos;
+        }
+        if (insertStart < limit) {
+            commands.add(new Command(insertStart, limit - insertStart, 0, 0));
+        }
+        return commands;
+    }
+
+    private static int insertCode(int length) {
+        for (int code = INSERT_OFFSETS.length - 1; ; code--) {
+            if (length >= INSERT_OFFSETS[code]) {
+                return code;
+            }
+        }
+    }
+
+    private static int copyCode(int length) {
+        for (int code = COPY_OFFSETS.length - 1; ; code--) {
+            if (length >= COPY_OFFSETS[code]) {
+                return code;
+            }
+        }
+    }
+
+    /**
+     * Computes the insert-and-copy symbol for codes that are followed by an explicit distance.
+     */
+    private static int commandSymbol(int insertCode, int copyCode) {
+        int base;
+        int insertRange = insertCode >> 3;
+        int copyRange = copyCode >> 3;
+        if (insertRange == 0) {
+            base = copyRange == 0 ? 128 : copyRange == 1 ? 192 : 384;
+        } else if (insertRange == 1) {
+            base = copyRange == 0 ? 256 : copyRange == 1 ? 320 : 512;
+        } else {
+            base = copyRange == 0 ? 448 : copyRange == 1 ? 576 : 640;
+        }
+        return base | ((insertCode & 7) << 3) | (copyCode & 7);
+    }
+
+    private static int distanceSymbol(int distance) {
+        int d = distance + 3;
+        int nbits = 31 - Integer.numberOfLeadingZeros(d) - 1;
+        int prefix = (d >> nbits) & 1;
+        return 16 + 2 * (nbits - 1) + prefix;
+    }
+
+    private static int distanceExtraBitsCount(int symbol) {
+        return 1 + ((symbol - 16) >> 1);
+    }
+
+    private static int distanceExtra(int distance, int symbol) {
+        int nbits = distanceExtraBitsCount(symbol);
+        int prefix = (symbol - 16) & 1;
+        return (distance + 3) - ((2 + prefix) << nbits);
+    }
+
+    private void writeMetaBlock(boolean isLast) throws IOException {
+        writeStreamHeaderIfNecessary();
+        int length = chunkLength;
+        List<Command> commands = findCommands(length);
+        int[] literalCounts = new int[NUM_LITERAL_SYMBOLS];
+        int[] commandCounts = new int[NUM_COMMAND_SYMBOLS];
+        int[] distanceCounts = new int[NUM_DISTANCE_SYMBOLS];
+        for (Command c : commands) {
+            for (int i = 0; i < c.insertLength; i++) {
+                literalCounts[chunk[c.insertPosition + i] & 0xFF]++;
+            }
+            commandCounts[commandSymbol(insertCode(c.insertLength), copyCode(Math.max(c.copyLength, 2)))]++;
+            if (c.copyLength > 0) {
+                distanceCounts[distanceSymbol(c.distance)]++;
+            }
+        }
+        PrefixCode literalCode = PrefixCode.build(literalCounts, MAX_CODE_LENGTH);
+        PrefixCode commandCode = PrefixCode.build(commandCounts, MAX_CODE_LENGTH);
+        PrefixCode distanceCode = PrefixCode.build(distanceCounts, MAX_CODE_LENGTH);
+
+        bits.write(isLast ? 1 : 0, 1); // ISLAST
+        if (isLast) {
+            bits.write(0, 1); // ISLASTEMPTY
+        }
+        int nibbles = (length - 1) < (1 << 16) ? 4 : (length - 1) < (1 << 20) ? 5 : 6;
+        bits.write(nibbles - 4, 2); // MNIBBLES
+        bits.write(length - 1, nibbles * 4); // MLEN - 1
+        if (!isLast) {
+            bits.write(0, 1); // ISUNCOMPRESSED
+        }
+        bits.write(0, 1); // NBLTYPESL = 1
+        bits.write(0, 1); // NBLTYPESI = 1
+        bits.write(0, 1); // NBLTYPESD = 1
+        bits.write(0, 2); // NPOSTFIX
+        bits.write(0, 4); // NDIRECT
+        bits.write(0, 2); // context mode for the literal block type
+        bits.write(0, 1); // NTREESL = 1
+        bits.write(0, 1); // NTREESD = 1
+        writePrefixCode(literalCode, 8);
+        writePrefixCode(commandCode, 10);
+        writePrefixCode(distanceCode, 6);
+
+        for (Command c : commands) {
+            int insertCode = insertCode(c.insertLength);
+            int copyCode = copyCode(Math.max(c.copyLength, 2));
+            commandCode.writeSymbol(bits, commandSymbol(insertCode, copyCode));
+            bits.write(c.insertLength - INSERT_OFFSETS[insertCode], INSERT_EXTRA_BITS[insertCode]);
+            bits.write(Math.max(c.copyLength, 2) - COPY_OFFSETS[copyCode], COPY_EXTRA_BITS[copyCode]);
+            for (int i = 0; i < c.insertLength; i++) {
+                literalCode.writeSymbol(bits, chunk[c.insertPosition + i] & 0xFF);
+            }
+            if (c.copyLength > 0) {
+                int symbol = distanceSymbol(c.distance);
+                distanceCode.writeSymbol(bits, symbol);
+                bits.write(distanceExtra(c.distance, symbol), distanceExtraBitsCount(symbol));
+            }
+        }
+        chunkLength = 0;
+    }
+
+    private void writePrefixCode(PrefixCode code, int alphabetBits) throws IOException {
+        if (code.numSymbols <= 1) {
+            bits.write(1, 2); // HSKIP = 1 indicates a simple prefix code
+            bits.write(0, 2); // NSYM - 1
+            bits.write(code.singleSymbol, alphabetBits);
+            return;
+        }
+        int[] lengths = code.lengths;
+        int lastNonzero = lengths.length - 1;
+        while (lengths[lastNonzero] == 0) {
+            lastNonzero--;
+        }
+        int[] lengthCounts = new int[18];
+        for (int i = 0; i <= lastNonzero; i++) {
+            lengthCounts[lengths[i]]++;
+        }
+        PrefixCode lengthCode = PrefixCode.build(lengthCounts, MAX_CODE_LENGTH_CODE_LENGTH);
+        int[] lengthCodeLengths = lengthCode.numSymbols <= 1 ? new int[18] : lengthCode.lengths;
+        if (lengthCode.numSymbols <= 1) {
+            lengthCodeLengths[lengthCode.singleSymbol] = 1;
+        }
+        bits.write(0, 2); // HSKIP = 0
+        int lastIndex = CODE_LENGTH_CODE_ORDER.length - 1;
+        if (lengthCode.numSymbols > 1) {
+            while (lengthCodeLengths[CODE_LENGTH_CODE_ORDER[lastIndex]] == 0) {
+                lastIndex--;
+            }
+        }
+        for (int i = 0; i <= lastIndex; i++) {
+            int len = lengthCodeLengths[CODE_LENGTH_CODE_ORDER[i]];
+            bits.write(CODE_LENGTH_CODE_LENGTH_BITS[len], CODE_LENGTH_CODE_LENGTH_WIDTHS[len]);
+        }
+        if (lengthCode.numSymbols > 1) {
+            for (int i = 0; i <= lastNonzero; i++) {
+                lengthCode.writeSymbol(bits, lengths[i]);
+            }
+        }
+    }
+
+    /**
+     * Canonical prefix code with bit-reversed codewords, ready to be written least significant bit first.
+     */
+    private static final class PrefixCode {
+
+        final int[] lengths;
+        final int[] codes;
+        final int numSymbols;
+        final int singleSymbol;
+
+        private PrefixCode(int[] lengths, int numSymbols, int singleSymbol) {
+            this.lengths = lengths;
+            this.numSymbols = numSymbols;
+            this.singleSymbol = singleSymbol;
+            this.codes = new int[lengths.length];
+            int maxLength = 0;
+            for (int len : lengths) {
+                maxLength = Math.max(maxLength, len);
+            }
+            int[] lengthCounts = new int[maxLength + 1];
+            for (int len : lengths) {
+                if (len > 0) {
+                    lengthCounts[len]++;
+                }
+            }
+            int[] nextCode = new int[maxLength + 2];
+            int code = 0;
+            for (int len = 1; len <= maxLength; len++) {
+                code = (code + lengthCounts[len - 1]) << 1;
+                nextCode[len] = code;
+            }
+            for (int symbol = 0; symbol < lengths.length; symbol++) {
+                int len = lengths[symbol];
+                if (len > 0) {
+                    codes[symbol] = Integer.reverse(nextCode[len]++) >>> (32 - len);
+                }
+            }
+        }
+
+        void writeSymbol(BitWriter bits, int symbol) throws IOException {
+            if (numSymbols > 1) {
+                bits.write(codes[symbol], lengths[symbol]);
+            }
+        }
+
+        static PrefixCode build(int[] counts, int maxLength) {
+            int numSymbols = 0;
+            int singleSymbol = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    numSymbols++;
+                    singleSymbol = i;
+                }
+            }
+            int[] lengths = new int[counts.length];
+            if (numSymbols <= 1) {
+                return new PrefixCode(lengths, numSymbols, singleSymbol);
+            }
+            for (int minCount = 1; ; minCount *= 2) {
+                if (computeLengths(counts, minCount, lengths) <= maxLength) {
+                    return new PrefixCode(lengths, numSymbols, singleSymbol);
+                }
+            }
+        }
+
+        /**
+         * Computes Huffman code lengths, raising counts below the given minimum to flatten the tree.
+         * @return the maximum code length
+         */
+        private static int computeLengths(int[] counts, int minCount, int[] lengths) {
+            int n = counts.length;
+            long[] weights = new long[2 * n];
+            int[] parents = new int[2 * n];
+            PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+            for (int i = 0; i < n; i++) {
+                if (counts[i] > 0) {
+                    weights[i] = Math.max(counts[i], minCount);
+                    queue.add(new long[]{weights[i], i});
+                }
+            }
+            int next = n;
+            while (queue.size() > 1) {
+                long[] a = queue.poll();
+                long[] b = queue.poll();
+                weights[next] = a[0] + b[0];
+                parents[(int) a[1]] = next;
+                parents[(int) b[1]] = next;
+                queue.add(new long[]{weights[next], next});
+                next++;
+            }
+            int root = next - 1;
+            int[] depths = new int[2 * n];
+            int maxDepth = 0;
+            for (int node = root - 1; node >= 0; node--) {
+                if (node >= n || counts[node] > 0) {
+                    depths[node] = depths[parents[node]] + 1;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                lengths[i] = counts[i] > 0 ? depths[i] : 0;
+                maxDepth = Math.max(maxDepth, lengths[i]);
+            }
+            return maxDepth;
+        }
+    }
+
+    /**
+     * Writer of bits to a byte stream, least significant bit first.
+     */
+    private static final class BitWriter {
+
+        private final OutputStream out;
+        private long accumulator;
+        private int numBits;
+
+        BitWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(int value, int count) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            accumulator |= (value & ((1L << count) - 1)) << numBits;
+            numBits += count;
+            while (numBits >= 8) {
+                out.write((int) accumulator);
+                accumulator >>>= 8;
+                numBits -= 8;
+            }
+        }
+
+        void flushToByteBoundary() throws IOException {
+            if (numBits > 0) {
+                out.write((int) accumulator);
+                accumulator = 0;
+                numBits = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cache of encoded (compressed) response bodies. Variants are keyed weakly by the
+ * identity of the object they were derived from, typically a HAR entry, and then by
+ * the name of the content encoding, so that a body is compressed at most once per
+ * encoding and subsequent requests are served the cached bytes. Because the keys are
+ * weak, the variants of an entry are released with the entry when its HAR is unloaded,
+ * rather than pinning the entry for the life of the cache. The cache is bounded by the
+ * total length of the variants it holds.
+ */
+public class EncodedVariantCache {
+
+    /**
+     * Default maximum total length of cached variants.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final Cache<Object, Variants> cache;
+
+    public EncodedVariantCache(long maxBytes) {
+        checkArgument(maxBytes >= 0, "maxBytes must be nonnegative: %s", maxBytes);
+        cache = CacheBuilder.newBuilder()
+                .weakKeys()
+                .maximumWeight(maxBytes)
+                .<Object, Variants>weigher((source, variants) -> variants.weight)
+                .build();
+    }
+
+    public static EncodedVariantCache create() {
+        return new EncodedVariantCache(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Gets the cached variant, or computes and caches it if absent. A variant that
+     * is requested concurrently before it is cached may be computed more than once.
+     * @param source object from which the variant is derived; compared by identity
+     * @param encoding content encoding
+     * @param encoder action that produces the encoded bytes
+     * @return the encoded bytes
+     * @throws IOException if the encoder throws an exception
+     */
+    byte[] get(Object source, String encoding, Callable<byte[]> encoder) throws IOException {
+        @Nullable byte[] encoded = getIfPresent(source, encoding);
+        if (encoded != null) {
+            return encoded;
+        }
+        try {
+            encoded = requireNonNull(encoder.call(), "encoder returned null");
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        put(source, encoding, encoded);
+        return encoded;
+    }
+
+    /**
+     * Determines whether a variant is cached.
+     * @param source object from which the variant is derived; compared by identity
+     * @param encoding content encoding
+     * @return true if the variant is present
+     */
+    boolean contains(Object source, String encoding) {
+        return getIfPresent(source, encoding) != null;
+    }
+
+    @Nullable
+    private byte[] getIfPresent(Object source, String encoding) {
+        requireNonNull(encoding);
+        @Nullable Variants variants = cache.getIfPresent(requireNonNull(source));
+        return variants == null ? null : variants.byEncoding.get(encoding);
+    }
+
+    void put(Object source, String encoding, byte[] encoded) {
+        requireNonNull(source);
+        requireNonNull(encoding);
+        requireNonNull(encoded);
+        ConcurrentMap<Object, Variants> map = cache.asMap();
+        while (true) {
+            @Nullable Variants current = map.get(source);
+            if (current == null) {
+                if (map.putIfAbsent(source, Variants.of(encoding, encoded)) == null) {
+                    return;
+                }
+            } else if (map.replace(source, current, current.with(encoding, encoded))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of sources that have cached variants.
+     * @return the number of sources
+     */
+    long size() {
+        cache.cleanUp();
+        return cache.size();
+    }
+
+    /**
+     * Immutable map of encoding to encoded bytes for one source. A new instance
+     * replaces the old one when a variant is added, so that the weigher sees the
+     * total length of the variants.
+     */
+    private static final class Variants {
+
+        public final ImmutableMap<String, byte[]> byEncoding;
+        public final int weight;
+
+        private Variants(ImmutableMap<String, byte[]> byEncoding) {
+            this.byEncoding = byEncoding;
+            long weight = 0;
+            for (byte[] encoded : byEncoding.values()) {
+                weight += encoded.length;
+            }
+            this.weight = Ints.saturatedCast(weight);
+        }
+
+        public static Variants of(String encoding, byte[] encoded) {
+            return new Variants(ImmutableMap.of(encoding, encoded));
+        }
+
+        public Variants with(String encoding, byte[] encoded) {
+            Map<String, byte[]> byEncoding = new LinkedHashMap<>(this.byEncoding);
+            byEncoding.put(encoding, encoded);
+            return new Variants(ImmutableMap.copyOf(byEncoding));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedVariantCache{size=" + cache.size() + "}";
+    }
+}
@@ -1,16 +1,21 @@
 package io.github.mike10004.vhs.harbridge;
 
 import com.google.common.base.Functions;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteSource;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
 
 import java.util.AbstractMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.util.Objects.requireNonNull;
@@ -24,6 +29,8 @@ import static java.util.Objects.requireNonNull;
  */
 public final class HarResponseDataTransformer {
 
+    private static final Splitter VARY_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
     private final HarResponseData preTransformData;
     private Function<ByteSource, ByteSource> bodyTransform = Functions.identity();
     private Function<MediaType, MediaType> contentTypeTransform = Functions.identity();
@@ -73,6 +80,33 @@ public final class HarResponseDataTransformer {
         return mapHeaderWithName(headerName, oldValue -> newValue);
     }
 
+    /**
+     * Adds a field name to the {@code Vary} header. Field names of existing {@code Vary}
+     * headers are merged with the new name into a single header. A response that already
+     * varies on {@code *} is left as it is.
+     * @param fieldName the request header field name
+     * @return this transformer
+     */
+    public HarResponseDataTransformer addVary(String fieldName) {
+        requireNonNull(fieldName, "fieldName");
+        return headers(stream -> {
+            List<Map.Entry<String, String>> headers = stream.collect(Collectors.toList());
+            Set<String> fieldNames = new LinkedHashSet<>();
+            headers.stream()
+                    .filter(header -> HttpHeaders.VARY.equalsIgnoreCase(header.getKey()))
+                    .flatMap(header -> VARY_SPLITTER.splitToList(header.getValue()).stream())
+                    .forEach(fieldNames::add);
+            if (fieldNames.contains("*")) {
+                return headers.stream();
+            }
+            if (fieldNames.stream().noneMatch(fieldName::equalsIgnoreCase)) {
+                fieldNames.add(fieldName);
+            }
+            return Stream.concat(headers.stream().filter(header -> !HttpHeaders.VARY.equalsIgnoreCase(header.getKey())),
+                    Stream.of(new AbstractMap.SimpleImmutableEntry<>(HttpHeaders.VARY, String.join(", ", fieldNames))));
+        });
+    }
+
     public HarResponseDataTransformer replaceContentType(MediaType contentType) {
         return replaceHeader(HttpHeaders.CONTENT_TYPE, contentType.toString())
                 .contentType(old -> contentType);
@@ -11,6 +11,16 @@ public interface HarResponseEncoding {
 
     HarResponseData transformUnencoded(HarResponseData unencoded);
 
+    /**
+     * Determines whether response content compressed with the encodings originally
+     * applied, as captured in the HAR, may be served without being decompressed.
+     * @param originalContentEncodings the encodings listed in the HAR response's Content-Encoding header
+     * @return true if the original encodings are acceptable to the client
+     */
+    default boolean canServeOriginalEncoding(List<String> originalContentEncodings) {
+        return false;
+    }
+
     static HarResponseEncoding useEncoding(@Nullable String contentEncodingHeaderValue, @Nullable String acceptEncodingHeaderValue) {
         List<String> encodings = HttpContentCodecs.parseEncodings(contentEncodingHeaderValue);
         if (encodings.stream().anyMatch(token -> !HttpContentCodecs.CONTENT_ENCODING_IDENTITY.equalsIgnoreCase(token))) {
@@ -20,6 +30,18 @@ public interface HarResponseEncoding {
         }
     }
 
+    /**
+     * Returns an encoding that compresses text-like content with the encoding preferred
+     * by the client, caching the compressed variants.
+     * @param acceptEncodingHeaderValue the client's Accept-Encoding header value
+     * @param variantCache the cache of compressed variants
+     * @param variantSource object from which the response data is derived, such as a HAR entry; compared by identity
+     * @return the encoding
+     */
+    static HarResponseEncoding negotiated(@Nullable String acceptEncodingHeaderValue, EncodedVariantCache variantCache, Object variantSource) {
+        return WrappingResponseEncoding.negotiated(acceptEncodingHeaderValue, variantCache, variantSource);
+    }
+
     static HarResponseEncoding unencoded() {
         return unencoded -> unencoded;
     }
@@ -237,13 +237,7 @@ public class Hars {
         if (contentType.isEmpty()) {
             contentType = MediaType.OCTET_STREAM.toString();
         }
-        MediaType mediaType;
-        try {
-            mediaType = MediaType.parse(contentType);
-        } catch (RuntimeException e) {
-            log.info("failed to parse content-type \"{}\"", StringEscapeUtils.escapeJava(contentType));
-            mediaType = MediaType.OCTET_STREAM;
-        }
+        MediaType mediaType = parseContentType(contentType);
         if (text == null) {
             return TypedContent.identity(ByteSource.empty(), mediaType);
         }
@@ -264,6 +258,54 @@ public class Hars {
         }
     }
 
+    private static MediaType parseContentType(String contentType) {
+        try {
+            return MediaType.parse(contentType);
+        } catch (RuntimeException e) {
+            log.info("failed to parse content-type \"{}\"", StringEscapeUtils.escapeJava(contentType));
+            return MediaType.OCTET_STREAM;
+        }
+    }
+
+    /**
+     * Gets the body of a response captured in a HAR entry in its original compressed form.
+     * This is only possible if the HAR content text is the base64 encoding of data compressed
+     * according to the response's {@code Content-Encoding} header. The returned byte source
+     * decodes the base64 text but does not decompress it.
+     * @param contentType content MIME type
+     * @param text data
+     * @param bodySize size of the received response body in bytes
+     * @param contentEncodingHeaderValue value of the Content-Encoding header in the HAR response
+     * @param harContentEncoding value of the encoding field of the HAR content object
+     * @return the compressed content, or null if the content is not stored in compressed form
+     */
+    @Nullable
+    public static TypedContent getOriginalEncodedContent(@Nullable String contentType,
+                                                         @Nullable String text,
+                                                         @Nullable Long bodySize,
+                                                         @Nullable String contentEncodingHeaderValue,
+                                                         @Nullable String harContentEncoding) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        List<String> contentEncodings = HttpContentCodecs.parseEncodings(contentEncodingHeaderValue);
+        if (contentEncodings.stream().allMatch(HttpContentCodecs.CONTENT_ENCODING_IDENTITY::equalsIgnoreCase)) {
+            return null;
+        }
+        contentType = Strings.nullToEmpty(contentType).trim();
+        if (contentType.isEmpty()) {
+            contentType = MediaType.OCTET_STREAM.toString();
+        }
+        if (!isBase64Encoded(contentType, text, harContentEncoding, bodySize)) {
+            return null;
+        }
+        Base64ByteSource compressed = base64DecodingSource(text);
+        if (!isReadable(wrap(compressed, contentEncodings), 16)) {
+            return null;
+        }
+        return TypedContent.identity(compressed, parseContentType(contentType));
+    }
+
     static Charset adjustCharset(String text, @Nullable Charset charset, Charset defaultCharset) {
         requireNonNull(defaultCharset, "default charset");
         text = Strings.nullToEmpty(text);
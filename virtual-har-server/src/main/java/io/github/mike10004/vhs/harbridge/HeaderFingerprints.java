@@ -0,0 +1,127 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Fingerprints of request headers for comparison without strings. Each distinct header
+ * name is represented by a 64-bit hash of the name and a 64-bit fingerprint of the
+ * multiset of its values, with any leading {@code http} or {@code https} stripped from
+ * each value. The multiset fingerprint is a sum of mixed value hashes, so it does not
+ * depend on the order of the values but does depend on how many times each occurs.
+ * Names are sorted by hash, so that two sets of fingerprints may be compared by a
+ * merge that neither allocates nor touches a string. Distinct names or multisets are
+ * taken to be equal only if their 64-bit hashes collide.
+ */
+public final class HeaderFingerprints {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.farmHashFingerprint64();
+
+    private static final HeaderFingerprints EMPTY = new HeaderFingerprints(new long[0], new long[0]);
+
+    private final long[] nameHashes;
+    private final long[] valueFingerprints;
+
+    private HeaderFingerprints(long[] nameHashes, long[] valueFingerprints) {
+        this.nameHashes = nameHashes;
+        this.valueFingerprints = valueFingerprints;
+    }
+
+    /**
+     * Computes the fingerprints of headers grouped by name.
+     * @param headers map of header name to values
+     * @return the fingerprints
+     */
+    public static HeaderFingerprints of(Map<String, ? extends Collection<String>> headers) {
+        int size = headers.size();
+        if (size == 0) {
+            return EMPTY;
+        }
+        long[] nameHashes = new long[size];
+        long[] valueFingerprints = new long[size];
+        int i = 0;
+        for (Map.Entry<String, ? extends Collection<String>> header : headers.entrySet()) {
+            long nameHash = hash(header.getKey());
+            long valueFingerprint = 0;
+            for (String value : header.getValue()) {
+                valueFingerprint += mix(hash(toComparableValue(value)));
+            }
+            // insertion sort by name hash, because requests have few headers
+            int k = i;
+            while (k > 0 && nameHashes[k - 1] > nameHash) {
+                nameHashes[k] = nameHashes[k - 1];
+                valueFingerprints[k] = valueFingerprints[k - 1];
+                k--;
+            }
+            nameHashes[k] = nameHash;
+            valueFingerprints[k] = valueFingerprint;
+            i++;
+        }
+        return new HeaderFingerprints(nameHashes, valueFingerprints);
+    }
+
+    private static String toComparableValue(String value) {
+        return value.startsWith("http") ? value.replaceFirst("^https?", "") : value;
+    }
+
+    private static long hash(String string) {
+        return HASH_FUNCTION.hashUnencodedChars(string).asLong();
+    }
+
+    /**
+     * Scrambles a hash so that sums of hashes of related strings do not collide.
+     * This is the finalization step of MurmurHash3.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Counts the header names of these headers whose multiset of values equals that of
+     * the same name in other headers. Names absent from the other headers are not counted.
+     * @param other the other headers
+     * @return the number of names with the same values
+     */
+    public int countSameValuedNames(HeaderFingerprints other) {
+        long[] otherNameHashes = other.nameHashes;
+        int count = 0;
+        int i = 0, j = 0;
+        while (i < nameHashes.length && j < otherNameHashes.length) {
+            int comparison = Long.compare(nameHashes[i], otherNameHashes[j]);
+            if (comparison < 0) {
+                i++;
+            } else if (comparison > 0) {
+                j++;
+            } else {
+                if (valueFingerprints[i] == other.valueFingerprints[j]) {
+                    count++;
+                }
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of distinct header names.
+     * @return the number of names
+     */
+    public int size() {
+        return nameHashes.length;
+    }
+
+    @Override
+    public String toString() {
+        return "HeaderFingerprints{size=" + nameHashes.length + ", names=" + Longs.join(",", nameHashes) + "}";
+    }
+}
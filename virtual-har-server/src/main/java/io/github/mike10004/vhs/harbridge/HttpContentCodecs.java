@@ -17,6 +17,8 @@ import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * Static utilty methods relating to codecs for HTTP content.
  */
@@ -98,20 +100,28 @@ public class HttpContentCodecs {
         }
 
         @Override
-        public OutputStream openCompressionFilter(OutputStream sink, int uncompressedLength) throws IOException {
-            throw new IOException("lzw stream compression not supported");
+        public OutputStream openCompressionFilter(OutputStream sink, int uncompressedLength) {
+            return new LzwCompressor().openCompressingStream(sink);
         }
 
         @Override
-        public InputStream openDecompressingStream(InputStream source) throws IOException {
-            throw new IOException("lzw stream decompression not supported");
+        public InputStream openDecompressingStream(InputStream source) {
+            return new LzwCompressor().openDecompressingStream(source);
         }
     }
 
     static class BrotliCodec implements HttpContentCodec {
+
+        private final int quality;
+
+        public BrotliCodec(int quality) {
+            checkArgument(quality >= BrotliOutputStream.MIN_QUALITY && quality <= BrotliOutputStream.MAX_QUALITY, "quality must be in range [%s, %s]: %s", BrotliOutputStream.MIN_QUALITY, BrotliOutputStream.MAX_QUALITY, quality);
+            this.quality = quality;
+        }
+
         @Override
-        public OutputStream openCompressionFilter(OutputStream sink, int uncompressedLength) throws IOException {
-            throw new IOException("brotli compression not supported");
+        public OutputStream openCompressionFilter(OutputStream sink, int uncompressedLength) {
+            return new BrotliOutputStream(sink, quality);
         }
 
         @Override
@@ -120,6 +130,26 @@ public class HttpContentCodecs {
         }
     }
 
+    /**
+     * Default quality level of the brotli codec returned by {@link #getCodec(String)}.
+     */
+    public static final int BROTLI_QUALITY_DEFAULT = 5;
+
+    /**
+     * Maximum brotli quality level.
+     */
+    public static final int BROTLI_QUALITY_MAX = BrotliOutputStream.MAX_QUALITY;
+
+    /**
+     * Creates a brotli codec that compresses at the given quality level. Higher
+     * levels search harder for backward references and are slower.
+     * @param quality quality level, from 0 to {@link #BROTLI_QUALITY_MAX}
+     * @return a new codec
+     */
+    public static HttpContentCodec brotli(int quality) {
+        return new BrotliCodec(quality);
+    }
+
     @Nullable
     public static HttpContentCodec getCodec(String encoding) {
         return codecs.get(encoding);
@@ -130,9 +160,25 @@ public class HttpContentCodecs {
             .put(CONTENT_ENCODING_DEFLATE, new ZlibCodec())
             .put(CONTENT_ENCODING_COMPRESS, new LzwCodec())
             .put(CONTENT_ENCODING_IDENTITY, HttpContentCodec.identity())
-            .put(CONTENT_ENCODING_BROTLI, new BrotliCodec())
+            .put(CONTENT_ENCODING_BROTLI, new BrotliCodec(BROTLI_QUALITY_DEFAULT))
             .build();
 
+    private static final ImmutableSet<String> compressionSupportedEncodings = ImmutableSet.of(
+            CONTENT_ENCODING_GZIP,
+            CONTENT_ENCODING_DEFLATE,
+            CONTENT_ENCODING_BROTLI,
+            CONTENT_ENCODING_IDENTITY);
+
+    /**
+     * Determines whether the codec for an encoding can compress data, as opposed to only
+     * decompressing it.
+     * @param encoding the encoding
+     * @return true if compression is supported
+     */
+    public static boolean isCompressionSupported(String encoding) {
+        return compressionSupportedEncodings.contains(encoding);
+    }
+
     @VisibleForTesting
     static ImmutableSet<String> getSupportedEncodings() {
         return codecs.keySet();
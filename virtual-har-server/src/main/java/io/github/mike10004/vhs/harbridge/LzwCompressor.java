@@ -24,14 +24,20 @@ SOFTWARE.
 
 package io.github.mike10004.vhs.harbridge;
 
+import com.google.common.io.ByteStreams;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import javax.xml.bind.DatatypeConverter;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * A compressor that uses LZW coding to compress a set of bytes.
+ * Codes are written as fixed-length 16-bit integers, and the dictionary
+ * is reset once it holds {@link #MAX_DICTIONARY_SIZE} entries.
+ * @see LzwOutputStream
+ * @see LzwInputStream
  *
  * @version 1.0 25 May 2016
  * @author Saul Johnson, Alex Mullen, Lee Oliver
@@ -39,64 +45,31 @@ import javax.xml.bind.DatatypeConverter;
 public class LzwCompressor {
 
     /**
-     * Returns the specified integer as a hex string at least two characters long.
-     * @param data  the integer to convert
-     * @return      the specified integer as a hex string
+     * Number of dictionary entries for single byte values.
      */
-    private String toHex(int data) {
-        final StringBuilder sb = new StringBuilder(Integer.toHexString(data));
-        while (sb.length() < 2) {
-            sb.insert(0, '0');
-        }
-        return sb.toString();
-    }
+    static final int NUM_SINGLE_BYTE_CODES = 256;
 
     /**
-     * Returns the specified 16-bit integer as a byte array.
-     * @param value the 16-bit integer to convert
-     * @return      the specified 16-bit integer as a byte array
+     * Number of entries at which the dictionary is full.
      */
-    private byte[] shortToByteArray(short value) {
-        return ByteBuffer.allocate(2).putShort(value).array();
-    }
+    static final int MAX_DICTIONARY_SIZE = Short.MAX_VALUE;
 
     /**
-     * Returns the specified byte array as a 16-bit integer.
-     * @param data  the byte array integer to convert
-     * @return      the specified byte array integer as a 16-bit integer
+     * Opens a stream that compresses data written to it and writes the compressed data to a sink.
+     * @param sink the sink
+     * @return the compressing stream
      */
-    private short byteArrayToShort(byte[] data) {
-        return ByteBuffer.allocate(2).put(data).getShort(0);
-    }
-
-    /**
-     * Returns a dictionary initialised with entries for single byte values.
-     * @return  a dictionary initialised with entries for single byte values
-     */
-    private LzwDictionary getInitializedDictionary() {
-        final LzwDictionary dictionary = new LzwDictionary();
-        for (int i = 0; i < 256; i++) {
-            dictionary.addData(toHex(i));
-        }
-        return dictionary;
+    public OutputStream openCompressingStream(OutputStream sink) {
+        return new LzwOutputStream(sink);
     }
 
     /**
-     * Converts a hexadecimal string to a byte array and returns it.
-     * @param str   the hexadecimal string to convert
-     * @return      a byte array representation of the hexadecimal string
+     * Opens a stream that decompresses data read from a source.
+     * @param source the source of compressed data
+     * @return the decompressing stream
      */
-    private byte[] fromHexString(String str) {
-        return DatatypeConverter.parseHexBinary(str);
-    }
-
-    /**
-     * Returns the first byte of a hexadecimal string.
-     * @param str   the hexadecimal string
-     * @return      the first byte (i.e. first two characters) of the hex string
-     */
-    private String firstByte(String str) {
-        return str.substring(0, 2);
+    public InputStream openDecompressingStream(InputStream source) {
+        return new LzwInputStream(source);
     }
 
     /**
@@ -106,51 +79,10 @@ public class LzwCompressor {
      * @throws IOException
      */
     public byte[] compress(byte[] data) throws IOException {
-        // Initialize input stream on data.
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-
-        // Initialise dictionary.
-        LzwDictionary dictionary = getInitializedDictionary();
-
-        // Create output stream.
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
-        String sequence = "";
-
-        int buffer;
-        while ((buffer = inputStream.read()) != -1) {
-            // If dictionary is full, clear it.
-            if (dictionary.isFull()) {
-                dictionary = getInitializedDictionary();
-            }
-
-            // Append buffer to sequence.
-            String byteString = toHex(buffer);
-            sequence += byteString;
-
-            // If this sequence is not in the dictionary.
-            if (!dictionary.hasData(sequence)) {
-                // Add it.
-                dictionary.addData(sequence);
-
-                // Remove the last byte from the sequence.
-                sequence = sequence.substring(0, sequence.length() - 2);
-
-                // Write the code for the last sequence that was present to output.
-                outputStream.write(shortToByteArray(dictionary.getCode(sequence)));
-
-                // Start the sequence afresh with the new byte string.
-                sequence = byteString;
-            }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 2 + 16);
+        try (OutputStream out = openCompressingStream(outputStream)) {
+            out.write(data);
         }
-
-        // Write any remaining data to output.
-        if (sequence.length() != 0) {
-            outputStream.write(shortToByteArray(dictionary.getCode(sequence)));
-        }
-
-        // Close stream and return compressed data.
-        outputStream.close();
         return outputStream.toByteArray();
     }
 
@@ -161,44 +93,8 @@ public class LzwCompressor {
      * @throws IOException
      */
     public byte[] decompress(byte[] data) throws IOException {
-        // Initialize input stream on data.
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-
-        // Initialise dictionary.
-        LzwDictionary dictionary = getInitializedDictionary();
-
-        // Create output stream.
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
-        String sequence = "";
-
-        // Read file 16 bits at a time (fixed length codes).
-        final byte[] buffer = new byte[2];
-        while (inputStream.read(buffer) != -1) {
-            // If dictionary is full, clear it.
-            if (dictionary.isFull()) {
-                dictionary = getInitializedDictionary();
-            }
-
-            // Decompress data, reconstructing dictionary.
-            final short code = byteArrayToShort(buffer);
-            if (code > dictionary.getSize()) {
-                throw new IOException("Cannot reconstruct dictionary.");
-            } else if (code == dictionary.getSize()) {
-                dictionary.addData(sequence + firstByte(sequence));
-            } else if (sequence.length() != 0) {
-                dictionary.addData(sequence + firstByte(dictionary.getData(code)));
-            }
-
-            // Write the code for the last sequence that was present to output.
-            outputStream.write(fromHexString(dictionary.getData(code)));
-
-            // Start the sequence afresh with the new byte string.
-            sequence = dictionary.getData(code);
+        try (InputStream in = openDecompressingStream(new ByteArrayInputStream(data))) {
+            return ByteStreams.toByteArray(in);
         }
-
-        // Close stream and return decompressed data.
-        outputStream.close();
-        return outputStream.toByteArray();
     }
 }
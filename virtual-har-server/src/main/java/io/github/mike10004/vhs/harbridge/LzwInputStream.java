@@ -0,0 +1,180 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2016 Saul Johnson
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package io.github.mike10004.vhs.harbridge;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that decompresses data produced by {@link LzwOutputStream} or
+ * {@link LzwCompressor}. The dictionary is held in primitive arrays indexed by
+ * code, where each entry refers to its prefix entry and final byte, so a sequence
+ * is reconstructed by walking the prefix chain.
+ */
+class LzwInputStream extends FilterInputStream {
+
+    private static final int NONE = -1;
+
+    private final int[] prefixes;
+    private final byte[] suffixes;
+    private final byte[] firstBytes;
+    private final int[] lengths;
+    private int dictionarySize;
+    private int previousCode;
+
+    private final byte[] sequence;
+    private int sequencePosition;
+    private int sequenceLimit;
+    private boolean eof;
+
+    public LzwInputStream(InputStream in) {
+        super(in);
+        int max = LzwCompressor.MAX_DICTIONARY_SIZE;
+        prefixes = new int[max];
+        suffixes = new byte[max];
+        firstBytes = new byte[max];
+        lengths = new int[max];
+        sequence = new byte[max];
+        for (int i = 0; i < LzwCompressor.NUM_SINGLE_BYTE_CODES; i++) {
+            prefixes[i] = NONE;
+            suffixes[i] = (byte) i;
+            firstBytes[i] = (byte) i;
+            lengths[i] = 1;
+        }
+        dictionarySize = LzwCompressor.NUM_SINGLE_BYTE_CODES;
+        previousCode = NONE;
+    }
+
+    private void addEntry(int prefix, byte suffix) {
+        int code = dictionarySize++;
+        prefixes[code] = prefix;
+        suffixes[code] = suffix;
+        firstBytes[code] = firstBytes[prefix];
+        lengths[code] = lengths[prefix] + 1;
+    }
+
+    /**
+     * Reads the next code and fills the sequence buffer with its bytes.
+     * @return false if the end of the underlying stream was reached
+     */
+    private boolean decodeNext() throws IOException {
+        int hi = in.read();
+        if (hi == -1) {
+            return false;
+        }
+        int lo = in.read();
+        if (lo == -1) {
+            throw new IOException("truncated LZW code");
+        }
+        int code = ((hi << 8) | lo) & 0xFFFF;
+        if (dictionarySize == LzwCompressor.MAX_DICTIONARY_SIZE) {
+            dictionarySize = LzwCompressor.NUM_SINGLE_BYTE_CODES;
+        }
+        if (code > dictionarySize) {
+            throw new IOException("Cannot reconstruct dictionary.");
+        } else if (code == dictionarySize) {
+            if (previousCode == NONE) {
+                throw new IOException("Cannot reconstruct dictionary.");
+            }
+            addEntry(previousCode, firstBytes[previousCode]);
+        } else if (previousCode != NONE) {
+            addEntry(previousCode, firstBytes[code]);
+        }
+        int length = lengths[code];
+        int c = code;
+        for (int i = length - 1; i >= 0; i--) {
+            sequence[i] = suffixes[c];
+            c = prefixes[c];
+        }
+        sequencePosition = 0;
+        sequenceLimit = length;
+        previousCode = code;
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        while (sequencePosition == sequenceLimit) {
+            if (eof || !decodeNext()) {
+                eof = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return sequence[sequencePosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int total = 0;
+        while (total < len && fill()) {
+            int n = Math.min(len - total, sequenceLimit - sequencePosition);
+            System.arraycopy(sequence, sequencePosition, b, off + total, n);
+            sequencePosition += n;
+            total += n;
+        }
+        return total == 0 ? -1 : total;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int k = (int) Math.min(n - skipped, sequenceLimit - sequencePosition);
+            sequencePosition += k;
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return sequenceLimit - sequencePosition;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
@@ -0,0 +1,133 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2016 Saul Johnson
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package io.github.mike10004.vhs.harbridge;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Output stream that compresses data using LZW coding, in the format produced
+ * by {@link LzwCompressor}: fixed-length 16-bit big-endian codes, with the
+ * dictionary reset to the single-byte entries whenever it becomes full.
+ * The dictionary is an open-addressed hash table of primitive arrays keyed
+ * by (prefix code, next byte) pairs, so memory use is bounded regardless of
+ * input length.
+ */
+class LzwOutputStream extends FilterOutputStream {
+
+    private static final int TABLE_SIZE = 1 << 16;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+    private static final int EMPTY = -1;
+
+    private final int[] keys;
+    private final short[] codes;
+    private int dictionarySize;
+    private int currentCode;
+    private boolean finished;
+
+    public LzwOutputStream(OutputStream out) {
+        super(out);
+        keys = new int[TABLE_SIZE];
+        codes = new short[TABLE_SIZE];
+        resetDictionary();
+        currentCode = EMPTY;
+    }
+
+    private void resetDictionary() {
+        Arrays.fill(keys, EMPTY);
+        dictionarySize = LzwCompressor.NUM_SINGLE_BYTE_CODES;
+    }
+
+    private static int slot(int key) {
+        int h = key * 0x9E3779B1;
+        return (h ^ (h >>> 16)) & TABLE_MASK;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (finished) {
+            throw new IOException("stream finished");
+        }
+        if (dictionarySize == LzwCompressor.MAX_DICTIONARY_SIZE) {
+            resetDictionary();
+        }
+        b &= 0xFF;
+        if (currentCode == EMPTY) {
+            currentCode = b;
+            return;
+        }
+        int key = (currentCode << 8) | b;
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                currentCode = codes[i];
+                return;
+            }
+            i = (i + 1) & TABLE_MASK;
+        }
+        keys[i] = key;
+        codes[i] = (short) dictionarySize++;
+        writeCode(currentCode);
+        currentCode = b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        for (int i = 0; i < len; i++) {
+            write(b[off + i]);
+        }
+    }
+
+    private void writeCode(int code) throws IOException {
+        out.write(code >>> 8);
+        out.write(code);
+    }
+
+    /**
+     * Writes the code for any pending sequence without closing the underlying stream.
+     * No more data may be written after this method is invoked.
+     * @throws IOException on I/O error
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            if (currentCode != EMPTY) {
+                writeCode(currentCode);
+                currentCode = EMPTY;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            super.close();
+        }
+    }
+}
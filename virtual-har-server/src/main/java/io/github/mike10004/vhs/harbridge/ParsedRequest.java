@@ -1,6 +1,9 @@
 package io.github.mike10004.vhs.harbridge;
 
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Interner;
 import com.google.common.collect.Multimap;
 import com.google.common.io.ByteSource;
 import org.apache.commons.lang3.StringUtils;
@@ -9,9 +12,11 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import static java.util.Objects.requireNonNull;
 
@@ -30,25 +35,67 @@ public abstract class ParsedRequest {
      */
     public final URI url;
 
+    private final Supplier<ImmutableMultimap<String, Optional<String>>> query;
+
+    private final ImmutableMultimap<String, String> indexedHeaders;
+
+    private final Supplier<HeaderFingerprints> headerFingerprints = Suppliers.memoize(() -> HeaderFingerprints.of(getIndexedHeaders().asMap()));
+
+    private ParsedRequest(HttpMethod method, URI url, Supplier<ImmutableMultimap<String, Optional<String>>> query, Multimap<String, String> indexedHeaders, @Nullable Interner<String> headerInterner) {
+        this.method = requireNonNull(method);
+        this.url = requireNonNull(url);
+        this.query = requireNonNull(query, "query");
+        this.indexedHeaders = headerInterner == null ? ImmutableMultimap.copyOf(indexedHeaders) : intern(indexedHeaders, headerInterner);
+    }
+
+    private static ImmutableMultimap<String, String> intern(Multimap<String, String> headers, Interner<String> headerInterner) {
+        ImmutableListMultimap.Builder<String, String> b = ImmutableListMultimap.builder();
+        for (Map.Entry<String, String> header : headers.entries()) {
+            b.put(headerInterner.intern(header.getKey()), headerInterner.intern(header.getValue()));
+        }
+        return b.build();
+    }
+
+    private static Supplier<ImmutableMultimap<String, Optional<String>>> decodedQuery(@Nullable Multimap<String, Optional<String>> query) {
+        return Suppliers.ofInstance(query == null ? null : ImmutableMultimap.copyOf(query));
+    }
+
+    private static Supplier<ImmutableMultimap<String, Optional<String>>> undecodedQuery(Supplier<? extends Multimap<String, Optional<String>>> query) {
+        requireNonNull(query, "query");
+        return Suppliers.memoize(() -> {
+            @Nullable Multimap<String, Optional<String>> q = query.get();
+            return q == null ? null : ImmutableMultimap.copyOf(q);
+        });
+    }
+
     /**
-     * Query parameters parsed from query string. Null if the URL does not
+     * Gets the query parameters parsed from query string. Null if the URL does not
      * contain a {@code ?}-character after the path. Empty if the URL contains
      * a {@code ?}-character but nothing after it. All keys are in original case.
+     * If this request was created with {@link #withUndecodedQuery(HttpMethod, URI, Supplier, Multimap, byte[])
+     * withUndecodedQuery}, the query is decoded on first access.
+     * @return the query parameters, or null
      */
     @Nullable
-    public final ImmutableMultimap<String, Optional<String>> query;
+    public ImmutableMultimap<String, Optional<String>> getQuery() {
+        return query.get();
+    }
 
     /**
-     * Request headers with header names normalized to lowercase.
+     * Gets the request headers with header names normalized to lowercase.
+     * @return the headers
      */
-    public final ImmutableMultimap<String, String> indexedHeaders;
-
-    private ParsedRequest(HttpMethod method, URI url, @Nullable Multimap<String, Optional<String>> query, Multimap<String, String> indexedHeaders) {
-        this.method = requireNonNull(method);
-        this.url = requireNonNull(url);
-        this.query = query == null ? null : ImmutableMultimap.copyOf(query);
-        this.indexedHeaders = ImmutableMultimap.copyOf(indexedHeaders);
+    public ImmutableMultimap<String, String> getIndexedHeaders() {
+        return indexedHeaders;
+    }
 
+    /**
+     * Gets the fingerprints of the headers of this request, for comparison with the
+     * headers of other requests. The fingerprints are computed on first access.
+     * @return the header fingerprints
+     */
+    public HeaderFingerprints getHeaderFingerprints() {
+        return headerFingerprints.get();
     }
 
     public abstract boolean isBodyPresent();
@@ -56,7 +103,80 @@ public abstract class ParsedRequest {
     public abstract InputStream openBodyStream() throws IOException;
 
     public static ParsedRequest inMemory(HttpMethod method, URI url, @Nullable Multimap<String, Optional<String>> query, Multimap<String, String> indexedHeaders, @Nullable byte[] body) {
-        return new MemoryRequest(method, url, query, indexedHeaders, body);
+        return new MemoryRequest(method, url, decodedQuery(query), indexedHeaders, null, body == null ? null : Arrays.copyOf(body, body.length));
+    }
+
+    /**
+     * Creates an in-memory request without copying the body. The caller must not
+     * modify the body array after this method returns. Immutable query and header
+     * multimaps are also used without copying.
+     * @param method request method
+     * @param url request URL
+     * @param query query parameters, or null if the URL has no query string
+     * @param indexedHeaders request headers
+     * @param body request body
+     * @return a new request instance
+     */
+    public static ParsedRequest inMemoryTakingOwnership(HttpMethod method, URI url, @Nullable Multimap<String, Optional<String>> query, Multimap<String, String> indexedHeaders, @Nullable byte[] body) {
+        return new MemoryRequest(method, url, decodedQuery(query), indexedHeaders, null, body);
+    }
+
+    /**
+     * Creates an in-memory request like {@link #inMemoryTakingOwnership(HttpMethod, URI, Multimap, Multimap, byte[])
+     * inMemoryTakingOwnership} whose query is decoded on first access. The supplier is
+     * invoked at most once, and not at all if {@link #getQuery()} is never called, so
+     * a live request that is ruled out by method, host and path is never decoded.
+     * @param method request method
+     * @param url request URL
+     * @param query supplier of query parameters, which returns null if the URL has no query string
+     * @param indexedHeaders request headers
+     * @param body request body
+     * @return a new request instance
+     */
+    public static ParsedRequest withUndecodedQuery(HttpMethod method, URI url, Supplier<? extends Multimap<String, Optional<String>>> query, Multimap<String, String> indexedHeaders, @Nullable byte[] body) {
+        return new MemoryRequest(method, url, undecodedQuery(query), indexedHeaders, null, body);
+    }
+
+    /**
+     * Creates an in-memory request like {@link #inMemoryTakingOwnership(HttpMethod, URI, Multimap, Multimap, byte[])
+     * inMemoryTakingOwnership} whose header names and values are replaced by their
+     * canonical instances. Use this for requests of HAR entries, which are retained for
+     * the life of a replay server and often share header names and values.
+     * @param method request method
+     * @param url request URL
+     * @param query query parameters, or null if the URL has no query string
+     * @param indexedHeaders request headers
+     * @param headerInterner interner of header strings, typically shared by all loaded HAR entries
+     * @param body request body
+     * @return a new request instance
+     */
+    public static ParsedRequest interned(HttpMethod method, URI url, @Nullable Multimap<String, Optional<String>> query, Multimap<String, String> indexedHeaders, Interner<String> headerInterner, @Nullable byte[] body) {
+        return new MemoryRequest(method, url, decodedQuery(query), indexedHeaders, requireNonNull(headerInterner, "headerInterner"), body);
+    }
+
+    /**
+     * Creates a request from the method and URL strings captured in a HAR entry, for
+     * use where only the response data of the entry is of interest. Values that cannot
+     * be parsed are replaced by placeholders, and the query and headers are empty.
+     * @param method request method
+     * @param url request URL
+     * @param body request body
+     * @return a new request instance
+     */
+    public static ParsedRequest lenient(String method, String url, @Nullable byte[] body) {
+        HttpMethod httpMethod;
+        try {
+            httpMethod = HttpMethod.valueOf(method);
+        } catch (IllegalArgumentException e) {
+            httpMethod = HttpMethod.GET;
+        }
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            uri = URI.create("about:blank");
+        }
+        return inMemory(httpMethod, uri, null, ImmutableMultimap.of(), body);
     }
 
     static class MemoryRequest extends ParsedRequest {
@@ -64,13 +184,14 @@ public abstract class ParsedRequest {
         private final ByteSource bodySource;
         private final boolean bodyPresent;
 
-        public MemoryRequest(HttpMethod method, URI url, @Nullable Multimap<String, Optional<String>> query, Multimap<String, String> indexedHeaders, @Nullable byte[] body) {
-            super(method, url, query, indexedHeaders);
-            if (bodyPresent = (body != null)) {
-                bodySource = ByteSource.wrap(Arrays.copyOf(body, body.length));
-            } else {
-                bodySource = ByteSource.empty();
-            }
+        public MemoryRequest(HttpMethod method, URI url, Supplier<ImmutableMultimap<String, Optional<String>>> query, Multimap<String, String> indexedHeaders, @Nullable Interner<String> headerInterner, @Nullable byte[] body) {
+            super(method, url, query, indexedHeaders, headerInterner);
+            bodyPresent = body != null;
+            bodySource = wrap(body);
+        }
+
+        private static ByteSource wrap(@Nullable byte[] body) {
+            return body == null ? ByteSource.empty() : ByteSource.wrap(body);
         }
 
         @Override
@@ -88,7 +209,7 @@ public abstract class ParsedRequest {
     @Nullable
     public String getFirstHeaderValue(String headerName) {
         requireNonNull(headerName, "headerName");
-        return indexedHeaders.entries().stream()
+        return getIndexedHeaders().entries().stream()
                 .filter(header -> headerName.equalsIgnoreCase(header.getKey()))
                 .map(Map.Entry::getValue)
                 .findFirst().orElse(null);
@@ -96,13 +217,14 @@ public abstract class ParsedRequest {
 
     @Override
     public String toString() {
+        @Nullable ImmutableMultimap<String, Optional<String>> query = getQuery();
         int querySize = query == null ? -1 : query.size();
         boolean bodyPresent = isBodyPresent();
         return "ParsedRequest{" +
                 "method=" + method +
                 ", url=" + StringUtils.abbreviate(url.toString(), 128) +
                 ", query.size=" + querySize +
-                ", headers.size=" + indexedHeaders.size() +
+                ", headers.size=" + getIndexedHeaders().size() +
                 ", hasBody=" + bodyPresent +
                 '}';
     }
@@ -0,0 +1,112 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.io.ByteSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Service that compresses response bodies ahead of time and stores the results
+ * in an {@link EncodedVariantCache}. This is how encodings that are too slow to
+ * apply while a request is being served, such as high-quality brotli, become
+ * available to clients: a {@link HarResponseEncoding#negotiated(String, EncodedVariantCache, Object) negotiated}
+ * encoding selects them only if the cache already holds a variant.
+ */
+public class VariantPrecompressor {
+
+    private static final Logger log = LoggerFactory.getLogger(VariantPrecompressor.class);
+
+    private final EncodedVariantCache variantCache;
+    private final String encoding;
+    private final HttpContentCodec codec;
+
+    public VariantPrecompressor(EncodedVariantCache variantCache, String encoding, HttpContentCodec codec) {
+        this.variantCache = requireNonNull(variantCache);
+        this.encoding = requireNonNull(encoding);
+        this.codec = requireNonNull(codec);
+    }
+
+    /**
+     * Creates a precompressor that produces brotli variants.
+     * @param variantCache the cache
+     * @param quality brotli quality
+     * @return a new precompressor
+     */
+    public static VariantPrecompressor brotli(EncodedVariantCache variantCache, int quality) {
+        return new VariantPrecompressor(variantCache, HttpContentCodecs.CONTENT_ENCODING_BROTLI, HttpContentCodecs.brotli(quality));
+    }
+
+    /**
+     * Compresses the response bodies of the given entries that are eligible for compression.
+     * Entries whose response data cannot be read are skipped. If the calling thread is
+     * interrupted, the remaining entries are not compressed.
+     * @param entries the entries
+     * @param bridge the bridge
+     * @param <E> entry type
+     * @return the number of variants added to the cache
+     */
+    public <E> int precompress(Iterable<E> entries, HarBridge<E> bridge) {
+        int count = 0;
+        for (E entry : entries) {
+            if (Thread.currentThread().isInterrupted()) {
+                log.debug("precompression interrupted after {} variants", count);
+                break;
+            }
+            try {
+                if (precompress(entry, bridge)) {
+                    count++;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("failed to precompress response of {}", entry, e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Submits a task that compresses the response bodies of the given entries.
+     * @param entries the entries
+     * @param bridge the bridge
+     * @param executor the executor that is to execute the task
+     * @param <E> entry type
+     */
+    public <E> void precompressAsync(List<E> entries, HarBridge<E> bridge, Executor executor) {
+        requireNonNull(entries);
+        requireNonNull(bridge);
+        executor.execute(() -> {
+            long start = System.currentTimeMillis();
+            int count = precompress(entries, bridge);
+            log.debug("precompressed {} of {} responses with {} in {} ms", count, entries.size(), encoding, System.currentTimeMillis() - start);
+        });
+    }
+
+    private <E> boolean precompress(E entry, HarBridge<E> bridge) throws IOException {
+        if (variantCache.contains(entry, encoding)) {
+            return false;
+        }
+        @Nullable ByteSource postData = bridge.getRequestPostData(entry);
+        ParsedRequest request = ParsedRequest.lenient(bridge.getRequestMethod(entry), bridge.getRequestUrl(entry), postData == null ? null : postData.read());
+        HarResponseData data = bridge.getResponseData(request, entry, HarResponseEncoding.unencoded());
+        if (!WrappingResponseEncoding.isCompressible(data)) {
+            return false;
+        }
+        byte[] unencoded = data.getBody().read();
+        byte[] encoded = codec.compress(unencoded);
+        if (encoded.length >= unencoded.length) {
+            return false;
+        }
+        variantCache.put(entry, encoding, encoded);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "VariantPrecompressor{encoding=" + encoding + "}";
+    }
+}
@@ -4,19 +4,71 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+import com.google.common.net.HttpHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.util.Collections;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Response encoding that negotiates a content encoding from the client's
+ * {@code Accept-Encoding} header and compresses text-like bodies accordingly.
+ * If a variant cache is provided, compressed bodies are computed once per
+ * source and encoding and served from the cache thereafter.
+ */
 class WrappingResponseEncoding implements HarResponseEncoding {
 
-    private final ImmutableList<Map.Entry<String, HttpContentCodec>> codecs;
+    private static final Logger log = LoggerFactory.getLogger(WrappingResponseEncoding.class);
+
+    /**
+     * Minimum body length for which compression is applied. Below this length
+     * the overhead of the encoding format outweighs the savings.
+     */
+    @VisibleForTesting
+    static final long MIN_COMPRESSIBLE_LENGTH = 1024;
+
+    /**
+     * Encodings in order of server preference, used to break ties among
+     * encodings with equal quality values.
+     */
+    private static final ImmutableList<String> PREFERRED_ENCODINGS = ImmutableList.of(
+            HttpContentCodecs.CONTENT_ENCODING_BROTLI,
+            HttpContentCodecs.CONTENT_ENCODING_GZIP,
+            HttpContentCodecs.CONTENT_ENCODING_DEFLATE);
 
-    public WrappingResponseEncoding(Iterable<Map.Entry<String, HttpContentCodec>> codecs) {
-        this.codecs = ImmutableList.copyOf(codecs);
+    /**
+     * Encodings that are too slow to apply on the request path, and are therefore
+     * selected only if a precompressed variant is cached.
+     * @see VariantPrecompressor
+     */
+    private static final ImmutableSet<String> PRECOMPRESSED_ONLY_ENCODINGS = ImmutableSet.of(
+            HttpContentCodecs.CONTENT_ENCODING_BROTLI);
+
+    private final ImmutableList<WeightedEncoding> acceptedEncodings;
+
+    @Nullable
+    private final EncodedVariantCache variantCache;
+
+    @Nullable
+    private final Object variantSource;
+
+    public WrappingResponseEncoding(List<WeightedEncoding> acceptedEncodings, @Nullable EncodedVariantCache variantCache, @Nullable Object variantSource) {
+        this.acceptedEncodings = ImmutableList.copyOf(acceptedEncodings);
+        checkArgument((variantCache == null) == (variantSource == null), "variant cache and source must be both null or both non-null");
+        this.variantCache = variantCache;
+        this.variantSource = variantSource;
     }
 
     @VisibleForTesting
@@ -96,19 +148,146 @@ class WrappingResponseEncoding implements HarResponseEncoding {
         return set.size() == 1 && set.contains(element);
     }
 
+    /**
+     * Selects the content encoding to apply, based on the quality values in the
+     * client's list of accepted encodings. Among encodings this server can produce,
+     * the one with the highest quality value is chosen, with ties broken by
+     * server preference. Null is returned if no such encoding is acceptable or if
+     * the client explicitly prefers the identity encoding.
+     * @param acceptsWeighted the accepted encodings
+     * @return the selected encoding, or null if content should not be encoded
+     */
+    @VisibleForTesting
+    @Nullable
+    static String selectEncoding(List<WeightedEncoding> acceptsWeighted) {
+        return selectEncoding(acceptsWeighted, encoding -> !PRECOMPRESSED_ONLY_ENCODINGS.contains(encoding));
+    }
+
+    @Nullable
+    private static String selectEncoding(List<WeightedEncoding> acceptsWeighted, Predicate<String> availability) {
+        if (acceptsWeighted.isEmpty()) {
+            return null;
+        }
+        String selected = null;
+        BigDecimal selectedWeight = BigDecimal.ZERO;
+        for (String encoding : PREFERRED_ENCODINGS) {
+            if (!HttpContentCodecs.isCompressionSupported(encoding) || !availability.test(encoding)) {
+                continue;
+            }
+            BigDecimal weight = getWeight(encoding, acceptsWeighted);
+            if (weight.compareTo(selectedWeight) > 0) {
+                selected = encoding;
+                selectedWeight = weight;
+            }
+        }
+        if (selected != null) {
+            for (WeightedEncoding we : acceptsWeighted) {
+                if (HttpContentCodecs.CONTENT_ENCODING_IDENTITY.equals(we.encoding) && we.weight.compareTo(selectedWeight) > 0) {
+                    return null;
+                }
+            }
+        }
+        return selected;
+    }
+
+    private boolean isAvailable(String encoding) {
+        if (PRECOMPRESSED_ONLY_ENCODINGS.contains(encoding)) {
+            return variantCache != null && variantCache.contains(requireNonNull(variantSource), encoding);
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether response data is eligible for compression on the basis of its
+     * content type and length.
+     * @param data the response data
+     * @return true if the data is eligible
+     * @throws IOException if the body size cannot be determined
+     */
+    static boolean isCompressible(HarResponseData data) throws IOException {
+        return ContentTypes.isTextLike(data.getContentType().toString())
+                && data.getBody().size() >= MIN_COMPRESSIBLE_LENGTH;
+    }
+
+    private static BigDecimal getWeight(String encoding, List<WeightedEncoding> acceptsWeighted) {
+        WeightedEncoding star = null;
+        for (WeightedEncoding we : acceptsWeighted) {
+            if (encoding.equals(we.encoding)) {
+                return we.weight;
+            }
+            if ("*".equals(we.encoding)) {
+                star = we;
+            }
+        }
+        return star == null ? BigDecimal.ZERO : star.weight;
+    }
+
+    @Override
+    public boolean canServeOriginalEncoding(List<String> originalContentEncodings) {
+        return canServeOriginalResponseContentEncoding(originalContentEncodings, acceptedEncodings);
+    }
+
+    /**
+     * Transforms unencoded response data by compressing the body with the encoding selected
+     * from the client's accepted encodings. A body that is eligible for compression is sent
+     * with a {@code Vary: Accept-Encoding} header whether or not it is compressed for this
+     * client, because another client would be sent a different representation.
+     */
     @Override
     public HarResponseData transformUnencoded(HarResponseData unencoded) {
-        // TODO acutally do the encoding
-        return unencoded;
+        if (!ContentTypes.isTextLike(unencoded.getContentType().toString())) {
+            return unencoded;
+        }
+        ByteSource unencodedBody = unencoded.getBody();
+        long unencodedLength;
+        try {
+            unencodedLength = unencodedBody.size();
+        } catch (IOException e) {
+            log.warn("failed to determine size of response body; serving unencoded", e);
+            return unencoded;
+        }
+        if (unencodedLength < MIN_COMPRESSIBLE_LENGTH) {
+            return unencoded;
+        }
+        HarResponseData negotiated = unencoded.transformer()
+                .addVary(HttpHeaders.ACCEPT_ENCODING)
+                .transform();
+        @Nullable String encoding = selectEncoding(acceptedEncodings, this::isAvailable);
+        if (encoding == null) {
+            return negotiated;
+        }
+        HttpContentCodec codec = requireNonNull(HttpContentCodecs.getCodec(encoding), encoding);
+        byte[] encoded;
+        try {
+            Callable<byte[]> encoder = () -> codec.compress(unencodedBody.read());
+            if (variantCache != null) {
+                encoded = variantCache.get(requireNonNull(variantSource), encoding, encoder);
+            } else {
+                encoded = encoder.call();
+            }
+        } catch (Exception e) {
+            log.warn("failed to encode response body with {}; serving unencoded", encoding, e);
+            return negotiated;
+        }
+        if (encoded.length >= unencodedLength) {
+            return negotiated;
+        }
+        return negotiated.transformer()
+                .filterHeaders(header -> !HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(header.getKey()))
+                .headers(headers -> Stream.concat(headers, Stream.of(new SimpleImmutableEntry<>(HttpHeaders.CONTENT_ENCODING, encoding))))
+                .body(body -> ByteSource.wrap(encoded))
+                .transform();
     }
 
     static HarResponseEncoding fromHeaderValues(List<String> contentEncodings, @Nullable String acceptEncoding) {
-        return NONE;
+        return new WrappingResponseEncoding(parseAcceptedEncodings(acceptEncoding), null, null);
     }
 
     public static HarResponseEncoding fromHeaderValues(@Nullable String contentEncoding, @Nullable String acceptEncoding) {
-        return NONE;
+        return fromHeaderValues(HttpContentCodecs.parseEncodings(contentEncoding), acceptEncoding);
     }
 
-    private static final HarResponseEncoding NONE = new WrappingResponseEncoding(Collections.emptyList());
+    static HarResponseEncoding negotiated(@Nullable String acceptEncoding, EncodedVariantCache variantCache, Object variantSource) {
+        return new WrappingResponseEncoding(parseAcceptedEncodings(acceptEncoding), variantCache, variantSource);
+    }
 }
@@ -0,0 +1,50 @@
+package io.github.mike10004.vhs.harbridge.archive;
+
+import com.google.common.io.ByteSource;
+import io.github.mike10004.vhs.harbridge.HarBridge;
+import io.github.mike10004.vhs.harbridge.HarResponseData;
+import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Bridge implementation for entries read from a {@link ReplayArchive}.
+ */
+public class ArchiveHarBridge implements HarBridge<ArchivedEntry> {
+
+    @Override
+    public String getRequestMethod(ArchivedEntry entry) {
+        return entry.requestMethod;
+    }
+
+    @Override
+    public String getRequestUrl(ArchivedEntry entry) {
+        return entry.requestUrl;
+    }
+
+    @Override
+    public Stream<Map.Entry<String, String>> getRequestHeaders(ArchivedEntry entry) {
+        return entry.requestHeaders.stream();
+    }
+
+    @Nullable
+    @Override
+    public ByteSource getRequestPostData(ArchivedEntry entry) {
+        return entry.requestBody;
+    }
+
+    @Override
+    public int getResponseStatus(ArchivedEntry entry) {
+        return entry.responseStatus;
+    }
+
+    @Override
+    public HarResponseData getResponseData(ParsedRequest request, ArchivedEntry entry, HarResponseEncoding encoding) throws IOException {
+        HarResponseData underlying = HarResponseData.of(entry.responseHeaders, entry.responseContentType, entry.responseBody);
+        return encoding.transformUnencoded(underlying);
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.mike10004.vhs.harbridge.archive;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import com.google.common.net.MediaType;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Class that represents a HAR entry as stored in a replay archive. The request fields
+ * are the values extracted from the original HAR entry and the response body is the
+ * decoded (uncompressed) content.
+ * @see ReplayArchive
+ */
+public final class ArchivedEntry {
+
+    public final String requestMethod;
+    public final String requestUrl;
+    public final ImmutableList<Map.Entry<String, String>> requestHeaders;
+
+    /**
+     * Request body; null if the HAR entry has no post data.
+     */
+    @Nullable
+    public final ByteSource requestBody;
+
+    public final int responseStatus;
+    public final ImmutableList<Map.Entry<String, String>> responseHeaders;
+    public final MediaType responseContentType;
+    public final ByteSource responseBody;
+
+    ArchivedEntry(String requestMethod,
+                  String requestUrl,
+                  Iterable<Map.Entry<String, String>> requestHeaders,
+                  @Nullable ByteSource requestBody,
+                  int responseStatus,
+                  Iterable<Map.Entry<String, String>> responseHeaders,
+                  MediaType responseContentType,
+                  ByteSource responseBody) {
+        this.requestMethod = requireNonNull(requestMethod);
+        this.requestUrl = requireNonNull(requestUrl);
+        this.requestHeaders = ImmutableList.copyOf(requestHeaders);
+        this.requestBody = requestBody;
+        this.responseStatus = responseStatus;
+        this.responseHeaders = ImmutableList.copyOf(responseHeaders);
+        this.responseContentType = requireNonNull(responseContentType);
+        this.responseBody = requireNonNull(responseBody);
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedEntry{" +
+                "requestMethod=" + requestMethod +
+                ", requestUrl=" + requestUrl +
+                ", responseStatus=" + responseStatus +
+                ", responseContentType=" + responseContentType +
+                '}';
+    }
+}
@@ -0,0 +1,470 @@
+package io.github.mike10004.vhs.harbridge.archive;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.MediaType;
+import io.github.mike10004.vhs.harbridge.HarBridge;
+import io.github.mike10004.vhs.harbridge.HarResponseData;
+import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
+import io.github.mike10004.vhs.harbridge.HttpContentCodec;
+import io.github.mike10004.vhs.harbridge.HttpContentCodecs;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Class that represents a precompiled replay archive. An archive is a binary file
+ * that contains the request and response data extracted from the entries of a HAR,
+ * so that a replay server can start serving without deserializing the HAR JSON
+ * and decoding response content.
+ *
+ * <p>The file consists of a header, an index section, and a blob section. The index
+ * section contains the request method, URL, and headers and the response status,
+ * content type, and headers of each entry, along with the offsets of the request and
+ * response bodies in the blob section. The blob section contains the bodies laid out
+ * contiguously, each optionally compressed with the {@code deflate} codec. Offsets
+ * into the blob section are 64-bit, so an archive may exceed 2 GB. When an archive
+ * is opened, the file is memory-mapped and bodies are read directly from the mapped
+ * regions on demand.
+ */
+public final class ReplayArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayArchive.class);
+
+    private static final byte[] MAGIC = "VHSARCHV".getBytes(StandardCharsets.US_ASCII);
+
+    @VisibleForTesting
+    static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = MAGIC.length + 4 + 4 + 8;
+
+    private static final int BODY_ABSENT = -1;
+
+    private static final long BLOB_CHUNK_SIZE = 1L << 30;
+
+    private static final byte STORAGE_PLAIN = 0;
+    private static final byte STORAGE_DEFLATE = 1;
+
+    private final ImmutableList<ArchivedEntry> entries;
+
+    private ReplayArchive(Iterable<ArchivedEntry> entries) {
+        this.entries = ImmutableList.copyOf(entries);
+    }
+
+    /**
+     * Gets the entries contained in this archive, in the order they appeared in the HAR.
+     * @return the entries
+     */
+    public ImmutableList<ArchivedEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Determines whether a file is a replay archive by checking for the leading magic bytes.
+     * @param file the file
+     * @return true if the file starts with the archive magic bytes
+     * @throws IOException on I/O error
+     */
+    public static boolean isArchive(File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        byte[] prefix = new byte[MAGIC.length];
+        try (InputStream in = new FileInputStream(file)) {
+            int numRead = ByteStreams.read(in, prefix, 0, prefix.length);
+            return numRead == MAGIC.length && Arrays.equals(MAGIC, prefix);
+        }
+    }
+
+    /**
+     * Writes an archive containing the given HAR entries.
+     * @param entries the HAR entries
+     * @param bridge the bridge used to extract data from the HAR entries
+     * @param archiveFile the destination file
+     * @param compressBodies true if bodies should be compressed in the blob section
+     * @param <E> HAR entry type
+     * @throws IOException on I/O error
+     */
+    public static <E> void compile(List<E> entries, HarBridge<E> bridge, File archiveFile, boolean compressBodies) throws IOException {
+        File parentDir = archiveFile.getAbsoluteFile().getParentFile();
+        File blobFile = File.createTempFile("replay-archive-blobs", ".tmp", parentDir);
+        // the archive is written to a temporary file and moved into place, so that an
+        // interrupted compilation does not leave a truncated archive at the destination
+        File partialFile = File.createTempFile("replay-archive", ".tmp", parentDir);
+        try {
+            ByteArrayOutputStream indexBuffer = new ByteArrayOutputStream(entries.size() * 512);
+            DataOutputStream index = new DataOutputStream(indexBuffer);
+            try (CountingBlobWriter blobs = new CountingBlobWriter(blobFile, compressBodies)) {
+                for (E entry : entries) {
+                    writeEntry(entry, bridge, index, blobs);
+                }
+            }
+            index.flush();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partialFile)))) {
+                out.write(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(entries.size());
+                out.writeLong(HEADER_LENGTH + (long) indexBuffer.size());
+                indexBuffer.writeTo(out);
+                Files.copy(blobFile.toPath(), out);
+            }
+            Files.move(partialFile.toPath(), archiveFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            deleteTemporaryFile(blobFile);
+            deleteTemporaryFile(partialFile);
+        }
+    }
+
+    private static void deleteTemporaryFile(File file) {
+        if (!file.delete() && file.exists()) {
+            log.warn("failed to delete temporary file {}", file);
+        }
+    }
+
+    private static <E> void writeEntry(E entry, HarBridge<E> bridge, DataOutputStream index, CountingBlobWriter blobs) throws IOException {
+        String method = bridge.getRequestMethod(entry);
+        String url = bridge.getRequestUrl(entry);
+        List<Map.Entry<String, String>> requestHeaders = bridge.getRequestHeaders(entry).collect(Collectors.toList());
+        @Nullable ByteSource postData = bridge.getRequestPostData(entry);
+        @Nullable byte[] requestBody = postData == null ? null : postData.read();
+        writeString(index, method);
+        writeString(index, url);
+        writeHeaders(index, requestHeaders);
+        blobs.writeBody(index, requestBody);
+        ParsedRequest request = ParsedRequest.lenient(method, url, requestBody);
+        HarResponseData responseData = bridge.getResponseData(request, entry, HarResponseEncoding.unencoded());
+        index.writeInt(bridge.getResponseStatus(entry));
+        writeString(index, responseData.getContentType().toString());
+        writeHeaders(index, responseData.headers());
+        blobs.writeBody(index, responseData.getBody().read());
+    }
+
+    private static void writeHeaders(DataOutputStream out, List<Map.Entry<String, String>> headers) throws IOException {
+        out.writeInt(headers.size());
+        for (Map.Entry<String, String> header : headers) {
+            writeString(out, header.getKey());
+            writeString(out, header.getValue());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writer of the blob section that keeps track of the current offset.
+     */
+    private static class CountingBlobWriter implements Closeable {
+
+        private final OutputStream out;
+        private final boolean compress;
+        private long offset;
+
+        public CountingBlobWriter(File blobFile, boolean compress) throws IOException {
+            this.out = new BufferedOutputStream(new FileOutputStream(blobFile));
+            this.compress = compress;
+        }
+
+        /**
+         * Writes a body to the blob section and writes its storage descriptor to the index.
+         */
+        public void writeBody(DataOutputStream index, @Nullable byte[] body) throws IOException {
+            if (body == null) {
+                index.writeLong(offset);
+                index.writeInt(BODY_ABSENT);
+                index.writeByte(STORAGE_PLAIN);
+                return;
+            }
+            byte storage = STORAGE_PLAIN;
+            byte[] stored = body;
+            if (compress && body.length > 0) {
+                byte[] compressed = deflateCodec().compress(body);
+                if (compressed.length < body.length) {
+                    stored = compressed;
+                    storage = STORAGE_DEFLATE;
+                }
+            }
+            index.writeLong(offset);
+            index.writeInt(stored.length);
+            index.writeByte(storage);
+            out.write(stored);
+            offset += stored.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static HttpContentCodec deflateCodec() {
+        return requireNonNull(HttpContentCodecs.getCodec(HttpContentCodecs.CONTENT_ENCODING_DEFLATE), "deflate codec");
+    }
+
+    /**
+     * Opens an archive by memory-mapping the file. The index section is mapped as one
+     * region and the blob section is mapped in chunks, so that the blob section may be
+     * larger than the 2 GB limit of a single mapped buffer.
+     * @param archiveFile the archive file
+     * @return the archive
+     * @throws IOException if the file is not a well-formed archive or on I/O error
+     */
+    public static ReplayArchive open(File archiveFile) throws IOException {
+        return open(archiveFile, BLOB_CHUNK_SIZE);
+    }
+
+    @VisibleForTesting
+    static ReplayArchive open(File archiveFile, long chunkSize) throws IOException {
+        checkArgument(chunkSize > 0 && chunkSize <= Integer.MAX_VALUE, "chunk size out of range: %s", chunkSize);
+        try (FileChannel channel = FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH) {
+                throw new IOException("not a replay archive");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("not a replay archive");
+            }
+            int version = header.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("unsupported archive format version " + version);
+            }
+            int numEntries = header.getInt();
+            long blobSectionOffset = header.getLong();
+            if (numEntries < 0 || blobSectionOffset < HEADER_LENGTH || blobSectionOffset > size) {
+                throw new IOException("malformed replay archive header");
+            }
+            if (blobSectionOffset - HEADER_LENGTH > Integer.MAX_VALUE) {
+                throw new IOException("index section too large to map: " + (blobSectionOffset - HEADER_LENGTH) + " bytes");
+            }
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, blobSectionOffset - HEADER_LENGTH);
+            BlobSection blobs = new BlobSection(channel, blobSectionOffset, size - blobSectionOffset, chunkSize);
+            try {
+                List<ArchivedEntry> entries = new ArrayList<>(numEntries);
+                for (int i = 0; i < numEntries; i++) {
+                    entries.add(readEntry(index, blobs));
+                }
+                return new ReplayArchive(entries);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("malformed replay archive", e);
+            }
+        }
+    }
+
+    /**
+     * Blob section of an archive file, mapped in chunks. A body that lies within one
+     * chunk is a slice of that chunk; a body that crosses a chunk boundary is mapped
+     * as a region of its own. Mappings remain valid after the channel is closed.
+     */
+    private static class BlobSection {
+
+        private final FileChannel channel;
+        private final long sectionOffset;
+        private final long sectionLength;
+        private final long chunkSize;
+        private final MappedByteBuffer[] chunks;
+
+        public BlobSection(FileChannel channel, long sectionOffset, long sectionLength, long chunkSize) throws IOException {
+            this.channel = requireNonNull(channel);
+            this.sectionOffset = sectionOffset;
+            this.sectionLength = sectionLength;
+            this.chunkSize = chunkSize;
+            int numChunks = Math.toIntExact((sectionLength + chunkSize - 1) / chunkSize);
+            chunks = new MappedByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long chunkOffset = i * chunkSize;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, sectionOffset + chunkOffset, Math.min(chunkSize, sectionLength - chunkOffset));
+            }
+        }
+
+        /**
+         * Gets a buffer containing a region of the blob section.
+         * @param offset offset of the region relative to the start of the section
+         * @param length length of the region
+         * @return a buffer whose remaining bytes are the region
+         */
+        public ByteBuffer region(long offset, int length) throws IOException {
+            checkArgument(offset >= 0 && length >= 0 && offset + length <= sectionLength, "body out of bounds: %s+%s", offset, length);
+            if (length == 0) {
+                return ByteBuffer.allocate(0);
+            }
+            int chunkIndex = (int) (offset / chunkSize);
+            int positionInChunk = (int) (offset % chunkSize);
+            ByteBuffer chunk = chunks[chunkIndex];
+            if (positionInChunk + (long) length <= chunk.capacity()) {
+                ByteBuffer slice = chunk.duplicate();
+                slice.position(positionInChunk);
+                slice.limit(positionInChunk + length);
+                return slice.slice();
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, sectionOffset + offset, length);
+        }
+    }
+
+    private static ArchivedEntry readEntry(ByteBuffer buffer, BlobSection blobs) throws IOException {
+        String method = readString(buffer);
+        String url = readString(buffer);
+        List<Map.Entry<String, String>> requestHeaders = readHeaders(buffer);
+        @Nullable ByteSource requestBody = readBody(buffer, blobs);
+        int status = buffer.getInt();
+        MediaType contentType = MediaType.parse(readString(buffer));
+        List<Map.Entry<String, String>> responseHeaders = readHeaders(buffer);
+        @Nullable ByteSource responseBody = readBody(buffer, blobs);
+        return new ArchivedEntry(method, url, requestHeaders, requestBody, status, responseHeaders, contentType,
+                responseBody == null ? ByteSource.empty() : responseBody);
+    }
+
+    private static List<Map.Entry<String, String>> readHeaders(ByteBuffer buffer) {
+        int numHeaders = buffer.getInt();
+        checkArgument(numHeaders >= 0, "negative header count");
+        List<Map.Entry<String, String>> headers = new ArrayList<>(numHeaders);
+        for (int i = 0; i < numHeaders; i++) {
+            String name = readString(buffer);
+            String value = readString(buffer);
+            headers.add(new SimpleImmutableEntry<>(name, value));
+        }
+        return headers;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        checkArgument(length >= 0 && length <= buffer.remaining(), "string length out of bounds: %s", length);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Nullable
+    private static ByteSource readBody(ByteBuffer buffer, BlobSection blobs) throws IOException {
+        long relativeOffset = buffer.getLong();
+        int length = buffer.getInt();
+        byte storage = buffer.get();
+        if (length == BODY_ABSENT) {
+            return null;
+        }
+        ByteBuffer region = blobs.region(relativeOffset, length);
+        ByteSource stored = new ByteBufferByteSource(region);
+        switch (storage) {
+            case STORAGE_PLAIN:
+                return stored;
+            case STORAGE_DEFLATE:
+                return deflateCodec().decompressingSource(stored);
+            default:
+                throw new IllegalArgumentException("unrecognized body storage type " + storage);
+        }
+    }
+
+    /**
+     * Byte source that reads from a region of a (possibly mapped) byte buffer.
+     */
+    private static class ByteBufferByteSource extends ByteSource {
+
+        private final ByteBuffer region;
+
+        private ByteBufferByteSource(ByteBuffer region) {
+            this.region = region.asReadOnlyBuffer();
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ByteBufferInputStream(region.duplicate());
+        }
+
+        @Override
+        public Optional<Long> sizeIfKnown() {
+            return Optional.of((long) region.remaining());
+        }
+
+        @Override
+        public long size() {
+            return region.remaining();
+        }
+
+        @Override
+        public byte[] read() {
+            byte[] bytes = new byte[region.remaining()];
+            region.duplicate().get(bytes);
+            return bytes;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = requireNonNull(buffer);
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayArchive{entries.size=" + entries.size() + "}";
+    }
+}
@@ -132,8 +132,16 @@ public class SstoehrHarBridge implements HarBridge<HarEntry> {
 
     @Override
     public HarResponseData getResponseData(ParsedRequest request, HarEntry entry, HarResponseEncoding encoding) throws IOException {
-        TypedContent contentPackage = getResponseBody(entry);
         List<Map.Entry<String, String>> headers = getResponseHeaders(entry);
+        @Nullable TypedContent originalEncodedContent = getOriginalEncodedResponseBody(entry, encoding);
+        if (originalEncodedContent != null) {
+            // served only because the client accepts the original encoding
+            return HarResponseData.of(headers, originalEncodedContent.getContentType(), originalEncodedContent.asByteSource())
+                    .transformer()
+                    .addVary(HttpHeaders.ACCEPT_ENCODING)
+                    .transform();
+        }
+        TypedContent contentPackage = getResponseBody(entry);
         HarResponseData underlying = HarResponseData.of(headers, contentPackage.getContentType(), contentPackage.asByteSource());
         underlying = underlying.transformer()
                 .replaceContentType(contentPackage.getContentType())
@@ -157,6 +165,34 @@ public class SstoehrHarBridge implements HarBridge<HarEntry> {
         return ImmutableList.of();
     }
 
+    /**
+     * Gets the response body in its original compressed form, if the HAR stores it that way
+     * and the encoding strategy permits the original encoding to be served.
+     * @return the compressed content, or null
+     */
+    @Nullable
+    private TypedContent getOriginalEncodedResponseBody(HarEntry entry, HarResponseEncoding encoding) {
+        HarResponse rsp = entry.getResponse();
+        if (rsp == null || rsp.getContent() == null) {
+            return null;
+        }
+        @Nullable String contentEncodingHeaderValue = getContentEncodingHeaderValue(rsp);
+        if (contentEncodingHeaderValue == null || !encoding.canServeOriginalEncoding(HttpContentCodecs.parseEncodings(contentEncodingHeaderValue))) {
+            return null;
+        }
+        HarContent content = rsp.getContent();
+        return Hars.getOriginalEncodedContent(content.getMimeType(), content.getText(), nullIfNegative(rsp.getBodySize()), contentEncodingHeaderValue, Strings.emptyToNull(content.getEncoding()));
+    }
+
+    @Nullable
+    private static String getContentEncodingHeaderValue(HarResponse rsp) {
+        List<HarHeader> headers = MoreObjects.firstNonNull(rsp.getHeaders(), Collections.emptyList());
+        return headers.stream()
+                .filter(h -> HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(h.getName()))
+                .map(HarHeader::getValue)
+                .findFirst().orElse(null);
+    }
+
     @VisibleForTesting
     TypedContent getResponseBody(HarEntry entry) throws IOException {
         HarResponse rsp = entry.getResponse();
@@ -166,11 +202,7 @@ public class SstoehrHarBridge implements HarBridge<HarEntry> {
         HarContent content = requireNonNull(rsp.getContent(), "response.content");
         @Nullable Long harContentSize = nullIfNegative(content.getSize());
         @Nullable Long bodySize = nullIfNegative(rsp.getBodySize());
-        List<HarHeader> headers = MoreObjects.firstNonNull(rsp.getHeaders(), Collections.emptyList());
-        @Nullable String contentEncodingHeaderValue = headers.stream()
-                .filter(h -> HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(h.getName()))
-                .map(HarHeader::getValue)
-                .findFirst().orElse(null);
+        @Nullable String contentEncodingHeaderValue = getContentEncodingHeaderValue(rsp);
         @Nullable String harContentEncoding = Strings.emptyToNull(content.getEncoding());
         @Nullable String contentType = content.getMimeType();
         @Nullable String comment = content.getComment();
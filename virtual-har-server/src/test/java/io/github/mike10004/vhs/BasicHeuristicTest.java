@@ -1,9 +1,13 @@
 package io.github.mike10004.vhs;
 
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.io.ByteSource;
 import com.google.common.io.CharSource;
 import com.google.common.net.MediaType;
 import com.opencsv.CSVReader;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
 import io.github.mike10004.vhs.harbridge.ParsedRequest;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
@@ -13,6 +17,7 @@ import org.junit.runners.Parameterized.Parameters;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.net.URI;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Function;
@@ -37,6 +42,34 @@ public class BasicHeuristicTest {
         }
     }
 
+    public static class InternedHeadersTest {
+
+        @Test
+        public void sameRatingAsStrings() {
+            Interner<String> interner = Interners.newWeakInterner();
+            BasicHeuristic h = new BasicHeuristic();
+            URI url = URI.create("http://example.com/page");
+            ImmutableMultimap<String, String> entryHeaders = ImmutableMultimap.<String, String>builder()
+                    .put("accept", "text/html")
+                    .put("cookie", "a=1")
+                    .put("cookie", "b=2")
+                    .put("origin", "https://example.com")
+                    .build();
+            ParsedRequest stringEntry = ParsedRequest.inMemory(HttpMethod.GET, url, null, entryHeaders, null);
+            ParsedRequest internedEntry = ParsedRequest.interned(HttpMethod.GET, url, null, entryHeaders, interner, null);
+            List<ImmutableMultimap<String, String>> requestHeaderses = Arrays.asList(
+                    ImmutableMultimap.of(),
+                    entryHeaders,
+                    ImmutableMultimap.of("cookie", "b=2", "cookie", "a=1", "origin", "http://example.com"),
+                    ImmutableMultimap.of("cookie", "a=1", "accept", "text/html", "user-agent", "Foo/1.0"),
+                    ImmutableMultimap.of("accept", "*/*"));
+            for (ImmutableMultimap<String, String> requestHeaders : requestHeaderses) {
+                ParsedRequest request = ParsedRequest.inMemory(HttpMethod.GET, url, null, requestHeaders, null);
+                assertEquals("rating for " + requestHeaders, h.rate(stringEntry, request), h.rate(internedEntry, request));
+            }
+        }
+    }
+
     private interface ParameterSource<T> {
         @SuppressWarnings("unused")
         List<T> produce() throws Exception ;
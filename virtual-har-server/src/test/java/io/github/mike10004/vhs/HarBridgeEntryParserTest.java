@@ -23,6 +23,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -36,6 +37,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 public class HarBridgeEntryParserTest {
 
@@ -115,6 +117,18 @@ public class HarBridgeEntryParserTest {
         assertEquals("url", url, request.url);
     }
 
+    @Test
+    public void parseRequest_headersDecodedWhenParsed() throws Exception {
+        HarBridgeEntryParser<FakeHarEntry> parser = HarBridgeEntryParser.withPlainEncoder(new FakeHarBridge());
+        Entry<String, String> namelessHeader = new AbstractMap.SimpleImmutableEntry<>(null, "foo");
+        FakeHarEntry entry = FakeHarEntry.request("GET", "http://www.example.com/", Collections.singletonList(namelessHeader), null);
+        try {
+            parser.parseRequest(entry);
+            fail("undecodable header not reported by parseRequest");
+        } catch (NullPointerException expected) {
+        }
+    }
+
     private static class FakeHarBridge implements HarBridge<FakeHarEntry> {
 
         @Override
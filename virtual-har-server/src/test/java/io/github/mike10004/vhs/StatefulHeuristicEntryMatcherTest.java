@@ -1,6 +1,7 @@
 package io.github.mike10004.vhs;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
@@ -10,15 +11,19 @@ import io.github.mike10004.vhs.bmp.BmpResponseManufacturer;
 import io.github.mike10004.vhs.bmp.BrowsermobVhsConfig;
 import io.github.mike10004.vhs.bmp.BrowsermobVirtualHarServer;
 import io.github.mike10004.vhs.bmp.HarReplayManufacturer;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
 import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
+import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -46,6 +51,28 @@ public class StatefulHeuristicEntryMatcherTest {
         assertEquals("responses", Arrays.asList("first", "first", "first"), responses);
     }
 
+    @Test
+    public void multiplicities() throws Exception {
+        File harFile = temporaryFolder.newFile();
+        Resources.asByteSource(getClass().getResource("/multiple-requests-same-url.json")).copyTo(Files.asByteSink(harFile));
+        List<HarEntry> harEntries = new HarReader().readFromFile(harFile).getLog().getEntries();
+        EntryMatcherFactory<ReplaySessionState> factory = StatefulHeuristicEntryMatcher.factory(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE);
+        // the "first" entry stands for two collapsed duplicates
+        EntryMatcher<ReplaySessionState> entryMatcher = factory.createEntryMatcher(harEntries, Arrays.asList(1, 2, 1),
+                new HarBridgeEntryParser<>(new SstoehrHarBridge(), HarResponseEncoderFactory.alwaysIdentityEncoding()));
+        ReplaySessionState state = ReplaySessionState.countingUrlMethodPairs();
+        ParsedRequest request = ParsedRequest.inMemory(HttpMethod.POST, URI.create("http://www.example.com/post"), null, ImmutableMultimap.of(), null);
+        List<String> responses = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            state.register(request);
+            HttpRespondable response = entryMatcher.findTopEntry(state, request);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            response.writeBody(body);
+            responses.add(new String(body.toByteArray(), UTF_8));
+        }
+        assertEquals("responses", Arrays.asList("first", "first", "second", "first"), responses);
+    }
+
     private List<String> testEntryMatcher(EntryMatcherFactory<? super ReplaySessionState> entryMatcherFactory) throws Exception {
         File harFile = temporaryFolder.newFile();
         Resources.asByteSource(getClass().getResource("/multiple-requests-same-url.json")).copyTo(Files.asByteSink(harFile));
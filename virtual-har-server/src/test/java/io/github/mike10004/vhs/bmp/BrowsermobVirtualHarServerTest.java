@@ -35,6 +35,11 @@ import io.github.mike10004.vhs.testsupport.VhsTests;
 import io.github.mike10004.vhs.testsupport.VirtualHarServerTestBase;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpRequest;
+import net.lightbody.bmp.BrowserMobProxy;
+import net.lightbody.bmp.core.har.Har;
+import net.lightbody.bmp.core.har.HarLog;
+import net.lightbody.bmp.mitm.TrustSource;
+import net.lightbody.bmp.proxy.CaptureType;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.HttpClientBuilder;
@@ -59,14 +64,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class BrowsermobVirtualHarServerTest extends VirtualHarServerTestBase {
@@ -124,10 +133,19 @@ public class BrowsermobVirtualHarServerTest extends VirtualHarServerTestBase {
                 KeystoreData keystoreData = BmpTests.generateKeystoreForUnitTest(commonName);
                 NanohttpdTlsEndpointFactory tlsEndpointFactory = NanohttpdTlsEndpointFactory.create(keystoreData, null);
                 configBuilder.tlsEndpointFactory(tlsEndpointFactory);
+                if (Boolean.TRUE.equals(context.get(KEY_BYPASS_UPSTREAM_TLS))) {
+                    // an empty trust source makes any upstream handshake fail, so a successful response proves there was none
+                    configBuilder.tlsEndpointFactory((cfg, dir) -> new UntrustedTlsEndpoint(tlsEndpointFactory.produce(cfg, dir)))
+                            .bypassUpstreamTls(true);
+                }
             } catch (GeneralSecurityException e) {
                 throw new RuntimeException(e);
             }
         }
+        Integer harCaptureMaxEntries = context.get(KEY_HAR_CAPTURE_MAX_ENTRIES);
+        if (harCaptureMaxEntries != null) {
+            configBuilder.harCapture(EnumSet.allOf(CaptureType.class), harCaptureMaxEntries);
+        }
         if (tlsMode == TlsMode.PREDEFINED_CERT_SUPPORT) {
             KeystoreData keystoreData = context.get(KEY_KEYSTORE_DATA);
             configBuilder.certificateAndKeySource(keystoreData.asCertificateAndKeySource());
@@ -155,6 +173,93 @@ public class BrowsermobVirtualHarServerTest extends VirtualHarServerTestBase {
     }
 
     private static final String KEY_KEYSTORE_DATA = "keystoreData";
+    private static final String KEY_BYPASS_UPSTREAM_TLS = "bypassUpstreamTls";
+    private static final String KEY_HAR_CAPTURE_MAX_ENTRIES = "harCaptureMaxEntries";
+
+    @Test
+    public void harCapture_disabledByDefault() throws Exception {
+        Har har = captureHar(new TestContext().put(KEY_TLS_MODE, TlsMode.NO_SUPPORT_REQUIRED));
+        assertNull("har", har);
+    }
+
+    @Test
+    public void harCapture_enabled() throws Exception {
+        int maxEntries = 2;
+        Har har = captureHar(new TestContext().put(KEY_TLS_MODE, TlsMode.NO_SUPPORT_REQUIRED).put(KEY_HAR_CAPTURE_MAX_ENTRIES, maxEntries));
+        assertNotNull("har", har);
+        // all three requests are answered by the response manufacturer, which the capture filter does not see
+        assertTrue("captured entries at most " + maxEntries, har.getLog().getEntries().size() <= maxEntries);
+    }
+
+    @Test
+    public void trimHar() {
+        Har har = new Har(new HarLog());
+        for (int i = 0; i < 5; i++) {
+            net.lightbody.bmp.core.har.HarEntry entry = new net.lightbody.bmp.core.har.HarEntry();
+            entry.setPageref(String.valueOf(i));
+            har.getLog().addEntry(entry);
+        }
+        BrowsermobVirtualHarServer.trimHar(har, 2);
+        assertEquals("retained entries", Arrays.asList("3", "4"), har.getLog().getEntries().stream()
+                .map(net.lightbody.bmp.core.har.HarEntry::getPageref)
+                .collect(Collectors.toList()));
+    }
+
+    @Nullable
+    private Har captureHar(TestContext context) throws Exception {
+        File harFile = VhsTests.getReplayTest1HarFile(temporaryFolder.newFolder().toPath());
+        EntryMatcherFactory entryMatcherFactory = HeuristicEntryMatcher.factory(new BasicHeuristic(), BasicHeuristic.DEFAULT_THRESHOLD_EXCLUSIVE);
+        BrowsermobVhsConfig config = createServerConfig(VhsTests.findOpenPort(), harFile, entryMatcherFactory, context);
+        AtomicReference<BrowserMobProxy> proxy = new AtomicReference<>();
+        BrowsermobVirtualHarServer server = new BrowsermobVirtualHarServer(config) {
+            @Override
+            protected BrowserMobProxy instantiateProxy() {
+                proxy.set(super.instantiateProxy());
+                return proxy.get();
+            }
+        };
+        try (VirtualHarServerControl ctrl = server.start()) {
+            ApacheRecordingClient client = new ApacheRecordingClient(false);
+            for (int i = 0; i < 3; i++) {
+                client.collectResponses(Collections.singleton(getBasicUri1()), ctrl.getSocketAddress());
+            }
+            return proxy.get().getHar();
+        }
+    }
+
+    @Test
+    public void httpsTest_bypassUpstreamTls() throws Exception {
+        TestContext context = new TestContext();
+        context.put(KEY_TLS_MODE, TlsMode.SUPPORT_REQUIRED);
+        context.put(KEY_CLIENT_SUPPLIER, BlindlyTrustingClient.supplier());
+        context.put(KEY_BYPASS_UPSTREAM_TLS, true);
+        doHttpsTest(context);
+        assertEquals("num requests", 1, requests.size());
+    }
+
+    private static class UntrustedTlsEndpoint implements TlsEndpoint {
+
+        private final TlsEndpoint delegate;
+
+        public UntrustedTlsEndpoint(TlsEndpoint delegate) {
+            this.delegate = requireNonNull(delegate);
+        }
+
+        @Override
+        public HostAndPort getSocketAddress() {
+            return delegate.getSocketAddress();
+        }
+
+        @Override
+        public TrustSource getTrustSource() {
+            return TrustSource.empty();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
 
     @Test
     public void httpsTest_pregeneratedMitmCertificate() throws Exception {
@@ -0,0 +1,73 @@
+package io.github.mike10004.vhs.bmp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.*;
+
+public class CachingKeystoreGeneratorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void reuseAcrossInstances() throws Exception {
+        Path cacheDir = temporaryFolder.getRoot().toPath();
+        CountingGenerator delegate = new CountingGenerator();
+        KeystoreData first = new CachingKeystoreGenerator(delegate, KeystoreType.PKCS12, cacheDir).generate("localhost");
+        KeystoreData second = new CachingKeystoreGenerator(delegate, KeystoreType.PKCS12, cacheDir).generate("localhost");
+        assertEquals("generations", 1, delegate.count);
+        assertTrue("same keystore", KeystoreDataSerializer.isEqual(first, second));
+        X509Certificate certificate = (X509Certificate) second.loadKeystore().getCertificate(second.privateKeyAlias);
+        assertTrue("CN", certificate.getSubjectX500Principal().getName().contains("CN=localhost"));
+        assertEquals("key algorithm", "EC", certificate.getPublicKey().getAlgorithm());
+    }
+
+    @Test
+    public void keyedByCommonName() throws Exception {
+        CountingGenerator delegate = new CountingGenerator();
+        CachingKeystoreGenerator generator = new CachingKeystoreGenerator(delegate, KeystoreType.PKCS12, temporaryFolder.getRoot().toPath());
+        generator.generate("localhost");
+        generator.generate("example.com");
+        generator.generate(null);
+        generator.generate(null);
+        assertEquals("generations", 3, delegate.count);
+    }
+
+    @Test
+    public void corruptedKeystoreReplaced() throws Exception {
+        Path cacheDir = temporaryFolder.getRoot().toPath();
+        CountingGenerator delegate = new CountingGenerator();
+        CachingKeystoreGenerator generator = new CachingKeystoreGenerator(delegate, KeystoreType.PKCS12, cacheDir);
+        generator.generate("localhost");
+        Path file = generator.resolveFile("localhost");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x01;
+        Files.write(file, bytes);
+        KeystoreData regenerated = generator.generate("localhost");
+        assertEquals("generations", 2, delegate.count);
+        assertNotNull("usable", regenerated.loadKeystore().getCertificate(regenerated.privateKeyAlias));
+        generator.generate("localhost");
+        assertEquals("generations after replacement", 2, delegate.count);
+    }
+
+    private static class CountingGenerator implements KeystoreGenerator {
+
+        private final KeystoreGenerator delegate = KeystoreGenerator.createJreEcGenerator(KeystoreType.PKCS12);
+        public int count;
+
+        @Override
+        public KeystoreData generate(@Nullable String certificateCommonName) throws IOException, GeneralSecurityException {
+            count++;
+            return delegate.generate(certificateCommonName);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.mike10004.vhs.bmp;
+
+import org.junit.Test;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyConfigTest {
+
+    @Test
+    public void toThreadPoolConfiguration() {
+        assertNull("defaults", ConcurrencyConfig.defaults().toThreadPoolConfiguration());
+        ThreadPoolConfiguration proxyDefaults = new ThreadPoolConfiguration();
+        ThreadPoolConfiguration configuration = ConcurrencyConfig.builder()
+                .clientToProxyWorkerThreads(32)
+                .build().toThreadPoolConfiguration();
+        assertNotNull(configuration);
+        assertEquals("client-to-proxy", 32, configuration.getClientToProxyWorkerThreads());
+        assertEquals("proxy-to-server", proxyDefaults.getProxyToServerWorkerThreads(), configuration.getProxyToServerWorkerThreads());
+        assertEquals("acceptor", proxyDefaults.getAcceptorThreads(), configuration.getAcceptorThreads());
+    }
+
+    @Test
+    public void newBlockingExecutor_platformThreads() throws Exception {
+        Thread thread = runOnBlockingExecutor(ConcurrencyConfig.defaults());
+        assertTrue("daemon", thread.isDaemon());
+        assertTrue("name " + thread.getName(), thread.getName().startsWith("test-"));
+    }
+
+    @Test
+    public void newBlockingExecutor_virtualThreads() throws Exception {
+        Thread thread = runOnBlockingExecutor(ConcurrencyConfig.builder().virtualThreads(true).build());
+        assertTrue("name " + thread.getName(), thread.getName().startsWith("test-"));
+        if (!ConcurrencyConfig.isVirtualThreadSupported()) {
+            assertTrue("falls back to daemon platform thread", thread.isDaemon());
+        }
+    }
+
+    private static Thread runOnBlockingExecutor(ConcurrencyConfig config) throws InterruptedException {
+        ExecutorService executor = config.newBlockingExecutor("test-");
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                thread.set(Thread.currentThread());
+                latch.countDown();
+            });
+            assertTrue("task completed", latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        return thread.get();
+    }
+}
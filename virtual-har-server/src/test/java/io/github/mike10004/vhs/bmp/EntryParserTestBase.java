@@ -23,9 +23,9 @@ public abstract class EntryParserTestBase<E> {
         ParsedRequest parsed = createParser().parseRequest(entry);
         assertEquals("method", HttpMethod.GET, parsed.method);
         assertEquals("url", URI.create(urlStr), parsed.url);
-        assertEquals("query", null, parsed.query);
-        assertEquals(2, parsed.indexedHeaders.size());
-        assertEquals("header value", "foo", parsed.indexedHeaders.get("x-something").iterator().next());
+        assertEquals("query", null, parsed.getQuery());
+        assertEquals(2, parsed.getIndexedHeaders().size());
+        assertEquals("header value", "foo", parsed.getIndexedHeaders().get("x-something").iterator().next());
     }
 
 }
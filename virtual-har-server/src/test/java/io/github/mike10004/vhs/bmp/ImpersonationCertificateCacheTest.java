@@ -0,0 +1,98 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import net.lightbody.bmp.mitm.CertificateAndKey;
+import net.lightbody.bmp.mitm.CertificateAndKeySource;
+import net.lightbody.bmp.mitm.HostnameCertificateInfoGenerator;
+import net.lightbody.bmp.mitm.keys.ECKeyGenerator;
+import net.lightbody.bmp.mitm.keys.KeyGenerator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ImpersonationCertificateCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void prewarmedCertificateServedToMitmManager() throws Exception {
+        CertificateAndKeySource root = createRoot();
+        ImpersonationCertificateCache cache = new ImpersonationCertificateCache(root, new ECKeyGenerator(), null);
+        cache.prewarm(ImmutableList.of("www.example.com", "cdn.example.com"), MoreExecutors.directExecutor()).join();
+        X509Certificate prewarmed = cache.getCertificate("www.example.com");
+        KeyPair serverKeyPair = cache.asKeyGenerator().generate();
+        CertificateAndKey rootCertificateAndKey = root.load();
+        CertificateAndKey served = cache.asSecurityProviderTool().createServerCertificate(
+                new HostnameCertificateInfoGenerator().generate(Collections.singletonList("www.example.com"), null),
+                rootCertificateAndKey.getCertificate(), rootCertificateAndKey.getPrivateKey(), serverKeyPair, ImpersonationCertificateCache.MESSAGE_DIGEST);
+        assertSame("certificate", prewarmed, served.getCertificate());
+        assertEquals("private key", serverKeyPair.getPrivate(), served.getPrivateKey());
+        served.getCertificate().verify(rootCertificateAndKey.getCertificate().getPublicKey());
+        assertTrue("CN", served.getCertificate().getSubjectX500Principal().getName().contains("CN=www.example.com"));
+    }
+
+    @Test
+    public void persistAndReload() throws Exception {
+        CertificateAndKeySource root = createRoot();
+        Path file = temporaryFolder.getRoot().toPath().resolve("certificates");
+        CountingKeyGenerator keyGenerator = new CountingKeyGenerator();
+        ImpersonationCertificateCache first = new ImpersonationCertificateCache(root, keyGenerator, file);
+        X509Certificate original = first.getCertificate("www.example.com");
+        first.persist();
+        ImpersonationCertificateCache second = new ImpersonationCertificateCache(root, keyGenerator, file);
+        assertEquals("reloaded certificate", original, second.getCertificate("www.example.com"));
+        assertEquals("key pair generations", 1, keyGenerator.count.get());
+        ImpersonationCertificateCache otherRoot = new ImpersonationCertificateCache(createRoot(), keyGenerator, file);
+        assertNotEquals("certificate signed by other root", original, otherRoot.getCertificate("www.example.com"));
+        assertEquals("key pair generations with other root", 2, keyGenerator.count.get());
+    }
+
+    @Test
+    public void persist_retriedAfterFailure() throws Exception {
+        CertificateAndKeySource root = createRoot();
+        Path file = temporaryFolder.getRoot().toPath().resolve("certificates");
+        // a non-empty directory in place of the file makes the write fail
+        Files.createDirectories(file.resolve("blocker"));
+        ImpersonationCertificateCache cache = new ImpersonationCertificateCache(root, new ECKeyGenerator(), file);
+        X509Certificate original = cache.getCertificate("www.example.com");
+        try {
+            cache.persist();
+            fail("persist should fail");
+        } catch (IOException expected) {
+        }
+        Files.delete(file.resolve("blocker"));
+        Files.delete(file);
+        cache.persist();
+        assertTrue("file written", Files.isRegularFile(file));
+        ImpersonationCertificateCache reloaded = new ImpersonationCertificateCache(root, new ECKeyGenerator(), file);
+        assertEquals("reloaded certificate", original, reloaded.getCertificate("www.example.com"));
+    }
+
+    private static CertificateAndKeySource createRoot() throws Exception {
+        return KeystoreGenerator.createJreEcGenerator(KeystoreType.PKCS12).generate("Test Root").asCertificateAndKeySource();
+    }
+
+    private static class CountingKeyGenerator implements KeyGenerator {
+
+        public final AtomicInteger count = new AtomicInteger();
+        private final KeyGenerator delegate = new ECKeyGenerator();
+
+        @Override
+        public KeyPair generate() {
+            count.incrementAndGet();
+            return delegate.generate();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.io.CharStreams;
+import com.google.common.net.HostAndPort;
+import io.netty.channel.EventLoopGroup;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.*;
+
+public class NettyTlsEndpointFactoryTest {
+
+    @Test
+    public void handshakeAndRespond() throws Exception {
+        KeystoreData keystoreData = BmpTests.generateKeystoreForUnitTest("localhost");
+        EventLoopGroup eventLoopGroup = NettyTlsEndpointFactory.createEventLoopGroup(1);
+        try {
+            handshakeAndRespond(keystoreData, NettyTlsEndpointFactory.create(keystoreData, null, eventLoopGroup));
+        } finally {
+            eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).awaitUninterruptibly();
+        }
+    }
+
+    @Test
+    public void close_closesEndpoints() throws Exception {
+        KeystoreData keystoreData = BmpTests.generateKeystoreForUnitTest("localhost");
+        EventLoopGroup eventLoopGroup = NettyTlsEndpointFactory.createEventLoopGroup(1);
+        try {
+            NettyTlsEndpointFactory factory = NettyTlsEndpointFactory.create(keystoreData, null, eventLoopGroup);
+            BrowsermobVhsConfig config = BrowsermobVhsConfig.builder(new UnsupportedResponseManufacturer()).build();
+            TlsEndpoint endpoint = factory.produce(config, FileUtils.getTempDirectory().toPath());
+            HostAndPort address = endpoint.getSocketAddress();
+            factory.close();
+            try (Socket ignore = new Socket(address.getHost(), address.getPort())) {
+                fail("endpoint still accepting connections at " + address);
+            } catch (ConnectException expected) {
+            }
+            try {
+                factory.produce(config, FileUtils.getTempDirectory().toPath());
+                fail("endpoint produced by closed factory");
+            } catch (IOException expected) {
+            }
+        } finally {
+            eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).awaitUninterruptibly();
+        }
+    }
+
+    private static class UnsupportedResponseManufacturer implements BmpResponseManufacturer<Object> {
+        @Override
+        public ResponseCapture manufacture(Object state, RequestCapture capture) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object createFreshState() {
+            return new Object();
+        }
+    }
+
+    private static void handshakeAndRespond(KeystoreData keystoreData, NettyTlsEndpointFactory factory) throws Exception {
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keystoreData.loadKeystore());
+        clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        BrowsermobVhsConfig config = BrowsermobVhsConfig.builder(new UnsupportedResponseManufacturer()).build();
+        try (TlsEndpoint endpoint = factory.produce(config, FileUtils.getTempDirectory().toPath())) {
+            HostAndPort address = endpoint.getSocketAddress();
+            byte[] firstSessionId = null;
+            for (int i = 0; i < 2; i++) {
+                try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket(address.getHost(), address.getPort())) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(US_ASCII));
+                    out.flush();
+                    String response;
+                    try (Reader reader = new InputStreamReader(socket.getInputStream(), US_ASCII)) {
+                        response = CharStreams.toString(reader);
+                    }
+                    assertTrue("status line: " + response, response.startsWith("HTTP/1.1 404 Not Found"));
+                    byte[] sessionId = socket.getSession().getId();
+                    if (firstSessionId == null) {
+                        firstSessionId = sessionId;
+                    } else {
+                        assertArrayEquals("resumed session", firstSessionId, sessionId);
+                    }
+                }
+            }
+        }
+    }
+}
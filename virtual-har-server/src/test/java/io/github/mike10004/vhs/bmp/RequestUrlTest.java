@@ -0,0 +1,63 @@
+package io.github.mike10004.vhs.bmp;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RequestUrlTest {
+
+    @Test
+    public void parse() {
+        RequestUrl url = RequestUrl.parse("https://www.example.com:8443/foo/b%20r?x=1&y=%2F#frag");
+        assertEquals("scheme", "https", url.scheme);
+        assertEquals("host", "www.example.com", url.host);
+        assertEquals("port", 8443, url.port);
+        assertEquals("path", "/foo/b%20r", url.rawPath);
+        assertEquals("query", "x=1&y=%2F", url.rawQuery);
+        assertEquals("string", "https://www.example.com:8443/foo/b%20r?x=1&y=%2F", url.toString());
+    }
+
+    @Test
+    public void parse_noPathOrQuery() {
+        RequestUrl url = RequestUrl.parse("http://localhost");
+        assertEquals("host", "localhost", url.host);
+        assertEquals("port", -1, url.port);
+        assertEquals("path", "", url.rawPath);
+        assertNull("query", url.rawQuery);
+        assertEquals("empty query", "", RequestUrl.parse("http://localhost/?").rawQuery);
+        assertNull("query in fragment", RequestUrl.parse("http://localhost/#a?b").rawQuery);
+    }
+
+    @Test
+    public void parse_ipv6() {
+        RequestUrl url = RequestUrl.parse("http://[::1]:8080/foo");
+        assertEquals("host", "[::1]", url.host);
+        assertEquals("port", 8080, url.port);
+        assertEquals("no port", -1, RequestUrl.parse("http://[::1]/foo").port);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_relative() {
+        RequestUrl.parse("/foo?bar=baz");
+    }
+
+    @Test
+    public void withHost() {
+        RequestUrl url = RequestUrl.parse("https://localhost:36591/foo?bar");
+        assertEquals("https://www.example.com/foo?bar", url.withHost("www.example.com").toString());
+        assertEquals("https://www.example.com:5688/foo?bar", url.withHost("www.example.com:5688").toString());
+        assertEquals("https://www.example.com/foo?bar", url.withHost("www.example.com:443").toString());
+    }
+
+    @Test
+    public void toUri() {
+        RequestUrl url = RequestUrl.parse("https://www.example.com/foo?bar=baz");
+        URI uri = url.toUri();
+        assertEquals(URI.create("https://www.example.com/foo?bar=baz"), uri);
+        assertSame("memoized", uri, url.toUri());
+    }
+}
@@ -19,6 +19,10 @@ import io.netty.util.AttributeKey;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.easymock.EasyMock;
 import org.junit.Rule;
@@ -34,8 +38,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -143,7 +149,7 @@ public class ResponseManufacturingFilterTest {
             boolean https = "https".equalsIgnoreCase(URI.create(fullUrl).getScheme());
             HttpRequest mockRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "");
             ResponseManufacturingFilter filter = new ResponseManufacturingFilter(mockRequest, createChannelHandlerContext(https), EasyMock.createMock(BmpResponseManufacturer.WithState.class), EasyMock.createMock(BmpResponseListener.class));
-            String actual = filter.reconstructUrlFromFullUrlAndHostHeader(fullUrl, hostHeader);
+            String actual = filter.reconstructUrlFromFullUrlAndHostHeader(fullUrl, hostHeader).toString();
             String msg = String.format("%s reconstructed from %s and Host: %s", actual, fullUrl, hostHeader);
             if (!Objects.equals(expected, actual)) {
                 failures.add(String.format("FAIL: %s (expected %s)", msg, expected));
@@ -157,13 +163,65 @@ public class ResponseManufacturingFilterTest {
 
     @Test
     public void captureRequest_https() throws Exception {
-        ImmutableHttpResponse alwaysResponse = ImmutableHttpResponse.builder(201)
-                .content(MediaType.PLAIN_TEXT_UTF_8, CharSource.wrap("not a real server").asByteSource(StandardCharsets.UTF_8))
-                .build();
+        URI requestUri = URI.create("https://www.example.com/foo");
+        ParsedRequest parsedRequest = captureRequestThroughServer(new HttpGet(requestUri));
+        assertEquals("parsed request uri", requestUri, parsedRequest.url);
+    }
+
+    @Test
+    public void captureRequest_postBody() throws Exception {
+        URI requestUri = URI.create("https://www.example.com/foo?bar=baz");
+        HttpPost request = new HttpPost(requestUri);
+        byte[] bodyBytes = new byte[64 * 1024];
+        new Random(getClass().getName().hashCode()).nextBytes(bodyBytes);
+        request.setEntity(new ByteArrayEntity(bodyBytes, ContentType.APPLICATION_OCTET_STREAM));
+        ParsedRequest parsedRequest = captureRequestThroughServer(request, bodyBytes.length);
+        assertEquals("parsed request uri", requestUri, parsedRequest.url);
+        assertEquals("method", "POST", parsedRequest.method.name());
+        byte[] actualBody;
+        try (InputStream bodyIn = parsedRequest.openBodyStream()) {
+            actualBody = ByteStreams.toByteArray(bodyIn);
+        }
+        assertArrayEquals("body", bodyBytes, actualBody);
+    }
+
+    @Test
+    public void captureRequest_postBodyOverLimit() throws Exception {
+        HttpPost request = new HttpPost(URI.create("https://www.example.com/foo"));
+        byte[] bodyBytes = new byte[64 * 1024];
+        request.setEntity(new ByteArrayEntity(bodyBytes, ContentType.APPLICATION_OCTET_STREAM));
+        List<RequestCapture> requests = Collections.synchronizedList(new ArrayList<>());
+        try {
+            StatusLine responseStatus = exchangeThroughServer(request, bodyBytes.length / 2, requests);
+            assertEquals("response status", 413, responseStatus.getStatusCode());
+        } catch (IOException e) {
+            // the proxy may reject the request by closing the connection while the body is still being sent
+            System.out.format("request rejected: %s%n", e);
+        }
+        assertEquals("num requests parsed", 0, requests.size());
+    }
+
+    private ParsedRequest captureRequestThroughServer(HttpUriRequest request) throws Exception {
+        return captureRequestThroughServer(request, 0);
+    }
+
+    private ParsedRequest captureRequestThroughServer(HttpUriRequest request, int maxRequestBufferSizeBytes) throws Exception {
+        List<RequestCapture> requests = Collections.synchronizedList(new ArrayList<>());
+        StatusLine responseStatus = exchangeThroughServer(request, maxRequestBufferSizeBytes, requests);
+        assertEquals("response status", ALWAYS_RESPONSE.status, responseStatus.getStatusCode());
+        assertEquals("num requests parsed", 1, requests.size());
+        return requests.iterator().next().request;
+    }
+
+    private static final ImmutableHttpResponse ALWAYS_RESPONSE = ImmutableHttpResponse.builder(201)
+            .content(MediaType.PLAIN_TEXT_UTF_8, CharSource.wrap("not a real server").asByteSource(StandardCharsets.UTF_8))
+            .build();
+
+    private StatusLine exchangeThroughServer(HttpUriRequest request, int maxRequestBufferSizeBytes, List<RequestCapture> requests) throws Exception {
         BmpResponseManufacturer responseManufacturer = new BmpResponseManufacturer<Object>() {
             @Override
             public ResponseCapture manufacture(Object state, RequestCapture capture) {
-                return ResponseCapture.matched(new BmpHttpAssistant().constructResponse(capture, alwaysResponse));
+                return ResponseCapture.matched(new BmpHttpAssistant().constructResponse(capture, ALWAYS_RESPONSE));
             }
 
             @Override
@@ -174,12 +232,12 @@ public class ResponseManufacturingFilterTest {
         BrowsermobVhsConfig vhsConfig = BrowsermobVhsConfig.builder(responseManufacturer)
                 .tlsEndpointFactory(NanohttpdTlsEndpointFactory.create(BmpTests.generateKeystoreForUnitTest("localhost"), null))
                 .scratchDirProvider(ScratchDirProvider.under(temporaryFolder.getRoot().toPath()))
+                .maxRequestBufferSizeBytes(maxRequestBufferSizeBytes)
                 .build();
-        List<RequestCapture> requests = Collections.synchronizedList(new ArrayList<>());
         BrowsermobVirtualHarServer server = new BrowsermobVirtualHarServer(vhsConfig) {
             @Override
             ResponseManufacturingFiltersSource createFirstFiltersSource(BmpResponseManufacturer.WithState<?> responseManufacturer, HostRewriter hostRewriter, BmpResponseListener bmpResponseListener, ResponseManufacturingFiltersSource.PassthruPredicate passthruPredicate) {
-                return new ResponseManufacturingFiltersSource(responseManufacturer, hostRewriter, bmpResponseListener, passthruPredicate) {
+                return new ResponseManufacturingFiltersSource(responseManufacturer, hostRewriter, bmpResponseListener, passthruPredicate, vhsConfig.maxRequestBufferSizeBytes) {
                     @Override
                     ResponseManufacturingFilter createResponseManufacturingFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, BmpResponseManufacturer.WithState<?> responseManufacturer, BmpResponseListener bmpResponseListener) {
                         return new ResponseManufacturingFilter(originalRequest, ctx, responseManufacturer, bmpResponseListener) {
@@ -194,20 +252,15 @@ public class ResponseManufacturingFilterTest {
                 };
             }
         };
-        URI requestUri = URI.create("https://www.example.com/foo");
         StatusLine responseStatus;
         try (VirtualHarServerControl ctrl = server.start()) {
             try (CloseableHttpClient client = VhsTests.buildBlindlyTrustingHttpClient(ctrl.getSocketAddress())) {
-                HttpGet request = new HttpGet(requestUri);
                 try (CloseableHttpResponse response = client.execute(request)) {
                     responseStatus = response.getStatusLine();
                 }
             }
         }
-        assertEquals("response status", alwaysResponse.status, responseStatus.getStatusCode());
-        assertEquals("num requests parsed", 1, requests.size());
-        ParsedRequest parsedRequest = requests.iterator().next().request;
-        assertEquals("parsed request uri", requestUri, parsedRequest.url);
+        return responseStatus;
     }
 
     @Test
@@ -0,0 +1,50 @@
+package io.github.mike10004.vhs.bmp;
+
+import com.google.common.net.HostAndPort;
+import io.netty.handler.codec.http.HttpRequest;
+import org.junit.Test;
+import org.littleshoot.proxy.MitmManager;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UpstreamTlsBypassingMitmManagerTest {
+
+    @Test
+    public void serverSslEngine() throws Exception {
+        List<String> delegated = new ArrayList<>();
+        SSLContext sslContext = SSLContext.getDefault();
+        MitmManager delegate = new MitmManager() {
+            @Override
+            public SSLEngine serverSslEngine(String peerHost, int peerPort) {
+                delegated.add(peerHost + ":" + peerPort);
+                return sslContext.createSSLEngine(peerHost, peerPort);
+            }
+
+            @Override
+            public SSLEngine serverSslEngine() {
+                delegated.add("unknown");
+                return sslContext.createSSLEngine();
+            }
+
+            @Override
+            public SSLEngine clientSslEngineFor(HttpRequest httpRequest, SSLSession serverSslSession) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        MitmManager manager = new UpstreamTlsBypassingMitmManager(delegate, HostAndPort.fromParts("localhost", 45678));
+        assertTrue("endpoint", manager.serverSslEngine("localhost", 45678) instanceof PassThroughSslEngine);
+        assertFalse("other port", manager.serverSslEngine("localhost", 443) instanceof PassThroughSslEngine);
+        assertFalse("remote host", manager.serverSslEngine("www.example.com", 45678) instanceof PassThroughSslEngine);
+        assertFalse("unknown peer", manager.serverSslEngine() instanceof PassThroughSslEngine);
+        assertEquals("delegated", Arrays.asList("localhost:443", "www.example.com:45678", "unknown"), delegated);
+    }
+}
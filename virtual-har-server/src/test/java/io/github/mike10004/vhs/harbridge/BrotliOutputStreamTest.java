@@ -0,0 +1,79 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+import org.brotli.dec.BrotliInputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BrotliOutputStreamTest {
+
+    private static byte[] compress(byte[] data, int quality) throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (OutputStream out = new BrotliOutputStream(sink, quality)) {
+            out.write(data);
+        }
+        return sink.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        try (InputStream in = new BrotliInputStream(new ByteArrayInputStream(compressed))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    private static void assertRoundTrip(byte[] data) throws IOException {
+        for (int quality : new int[]{0, 1, 5, 9, 11}) {
+            byte[] compressed = compress(data, quality);
+            assertArrayEquals("round trip at quality " + quality + " with length " + data.length, data, decompress(compressed));
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    public void singleByte() throws Exception {
+        assertRoundTrip(new byte[]{'x'});
+        assertRoundTrip(new byte[]{'x', 'x', 'x', 'x', 'x', 'x', 'x', 'x'});
+    }
+
+    @Test
+    public void text() throws Exception {
+        byte[] text = Resources.toByteArray(getClass().getResource("/loremipsum.txt"));
+        assertRoundTrip(text);
+        assertTrue("compressed", compress(text, 9).length < text.length / 2);
+    }
+
+    @Test
+    public void random() throws Exception {
+        Random random = new Random(1234);
+        for (int length : new int[]{1, 2, 3, 17, 300, 5000, 70000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    public void multipleMetaBlocks() throws Exception {
+        Random random = new Random(5678);
+        byte[] data = new byte[(1 << 20) * 2 + 12345];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(random.nextBoolean() ? 3 : 26));
+        }
+        byte[] compressed = compress(data, 5);
+        assertArrayEquals("round trip", data, decompress(compressed));
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.mike10004.vhs.harbridge;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EncodedVariantCacheTest {
+
+    @Test
+    public void variantsOfOneSource() throws Exception {
+        EncodedVariantCache cache = EncodedVariantCache.create();
+        Object source = new Object();
+        cache.put(source, "gzip", new byte[]{1});
+        assertArrayEquals("br", new byte[]{2}, cache.get(source, "br", () -> new byte[]{2}));
+        assertArrayEquals("gzip", new byte[]{1}, cache.get(source, "gzip", () -> {
+            throw new IOException("gzip variant should have been cached");
+        }));
+        assertTrue("br cached", cache.contains(source, "br"));
+        assertFalse("other source", cache.contains(new Object(), "gzip"));
+        assertEquals("sources", 1, cache.size());
+    }
+
+    @Test
+    public void keyedByIdentity() {
+        EncodedVariantCache cache = EncodedVariantCache.create();
+        cache.put("entry", "gzip", new byte[]{1});
+        assertFalse("equal source", cache.contains(new String("entry"), "gzip"));
+    }
+
+    @Test
+    public void releasedWithSource() throws Exception {
+        EncodedVariantCache cache = EncodedVariantCache.create();
+        cache.put(new Object(), "gzip", new byte[1024]);
+        for (int i = 0; i < 20 && cache.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertEquals("sources after collection", 0, cache.size());
+    }
+}
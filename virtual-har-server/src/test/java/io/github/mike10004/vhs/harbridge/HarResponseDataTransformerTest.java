@@ -64,4 +64,14 @@ public class HarResponseDataTransformerTest {
         assertEquals("c", "3", transformed.getFirstHeaderValue("c"));
         assertNull("b", transformed.getFirstHeaderValue("b"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void addVary() {
+        HarResponseData absent = HarResponseData.of(Collections.emptyList(), null, null);
+        assertEquals("added", "Accept-Encoding", absent.transformer().addVary("Accept-Encoding").transform().getFirstHeaderValue(HttpHeaders.VARY));
+        HarResponseData present = HarResponseData.of(ImmutableMap.of(HttpHeaders.VARY, "accept-encoding").entrySet(), null, null);
+        assertEquals("present", "accept-encoding", present.transformer().addVary("Accept-Encoding").transform().getFirstHeaderValue(HttpHeaders.VARY));
+        HarResponseData star = HarResponseData.of(ImmutableMap.of(HttpHeaders.VARY, "*").entrySet(), null, null);
+        assertEquals("star", "*", star.transformer().addVary("Accept-Encoding").transform().getFirstHeaderValue(HttpHeaders.VARY));
+    }
+}
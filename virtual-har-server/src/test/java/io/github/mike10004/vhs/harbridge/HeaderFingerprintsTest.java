@@ -0,0 +1,48 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.collect.ImmutableMultimap;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HeaderFingerprintsTest {
+
+    @Test
+    public void countSameValuedNames() {
+        HeaderFingerprints entry = HeaderFingerprints.of(ImmutableMultimap.<String, String>builder()
+                .put("accept", "*/*")
+                .put("cookie", "a=1")
+                .put("cookie", "b=2")
+                .put("referer", "http://example.com/")
+                .put("x-entry-only", "1")
+                .build().asMap());
+        HeaderFingerprints request = HeaderFingerprints.of(ImmutableMultimap.<String, String>builder()
+                .put("cookie", "b=2")
+                .put("cookie", "a=1")
+                .put("referer", "https://example.com/")
+                .put("accept", "text/html")
+                .put("x-request-only", "1")
+                .build().asMap());
+        // cookie values match as a multiset and referer matches regardless of scheme
+        assertEquals("same", 2, request.countSameValuedNames(entry));
+        assertEquals("symmetric", 2, entry.countSameValuedNames(request));
+    }
+
+    @Test
+    public void countSameValuedNames_multiplicity() {
+        HeaderFingerprints entry = HeaderFingerprints.of(ImmutableMultimap.of("x", "1", "x", "1").asMap());
+        assertEquals("fewer values", 0, HeaderFingerprints.of(ImmutableMultimap.of("x", "1").asMap()).countSameValuedNames(entry));
+        assertEquals("same values", 1, HeaderFingerprints.of(ImmutableMultimap.of("x", "1", "x", "1").asMap()).countSameValuedNames(entry));
+        assertEquals("other values", 0, HeaderFingerprints.of(ImmutableMultimap.of("x", "1", "x", "2").asMap()).countSameValuedNames(entry));
+    }
+
+    @Test
+    public void countSameValuedNames_empty() {
+        HeaderFingerprints empty = HeaderFingerprints.of(ImmutableMultimap.<String, String>of().asMap());
+        HeaderFingerprints some = HeaderFingerprints.of(ImmutableMultimap.of("a", "1", "b", "2", "c", "3").asMap());
+        assertEquals("size", 3, some.size());
+        assertEquals("empty vs some", 0, empty.countSameValuedNames(some));
+        assertEquals("some vs empty", 0, some.countSameValuedNames(empty));
+        assertEquals("some vs some", 3, some.countSameValuedNames(some));
+    }
+}
@@ -1,7 +1,16 @@
 package io.github.mike10004.vhs.harbridge;
 
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class LzwCompressorTest {
@@ -18,4 +27,47 @@ public class LzwCompressorTest {
         String actual = new String(decompressedBytes);
         assertEquals("string", data, actual);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void compress_codeFormat() throws Exception {
+        byte[] compressed = new LzwCompressor().compress("abab".getBytes());
+        assertArrayEquals("codes", new byte[]{0x00, 0x61, 0x00, 0x62, 0x01, 0x00}, compressed);
+    }
+
+    @Test
+    public void compressAndDecompress_empty() throws Exception {
+        byte[] compressed = new LzwCompressor().compress(new byte[0]);
+        assertEquals("compressed length", 0, compressed.length);
+        assertEquals("decompressed length", 0, new LzwCompressor().decompress(compressed).length);
+    }
+
+    @Test
+    public void compressAndDecompress_dictionaryReset() throws Exception {
+        // enough pseudo-random data over a small alphabet to fill the dictionary several times
+        Random random = new Random(0xC0FFEE);
+        byte[] data = new byte[1024 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        byte[] compressed = new LzwCompressor().compress(data);
+        assertArrayEquals("round trip", data, new LzwCompressor().decompress(compressed));
+    }
+
+    @Test
+    public void codecStreams() throws Exception {
+        byte[] data = ByteSource.wrap("The quick brown fox jumps over the lazy dog. ".getBytes()).concat(ByteSource.wrap("The lazy dog sleeps. ".getBytes())).read();
+        HttpContentCodec codec = HttpContentCodecs.getCodec(HttpContentCodecs.CONTENT_ENCODING_COMPRESS);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (OutputStream out = codec.openCompressionFilter(sink, data.length)) {
+            out.write(data, 0, 10);
+            out.write(data, 10, data.length - 10);
+        }
+        byte[] compressed = sink.toByteArray();
+        assertArrayEquals("stream and array compression agree", new LzwCompressor().compress(data), compressed);
+        byte[] decompressed;
+        try (InputStream in = codec.openDecompressingStream(new ByteArrayInputStream(compressed))) {
+            decompressed = ByteStreams.toByteArray(in);
+        }
+        assertArrayEquals("decompressed", data, decompressed);
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.mike10004.vhs.harbridge;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ParsedRequestTest {
+
+    @Test
+    public void accessors() {
+        ParsedRequest request = ParsedRequest.inMemory(HttpMethod.GET, URI.create("http://www.example.com/?foo=bar"), ImmutableMultimap.of("foo", Optional.of("bar")), ImmutableMultimap.of("accept", "*/*"), null);
+        assertEquals("query", ImmutableMultimap.of("foo", Optional.of("bar")), request.getQuery());
+        assertSame("headers", request.getIndexedHeaders(), request.getIndexedHeaders());
+        assertEquals("header", "*/*", request.getFirstHeaderValue("Accept"));
+    }
+
+    @Test
+    public void withUndecodedQuery() {
+        AtomicInteger decodings = new AtomicInteger();
+        ParsedRequest request = ParsedRequest.withUndecodedQuery(HttpMethod.GET, URI.create("http://www.example.com/?foo=bar"), () -> {
+            decodings.incrementAndGet();
+            return ImmutableMultimap.of("foo", Optional.of("bar"));
+        }, ImmutableMultimap.of(), null);
+        assertEquals("decodings before access", 0, decodings.get());
+        assertEquals("query", ImmutableMultimap.of("foo", Optional.of("bar")), request.getQuery());
+        assertSame("query", request.getQuery(), request.getQuery());
+        assertEquals("decodings after access", 1, decodings.get());
+    }
+
+    @Test
+    public void withUndecodedQuery_absent() {
+        ParsedRequest request = ParsedRequest.withUndecodedQuery(HttpMethod.GET, URI.create("http://www.example.com/"), () -> null, ImmutableMultimap.of(), null);
+        assertNull("query", request.getQuery());
+    }
+
+    @Test
+    public void inMemoryTakingOwnership() throws Exception {
+        byte[] body = {1, 2, 3};
+        ParsedRequest request = ParsedRequest.inMemoryTakingOwnership(HttpMethod.POST, URI.create("http://www.example.com/"), null, ImmutableMultimap.of(), body);
+        body[0] = 9;
+        try (InputStream in = request.openBodyStream()) {
+            assertEquals("first byte read from shared array", 9, in.read());
+        }
+    }
+
+    @Test
+    public void interned() {
+        Interner<String> interner = Interners.newWeakInterner();
+        URI url = URI.create("http://www.example.com/");
+        ParsedRequest first = ParsedRequest.interned(HttpMethod.GET, url, null, ImmutableMultimap.of("accept", "*/*", "accept-language", "en"), interner, null);
+        ParsedRequest second = ParsedRequest.interned(HttpMethod.GET, url, null, ImmutableMultimap.of(new String("accept"), new String("*/*")), interner, null);
+        assertEquals("header", "en", first.getFirstHeaderValue("Accept-Language"));
+        assertEquals("headers", ImmutableMultimap.of("accept", "*/*", "accept-language", "en"), first.getIndexedHeaders());
+        assertEquals("headers", ImmutableMultimap.of("accept", "*/*"), second.getIndexedHeaders());
+        assertSame("canonical name", first.getIndexedHeaders().keySet().iterator().next(), second.getIndexedHeaders().keySet().iterator().next());
+        assertSame("canonical value", first.getFirstHeaderValue("accept"), second.getFirstHeaderValue("accept"));
+        assertEquals("fingerprinted names", 2, first.getHeaderFingerprints().size());
+    }
+}
@@ -1,7 +1,9 @@
 package io.github.mike10004.vhs.harbridge;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteSource;
 import com.google.common.io.CharSource;
 import com.google.common.io.Resources;
 import com.google.common.net.HttpHeaders;
@@ -10,9 +12,14 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.junit.Test;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -90,4 +97,152 @@ public class WrappingResponseEncodingTest {
         test_canServeOriginalResponseContentEncoding(true, "identity", "gzip, deflate, br");
     }
 
+
+    private static String selectEncoding(String acceptEncoding) {
+        return WrappingResponseEncoding.selectEncoding(WrappingResponseEncoding.parseAcceptedEncodings(acceptEncoding));
+    }
+
+    @Test
+    public void selectEncoding() {
+        assertEquals("gzip", selectEncoding("gzip, deflate, br"));
+        assertEquals("gzip", selectEncoding("gzip"));
+        assertEquals("deflate", selectEncoding("deflate"));
+        assertEquals("deflate", selectEncoding("gzip;q=0.5, deflate"));
+        assertEquals("gzip", selectEncoding("*"));
+        assertNull(selectEncoding(null));
+        assertNull(selectEncoding(""));
+        assertNull(selectEncoding("br"));
+        assertNull(selectEncoding("gzip;q=0, deflate;q=0"));
+        assertNull(selectEncoding("identity, gzip;q=0.5"));
+    }
+
+    private static HarResponseData largeTextResponse(String text) {
+        Collection<Map.Entry<String, String>> headers = ImmutableMultimap.of(HttpHeaders.CONTENT_ENCODING, HttpContentCodecs.CONTENT_ENCODING_IDENTITY,
+                HttpHeaders.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8.toString()).entries();
+        return HarResponseData.of(headers, MediaType.PLAIN_TEXT_UTF_8, CharSource.wrap(text).asByteSource(UTF_8));
+    }
+
+    @Test
+    public void transformUnencoded_compressesLargeText() throws Exception {
+        String text = Strings.repeat("hello, world\n", 1000);
+        HarResponseData transformed = WrappingResponseEncoding.fromHeaderValues((String) null, "gzip, deflate").transformUnencoded(largeTextResponse(text));
+        List<String> encodingHeaderValues = transformed.headers().stream()
+                .filter(entry -> HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
+        assertEquals("encoding headers", ImmutableList.of(HttpContentCodecs.CONTENT_ENCODING_GZIP), encodingHeaderValues);
+        assertEquals("vary", HttpHeaders.ACCEPT_ENCODING, transformed.getFirstHeaderValue(HttpHeaders.VARY));
+        byte[] compressed = transformed.getBody().read();
+        assertTrue("compressed", compressed.length < text.length());
+        String decompressed = new String(HttpContentCodecs.getCodec(HttpContentCodecs.CONTENT_ENCODING_GZIP).decompress(compressed), UTF_8);
+        assertEquals("text", text, decompressed);
+    }
+
+    @Test
+    public void transformUnencoded_variantCached() throws Exception {
+        String text = Strings.repeat("hello, world\n", 1000);
+        EncodedVariantCache cache = EncodedVariantCache.create();
+        Object entry = new Object();
+        byte[] first = HarResponseEncoding.negotiated("deflate", cache, entry).transformUnencoded(largeTextResponse(text)).getBody().read();
+        HarResponseData unreadable = HarResponseData.of(largeTextResponse(text).headers(), MediaType.PLAIN_TEXT_UTF_8, new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                throw new IOException("variant should have been served from cache");
+            }
+
+            @Override
+            public long size() {
+                return text.length();
+            }
+        });
+        byte[] second = HarResponseEncoding.negotiated("deflate", cache, entry).transformUnencoded(unreadable).getBody().read();
+        assertArrayEquals("cached variant", first, second);
+    }
+
+    @Test
+    public void transformUnencoded_brotliOnlyIfPrecompressed() throws Exception {
+        String text = Strings.repeat("hello, world\n", 1000);
+        HarResponseData response = largeTextResponse(text);
+        EncodedVariantCache cache = EncodedVariantCache.create();
+        Object entry = new Object();
+        HarResponseData beforePrecompression = HarResponseEncoding.negotiated("br, gzip", cache, entry).transformUnencoded(response);
+        assertEquals("encoding before precompression", "gzip", beforePrecompression.getFirstHeaderValue(HttpHeaders.CONTENT_ENCODING));
+        int count = VariantPrecompressor.brotli(cache, HttpContentCodecs.BROTLI_QUALITY_MAX).precompress(ImmutableList.of(entry), new FixedResponseBridge(response));
+        assertEquals("precompressed count", 1, count);
+        HarResponseData afterPrecompression = HarResponseEncoding.negotiated("br, gzip", cache, entry).transformUnencoded(response);
+        assertEquals("encoding after precompression", "br", afterPrecompression.getFirstHeaderValue(HttpHeaders.CONTENT_ENCODING));
+        byte[] decompressed = HttpContentCodecs.getCodec("br").decompress(afterPrecompression.getBody().read());
+        assertEquals("decompressed", text, new String(decompressed, UTF_8));
+    }
+
+    private static class FixedResponseBridge implements HarBridge<Object> {
+
+        private final HarResponseData response;
+
+        private FixedResponseBridge(HarResponseData response) {
+            this.response = response;
+        }
+
+        @Override
+        public String getRequestMethod(Object entry) {
+            return "GET";
+        }
+
+        @Override
+        public String getRequestUrl(Object entry) {
+            return "http://www.example.com/";
+        }
+
+        @Override
+        public Stream<Map.Entry<String, String>> getRequestHeaders(Object entry) {
+            return Stream.empty();
+        }
+
+        @Nullable
+        @Override
+        public ByteSource getRequestPostData(Object entry) {
+            return null;
+        }
+
+        @Override
+        public int getResponseStatus(Object entry) {
+            return 200;
+        }
+
+        @Override
+        public HarResponseData getResponseData(ParsedRequest request, Object entry, HarResponseEncoding encoding) {
+            return encoding.transformUnencoded(response);
+        }
+    }
+
+    @Test
+    public void transformUnencoded_binaryNotCompressed() throws Exception {
+        byte[] bytes = new byte[4096];
+        HarResponseData original = HarResponseData.of(ImmutableList.of(), MediaType.PNG, ByteSource.wrap(bytes));
+        HarResponseData transformed = WrappingResponseEncoding.fromHeaderValues((String) null, "gzip").transformUnencoded(original);
+        assertNull("encoding", transformed.getFirstHeaderValue(HttpHeaders.CONTENT_ENCODING));
+        assertNull("vary", transformed.getFirstHeaderValue(HttpHeaders.VARY));
+        assertArrayEquals("body", bytes, transformed.getBody().read());
+    }
+
+    @Test
+    public void transformUnencoded_varyWhenNotAccepted() throws Exception {
+        String text = Strings.repeat("hello, world\n", 1000);
+        HarResponseData transformed = WrappingResponseEncoding.fromHeaderValues((String) null, null).transformUnencoded(largeTextResponse(text));
+        assertEquals("encoding", HttpContentCodecs.CONTENT_ENCODING_IDENTITY, transformed.getFirstHeaderValue(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("vary", HttpHeaders.ACCEPT_ENCODING, transformed.getFirstHeaderValue(HttpHeaders.VARY));
+    }
+
+    @Test
+    public void transformUnencoded_varyMerged() throws Exception {
+        String text = Strings.repeat("hello, world\n", 1000);
+        HarResponseData original = HarResponseData.of(ImmutableMultimap.of(HttpHeaders.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8.toString(),
+                HttpHeaders.VARY, "Origin", HttpHeaders.VARY, "accept-encoding, Cookie").entries(), MediaType.PLAIN_TEXT_UTF_8, CharSource.wrap(text).asByteSource(UTF_8));
+        HarResponseData transformed = WrappingResponseEncoding.fromHeaderValues((String) null, "gzip").transformUnencoded(original);
+        List<String> varyHeaderValues = transformed.headers().stream()
+                .filter(entry -> HttpHeaders.VARY.equalsIgnoreCase(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
+        assertEquals("vary", ImmutableList.of("Origin, accept-encoding, Cookie"), varyHeaderValues);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package io.github.mike10004.vhs.harbridge.archive;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.io.ByteSource;
+import de.sstoehr.harreader.HarReader;
+import de.sstoehr.harreader.model.HarEntry;
+import io.github.mike10004.vhs.harbridge.HarBridge;
+import io.github.mike10004.vhs.harbridge.HarResponseData;
+import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
+import io.github.mike10004.vhs.harbridge.HttpMethod;
+import io.github.mike10004.vhs.harbridge.ParsedRequest;
+import io.github.mike10004.vhs.harbridge.sstoehr.SstoehrHarBridge;
+import io.github.mike10004.vhs.testsupport.VhsTests;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayArchiveTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip_compressed() throws Exception {
+        testRoundTrip(true, null);
+    }
+
+    @Test
+    public void roundTrip_uncompressed() throws Exception {
+        testRoundTrip(false, null);
+    }
+
+    /**
+     * Maps the blob section in chunks small enough that bodies cross chunk boundaries.
+     */
+    @Test
+    public void roundTrip_chunked() throws Exception {
+        testRoundTrip(false, 100L);
+    }
+
+    private void testRoundTrip(boolean compress, @Nullable Long chunkSize) throws Exception {
+        File harFile = VhsTests.getReplayTest1HarFile(temporaryFolder.getRoot().toPath());
+        List<HarEntry> harEntries = new HarReader().readFromFile(harFile).getLog().getEntries();
+        HarBridge<HarEntry> harBridge = new SstoehrHarBridge();
+        File archiveFile = temporaryFolder.newFile("replay.vhsa");
+        ReplayArchive.compile(harEntries, harBridge, archiveFile, compress);
+        assertFalse("har is not archive", ReplayArchive.isArchive(harFile));
+        assertTrue("archive detected", ReplayArchive.isArchive(archiveFile));
+        List<ArchivedEntry> archivedEntries = (chunkSize == null ? ReplayArchive.open(archiveFile) : ReplayArchive.open(archiveFile, chunkSize)).getEntries();
+        assertEquals("num entries", harEntries.size(), archivedEntries.size());
+        ArchiveHarBridge archiveBridge = new ArchiveHarBridge();
+        ParsedRequest request = ParsedRequest.inMemory(HttpMethod.GET, URI.create("http://www.example.com/"), null, ImmutableMultimap.of(), null);
+        for (int i = 0; i < harEntries.size(); i++) {
+            HarEntry harEntry = harEntries.get(i);
+            ArchivedEntry archivedEntry = archivedEntries.get(i);
+            assertEquals("method", harBridge.getRequestMethod(harEntry), archiveBridge.getRequestMethod(archivedEntry));
+            assertEquals("url", harBridge.getRequestUrl(harEntry), archiveBridge.getRequestUrl(archivedEntry));
+            assertEquals("status", harBridge.getResponseStatus(harEntry), archiveBridge.getResponseStatus(archivedEntry));
+            assertEquals("request headers", harBridge.getRequestHeaders(harEntry).collect(Collectors.toList()),
+                    archiveBridge.getRequestHeaders(archivedEntry).collect(Collectors.toList()));
+            assertArrayEquals("request body", readOrNull(harBridge.getRequestPostData(harEntry)), readOrNull(archiveBridge.getRequestPostData(archivedEntry)));
+            HarResponseData expected = harBridge.getResponseData(request, harEntry, HarResponseEncoding.unencoded());
+            HarResponseData actual = archiveBridge.getResponseData(request, archivedEntry, HarResponseEncoding.unencoded());
+            assertEquals("content type", expected.getContentType(), actual.getContentType());
+            assertEquals("response headers", expected.headers(), actual.headers());
+            assertArrayEquals("response body", expected.getBody().read(), actual.getBody().read());
+        }
+    }
+
+    private static byte[] readOrNull(ByteSource source) throws IOException {
+        return source == null ? null : source.read();
+    }
+
+    @Test
+    public void compile_replacesDestinationWithoutTemporaryFiles() throws Exception {
+        File harFile = VhsTests.getReplayTest1HarFile(temporaryFolder.getRoot().toPath());
+        List<HarEntry> harEntries = new HarReader().readFromFile(harFile).getLog().getEntries();
+        File archiveDir = temporaryFolder.newFolder();
+        File archiveFile = new File(archiveDir, "replay.vhsa");
+        Files.write(archiveFile.toPath(), "stale".getBytes(StandardCharsets.UTF_8));
+        ReplayArchive.compile(harEntries, new SstoehrHarBridge(), archiveFile, true);
+        assertEquals("files in archive dir", Collections.singletonList(archiveFile), Arrays.asList(archiveDir.listFiles()));
+        assertEquals("num entries", harEntries.size(), ReplayArchive.open(archiveFile).getEntries().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void open_notArchive() throws Exception {
+        File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), "{\"log\":{}}".getBytes(StandardCharsets.UTF_8));
+        ReplayArchive.open(file);
+    }
+}
@@ -19,6 +19,7 @@ import de.sstoehr.harreader.model.HttpMethod;
 import io.github.mike10004.vhs.harbridge.HarBridge;
 import io.github.mike10004.vhs.harbridge.HarResponseData;
 import io.github.mike10004.vhs.harbridge.HarResponseEncoding;
+import io.github.mike10004.vhs.harbridge.HttpContentCodecs;
 import io.github.mike10004.vhs.harbridge.ParsedRequest;
 import io.github.mike10004.vhs.harbridge.TypedContent;
 import org.apache.http.HttpEntity;
@@ -294,4 +295,39 @@ public class SstoehrHarBridgeTest {
         assertEquals("post data bytes", BaseEncoding.base16().encode(expected), BaseEncoding.base16().encode(byteSource.read()));
 
     }
+
+    private static HarEntry createGzippedBase64HarEntry(String text) throws IOException {
+        byte[] compressed = HttpContentCodecs.getCodec(HttpContentCodecs.CONTENT_ENCODING_GZIP).compress(text.getBytes(UTF_8));
+        HarEntry entry = createHarEntry(URI.create("https://www.example.com/"), MediaType.PLAIN_TEXT_UTF_8, BaseEncoding.base64().encode(compressed), compressed.length);
+        entry.getResponse().getContent().setEncoding("base64");
+        HarHeader contentEncodingHeader = new HarHeader();
+        contentEncodingHeader.setName(HttpHeaders.CONTENT_ENCODING);
+        contentEncodingHeader.setValue(HttpContentCodecs.CONTENT_ENCODING_GZIP);
+        entry.getResponse().getHeaders().add(contentEncodingHeader);
+        return entry;
+    }
+
+    @Test
+    public void getResponseData_passThroughOriginalEncoding() throws Exception {
+        String text = "hello, world";
+        HarEntry entry = createGzippedBase64HarEntry(text);
+        byte[] compressed = BaseEncoding.base64().decode(entry.getResponse().getContent().getText());
+        ParsedRequest request = ParsedRequest.inMemory(io.github.mike10004.vhs.harbridge.HttpMethod.GET, URI.create("https://www.example.com/"), null, ImmutableMultimap.of(), null);
+        HarResponseEncoding encoding = HarResponseEncoding.useEncoding(HttpContentCodecs.CONTENT_ENCODING_GZIP, "gzip, deflate");
+        HarResponseData responseData = bridge.getResponseData(request, entry, encoding);
+        assertEquals("content-encoding", HttpContentCodecs.CONTENT_ENCODING_GZIP, responseData.getFirstHeaderValue(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("body size", compressed.length, responseData.getBody().size());
+        assertEquals("body", BaseEncoding.base16().encode(compressed), BaseEncoding.base16().encode(responseData.getBody().read()));
+    }
+
+    @Test
+    public void getResponseData_originalEncodingNotAccepted() throws Exception {
+        String text = "hello, world";
+        HarEntry entry = createGzippedBase64HarEntry(text);
+        ParsedRequest request = ParsedRequest.inMemory(io.github.mike10004.vhs.harbridge.HttpMethod.GET, URI.create("https://www.example.com/"), null, ImmutableMultimap.of(), null);
+        HarResponseEncoding encoding = HarResponseEncoding.useEncoding(HttpContentCodecs.CONTENT_ENCODING_GZIP, "deflate");
+        HarResponseData responseData = bridge.getResponseData(request, entry, encoding);
+        assertEquals("content-encoding", HttpContentCodecs.CONTENT_ENCODING_IDENTITY, responseData.getFirstHeaderValue(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("body", text, responseData.getBody().asCharSource(UTF_8).read());
+    }
 }
\ No newline at end of file